@@ -1,28 +1,37 @@
 package client.core;
 
+import common.protocol.FrameCodec;
 import common.protocol.Message;
+import common.protocol.MessageCodec;
 import common.protocol.MessageType;
+import common.protocol.ProtocolConstants;
 import java.io.*;
+import java.net.InetAddress;
 import java.net.Socket;
 
 public class ChatClient {
     private Socket socket;
-    private ObjectInputStream in;
-    private ObjectOutputStream out;
+    private DataInputStream in;
+    private DataOutputStream out;
     private String username;
     private volatile boolean connected;
     
+    // Java serialization cho handshake, sau đó là codec server đã chọn
+    private volatile MessageCodec codec = FrameCodec.JAVA;
+    
     public ChatClient(String host, int port, String username) throws Exception {
         this.username = username;
         this.socket = new Socket(host, port);
         
-        // Setup streams (output first!)
-        this.out = new ObjectOutputStream(socket.getOutputStream());
-        out.flush();
-        this.in = new ObjectInputStream(socket.getInputStream());
+        // Setup streams - length-prefixed frames (xem FrameCodec)
+        this.out = new DataOutputStream(new BufferedOutputStream(
+                socket.getOutputStream(), ProtocolConstants.BUFFER_SIZE));
+        this.in = new DataInputStream(new BufferedInputStream(
+                socket.getInputStream(), ProtocolConstants.BUFFER_SIZE));
         
-        // Send CONNECT message
+        // Send CONNECT message - offer supported codecs
         Message connect = new Message(MessageType.CONNECT, username, "");
+        connect.putMetadata(FrameCodec.META_CODECS, FrameCodec.SUPPORTED_CODECS);
         send(connect);
         
         // Wait for ACCEPT/REJECT
@@ -31,16 +40,19 @@ public class ChatClient {
             throw new IOException("Connection rejected: " + response.getContent());
         }
         
+        // Switch to negotiated codec (absent = legacy server, keep Java serialization)
+        codec = FrameCodec.forName((String) response.getMetadata(FrameCodec.META_CODEC));
+        
         connected = true;
     }
     
     public synchronized void send(Message msg) throws IOException {
-        out.writeObject(msg);
+        FrameCodec.writeFrame(out, codec.encode(msg));
         out.flush();
     }
     
     public Message receive() throws Exception {
-        return (Message) in.readObject();
+        return FrameCodec.readMessage(in, codec);
     }
     
     public void disconnect() {
@@ -62,4 +74,15 @@ public class ChatClient {
     public String getUsername() {
         return username;
     }
+    
+    /**
+     * Server đang kết nối - file relay chạy trên cùng host
+     */
+    public InetAddress getServerAddress() {
+        return socket.getInetAddress();
+    }
+    
+    public String getCodecName() {
+        return codec.getName();
+    }
 }
@@ -3,15 +3,28 @@ package client.grpc;
 import common.grpc.*;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
 
 import java.net.InetAddress;
 import java.util.Scanner;
 import java.util.concurrent.TimeUnit;
-
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SimpleGrpcClient - Console client trên bidirectional Chat stream
+ *
+ * Sau Authenticate, mọi event (chat, PM, typing, ping) đi trên một Chat
+ * call duy nhất - không có unary round-trip cho mỗi message. Server trả
+ * messages, acks, typing updates và pongs trên cùng stream.
+ */
 public class SimpleGrpcClient {
 
     private final ManagedChannel channel;
     private final ChatServiceGrpc.ChatServiceBlockingStub blockingStub;
+    private final ChatServiceGrpc.ChatServiceStub asyncStub;
+    private final AtomicLong nextEventId = new AtomicLong();
+    private StreamObserver<ClientEvent> events;   // Chat call - StreamObserver không thread-safe, chỉ main thread gửi
     private String username;
 
     public SimpleGrpcClient(String host, int port) {
@@ -36,6 +49,7 @@ public class SimpleGrpcClient {
             System.out.println("[CLIENT] Channel created successfully");
 
             this.blockingStub = ChatServiceGrpc.newBlockingStub(channel);
+            this.asyncStub = ChatServiceGrpc.newStub(channel);
 
         } catch (Exception e) {
             System.err.println("[CLIENT ERROR] Failed to create channel: " + e.getMessage());
@@ -45,6 +59,10 @@ public class SimpleGrpcClient {
     }
 
     public void shutdown() throws InterruptedException {
+        if (events != null) {
+            events.onCompleted();
+            events = null;
+        }
         if (channel != null && !channel.isShutdown()) {
             channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
         }
@@ -146,27 +164,82 @@ public class SimpleGrpcClient {
         }
     }
 
-    public void sendMessage(String content) {
-        try {
-            ChatMessage message = ChatMessage.newBuilder()
-                    .setSender(username)
-                    .setContent(content)
-                    .setTimestamp(System.currentTimeMillis())
-                    .setType(MessageType.BROADCAST)
-                    .build();
+    /**
+     * Mở Chat stream và join - server events được in trên gRPC thread
+     */
+    public void joinChat() {
+        events = asyncStub.chat(new StreamObserver<ServerEvent>() {
+            @Override
+            public void onNext(ServerEvent event) {
+                handleServerEvent(event);
+            }
 
-            MessageResponse response = blockingStub.sendMessage(message);
+            @Override
+            public void onError(Throwable t) {
+                System.err.println("\n❌ Chat stream closed: " + Status.fromThrowable(t));
+            }
 
-            if (response.getSuccess()) {
-                System.out.println("  ✓ Sent");
-            } else {
-                System.err.println("  ✗ Failed: " + response.getMessage());
+            @Override
+            public void onCompleted() {
+                System.out.println("\n[CLIENT] Chat stream completed");
             }
-        } catch (Exception e) {
-            System.err.println("  ✗ Error: " + e.getMessage());
+        });
+        send(ClientEvent.newBuilder().setJoin(JoinEvent.newBuilder().setUsername(username)));
+    }
+
+    private void handleServerEvent(ServerEvent event) {
+        switch (event.getEventCase()) {
+            case MESSAGE:
+                ChatMessage msg = event.getMessage();
+                if (msg.getType() == MessageType.SYSTEM) {
+                    System.out.println("\n  ℹ " + msg.getContent());
+                } else if (!msg.getSender().equals(username)) {
+                    System.out.println("\n  " + msg.getSender() + ": " + msg.getContent());
+                }
+                break;
+            case ACK:
+                Ack ack = event.getAck();
+                if (ack.getSuccess()) {
+                    System.out.println("  ✓ " + (ack.getId() == 0 ? ack.getMessage() : "#" + ack.getId()));
+                } else {
+                    System.err.println("  ✗ #" + ack.getId() + " " + ack.getMessage());
+                }
+                break;
+            case TYPING:
+                if (event.getTyping().getUsersCount() > 0) {
+                    System.out.println("\n  ✎ " + String.join(", ", event.getTyping().getUsersList()) + " typing...");
+                }
+                break;
+            case PONG:
+                System.out.println("  ⟲ RTT " + (System.currentTimeMillis() - event.getPong().getTimestamp()) + " ms");
+                break;
+            default:
+                break;
         }
     }
 
+    /**
+     * Gửi một event với id mới - Ack mang lại id này
+     */
+    private long send(ClientEvent.Builder event) {
+        long id = nextEventId.incrementAndGet();
+        events.onNext(event.setId(id).build());
+        return id;
+    }
+
+    public void sendMessage(String content) {
+        send(ClientEvent.newBuilder().setChat(ChatEvent.newBuilder().setContent(content)));
+    }
+
+    public void sendPrivateMessage(String receiver, String content) {
+        send(ClientEvent.newBuilder().setPrivateMessage(
+                PrivateEvent.newBuilder().setReceiver(receiver).setContent(content)));
+    }
+
+    public void ping() {
+        send(ClientEvent.newBuilder().setPing(PingEvent.newBuilder().setTimestamp(System.currentTimeMillis())));
+    }
+
     public void getOnlineUsers() {
         try {
             Empty request = Empty.newBuilder().build();
@@ -216,9 +289,13 @@ public class SimpleGrpcClient {
                     return;
                 }
 
+                client.joinChat();
+
                 // Connected!
                 System.out.println("📡 Connected! Commands:");
                 System.out.println("  /users - List online users");
+                System.out.println("  /pm <user> <text> - Private message");
+                System.out.println("  /ping  - Measure round-trip time");
                 System.out.println("  /quit  - Exit");
                 System.out.println("  <text> - Send message\n");
 
@@ -235,9 +312,20 @@ public class SimpleGrpcClient {
                         break;
                     } else if (input.equalsIgnoreCase("/users") || input.equalsIgnoreCase("/u")) {
                         client.getOnlineUsers();
+                    } else if (input.startsWith("/pm ")) {
+                        String[] parts = input.substring(4).trim().split("\\s+", 2);
+                        if (parts.length < 2) {
+                            System.out.println("Usage: /pm <user> <text>");
+                        } else {
+                            client.sendPrivateMessage(parts[0], parts[1]);
+                        }
+                    } else if (input.equalsIgnoreCase("/ping")) {
+                        client.ping();
                     } else if (input.equalsIgnoreCase("/help") || input.equalsIgnoreCase("/h")) {
                         System.out.println("\nCommands:");
                         System.out.println("  /users - List online users");
+                        System.out.println("  /pm <user> <text> - Private message");
+                        System.out.println("  /ping  - Measure round-trip time");
                         System.out.println("  /quit  - Exit");
                         System.out.println("  /help  - Show this help\n");
                     } else {
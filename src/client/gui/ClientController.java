@@ -2,6 +2,7 @@ package client.gui;
 
 import client.core.ChatClient;
 import client.core.NetworkListener;
+import client.service.FileReceiver;
 import client.service.FileSender;
 import common.protocol.Message;
 import common.protocol.MessageType;
@@ -15,6 +16,12 @@ public class ClientController implements NetworkListener.MessageCallback {
     private NetworkListener listener;
     private Thread listenerThread;
     private FileSender fileSender;
+    private FileReceiver fileReceiver;
+
+    // Versioned presence - xem updateUserList
+    private static final String PRESENCE_VERSION = "presenceVersion";
+    private long presenceVersion = -1;
+    private boolean presenceSyncPending;
 
     public void start() {
         // Show login dialog
@@ -53,8 +60,9 @@ public class ClientController implements NetworkListener.MessageCallback {
             listenerThread = new Thread(listener);
             listenerThread.start();
 
-            // Initialize FileSender
+            // Initialize file transfer
             fileSender = new FileSender(client);
+            fileReceiver = new FileReceiver(client);
 
             frame.appendMessage("=== Connected to server ===");
 
@@ -82,6 +90,14 @@ public class ClientController implements NetworkListener.MessageCallback {
                     client.send(msg);
                     frame.appendMessage("[PM to " + parts[1] + "] " + parts[2]);
                 }
+            } else if (text.startsWith("/room ")) {
+                String[] parts = text.split(" ", 3);
+                if (parts.length >= 3) {
+                    Message msg = new Message(MessageType.CHAT,
+                            client.getUsername(), parts[2]);
+                    msg.setRoom(parts[1]);
+                    client.send(msg);
+                }
             } else if (text.startsWith("/")) {
                 Message msg = new Message(MessageType.COMMAND,
                         client.getUsername(), text);
@@ -110,6 +126,8 @@ public class ClientController implements NetworkListener.MessageCallback {
             new Thread(() -> {
                 try {
                     fileSender.sendFile(file, selectedUser);
+                    SwingUtilities.invokeLater(() -> frame.appendMessage(
+                            "*** Sent " + file.getName() + " to " + selectedUser + " ***"));
                 } catch (Exception e) {
                     SwingUtilities.invokeLater(() -> {
                         frame.appendMessage("File transfer failed: " + e.getMessage());
@@ -132,7 +150,11 @@ public class ClientController implements NetworkListener.MessageCallback {
         // Handle all MessageType enum values - NO WARNINGS!
         switch (msg.getType()) {
             case CHAT:
-                frame.appendMessage("[" + msg.getSender() + "] " + msg.getContent());
+                if (msg.getRoom() != null) {
+                    frame.appendMessage("[#" + msg.getRoom() + "] [" + msg.getSender() + "] " + msg.getContent());
+                } else {
+                    frame.appendMessage("[" + msg.getSender() + "] " + msg.getContent());
+                }
                 break;
 
             case PRIVATE:
@@ -149,11 +171,11 @@ public class ClientController implements NetworkListener.MessageCallback {
                 break;
 
             case FILE_CHUNK:
-                // TODO: Implement file receiving
+                fileReceiver.onChunk(msg);
                 break;
 
             case FILE_ACK:
-                // Handled by FileSender
+                fileSender.onFileAck(msg);
                 break;
 
             // Connection management - handled elsewhere but need cases for no warnings
@@ -191,6 +213,10 @@ public class ClientController implements NetworkListener.MessageCallback {
                 // We don't send PING, so this shouldn't happen
                 break;
 
+            case ACK:
+                // Durable-delivery receipt - chỉ gửi cho messages có "messageId"
+                break;
+
             // Command responses are sent as SERVER messages
             case COMMAND:
                 // We send commands, don't receive them
@@ -202,16 +228,19 @@ public class ClientController implements NetworkListener.MessageCallback {
         }
     }
 
+    /**
+     * Presence model: một snapshot (/who reply) có version, sau đó chỉ áp
+     * dụng join/leave deltas. Chỉ request snapshot mới khi version bị nhảy
+     * (delta bị drop) thay vì gửi /who sau mỗi join/leave.
+     */
     private void updateUserList(Message msg) {
-        if (msg.getContent().contains("joined") || msg.getContent().contains("left")) {
-            // Request user list
-            try {
-                client.send(new Message(MessageType.COMMAND,
-                        client.getUsername(), "/who"));
-            } catch (Exception e) {
-                // Ignore
-            }
-        } else if (msg.getContent().startsWith("Online users:")) {
+        Object version = msg.getMetadata(PRESENCE_VERSION);
+        if (!(version instanceof Long)) {
+            return; // Server không hỗ trợ versioned presence
+        }
+        long v = (Long) version;
+
+        if (msg.getContent().startsWith("Online users:")) {
             String[] users = msg.getContent().substring(14).split(", ");
             frame.userListModel.clear();
             for (String user : users) {
@@ -220,20 +249,87 @@ public class ClientController implements NetworkListener.MessageCallback {
                     frame.userListModel.addElement(trimmed);
                 }
             }
+            presenceVersion = v;
+            presenceSyncPending = false;
+            return;
+        }
+
+        Object presence = msg.getMetadata("presence");
+        if (presence == null || presenceSyncPending || v <= presenceVersion) {
+            return; // Snapshot đang tới sẽ bao gồm delta này, hoặc delta cũ
+        }
+        if (presenceVersion < 0 || v != presenceVersion + 1) {
+            requestPresenceSnapshot();
+            return;
+        }
+
+        String user = (String) msg.getMetadata("username");
+        if ("joined".equals(presence)) {
+            if (!user.equals(client.getUsername()) && !frame.userListModel.contains(user)) {
+                frame.userListModel.addElement(user);
+            }
+        } else {
+            frame.userListModel.removeElement(user);
+        }
+        presenceVersion = v;
+    }
+
+    private void requestPresenceSnapshot() {
+        presenceSyncPending = true;
+        try {
+            client.send(new Message(MessageType.COMMAND,
+                    client.getUsername(), "/who"));
+        } catch (Exception e) {
+            presenceSyncPending = false;
         }
     }
 
     private void handleFileOffer(Message msg) {
         String filename = msg.getFilename();
         String sender = msg.getSender();
+        File resume = fileReceiver.resumeTarget(msg);
 
         int choice = JOptionPane.showConfirmDialog(frame,
-                sender + " wants to send you: " + filename + "\nAccept?",
+                sender + " wants to send you: " + filename
+                        + (resume != null ? "\n(resume into " + resume.getName() + ")" : "") + "\nAccept?",
                 "File Transfer", JOptionPane.YES_NO_OPTION);
 
-        if (choice == JOptionPane.YES_OPTION) {
-            // TODO: Implement file receiving
-            frame.appendMessage("*** File receiving not yet implemented ***");
+        if (choice != JOptionPane.YES_OPTION) {
+            declineFile(msg, "Declined by " + client.getUsername());
+            return;
+        }
+
+        File target = resume;
+        if (target == null) {
+            JFileChooser chooser = new JFileChooser();
+            chooser.setSelectedFile(new File(filename));
+            if (chooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) {
+                declineFile(msg, "Declined by " + client.getUsername());
+                return;
+            }
+            target = chooser.getSelectedFile();
+        }
+        File saved = target;
+
+        frame.appendMessage("*** Receiving " + filename + " from " + sender + " ***");
+        new Thread(() -> {
+            try {
+                fileReceiver.receive(msg, saved);
+                SwingUtilities.invokeLater(() -> frame.appendMessage(
+                        "*** Saved " + saved.getAbsolutePath() + " ***"));
+            } catch (Exception e) {
+                SwingUtilities.invokeLater(() -> frame.appendMessage(
+                        "File transfer failed: " + e.getMessage()
+                                + (saved.exists() ? " (ask " + sender + " to resend to resume)" : "")));
+            }
+        }).start();
+    }
+
+    private void declineFile(Message msg, String reason) {
+        try {
+            fileReceiver.decline(msg, reason);
+        } catch (Exception e) {
+            // Sender hết hạn chờ
         }
     }
 
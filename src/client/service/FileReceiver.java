@@ -0,0 +1,370 @@
+package client.service;
+
+import client.core.ChatClient;
+import common.protocol.Message;
+import common.protocol.MessageType;
+import common.protocol.ProtocolConstants;
+import common.protocol.RelayHandshake;
+import common.util.ChecksumUtil;
+import common.util.IncrementalChecksum;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * FileReceiver - Nhận file được offer bằng FILE_META
+ *
+ * Accept = FILE_ACK (accepted), rồi:
+ * - Relay: đọc từ server file relay qua một direct buffer vào disk
+ * - Không có relay: FILE_CHUNKs được ghi tại offset sequence * CHUNK_SIZE
+ *   (positional write - chunks gửi lại / lệch thứ tự không cần buffer),
+ *   mỗi chunk được trả lời bằng cumulative FILE_ACK; chunk có CRC32C sai
+ *   bị bỏ (sender gửi lại)
+ * Whole-file checksum của FILE_META (MD5 / SHA-256 / CRC32C) được tính
+ * incremental theo thứ tự bytes trong lúc nhận - không đọc lại file sau
+ * transfer.
+ *
+ * Transfer bị gián đoạn giữ phần đã nhận liên tục; khi cùng sender offer
+ * lại cùng file (checksum + size) trong session này, FILE_ACK mang
+ * resumeFrom và sender chỉ gửi phần còn lại.
+ */
+public class FileReceiver {
+    private static final int CHUNK_SIZE = ProtocolConstants.CHUNK_SIZE;
+    private static final int RELAY_BUFFER_SIZE = 256 * 1024;
+    private final ChatClient client;
+
+    // transferId -> chunked transfer đang nhận
+    private final Map<String, Incoming> incoming = new ConcurrentHashMap<>();
+    // sender|checksum|size -> phần đã nhận của transfer bị gián đoạn
+    private final Map<String, Partial> partials = new ConcurrentHashMap<>();
+
+    // Disk writes không chạy trên EDT / network listener
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "file-receiver");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final class Partial {
+        final File target;
+        final int nextChunk;
+
+        Partial(File target, int nextChunk) {
+            this.target = target;
+            this.nextChunk = nextChunk;
+        }
+    }
+
+    /**
+     * Chunked transfer - chỉ writer thread truy cập received / nextExpected /
+     * checksum cho tới khi done complete
+     */
+    private static final class Incoming {
+        final Message meta;
+        final File target;
+        final FileChannel sink;
+        final IncrementalChecksum checksum;     // null nếu FILE_META không có checksum
+        final long size;
+        final int total;
+        final BitSet received = new BitSet();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        final CompletableFuture<Void> closed = new CompletableFuture<>();   // partial đã được lưu
+        int nextExpected;
+        volatile long lastProgress = System.currentTimeMillis();
+
+        Incoming(Message meta, File target, FileChannel sink, IncrementalChecksum checksum, int total,
+                int nextExpected) {
+            this.meta = meta;
+            this.target = target;
+            this.sink = sink;
+            this.checksum = checksum;
+            this.size = meta.getFileSize();
+            this.total = total;
+            this.nextExpected = nextExpected;
+        }
+    }
+
+    public FileReceiver(ChatClient client) {
+        this.client = client;
+    }
+
+    /**
+     * @return true nếu offer có thể nhận qua relay
+     */
+    public static boolean isRelayed(Message meta) {
+        return meta.getRelayToken() != null && meta.getRelayPort() != null;
+    }
+
+    /**
+     * File đang nhận dở của offer này (resume), null nếu là transfer mới
+     */
+    public File resumeTarget(Message meta) {
+        Incoming stalled = findIncoming(meta);
+        if (stalled != null) {
+            return stalled.target;
+        }
+        Partial partial = partials.get(partialKey(meta));
+        return partial != null ? partial.target : null;
+    }
+
+    /**
+     * Accept offer và ghi file vào target - blocking, gọi ngoài EDT
+     */
+    public void receive(Message meta, File target) throws IOException {
+        ChecksumUtil.Algorithm algorithm;
+        try {
+            algorithm = ChecksumUtil.Algorithm.forName(meta.getChecksumAlgorithm());
+        } catch (IllegalArgumentException e) {
+            decline(meta, e.getMessage());
+            throw new IOException(e.getMessage());
+        }
+
+        // Sender gửi lại trong khi transfer cũ còn chờ chunks (sender đã mất
+        // kết nối) - kết thúc transfer cũ để phần đã nhận thành partial
+        Incoming stalled = findIncoming(meta);
+        if (stalled != null) {
+            stalled.done.completeExceptionally(new IOException("Superseded by a new offer"));
+            try {
+                stalled.closed.get(ProtocolConstants.FILE_RETRANSMIT_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException | ExecutionException | TimeoutException e) {
+                // Resume không khả dụng - nhận lại cả file
+            }
+        }
+
+        long size = meta.getFileSize();
+        Partial partial = partials.remove(partialKey(meta));
+        int resumeFrom = partial != null && partial.target.equals(target)
+                && target.length() >= Math.min((long) partial.nextChunk * CHUNK_SIZE, size)
+                ? partial.nextChunk : 0;
+
+        // READ - checksum đọc lại prefix đã có / chunks nhận lệch thứ tự
+        var options = resumeFrom > 0
+                ? new StandardOpenOption[] { StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE }
+                : new StandardOpenOption[] { StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING };
+
+        IncrementalChecksum checksum = meta.getChecksum() != null ? ChecksumUtil.newChecksum(algorithm) : null;
+        try (FileChannel sink = FileChannel.open(target.toPath(), options)) {
+            if (checksum != null && resumeFrom > 0) {
+                // Phần đã nhận trước khi gián đoạn - chỉ prefix này được đọc lại
+                checksum.update(sink, 0, Math.min((long) resumeFrom * CHUNK_SIZE, size));
+            }
+            if (isRelayed(meta)) {
+                receiveViaRelay(meta, target, sink, checksum, resumeFrom);
+            } else {
+                receiveChunks(meta, target, sink, checksum, resumeFrom);
+            }
+            sink.truncate(size);
+        }
+
+        if (checksum != null && !checksum.matches(meta.getChecksum())) {
+            target.delete();
+            throw new IOException("Checksum mismatch");
+        }
+    }
+
+    private void receiveViaRelay(Message meta, File target, FileChannel sink, IncrementalChecksum checksum,
+            int resumeFrom) throws IOException {
+        long size = meta.getFileSize();
+        long position = Math.min((long) resumeFrom * CHUNK_SIZE, size);
+        reply(meta, true, "", resumeFrom);
+
+        try (SocketChannel relay = SocketChannel.open(
+                    new InetSocketAddress(client.getServerAddress(), meta.getRelayPort()))) {
+            var hello = RelayHandshake.encode(RelayHandshake.ROLE_RECEIVER, meta.getRelayToken());
+            while (hello.hasRemaining()) {
+                relay.write(hello);
+            }
+
+            // Socket → direct buffer → disk; checksum được feed từ cùng buffer
+            ByteBuffer buffer = ByteBuffer.allocateDirect(RELAY_BUFFER_SIZE);
+            while (position < size) {
+                buffer.clear();
+                if (size - position < buffer.capacity()) {
+                    buffer.limit((int) (size - position));
+                }
+                if (relay.read(buffer) < 0) {
+                    throw new EOFException("Transfer interrupted at " + position + "/" + size + " bytes");
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    position += sink.write(buffer, position);
+                }
+                if (checksum != null) {
+                    buffer.rewind();
+                    checksum.update(buffer);
+                }
+            }
+        } catch (IOException e) {
+            // Bytes tới position đã nằm trên disk - resume từ chunk đầy đủ cuối cùng
+            keepPartial(meta, target, (int) (position / CHUNK_SIZE));
+            throw e;
+        }
+    }
+
+    private void receiveChunks(Message meta, File target, FileChannel sink, IncrementalChecksum checksum,
+            int resumeFrom) throws IOException {
+        int total = (int) ((meta.getFileSize() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        Incoming transfer = new Incoming(meta, target, sink, checksum, total, resumeFrom);
+        if (resumeFrom >= total) {
+            transfer.done.complete(null);
+        }
+        incoming.put(meta.getTransferId(), transfer);
+        reply(meta, true, "", resumeFrom);
+
+        try {
+            // Hết hạn khi không có chunk mới trong FILE_TRANSFER_TIMEOUT
+            while (true) {
+                try {
+                    transfer.done.get(1, TimeUnit.SECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    if (System.currentTimeMillis() - transfer.lastProgress > ProtocolConstants.FILE_TRANSFER_TIMEOUT) {
+                        throw new IOException("Transfer stalled");
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Transfer interrupted");
+        } catch (ExecutionException | IOException e) {
+            // Chờ writer xong chunk đang ghi trước khi đóng sink
+            int nextChunk = drainWriter(transfer);
+            keepPartial(meta, target, nextChunk);
+            throw e instanceof ExecutionException ? new IOException(e.getCause()) : (IOException) e;
+        } finally {
+            incoming.remove(meta.getTransferId());
+            transfer.closed.complete(null);
+        }
+    }
+
+    /**
+     * FILE_CHUNK từ network listener - ghi trên writer thread
+     */
+    public void onChunk(Message chunk) {
+        if (chunk.getTransferId() != null && incoming.containsKey(chunk.getTransferId())) {
+            writer.execute(() -> write(chunk));
+        }
+    }
+
+    private void write(Message chunk) {
+        Incoming transfer = incoming.get(chunk.getTransferId());
+        Integer sequence = chunk.getSequence();
+        byte[] data = chunk.getData();
+        if (transfer == null || transfer.done.isDone() || sequence == null || data == null) {
+            return;
+        }
+        Integer crc = chunk.getChunkChecksum();
+        if (crc != null && crc != ChecksumUtil.crc32c(data)) {
+            // Chunk hỏng - không ACK, sender gửi lại window sau timeout
+            return;
+        }
+
+        try {
+            if (sequence >= transfer.nextExpected && sequence < transfer.total && !transfer.received.get(sequence)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                long position = (long) sequence * CHUNK_SIZE;
+                while (buffer.hasRemaining()) {
+                    transfer.sink.write(buffer, position + buffer.position());
+                }
+                transfer.received.set(sequence);
+                boolean inOrder = sequence == transfer.nextExpected;
+                while (transfer.received.get(transfer.nextExpected)) {
+                    transfer.received.clear(transfer.nextExpected);
+                    if (transfer.checksum != null) {
+                        feedChecksum(transfer, inOrder ? data : null);
+                        inOrder = false;
+                    }
+                    transfer.nextExpected++;
+                }
+                transfer.lastProgress = System.currentTimeMillis();
+            }
+
+            // Cumulative - duplicate / lệch thứ tự cũng được trả lời để sender biết base
+            Message ack = new Message(MessageType.FILE_ACK, client.getUsername(),
+                    transfer.meta.getSender(), "");
+            ack.setTransferId(chunk.getTransferId());
+            ack.setAckSequence(transfer.nextExpected - 1);
+            client.send(ack);
+
+            if (transfer.nextExpected >= transfer.total) {
+                transfer.done.complete(null);
+            }
+        } catch (IOException e) {
+            transfer.done.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Feed chunk nextExpected vào whole-file checksum - chunk vừa nhận dùng
+     * data trong memory, chunks lệch thứ tự đã ghi trước được đọc lại từ disk
+     */
+    private static void feedChecksum(Incoming transfer, byte[] data) throws IOException {
+        if (data != null) {
+            transfer.checksum.update(data);
+        } else {
+            long position = (long) transfer.nextExpected * CHUNK_SIZE;
+            transfer.checksum.update(transfer.sink, position, Math.min(CHUNK_SIZE, transfer.size - position));
+        }
+    }
+
+    private int drainWriter(Incoming transfer) {
+        try {
+            return writer.submit(() -> transfer.nextExpected).get();
+        } catch (InterruptedException | ExecutionException e) {
+            return 0;
+        }
+    }
+
+    public void decline(Message meta, String reason) throws IOException {
+        reply(meta, false, reason, 0);
+    }
+
+    private void reply(Message meta, boolean accepted, String reason, int resumeFrom) throws IOException {
+        Message ack = new Message(MessageType.FILE_ACK, client.getUsername(), meta.getSender(), reason);
+        ack.setTransferId(meta.getTransferId());
+        ack.setFileAccepted(accepted);
+        if (resumeFrom > 0) {
+            ack.setResumeFrom(resumeFrom);
+        }
+        if (meta.getRelayToken() != null) {
+            ack.setRelayEndpoint(meta.getRelayToken(), meta.getRelayPort());
+        }
+        client.send(ack);
+    }
+
+    private void keepPartial(Message meta, File target, int nextChunk) {
+        if (nextChunk > 0) {
+            partials.put(partialKey(meta), new Partial(target, nextChunk));
+        } else {
+            target.delete();
+        }
+    }
+
+    private Incoming findIncoming(Message meta) {
+        String key = partialKey(meta);
+        for (Incoming transfer : incoming.values()) {
+            if (partialKey(transfer.meta).equals(key)) {
+                return transfer;
+            }
+        }
+        return null;
+    }
+
+    private static String partialKey(Message meta) {
+        return meta.getSender() + "|" + meta.getChecksum() + "|" + meta.getFileSize();
+    }
+}
@@ -3,43 +3,259 @@ package client.service;
 import client.core.ChatClient;
 import common.protocol.Message;
 import common.protocol.MessageType;
+import common.protocol.ProtocolConstants;
+import common.protocol.RelayHandshake;
 import common.util.ChecksumUtil;
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+/**
+ * FileSender - Gửi file: FILE_META, chờ FILE_ACK của receiver, rồi stream
+ * file qua server file relay (FileChannel.transferTo - zero-copy từ page
+ * cache vào socket).
+ *
+ * Server không có relay → FILE_CHUNK messages với sliding window: tối đa
+ * window chunks chưa được ACK, receiver trả cumulative FILE_ACK; nếu ACK
+ * không tiến trong FILE_RETRANSMIT_TIMEOUT, gửi lại từ chunk chưa ACK đầu
+ * tiên (Go-Back-N - server có thể drop frames khi outbound queue đầy).
+ *
+ * Resume: FILE_ACK accept mang resumeFrom khi receiver còn giữ phần đã nhận
+ * của cùng file - cả hai đường gửi bắt đầu từ chunk đó.
+ *
+ * FILE_ACK accept có thể mang ownership challenge (server có blob store):
+ * sender hash range được chọn của file vào RelayHandshake; nếu server đã có
+ * file (cùng checksum) và proof khớp, server gửi bản đã lưu cho receiver
+ * và sender không upload.
+ *
+ * Whole-file checksum (algorithm chọn được, ghi trong FILE_META) phải có
+ * trước khi gửi FILE_META nên file được hash một lần (mapped, xem
+ * ChecksumUtil.calculate) và cache theo path / size / mtime - gửi cùng file
+ * cho nhiều người không hash lại. Mỗi FILE_CHUNK mang CRC32C của chunk.
+ */
 public class FileSender {
-    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final int CHUNK_SIZE = ProtocolConstants.CHUNK_SIZE;
+    private static final int CHECKSUM_CACHE_SIZE = 64;
     private final ChatClient client;
-    
+    private final int window;
+    private final ChecksumUtil.Algorithm algorithm;
+
+    // path|size|mtime|algorithm -> whole-file checksum
+    private final Map<String, String> checksums = Collections.synchronizedMap(
+            new LinkedHashMap<String, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > CHECKSUM_CACHE_SIZE;
+                }
+            });
+
+    // transferId -> transfer đang gửi
+    private final Map<String, Outgoing> transfers = new ConcurrentHashMap<>();
+
+    /**
+     * Trạng thái ACK của một transfer - FILE_ACKs tới trên network listener thread
+     */
+    private static final class Outgoing {
+        final CompletableFuture<Message> reply = new CompletableFuture<>();
+        private int acked = -1;     // Cumulative: chunks 0..acked đã được ghi
+
+        synchronized void onAck(int sequence) {
+            if (sequence > acked) {
+                acked = sequence;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Chờ cumulative ACK vượt quá sequence
+         * @return ACK hiện tại (có thể chưa tiến nếu timeout)
+         */
+        synchronized int awaitAck(int sequence, long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            long left = timeoutMillis;
+            while (acked <= sequence && left > 0) {
+                wait(left);
+                left = deadline - System.currentTimeMillis();
+            }
+            return acked;
+        }
+    }
+
     public FileSender(ChatClient client) {
+        this(client, ProtocolConstants.FILE_WINDOW_SIZE);
+    }
+
+    /**
+     * @param window số FILE_CHUNKs được gửi trước khi phải chờ FILE_ACK
+     */
+    public FileSender(ChatClient client, int window) {
+        this(client, window, ChecksumUtil.Algorithm.MD5);
+    }
+
+    /**
+     * @param algorithm whole-file checksum ghi trong FILE_META - chỉ MD5 /
+     *        SHA-256 được server blob store dedup
+     */
+    public FileSender(ChatClient client, int window, ChecksumUtil.Algorithm algorithm) {
         this.client = client;
+        this.window = Math.max(1, window);
+        this.algorithm = algorithm;
     }
-    
+
     public void sendFile(File file, String receiver) throws Exception {
-        String checksum = ChecksumUtil.calculateMD5(file);
-        
-        // Send metadata
-        Message meta = new Message(MessageType.FILE_META, 
-            client.getUsername(), receiver, "");
-        meta.setFileMetadata(file.getName(), file.length(), checksum);
-        client.send(meta);
-        
-        // Send chunks
-        try (FileInputStream fis = new FileInputStream(file)) {
-            byte[] buffer = new byte[CHUNK_SIZE];
-            int sequence = 0;
-            int bytesRead;
-            
-            while ((bytesRead = fis.read(buffer)) > 0) {
-                byte[] chunk = Arrays.copyOf(buffer, bytesRead);
-                
-                Message chunkMsg = new Message(MessageType.FILE_CHUNK,
-                    client.getUsername(), receiver, "");
-                chunkMsg.setChunkData(sequence, chunk);
-                client.send(chunkMsg);
-                
-                sequence++;
+        String checksum = checksum(file);
+        String transferId = UUID.randomUUID().toString();
+        Outgoing transfer = new Outgoing();
+        transfers.put(transferId, transfer);
+
+        try {
+            // Send metadata
+            Message meta = new Message(MessageType.FILE_META,
+                client.getUsername(), receiver, "");
+            meta.setFileMetadata(file.getName(), file.length(), checksum);
+            meta.setChecksumAlgorithm(algorithm.getName());
+            meta.setTransferId(transferId);
+            client.send(meta);
+
+            // Receiver (hoặc server) trả lời offer
+            Message ack;
+            try {
+                ack = transfer.reply.get(ProtocolConstants.FILE_OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                throw new IOException("No response from " + receiver);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            }
+            if (!ack.isFileAccepted()) {
+                throw new IOException("Declined: " + ack.getContent());
+            }
+
+            int resumeFrom = ack.getResumeFrom();
+            if (ack.getRelayToken() != null) {
+                sendViaRelay(file, ack, Math.min((long) resumeFrom * CHUNK_SIZE, file.length()));
+            } else {
+                sendChunks(file, receiver, transferId, transfer, resumeFrom);
+            }
+        } finally {
+            transfers.remove(transferId);
+        }
+    }
+
+    private String checksum(File file) throws IOException {
+        String key = file.getCanonicalPath() + "|" + file.length() + "|" + file.lastModified()
+                + "|" + algorithm.getName();
+        String checksum = checksums.get(key);
+        if (checksum == null) {
+            checksum = ChecksumUtil.calculate(file, algorithm);
+            checksums.put(key, checksum);
+        }
+        return checksum;
+    }
+
+    /**
+     * FILE_ACK từ network listener - trả lời offer, hoặc cumulative ACK
+     */
+    public void onFileAck(Message ack) {
+        Outgoing transfer = ack.getTransferId() != null ? transfers.get(ack.getTransferId()) : null;
+        if (transfer == null) {
+            return;
+        }
+        Integer sequence = ack.getAckSequence();
+        if (sequence != null) {
+            transfer.onAck(sequence);
+        } else {
+            transfer.reply.complete(ack);
+        }
+    }
+
+    private void sendViaRelay(File file, Message ack, long offset) throws IOException {
+        try (SocketChannel relay = SocketChannel.open(
+                    new InetSocketAddress(client.getServerAddress(), ack.getRelayPort()));
+             FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            String proof = ack.getProofNonce() != null
+                    ? ChecksumUtil.ownershipProof(source, ack.getProofNonce(), ack.getProofOffset(),
+                            ack.getProofLength())
+                    : null;
+            var hello = RelayHandshake.encode(RelayHandshake.ROLE_SENDER, ack.getRelayToken(), proof);
+            while (hello.hasRemaining()) {
+                relay.write(hello);
+            }
+            if (RelayHandshake.readStatus(relay) == RelayHandshake.STATUS_STORED) {
+                return;     // Server gửi bản đã lưu cho receiver
+            }
+
+            long size = source.size();
+            long position = offset;
+            while (position < size) {
+                position += source.transferTo(position, size - position, relay);
             }
+            // Half-close - server biết sender đã gửi xong
+            relay.shutdownOutput();
         }
     }
+
+    /**
+     * Sliding window (Go-Back-N) trên FILE_CHUNK / cumulative FILE_ACK
+     */
+    private void sendChunks(File file, String receiver, String transferId, Outgoing transfer,
+            int resumeFrom) throws IOException, InterruptedException {
+        try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            int total = (int) ((source.size() + CHUNK_SIZE - 1) / CHUNK_SIZE);
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_SIZE);
+            int base = resumeFrom;      // Chunk chưa ACK đầu tiên
+            int next = resumeFrom;      // Chunk tiếp theo sẽ gửi
+            int retries = 0;
+
+            while (base < total) {
+                while (next < total && next < base + window) {
+                    sendChunk(source, buffer, next, receiver, transferId);
+                    next++;
+                }
+
+                int acked = transfer.awaitAck(base - 1, ProtocolConstants.FILE_RETRANSMIT_TIMEOUT);
+                if (acked >= base) {
+                    base = acked + 1;
+                    retries = 0;
+                } else if (++retries > ProtocolConstants.MAX_RETRY_ATTEMPTS) {
+                    throw new IOException("Receiver stopped acknowledging at chunk " + base + "/" + total);
+                } else {
+                    next = base;    // Timeout - gửi lại cả window
+                }
+            }
+        }
+    }
+
+    private void sendChunk(FileChannel source, ByteBuffer buffer, int sequence, String receiver,
+            String transferId) throws IOException {
+        // Positional read - retransmit không cần seek lại stream
+        long position = (long) sequence * CHUNK_SIZE;
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            int n = source.read(buffer, position + buffer.position());
+            if (n < 0) {
+                break;
+            }
+        }
+        byte[] chunk = Arrays.copyOf(buffer.array(), buffer.position());
+
+        Message chunkMsg = new Message(MessageType.FILE_CHUNK,
+            client.getUsername(), receiver, "");
+        chunkMsg.setChunkData(sequence, chunk);
+        chunkMsg.setChunkChecksum(ChecksumUtil.crc32c(chunk));
+        chunkMsg.setTransferId(transferId);
+        client.send(chunkMsg);
+    }
 }
@@ -1,5 +1,7 @@
 package common.model;
 
+import common.protocol.ProtocolConstants;
+
 import java.time.LocalDateTime;
 import java.util.Collections;
 import java.util.Set;
@@ -24,6 +26,9 @@ public class ChatRoom {
     private boolean isPrivate;
     private String owner;
     
+    // Recent messages cho join backfill - giữ trong memory, không đọc disk
+    private final MessageRingBuffer recentMessages;
+    
     /**
      * Constructor for public room
      */
@@ -31,11 +36,18 @@ public class ChatRoom {
         this(name, description, 100, false, null);
     }
     
+    public ChatRoom(String name, String description, int maxMembers, 
+                    boolean isPrivate, String owner) {
+        this(name, description, maxMembers, isPrivate, owner,
+                ProtocolConstants.ROOM_HISTORY_CAPACITY);
+    }
+    
     /**
      * Full constructor
+     * @param historyCapacity số messages gần nhất giữ lại cho backfill
      */
     public ChatRoom(String name, String description, int maxMembers, 
-                    boolean isPrivate, String owner) {
+                    boolean isPrivate, String owner, int historyCapacity) {
         this.name = name;
         this.description = description;
         this.createdAt = LocalDateTime.now();
@@ -45,6 +57,7 @@ public class ChatRoom {
         
         // Use ConcurrentHashMap.newKeySet() for thread-safe Set
         this.members = ConcurrentHashMap.newKeySet();
+        this.recentMessages = new MessageRingBuffer(historyCapacity);
     }
     
     // Getters
@@ -55,6 +68,7 @@ public class ChatRoom {
     public boolean isPrivate() { return isPrivate; }
     public String getOwner() { return owner; }
     public int getMemberCount() { return members.size(); }
+    public MessageRingBuffer getRecentMessages() { return recentMessages; }
     
     /**
      * Get unmodifiable view of members for thread safety
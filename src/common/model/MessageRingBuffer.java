@@ -0,0 +1,81 @@
+package common.model;
+
+import common.protocol.EncodedMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * MessageRingBuffer - Fixed-capacity buffer của N messages gần nhất, lock-free
+ *
+ * Writers lấy sequence bằng getAndIncrement rồi ghi vào slot (sequence % capacity);
+ * readers không bao giờ block writers. Mỗi slot giữ sequence của message, nên
+ * reader bỏ qua slot chưa được ghi xong hoặc đã bị ghi đè trong lúc đọc.
+ *
+ * Messages được giữ dạng EncodedMessage - backfill gửi lại frames đã encode,
+ * không serialize lại cho mỗi lần join.
+ *
+ * Design Pattern: Ring Buffer (lock-free, multi-producer)
+ */
+public class MessageRingBuffer {
+
+    private static final class Slot {
+        final long sequence;
+        final EncodedMessage message;
+
+        Slot(long sequence, EncodedMessage message) {
+            this.sequence = sequence;
+            this.message = message;
+        }
+    }
+
+    private final int capacity;
+    private final AtomicReferenceArray<Slot> slots;
+    private final AtomicLong next;   // sequence của message tiếp theo
+
+    public MessageRingBuffer(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.slots = new AtomicReferenceArray<>(this.capacity);
+        this.next = new AtomicLong();
+    }
+
+    /**
+     * Append message, ghi đè message cũ nhất khi buffer đầy
+     * @return sequence của message
+     */
+    public long add(EncodedMessage message) {
+        long sequence = next.getAndIncrement();
+        slots.set((int) (sequence % capacity), new Slot(sequence, message));
+        return sequence;
+    }
+
+    /**
+     * Tối đa count messages gần nhất, cũ → mới
+     */
+    public List<EncodedMessage> latest(int count) {
+        return latest(count, next.get());
+    }
+
+    /**
+     * Tối đa count messages gần nhất có sequence < end, cũ → mới -
+     * end thường là getTotalAdded() được capture trước đó
+     */
+    public List<EncodedMessage> latest(int count, long end) {
+        end = Math.min(end, next.get());
+        long start = Math.max(0, end - Math.min(count, capacity));
+        List<EncodedMessage> result = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            Slot slot = slots.get((int) (sequence % capacity));
+            // null/sequence khác: writer chưa ghi xong hoặc slot đã bị ghi đè
+            if (slot != null && slot.sequence == sequence) {
+                result.add(slot.message);
+            }
+        }
+        return result;
+    }
+
+    public int getCapacity() { return capacity; }
+    public long getTotalAdded() { return next.get(); }
+}
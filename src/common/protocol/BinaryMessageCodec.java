@@ -0,0 +1,296 @@
+package common.protocol;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Map;
+
+/**
+ * BinaryMessageCodec - Compact binary layout cho Message
+ *
+ * Payload layout:
+ *   byte    version (= 1)
+ *   byte    MessageType ordinal
+ *   string  sender, receiver, content
+ *   int64   timestamp (epoch millis)
+ *   varint  metadata entry count
+ *   entries [string key][byte tag][value]
+ *
+ * string = varint (UTF-8 length + 1), 0 nghĩa là null
+ * Một PING chỉ tốn ~20 bytes thay vì vài trăm bytes class descriptors
+ * của Java serialization.
+ */
+public class BinaryMessageCodec implements MessageCodec {
+
+    public static final String NAME = "binary";
+
+    private static final int VERSION = 1;
+
+    // Metadata value tags
+    private static final int TAG_NULL = 0;
+    private static final int TAG_STRING = 1;
+    private static final int TAG_INT = 2;
+    private static final int TAG_LONG = 3;
+    private static final int TAG_BOOLEAN = 4;
+    private static final int TAG_BYTES = 5;
+    private static final int TAG_DOUBLE = 6;
+
+    private static final MessageType[] TYPES = MessageType.values();
+
+    /**
+     * @return true nếu value có tag trên wire (null, String, Integer, Long,
+     *         Boolean, byte[], Double)
+     */
+    public static boolean isSupportedValue(Object value) {
+        return value == null || value instanceof String || value instanceof Integer
+                || value instanceof Long || value instanceof Boolean || value instanceof byte[]
+                || value instanceof Double;
+    }
+
+    /**
+     * Metadata key đầu tiên có value không encode được - server kiểm tra khi
+     * nhận message để một client Java serialization không gửi được metadata
+     * tùy ý tới recipients dùng binary codec / history log
+     * @return null nếu mọi value đều encode được
+     */
+    public static String findUnsupportedMetadata(Message msg) {
+        for (Map.Entry<String, Object> entry : msg.getMetadata().entrySet()) {
+            if (!isSupportedValue(entry.getValue())) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Message msg) throws IOException {
+        FrameCodec.FrameBuilder out = new FrameCodec.FrameBuilder(64);
+        out.write(VERSION);
+        out.write(msg.getType().ordinal());
+        writeString(out, msg.getSender());
+        writeString(out, msg.getReceiver());
+        writeString(out, msg.getContent());
+        writeLong(out, toEpochMillis(msg.getTimestamp()));
+
+        Map<String, Object> metadata = msg.getMetadata();
+        writeVarint(out, metadata.size());
+        for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+            writeString(out, entry.getKey());
+            writeValue(out, entry.getKey(), entry.getValue());
+        }
+        return out.toFrame();
+    }
+
+    @Override
+    public Message decode(byte[] buf, int offset, int length) throws IOException {
+        Reader in = new Reader(buf, offset, length);
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported binary codec version: " + version);
+        }
+
+        int ordinal = in.readByte();
+        if (ordinal >= TYPES.length) {
+            throw new IOException("Unknown message type: " + ordinal);
+        }
+
+        Message msg = new Message(TYPES[ordinal], in.readString(), in.readString(), in.readString());
+        msg.setTimestamp(fromEpochMillis(in.readLong()));
+
+        int entries = in.readVarint();
+        for (int i = 0; i < entries; i++) {
+            String key = in.readString();
+            msg.putMetadata(key, in.readValue());
+        }
+        return msg;
+    }
+
+    // ===== Encoding helpers =====
+
+    private static void writeValue(FrameCodec.FrameBuilder out, String key, Object value) throws IOException {
+        if (value == null) {
+            out.write(TAG_NULL);
+        } else if (value instanceof String) {
+            out.write(TAG_STRING);
+            writeString(out, (String) value);
+        } else if (value instanceof Integer) {
+            out.write(TAG_INT);
+            writeVarint(out, zigZag((Integer) value));
+        } else if (value instanceof Long) {
+            out.write(TAG_LONG);
+            writeVarLong(out, zigZag((Long) value));
+        } else if (value instanceof Boolean) {
+            out.write(TAG_BOOLEAN);
+            out.write((Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            byte[] bytes = (byte[]) value;
+            out.write(TAG_BYTES);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        } else if (value instanceof Double) {
+            out.write(TAG_DOUBLE);
+            writeLong(out, Double.doubleToLongBits((Double) value));
+        } else {
+            throw new IOException("Unsupported metadata type for '" + key + "': "
+                    + value.getClass().getName());
+        }
+    }
+
+    private static void writeString(FrameCodec.FrameBuilder out, String value) {
+        if (value == null) {
+            writeVarint(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, bytes.length + 1);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static void writeVarint(FrameCodec.FrameBuilder out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeVarLong(FrameCodec.FrameBuilder out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeLong(FrameCodec.FrameBuilder out, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift));
+        }
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long toEpochMillis(LocalDateTime timestamp) {
+        return timestamp.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static LocalDateTime fromEpochMillis(long millis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+
+    /**
+     * Reader - Cursor trên payload bytes, kiểm tra bounds cho mọi field
+     */
+    private static class Reader {
+        private final byte[] buf;
+        private final int limit;
+        private int pos;
+
+        Reader(byte[] buf, int offset, int length) {
+            this.buf = buf;
+            this.pos = offset;
+            this.limit = offset + length;
+        }
+
+        int readByte() throws IOException {
+            require(1);
+            return buf[pos++] & 0xFF;
+        }
+
+        int readVarint() throws IOException {
+            int result = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                result |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        long readVarLong() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 70; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Malformed varlong");
+        }
+
+        long readLong() throws IOException {
+            require(8);
+            long result = 0;
+            for (int i = 0; i < 8; i++) {
+                result = (result << 8) | (buf[pos++] & 0xFF);
+            }
+            return result;
+        }
+
+        String readString() throws IOException {
+            int length = readVarint();
+            if (length == 0) {
+                return null;
+            }
+            length--;
+            require(length);
+            String value = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+
+        Object readValue() throws IOException {
+            int tag = readByte();
+            switch (tag) {
+                case TAG_NULL:
+                    return null;
+                case TAG_STRING:
+                    return readString();
+                case TAG_INT: {
+                    int raw = readVarint();
+                    return (raw >>> 1) ^ -(raw & 1);
+                }
+                case TAG_LONG: {
+                    long raw = readVarLong();
+                    return (raw >>> 1) ^ -(raw & 1);
+                }
+                case TAG_BOOLEAN:
+                    return readByte() != 0;
+                case TAG_BYTES: {
+                    int length = readVarint();
+                    require(length);
+                    byte[] bytes = new byte[length];
+                    System.arraycopy(buf, pos, bytes, 0, length);
+                    pos += length;
+                    return bytes;
+                }
+                case TAG_DOUBLE:
+                    return Double.longBitsToDouble(readLong());
+                default:
+                    throw new IOException("Unknown metadata tag: " + tag);
+            }
+        }
+
+        private void require(int bytes) throws IOException {
+            if (bytes < 0 || pos + bytes > limit) {
+                throw new IOException("Truncated binary message");
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package common.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * EncodedMessage - Message kèm các frame đã encode, cache theo codec
+ *
+ * Broadcast encode message một lần cho mỗi codec rồi ghi cùng một mảng bytes
+ * tới socket của mọi recipient, nên chi phí serialization mỗi broadcast là
+ * hằng số thay vì O(recipients).
+ *
+ * Transports không dùng MessageCodec (WebSocket JSON, gRPC protobuf) cache
+ * wire form của chúng qua wireForm(), cũng một lần mỗi message.
+ *
+ * Message không được sửa sau khi đã wrap - các frame đã cache sẽ không
+ * phản ánh thay đổi.
+ */
+public final class EncodedMessage {
+
+    private final Message message;
+    private final ConcurrentHashMap<MessageCodec, byte[]> frames;
+    private volatile ConcurrentHashMap<Object, Object> wireForms;   // lazy - chỉ khi có non-TCP recipients
+
+    // Encoder trả về null (message không có dạng trên transport đó) - cache luôn kết quả này
+    private static final Object NO_WIRE_FORM = new Object();
+
+    private EncodedMessage(Message message) {
+        this.message = message;
+        this.frames = new ConcurrentHashMap<>(2);
+    }
+
+    public static EncodedMessage of(Message message) {
+        return new EncodedMessage(message);
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Frame [length][payload] cho codec, encode lần đầu được yêu cầu
+     * Hai threads có thể cùng encode một lần đầu - kết quả giống nhau, giữ bản đầu tiên
+     * @throws MessageEncodingException nếu codec không encode được message -
+     *         chưa có byte nào được ghi
+     */
+    private byte[] frameBytes(MessageCodec codec) throws MessageEncodingException {
+        byte[] frame = frames.get(codec);
+        if (frame == null) {
+            try {
+                frame = codec.encode(message);
+            } catch (IOException e) {
+                throw new MessageEncodingException(codec.getName(), e);
+            }
+            byte[] existing = frames.putIfAbsent(codec, frame);
+            if (existing != null) {
+                frame = existing;
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Read-only view của shared frame - mỗi caller có position riêng
+     */
+    public ByteBuffer frame(MessageCodec codec) throws MessageEncodingException {
+        return ByteBuffer.wrap(frameBytes(codec)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Write shared frame vào stream (caller chịu trách nhiệm flush)
+     * @return số bytes đã ghi
+     * @throws MessageEncodingException nếu message không encode được - stream
+     *         không bị ghi gì, connection vẫn dùng được
+     */
+    public int writeTo(OutputStream out, MessageCodec codec) throws IOException {
+        byte[] frame = frameBytes(codec);
+        out.write(frame);
+        return frame.length;
+    }
+
+    /**
+     * Wire form của message cho một transport adapter, tính lần đầu được yêu
+     * cầu rồi dùng chung cho mọi subscriber của adapter đó
+     * @param key identity của wire form (mỗi adapter một key)
+     * @param encoder trả về null nếu message không được gửi trên transport này;
+     *        được phép gọi wireForm với key khác (form dựng trên form khác)
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T wireForm(Object key, Function<Message, T> encoder) {
+        ConcurrentHashMap<Object, Object> forms = wireForms;
+        if (forms == null) {
+            synchronized (this) {
+                forms = wireForms;
+                if (forms == null) {
+                    forms = new ConcurrentHashMap<>(2);
+                    wireForms = forms;
+                }
+            }
+        }
+        Object form = forms.get(key);
+        if (form == null) {
+            // Không dùng computeIfAbsent: encoder lồng nhau (vd. ServerEvent bọc
+            // ChatMessage form) sẽ "Recursive update" khi hai keys cùng bin.
+            // Hai threads có thể cùng encode lần đầu - encoder là pure, giữ bản đầu tiên
+            T encoded = encoder.apply(message);
+            Object computed = encoded != null ? encoded : NO_WIRE_FORM;
+            Object previous = forms.putIfAbsent(key, computed);
+            form = previous != null ? previous : computed;
+        }
+        return form == NO_WIRE_FORM ? null : (T) form;
+    }
+}
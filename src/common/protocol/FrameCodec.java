@@ -0,0 +1,163 @@
+package common.protocol;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * FrameCodec - Length-prefixed framing cho Message trên TCP stream
+ *
+ * Wire format: [int32 length][payload]
+ * Payload là một Message được encode độc lập bởi MessageCodec, nên mỗi frame
+ * tự mô tả và có thể decode riêng lẻ - điều kiện cần cho non-blocking NIO
+ * transport (reader biết chính xác khi nào đã nhận đủ một message).
+ *
+ * Codec negotiation: CONNECT và ACCEPT luôn dùng Java serialization.
+ * Client liệt kê codecs nó hỗ trợ trong metadata "codecs" của CONNECT,
+ * server chọn một và trả về trong metadata "codec" của ACCEPT;
+ * mọi frame sau ACCEPT dùng codec đã chọn.
+ *
+ * Network Concept: Message Framing (length-prefix)
+ */
+public class FrameCodec {
+
+    public static final MessageCodec JAVA = new JavaSerializationCodec();
+    public static final MessageCodec BINARY = new BinaryMessageCodec();
+
+    // Handshake metadata keys
+    public static final String META_CODECS = "codecs";
+    public static final String META_CODEC = "codec";
+
+    /**
+     * Codecs client đề xuất, theo thứ tự ưu tiên
+     */
+    public static final String SUPPORTED_CODECS = BinaryMessageCodec.NAME + "," + JavaSerializationCodec.NAME;
+
+    /**
+     * Lookup codec theo tên
+     * @return JAVA nếu tên không xác định
+     */
+    public static MessageCodec forName(String name) {
+        if (BinaryMessageCodec.NAME.equals(name)) {
+            return BINARY;
+        }
+        return JAVA;
+    }
+
+    /**
+     * Chọn codec đầu tiên trong danh sách client đề xuất mà server hỗ trợ
+     * @param offered Comma-separated codec names (null cho legacy clients)
+     */
+    public static MessageCodec negotiate(String offered) {
+        if (offered != null) {
+            for (String name : offered.split(",")) {
+                String trimmed = name.trim();
+                if (BinaryMessageCodec.NAME.equals(trimmed) || JavaSerializationCodec.NAME.equals(trimmed)) {
+                    return forName(trimmed);
+                }
+            }
+        }
+        return JAVA;
+    }
+
+    /**
+     * Write frame đã encode vào stream (caller chịu trách nhiệm flush)
+     */
+    public static void writeFrame(OutputStream out, byte[] frame) throws IOException {
+        out.write(frame);
+    }
+
+    /**
+     * Read một frame từ blocking stream và decode thành Message
+     * @throws java.io.EOFException nếu peer đóng connection
+     */
+    public static Message readMessage(DataInputStream in, MessageCodec codec) throws IOException {
+        int length = in.readInt();
+        checkLength(length);
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return codec.decode(payload, 0, length);
+    }
+
+    /**
+     * Validate frame length từ header trước khi allocate buffer
+     */
+    public static void checkLength(int length) throws IOException {
+        if (length < 0 || length > ProtocolConstants.MAX_MESSAGE_SIZE) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+    }
+
+    /**
+     * FrameBuilder - Output buffer với header chừa sẵn, để codec ghi payload
+     * trực tiếp rồi điền length mà không cần copy thêm lần nữa
+     *
+     * Không dùng ByteArrayOutputStream: write() của nó synchronized, và binary
+     * codec ghi varints từng byte - mỗi builder chỉ thuộc một encode call nên
+     * không cần lock.
+     */
+    public static class FrameBuilder extends OutputStream {
+
+        private byte[] buf;
+        private int count;
+
+        public FrameBuilder(int initialSize) {
+            buf = new byte[initialSize + ProtocolConstants.FRAME_HEADER_SIZE];
+            count = ProtocolConstants.FRAME_HEADER_SIZE; // placeholder for length
+        }
+
+        @Override
+        public void write(int b) {
+            if (count == buf.length) {
+                ensureCapacity(count + 1);
+            }
+            buf[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (off < 0 || len < 0 || len > b.length - off) {
+                throw new IndexOutOfBoundsException();
+            }
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        /**
+         * Grow buffer (gấp đôi) để chứa ít nhất minCapacity bytes
+         */
+        private void ensureCapacity(int minCapacity) {
+            if (minCapacity - buf.length > 0) {
+                int newCapacity = Math.max(buf.length << 1, minCapacity);
+                if (newCapacity < 0) {
+                    newCapacity = minCapacity;  // overflow - toFrame() sẽ từ chối frame
+                }
+                buf = Arrays.copyOf(buf, newCapacity);
+            }
+        }
+
+        /**
+         * Điền length header và trả về frame hoàn chỉnh
+         */
+        public byte[] toFrame() throws IOException {
+            int payloadLength = count - ProtocolConstants.FRAME_HEADER_SIZE;
+            if (payloadLength > ProtocolConstants.MAX_MESSAGE_SIZE) {
+                throw new IOException("Message too large: " + payloadLength + " bytes");
+            }
+            buf[0] = (byte) (payloadLength >>> 24);
+            buf[1] = (byte) (payloadLength >>> 16);
+            buf[2] = (byte) (payloadLength >>> 8);
+            buf[3] = (byte) payloadLength;
+            return count == buf.length ? buf : Arrays.copyOf(buf, count);
+        }
+    }
+
+    /**
+     * Private constructor - utility class
+     */
+    private FrameCodec() {
+        throw new AssertionError("Cannot instantiate FrameCodec");
+    }
+}
@@ -0,0 +1,40 @@
+package common.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * JavaSerializationCodec - Payload là một Message serialize bằng ObjectOutputStream
+ *
+ * Codec mặc định cho handshake và cho peers không hỗ trợ binary codec.
+ */
+public class JavaSerializationCodec implements MessageCodec {
+
+    public static final String NAME = "java";
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Message msg) throws IOException {
+        FrameCodec.FrameBuilder frame = new FrameCodec.FrameBuilder(256);
+        try (ObjectOutputStream oos = new ObjectOutputStream(frame)) {
+            oos.writeObject(msg);
+        }
+        return frame.toFrame();
+    }
+
+    @Override
+    public Message decode(byte[] buf, int offset, int length) throws IOException {
+        try (ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(buf, offset, length))) {
+            return (Message) ois.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Invalid message payload: " + e.getMessage(), e);
+        }
+    }
+}
@@ -57,13 +57,16 @@ public class Message implements Serializable {
     public void setType(MessageType type) { this.type = type; }
     public void setContent(String content) { this.content = content; }
     
+    // Codecs restore the original send time when decoding
+    void setTimestamp(LocalDateTime timestamp) { this.timestamp = timestamp; }
+    
     // Metadata helpers for File Transfer
     
     /**
      * Set file metadata cho FILE_META message
      * @param filename Tên file
      * @param fileSize Kích thước file (bytes)
-     * @param checksum MD5 hash của toàn bộ file
+     * @param checksum Hash của toàn bộ file (MD5 trừ khi có checksumAlgorithm)
      */
     public void setFileMetadata(String filename, long fileSize, String checksum) {
         metadata.put("filename", filename);
@@ -83,6 +86,106 @@ public class Message implements Serializable {
         return (String) metadata.get("checksum");
     }
     
+    /**
+     * Algorithm của checksum trong FILE_META ("MD5", "SHA-256", "CRC32C")
+     */
+    public void setChecksumAlgorithm(String algorithm) {
+        metadata.put("checksumAlgorithm", algorithm);
+    }
+    
+    /**
+     * @return null nếu sender không ghi algorithm (MD5)
+     */
+    public String getChecksumAlgorithm() {
+        return (String) metadata.get("checksumAlgorithm");
+    }
+    
+    /**
+     * Transfer id - sender chọn, gắn vào FILE_META và mọi FILE_ACK của transfer đó
+     */
+    public void setTransferId(String transferId) {
+        metadata.put("transferId", transferId);
+    }
+    
+    public String getTransferId() {
+        return (String) metadata.get("transferId");
+    }
+    
+    /**
+     * FILE_ACK trả lời một FILE_META: receiver accept hoặc decline
+     * (content là lý do khi decline)
+     */
+    public void setFileAccepted(boolean accepted) {
+        metadata.put("accepted", accepted);
+    }
+    
+    public boolean isFileAccepted() {
+        return Boolean.TRUE.equals(metadata.get("accepted"));
+    }
+    
+    /**
+     * Cumulative FILE_ACK: mọi chunk tới sequence này (inclusive) đã được ghi
+     */
+    public void setAckSequence(int sequence) {
+        metadata.put("ackSequence", sequence);
+    }
+    
+    public Integer getAckSequence() {
+        return (Integer) metadata.get("ackSequence");
+    }
+    
+    /**
+     * FILE_ACK accept của một transfer bị gián đoạn - sender bắt đầu từ chunk này
+     */
+    public void setResumeFrom(int sequence) {
+        metadata.put("resumeFrom", sequence);
+    }
+    
+    public int getResumeFrom() {
+        Object resumeFrom = metadata.get("resumeFrom");
+        return resumeFrom instanceof Integer ? (Integer) resumeFrom : 0;
+    }
+    
+    /**
+     * File relay endpoint do server cấp - token dùng cho RelayHandshake
+     */
+    public void setRelayEndpoint(String token, int port) {
+        metadata.put("relayToken", token);
+        metadata.put("relayPort", port);
+    }
+    
+    public String getRelayToken() {
+        return (String) metadata.get("relayToken");
+    }
+    
+    public Integer getRelayPort() {
+        return (Integer) metadata.get("relayPort");
+    }
+    
+    /**
+     * FILE_ACK accept forward cho sender khi server có blob store: sender trả
+     * lời bằng proof trong RelayHandshake (xem ChecksumUtil.ownershipProof).
+     * Mọi transfer dedup được đều có challenge - không tiết lộ server đã có
+     * file hay chưa.
+     */
+    public void setOwnershipChallenge(byte[] nonce, long offset, int length) {
+        metadata.put("proofNonce", nonce);
+        metadata.put("proofOffset", offset);
+        metadata.put("proofLength", length);
+    }
+    
+    public byte[] getProofNonce() {
+        return (byte[]) metadata.get("proofNonce");
+    }
+    
+    public Long getProofOffset() {
+        return (Long) metadata.get("proofOffset");
+    }
+    
+    public Integer getProofLength() {
+        return (Integer) metadata.get("proofLength");
+    }
+    
     /**
      * Set chunk data cho FILE_CHUNK message
      * @param sequence Số thứ tự chunk (0-based)
@@ -101,6 +204,17 @@ public class Message implements Serializable {
         return (byte[]) metadata.get("data");
     }
     
+    /**
+     * CRC32C của chunk data - receiver bỏ chunk hỏng (sender gửi lại sau timeout)
+     */
+    public void setChunkChecksum(int crc32c) {
+        metadata.put("chunkCrc", crc32c);
+    }
+    
+    public Integer getChunkChecksum() {
+        return (Integer) metadata.get("chunkCrc");
+    }
+    
     /**
      * Set room/channel info
      */
@@ -0,0 +1,29 @@
+package common.protocol;
+
+import java.io.IOException;
+
+/**
+ * MessageCodec - Strategy cho payload encoding của một frame
+ *
+ * Client và server negotiate codec trong CONNECT handshake (xem FrameCodec);
+ * Java serialization luôn được hỗ trợ làm fallback.
+ *
+ * Design Pattern: Strategy Pattern
+ */
+public interface MessageCodec {
+
+    /**
+     * Tên codec dùng trong handshake metadata ("java", "binary")
+     */
+    String getName();
+
+    /**
+     * Encode message thành một frame hoàn chỉnh [int32 length][payload]
+     */
+    byte[] encode(Message msg) throws IOException;
+
+    /**
+     * Decode payload của một frame (không bao gồm header)
+     */
+    Message decode(byte[] buf, int offset, int length) throws IOException;
+}
@@ -0,0 +1,18 @@
+package common.protocol;
+
+import java.io.IOException;
+
+/**
+ * MessageEncodingException - Codec không encode được một message
+ *
+ * Lỗi của riêng message đó (vd. metadata value không có dạng trên wire),
+ * không phải lỗi của connection: writers bỏ qua message và tiếp tục ghi
+ * các frames khác thay vì disconnect recipient.
+ */
+public class MessageEncodingException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public MessageEncodingException(String codec, Throwable cause) {
+        super("Cannot encode message with " + codec + " codec: " + cause.getMessage(), cause);
+    }
+}
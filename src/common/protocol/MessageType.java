@@ -3,6 +3,8 @@ package common.protocol;
 /**
  * Enum định nghĩa các loại message trong protocol
  * Network Protocol Layer - Application Layer (OSI Model Layer 7)
+ * 
+ * BinaryMessageCodec encode type bằng ordinal - chỉ thêm giá trị mới ở cuối enum
  */
 public enum MessageType {
     // Connection Management
@@ -30,5 +32,8 @@ public enum MessageType {
     DISCONNECT,     // Client -> Server: Graceful disconnect
     
     // Server Notifications
-    SERVER          // Server -> Client: Thông báo hệ thống
+    SERVER,         // Server -> Client: Thông báo hệ thống
+    
+    // Delivery receipts
+    ACK             // Server -> Client: Message có metadata "messageId" đã được lưu durable
 }
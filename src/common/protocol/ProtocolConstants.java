@@ -19,12 +19,53 @@ public class ProtocolConstants {
     // Buffer Sizes
     public static final int BUFFER_SIZE = 8192;              // 8KB buffer cho I/O operations
     public static final int MAX_MESSAGE_SIZE = 1024 * 1024;  // 1MB max message size
+    public static final int FRAME_HEADER_SIZE = 4;           // int32 length prefix per frame
+    public static final int OUTBOUND_QUEUE_CAPACITY = 1024;  // Max queued frames per client
+    public static final int WRITE_BATCH_MAX = 64;            // Max frames per gathered write/flush
     
     // File Transfer
     public static final int CHUNK_SIZE = 64 * 1024;          // 64KB chunks (optimal for TCP window)
     public static final long MAX_FILE_SIZE = 100 * 1024 * 1024L; // 100MB max file size
-    public static final int FILE_TRANSFER_TIMEOUT = 60000;   // 60 seconds per chunk
+    public static final int FILE_TRANSFER_TIMEOUT = 60000;   // 60 seconds without reply / progress
+    public static final int FILE_OFFER_TIMEOUT = 300000;     // 5 minutes cho receiver accept một FILE_META
     public static final int MAX_RETRY_ATTEMPTS = 3;          // Retry failed chunks 3 times
+    public static final int FILE_WINDOW_SIZE = 16;           // FILE_CHUNKs in flight before the first FILE_ACK (1MB)
+    public static final int FILE_RETRANSMIT_TIMEOUT = 3000;  // Resend the window if the cumulative ACK does not advance
+    public static final int FILE_RELAY_PORT = 5001;          // Raw byte relay sau FILE_META / FILE_ACK
+    public static final String FILE_STORE_DIR = "data/blobs"; // Content-addressed blobs (file relay dedup)
+    public static final long FILE_STORE_QUOTA = 1024 * 1024 * 1024L; // 1GB - LRU eviction above this
+    public static final int FILE_PROOF_LENGTH = 64 * 1024;   // Range sender phải hash để dùng blob đã lưu
+    
+    // Message History
+    public static final String HISTORY_DIR = "data/history";
+    public static final long HISTORY_SEGMENT_BYTES = 16 * 1024 * 1024L; // 16MB per segment file
+    public static final int HISTORY_PAGE_SIZE = 50;          // Default page size for GET /api/messages
+    public static final int HISTORY_MAX_PAGE_SIZE = 500;     // Max messages per history page
+    public static final int HISTORY_COMMIT_BATCH_MAX = 4096; // Max appends per group commit
+    
+    // Rooms
+    public static final int ROOM_MAX_MEMBERS = 100;          // Capacity of rooms created with /join
+
+    // Room Backfill
+    public static final int ROOM_HISTORY_CAPACITY = 100;     // Recent messages kept in memory per room
+    public static final int ROOM_BACKFILL_COUNT = 20;        // Messages replayed on ACCEPT / room join
+    
+    // WebSocket Typing Indicators
+    public static final int TYPING_FLUSH_INTERVAL = 250;     // Max one "who is typing" update per room per 250ms
+    public static final int TYPING_TTL = 5000;               // Typing flag expires 5 seconds after last keystroke
+    
+    // WebSocket Compression (permessage-deflate)
+    public static final int WS_DEFLATE_LEVEL = 6;            // zlib level 1 (fast) - 9 (small)
+    public static final int WS_DEFLATE_MIN_SIZE = 64;        // Frames nhỏ hơn gửi uncompressed
+    
+    // gRPC Streams
+    public static final int GRPC_STREAM_BUFFER = 256;        // Max messages queued per stream while it is not ready
+    public static final int GRPC_BATCH_MAX = 64;             // Max messages per ChatMessageBatch
+    public static final int GRPC_FLOW_WINDOW = 1024 * 1024;  // Initial HTTP/2 flow-control window per stream (1MB)
+    public static final int GRPC_MAX_CONCURRENT_STREAMS = 100; // Concurrent calls per connection
+    public static final int GRPC_KEEPALIVE_TIME = 60000;     // Server PING after 60 seconds without reads
+    public static final int GRPC_KEEPALIVE_TIMEOUT = 20000;  // Close the connection if the PING ack takes > 20 seconds
+    public static final int GRPC_PERMIT_KEEPALIVE_TIME = 30000; // Client PINGs more often than this are rejected (GOAWAY)
     
     // Heartbeat / Keep-alive
     public static final int PING_INTERVAL = 30000;           // Send PING every 30 seconds
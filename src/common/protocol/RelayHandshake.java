@@ -0,0 +1,98 @@
+package common.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * RelayHandshake - Header đầu tiên trên một file relay connection
+ *
+ * Format: [int magic "RLY2"][byte role][UTF token][UTF proof]. Proof là câu
+ * trả lời ownership challenge của FILE_ACK ("" = không có / receiver).
+ *
+ * Server trả lời sender một status byte: STATUS_UPLOAD - sender ghi đúng
+ * fileSize bytes (từ offset resume) và server splice raw bytes sang
+ * receiver, không có Message framing; STATUS_STORED - proof đúng, server
+ * gửi blob đã lưu, sender không upload. Receiver không nhận status, chỉ đọc.
+ *
+ * Token do server cấp trong FILE_META (receiver) và FILE_ACK (sender).
+ */
+public final class RelayHandshake {
+
+    public static final int MAGIC = 0x524C5932;     // "RLY2"
+    public static final byte ROLE_SENDER = 1;
+    public static final byte ROLE_RECEIVER = 2;
+    public static final byte STATUS_UPLOAD = 1;
+    public static final byte STATUS_STORED = 2;
+
+    public final byte role;
+    public final String token;
+    public final String proof;      // "" = không có
+
+    private RelayHandshake(byte role, String token, String proof) {
+        this.role = role;
+        this.token = token;
+        this.proof = proof;
+    }
+
+    public static ByteBuffer encode(byte role, String token) {
+        return encode(role, token, null);
+    }
+
+    /**
+     * @param proof ownership proof (null = không có)
+     */
+    public static ByteBuffer encode(byte role, String token, String proof) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeByte(role);
+            out.writeUTF(token);
+            out.writeUTF(proof != null ? proof : "");
+            return ByteBuffer.wrap(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);    // ByteArrayOutputStream không throw
+        }
+    }
+
+    /**
+     * Đọc đúng header, không đọc quá - bytes sau đó là file data
+     * @throws IOException nếu magic hoặc role không hợp lệ
+     */
+    public static RelayHandshake read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a relay connection");
+        }
+        byte role = data.readByte();
+        if (role != ROLE_SENDER && role != ROLE_RECEIVER) {
+            throw new IOException("Unknown relay role: " + role);
+        }
+        String token = data.readUTF();
+        return new RelayHandshake(role, token, data.readUTF());
+    }
+
+    /**
+     * Status server trả lời sender sau handshake
+     * @throws IOException nếu server đóng connection (token / peer bị từ chối)
+     */
+    public static byte readStatus(ReadableByteChannel channel) throws IOException {
+        ByteBuffer status = ByteBuffer.allocate(1);
+        while (status.hasRemaining()) {
+            if (channel.read(status) < 0) {
+                throw new EOFException("Relay rejected the transfer");
+            }
+        }
+        byte value = status.get(0);
+        if (value != STATUS_UPLOAD && value != STATUS_STORED) {
+            throw new IOException("Unknown relay status: " + value);
+        }
+        return value;
+    }
+}
@@ -1,20 +1,118 @@
 package common.util;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
 
 /**
  * ChecksumUtil - Utility class để tính checksum cho file integrity verification
- * Sử dụng MD5 hash algorithm
+ * Whole-file: MD5 (mặc định), SHA-256 hoặc CRC32C - tên algorithm đi kèm
+ * checksum trong FILE_META. Per-chunk: CRC32C.
  * 
  * Network Concept: Data Integrity Check
  * Use Case: Verify file không bị corrupt trong quá trình transfer
  */
 public class ChecksumUtil {
     
+    // Mapped window khi hash file trên disk - không copy qua heap buffer
+    private static final long MAP_WINDOW = 64 * 1024 * 1024L;
+    
+    /**
+     * Whole-file checksum algorithms
+     */
+    public enum Algorithm {
+        MD5("MD5", 32, true),
+        SHA_256("SHA-256", 64, true),
+        CRC32C("CRC32C", 8, false);     // Nhanh nhất, chỉ phát hiện corruption
+        
+        private final String name;
+        private final int hexLength;
+        private final boolean cryptographic;
+        
+        Algorithm(String name, int hexLength, boolean cryptographic) {
+            this.name = name;
+            this.hexLength = hexLength;
+            this.cryptographic = cryptographic;
+        }
+        
+        /**
+         * Tên dùng trong FILE_META và MessageDigest
+         */
+        public String getName() { return name; }
+        public int getHexLength() { return hexLength; }
+        
+        /**
+         * @return true nếu checksum đủ mạnh để định danh nội dung (blob store key)
+         */
+        public boolean isCryptographic() { return cryptographic; }
+        
+        /**
+         * @param name tên trong FILE_META - null là MD5 (clients cũ)
+         * @throws IllegalArgumentException nếu algorithm không được hỗ trợ
+         */
+        public static Algorithm forName(String name) {
+            if (name == null) {
+                return MD5;
+            }
+            for (Algorithm algorithm : values()) {
+                if (algorithm.name.equalsIgnoreCase(name)) {
+                    return algorithm;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported checksum algorithm: " + name);
+        }
+    }
+    
+    /**
+     * Checksum để feed từng phần trong lúc gửi / nhận
+     */
+    public static IncrementalChecksum newChecksum(Algorithm algorithm) {
+        return new IncrementalChecksum(algorithm);
+    }
+    
+    /**
+     * Calculate checksum của file - file được map từng window 64MB và hash
+     * thẳng từ page cache (không có read buffer 8KB / copy vào heap)
+     * 
+     * @param file File cần tính checksum
+     * @param algorithm Whole-file algorithm
+     * @return hash string (hex format)
+     * @throws IOException if file read error
+     */
+    public static String calculate(File file, Algorithm algorithm) throws IOException {
+        IncrementalChecksum checksum = newChecksum(algorithm);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAP_WINDOW) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(MAP_WINDOW, size - position));
+                checksum.update(window);
+            }
+        }
+        return checksum.getValue();
+    }
+    
+    /**
+     * Proof of ownership cho blob store dedup: SHA-256(nonce || length bytes
+     * từ offset). Server chọn nonce và range ngẫu nhiên cho mỗi transfer nên
+     * chỉ ai có nội dung file mới trả lời được - biết checksum là không đủ.
+     * 
+     * @param channel File (sender) hoặc blob (server)
+     * @throws IOException nếu file ngắn hơn offset + length
+     */
+    public static String ownershipProof(FileChannel channel, byte[] nonce, long offset, int length)
+            throws IOException {
+        IncrementalChecksum proof = newChecksum(Algorithm.SHA_256);
+        proof.update(nonce);
+        proof.update(channel, offset, length);
+        return proof.getValue();
+    }
+    
     /**
      * Calculate MD5 checksum của file
      * 
@@ -23,26 +121,17 @@ public class ChecksumUtil {
      * @throws IOException if file read error
      */
     public static String calculateMD5(File file) throws IOException {
-        try {
-            MessageDigest md = MessageDigest.getInstance("MD5");
-            
-            try (FileInputStream fis = new FileInputStream(file)) {
-                byte[] buffer = new byte[8192];
-                int bytesRead;
-                
-                while ((bytesRead = fis.read(buffer)) != -1) {
-                    md.update(buffer, 0, bytesRead);
-                }
-            }
-            
-            // Convert byte array to hex string
-            byte[] digest = md.digest();
-            return bytesToHex(digest);
-            
-        } catch (NoSuchAlgorithmException e) {
-            // MD5 should always be available
-            throw new RuntimeException("MD5 algorithm not available", e);
-        }
+        return calculate(file, Algorithm.MD5);
+    }
+    
+    /**
+     * CRC32C của một chunk - hardware-accelerated (SSE4.2 / ARMv8 CRC)
+     * trên JVM hiện đại, dùng cho per-chunk integrity check
+     */
+    public static int crc32c(byte[] data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
     }
     
     /**
@@ -92,7 +181,7 @@ public class ChecksumUtil {
      * @param bytes Byte array
      * @return Hex string representation
      */
-    private static String bytesToHex(byte[] bytes) {
+    static String bytesToHex(byte[] bytes) {
         StringBuilder hexString = new StringBuilder();
         for (byte b : bytes) {
             String hex = Integer.toHexString(0xff & b);
@@ -0,0 +1,121 @@
+package common.util;
+
+import common.util.ChecksumUtil.Algorithm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32C;
+
+/**
+ * IncrementalChecksum - Whole-file checksum được feed từng phần theo thứ tự
+ * trong lúc data được gửi / nhận, thay vì đọc lại cả file sau transfer.
+ *
+ * Một instance chỉ dùng trên một thread tại một thời điểm (như MessageDigest).
+ *
+ * Design Pattern: Adapter (MessageDigest / java.util.zip.Checksum)
+ */
+public class IncrementalChecksum {
+
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;   // 1MB - update(FileChannel, ...)
+
+    private final Algorithm algorithm;
+    private final MessageDigest digest;     // MD5 / SHA-256
+    private final CRC32C crc;               // CRC32C
+    private long length;
+
+    IncrementalChecksum(Algorithm algorithm) {
+        this.algorithm = algorithm;
+        if (algorithm == Algorithm.CRC32C) {
+            this.digest = null;
+            this.crc = new CRC32C();
+        } else {
+            try {
+                this.digest = MessageDigest.getInstance(algorithm.getName());
+            } catch (NoSuchAlgorithmException e) {
+                // MD5 và SHA-256 bắt buộc có trong mọi JRE
+                throw new IllegalStateException(algorithm.getName() + " algorithm not available", e);
+            }
+            this.crc = null;
+        }
+    }
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return số bytes đã được feed
+     */
+    public long getLength() {
+        return length;
+    }
+
+    public void update(byte[] data) {
+        update(data, 0, data.length);
+    }
+
+    public void update(byte[] data, int offset, int count) {
+        if (crc != null) {
+            crc.update(data, offset, count);
+        } else {
+            digest.update(data, offset, count);
+        }
+        length += count;
+    }
+
+    /**
+     * Feed remaining bytes của buffer (heap, direct hoặc mapped) -
+     * position của buffer được đưa tới limit
+     */
+    public void update(ByteBuffer data) {
+        length += data.remaining();
+        if (crc != null) {
+            crc.update(data);
+        } else {
+            digest.update(data);
+        }
+    }
+
+    /**
+     * Feed length bytes của channel từ position - positional reads, không
+     * đổi position của channel (ví dụ phần đã nhận trước khi resume)
+     */
+    public void update(FileChannel channel, long position, long count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(READ_BUFFER_SIZE, Math.max(1, count)));
+        long end = position + count;
+        while (position < end) {
+            buffer.clear();
+            if (end - position < buffer.capacity()) {
+                buffer.limit((int) (end - position));
+            }
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("File ended at " + position + "/" + end + " bytes");
+            }
+            position += n;
+            buffer.flip();
+            update(buffer);
+        }
+    }
+
+    /**
+     * Checksum của mọi bytes đã feed (hex, lowercase) - kết thúc instance
+     */
+    public String getValue() {
+        if (crc != null) {
+            return String.format("%08x", crc.getValue());
+        }
+        return ChecksumUtil.bytesToHex(digest.digest());
+    }
+
+    /**
+     * @return true nếu checksum của bytes đã feed khớp expected (case-insensitive)
+     */
+    public boolean matches(String expected) {
+        return expected != null && getValue().equalsIgnoreCase(expected);
+    }
+}
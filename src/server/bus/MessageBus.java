@@ -0,0 +1,184 @@
+package server.bus;
+
+import common.protocol.EncodedMessage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * MessageBus - Publish/subscribe bus chung cho mọi transport
+ *
+ * Một username namespace duy nhất: TCP, WebSocket và gRPC users claim tên
+ * ở đây (case-insensitive, atomic), nên "alice" trên WebSocket chặn "Alice"
+ * trên TCP. MessageRouter route mỗi message một lần; bus chia recipients
+ * theo TransportAdapter và mỗi adapter nhận message một lần, kèm toàn bộ
+ * recipients của nó, để encode sang wire form của mình đúng một lần.
+ *
+ * Hai bước: claim() giữ tên (handshake đang chạy), subscribe() bắt đầu nhận
+ * broadcasts - transport quyết định khi nào client sẵn sàng nhận.
+ *
+ * Design Pattern: Mediator + Publish/Subscribe
+ */
+public class MessageBus {
+
+    // lowercase username -> subscriber đã claim tên
+    private final Map<String, Subscriber> names;
+    // adapter -> subscribers đang nhận broadcasts
+    private final Map<TransportAdapter, Set<Subscriber>> subscribers;
+
+    public MessageBus() {
+        this.names = new ConcurrentHashMap<>();
+        this.subscribers = new ConcurrentHashMap<>();
+    }
+
+    // Username namespace
+
+    /**
+     * Claim username của subscriber - putIfAbsent nên hai transports tranh
+     * cùng một tên không thể cùng thắng
+     * @return false nếu tên đã được dùng trên bất kỳ transport nào
+     */
+    public boolean claim(Subscriber subscriber) {
+        return claim(subscriber.getUsername(), subscriber);
+    }
+
+    /**
+     * Claim username cho subscriber chưa mang tên - transport chỉ gán tên
+     * cho subscriber sau khi claim thắng, nên cleanup không bao giờ thấy
+     * một tên subscriber không sở hữu
+     * @return false nếu tên đã được dùng trên bất kỳ transport nào
+     */
+    public boolean claim(String username, Subscriber subscriber) {
+        return names.putIfAbsent(nameKey(username), subscriber) == null;
+    }
+
+    public boolean isTaken(String username) {
+        return username != null && names.containsKey(nameKey(username));
+    }
+
+    /**
+     * Subscriber đang giữ username, null nếu offline
+     */
+    public Subscriber getSubscriber(String username) {
+        return username != null ? names.get(nameKey(username)) : null;
+    }
+
+    /**
+     * Usernames đang online trên mọi transport - bỏ qua subscriber vừa claim
+     * nhưng chưa được gán tên (handshake đang chạy)
+     */
+    public List<String> getUsernames() {
+        List<String> usernames = new ArrayList<>(names.size());
+        for (Subscriber subscriber : names.values()) {
+            String username = subscriber.getUsername();
+            if (username != null) {
+                usernames.add(username);
+            }
+        }
+        return usernames;
+    }
+
+    public int getUserCount() {
+        return names.size();
+    }
+
+    // Subscriptions
+
+    /**
+     * Bắt đầu nhận broadcasts - subscriber phải đã claim tên
+     */
+    public void subscribe(Subscriber subscriber) {
+        subscribers.computeIfAbsent(subscriber.getTransport(), t -> ConcurrentHashMap.newKeySet())
+                .add(subscriber);
+    }
+
+    /**
+     * Ngừng nhận broadcasts và giải phóng username
+     * @return true nếu subscriber đang giữ tên (caller broadcast leave đúng một lần)
+     */
+    public boolean unsubscribe(Subscriber subscriber) {
+        Set<Subscriber> set = subscribers.get(subscriber.getTransport());
+        if (set != null) {
+            set.remove(subscriber);
+        }
+        return subscriber.getUsername() != null
+                && names.remove(nameKey(subscriber.getUsername()), subscriber);
+    }
+
+    /**
+     * Subscribers đang nhận broadcasts trên một transport
+     */
+    public Collection<Subscriber> getSubscribers(TransportAdapter transport) {
+        Set<Subscriber> set = subscribers.get(transport);
+        return set != null ? set : Collections.emptySet();
+    }
+
+    // Delivery
+
+    /**
+     * Broadcast tới mọi subscriber - mỗi adapter được gọi một lần
+     */
+    public void publish(EncodedMessage msg) {
+        subscribers.forEach((transport, recipients) -> {
+            if (!recipients.isEmpty()) {
+                deliver(transport, msg, recipients);
+            }
+        });
+    }
+
+    /**
+     * Broadcast một batch như một unit - mỗi adapter nhận cả batch một lần
+     */
+    public void publishAll(List<EncodedMessage> msgs) {
+        subscribers.forEach((transport, recipients) -> {
+            if (!recipients.isEmpty()) {
+                try {
+                    transport.deliverAll(msgs, recipients);
+                } catch (RuntimeException e) {
+                    // Một transport lỗi không được chặn delivery trên các transport khác
+                    System.err.println("[BUS] Delivery via " + transport.getName() + " failed: " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Gửi tới một user theo username, trên transport của user đó
+     * @return false nếu user offline
+     */
+    public boolean sendTo(String username, EncodedMessage msg) {
+        Subscriber target = getSubscriber(username);
+        if (target == null) {
+            return false;
+        }
+        send(target, msg);
+        return true;
+    }
+
+    public void send(Subscriber target, EncodedMessage msg) {
+        deliver(target.getTransport(), msg, Collections.singletonList(target));
+    }
+
+    private static void deliver(TransportAdapter transport, EncodedMessage msg,
+            Collection<Subscriber> recipients) {
+        try {
+            transport.deliver(msg, recipients);
+        } catch (RuntimeException e) {
+            // Một transport lỗi không được chặn delivery trên các transport khác
+            System.err.println("[BUS] Delivery via " + transport.getName() + " failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Usernames là case-insensitive - key luôn lowercase
+     */
+    private static String nameKey(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,20 @@
+package server.bus;
+
+/**
+ * Subscriber - Một user đã claim username trên MessageBus, bất kể transport
+ *
+ * TCP connections, WebSocket clients và gRPC streams đều implement interface
+ * này; MessageBus chỉ cần username (namespace chung) và adapter để deliver.
+ */
+public interface Subscriber {
+
+    /**
+     * Username như user đã đăng ký (giữ nguyên hoa/thường)
+     */
+    String getUsername();
+
+    /**
+     * Adapter chịu trách nhiệm encode và ghi messages tới subscriber này
+     */
+    TransportAdapter getTransport();
+}
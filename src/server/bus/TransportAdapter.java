@@ -0,0 +1,46 @@
+package server.bus;
+
+import common.protocol.EncodedMessage;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * TransportAdapter - Cầu nối giữa MessageBus và một protocol (TCP, WebSocket, gRPC)
+ *
+ * Bus route message một lần rồi giao cho mỗi adapter toàn bộ recipients của
+ * nó; adapter encode message sang wire form của mình một lần
+ * (EncodedMessage.wireForm / frame) và ghi cùng bytes tới mọi recipient.
+ *
+ * Design Pattern: Adapter
+ */
+public interface TransportAdapter {
+
+    /**
+     * Tên transport cho logs/metrics ("tcp", "websocket", "grpc")
+     */
+    String getName();
+
+    /**
+     * Deliver message tới recipients - tất cả đều thuộc adapter này.
+     * Không được block trên một client chậm; messages không có dạng trên
+     * transport này (vd. ACK, room CHAT) được bỏ qua.
+     */
+    void deliver(EncodedMessage msg, Collection<Subscriber> recipients);
+
+    /**
+     * Deliver một batch theo thứ tự - adapter có wire form cho batch (gRPC
+     * ChatMessageBatch) override để gửi cả batch trong một lần
+     */
+    default void deliverAll(List<EncodedMessage> msgs, Collection<Subscriber> recipients) {
+        for (EncodedMessage msg : msgs) {
+            deliver(msg, recipients);
+        }
+    }
+
+    /**
+     * Gửi presence snapshot theo format của transport. Caller giữ presence
+     * lock nên version khớp với deltas sau đó.
+     */
+    void deliverPresenceSnapshot(Subscriber target, Collection<String> usernames, long version);
+}
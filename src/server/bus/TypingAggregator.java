@@ -0,0 +1,121 @@
+package server.bus;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+/**
+ * TypingAggregator - Coalesce typing indicators thay vì rebroadcast mỗi keystroke
+ *
+ * "typing" frames chỉ cập nhật state của user (set hoặc refresh deadline) -
+ * không gửi gì ngay. Mỗi flush interval, room nào có state thay đổi (user
+ * bắt đầu / ngừng gõ, hoặc flag hết hạn sau ttl) nhận đúng một update với
+ * danh sách đầy đủ những người đang gõ. Refresh liên tục của cùng một user
+ * không tạo frame nào.
+ *
+ * Một instance cho cả server (ServerContext): typing từ WebSocket và gRPC
+ * Chat streams gộp chung, mỗi transport đăng ký listener để gửi update
+ * theo wire form của mình.
+ *
+ * Design Pattern: Aggregator, Observer
+ */
+public class TypingAggregator {
+
+    /**
+     * Typing state của một room - username -> deadline (epoch millis)
+     */
+    private static final class RoomTyping {
+        final Map<String, Long> typists = new ConcurrentHashMap<>();
+        final AtomicBoolean dirty = new AtomicBoolean();
+    }
+
+    private final long intervalMs;
+    private final long ttlMs;
+    private final List<BiConsumer<String, List<String>>> listeners;   // (room, users đang gõ)
+    private final Map<String, RoomTyping> rooms;
+    private ScheduledExecutorService scheduler;
+
+    public TypingAggregator(long intervalMs, long ttlMs) {
+        this.intervalMs = intervalMs;
+        this.ttlMs = ttlMs;
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.rooms = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Transport nhận mỗi update (room, danh sách users đang gõ đã sort)
+     */
+    public void addListener(BiConsumer<String, List<String>> listener) {
+        listeners.add(listener);
+    }
+
+    public void start(ThreadFactory threadFactory) {
+        scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        scheduler.scheduleAtFixedRate(this::flush, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Ghi nhận typing frame - O(1), không gửi gì
+     */
+    public void update(String room, String username, boolean typing) {
+        RoomTyping state = rooms.computeIfAbsent(room, r -> new RoomTyping());
+        if (typing) {
+            if (state.typists.put(username, System.currentTimeMillis() + ttlMs) == null) {
+                state.dirty.set(true);
+            }
+        } else if (state.typists.remove(username) != null) {
+            state.dirty.set(true);
+        }
+    }
+
+    /**
+     * User disconnect - bỏ flag ở mọi room
+     */
+    public void remove(String username) {
+        for (RoomTyping state : rooms.values()) {
+            if (state.typists.remove(username) != null) {
+                state.dirty.set(true);
+            }
+        }
+    }
+
+    /**
+     * Expire flags quá hạn rồi emit một update cho mỗi room đã thay đổi
+     */
+    private void flush() {
+        try {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, RoomTyping> entry : rooms.entrySet()) {
+                RoomTyping state = entry.getValue();
+                if (state.typists.values().removeIf(deadline -> deadline < now)) {
+                    state.dirty.set(true);
+                }
+                if (state.dirty.getAndSet(false)) {
+                    List<String> users = new ArrayList<>(state.typists.keySet());
+                    Collections.sort(users);
+                    for (BiConsumer<String, List<String>> listener : listeners) {
+                        listener.accept(entry.getKey(), users);
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // Không để một lỗi giết scheduled task
+            System.err.println("[TYPING] Flush failed: " + e.getMessage());
+        }
+    }
+}
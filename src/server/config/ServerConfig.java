@@ -15,10 +15,51 @@ import java.util.Properties;
  */
 public class ServerConfig {
     
+    /**
+     * TCP transport implementation
+     * BLOCKING: thread-per-connection (ClientHandler)
+     * NIO: Selector-based reactors (NioTransport)
+     */
+    public enum TransportMode { BLOCKING, NIO }
+    
+    /**
+     * Executor cho ClientHandler, heartbeat và các background tasks
+     * CACHED: platform threads (Executors.newCachedThreadPool)
+     * VIRTUAL: virtual threads - cần Java 21+ runtime, fallback về CACHED
+     */
+    public enum ExecutorMode { CACHED, VIRTUAL }
+    
+    /**
+     * Executor chạy gRPC service handlers
+     * CACHED: default của grpc-java - tạo thread mới khi burst (latency spikes)
+     * FIXED: pool cố định grpc.executor.threads, threads được start sẵn
+     * DIRECT: chạy trên Netty worker event loop - chỉ dùng khi mọi handler
+     *         non-blocking (ChatServiceImpl chỉ enqueue)
+     */
+    public enum GrpcExecutorMode { CACHED, FIXED, DIRECT }
+    
+    /**
+     * Hành vi khi outbound queue của một client đầy
+     * DROP_OLDEST: bỏ message cũ nhất trong queue
+     * DISCONNECT: ngắt kết nối slow consumer
+     * COALESCE_PRESENCE: bỏ join/leave notification cũ trước, rồi mới drop oldest
+     */
+    public enum OverflowPolicy { DROP_OLDEST, DISCONNECT, COALESCE_PRESENCE }
+    
+    /**
+     * Khi nào một history append được coi là durable (và sender nhận ACK)
+     * NONE: đã ghi vào OS page cache, không fsync
+     * BATCHED: group commit - một fsync cho mọi messages trong cùng batch
+     * PER_MESSAGE: fsync riêng cho từng message (chậm nhất, giới hạn bởi IOPS)
+     */
+    public enum Durability { NONE, BATCHED, PER_MESSAGE }
+    
     // Network settings
     private int port;
     private int backlog;
     private int socketTimeout;
+    private TransportMode transportMode;
+    private int nioReactors;
     
     // SSL settings
     private boolean sslEnabled;
@@ -27,6 +68,53 @@ public class ServerConfig {
     
     // Thread pool settings
     private int maxClients;
+    private ExecutorMode executorMode;
+    
+    // Outbound queue settings
+    private int outboundQueueCapacity;
+    private OverflowPolicy overflowPolicy;
+    private int writeBatchMax;
+    private long writeBatchLingerMicros;
+    
+    // Message history settings
+    private boolean historyEnabled;
+    private String historyDir;
+    private long historySegmentBytes;
+    private Durability historyDurability;
+    
+    // Room settings
+    private int roomMaxMembers;
+    private int roomHistoryCapacity;
+    private int roomBackfillCount;
+    
+    // WebSocket compression settings
+    private boolean wsDeflateEnabled;
+    private int wsDeflateLevel;
+    private boolean wsDeflateContextTakeover;
+    private int wsDeflateMinSize;
+    
+    // WebSocket typing indicator settings
+    private int typingFlushInterval;
+    private int typingTtl;
+    
+    // gRPC stream settings
+    private int grpcStreamBuffer;
+    private OverflowPolicy grpcOverflowPolicy;
+    private int grpcBatchMax;
+    
+    // gRPC server (Netty) settings
+    private int grpcBossThreads;
+    private int grpcWorkerThreads;
+    private GrpcExecutorMode grpcExecutorMode;
+    private int grpcExecutorThreads;
+    private int grpcFlowControlWindow;
+    private int grpcMaxConcurrentStreams;
+    private long grpcKeepAliveTime;
+    private long grpcKeepAliveTimeout;
+    private long grpcPermitKeepAliveTime;
+    private boolean grpcPermitKeepAliveWithoutCalls;
+    private long grpcMaxConnectionAge;
+    private long grpcMaxConnectionAgeGrace;
     
     // Heartbeat settings
     private int pingInterval;
@@ -36,6 +124,13 @@ public class ServerConfig {
     // File transfer settings
     private int chunkSize;
     private long maxFileSize;
+    private boolean fileRelayEnabled;
+    private int fileRelayPort;
+    private int fileOfferTimeout;
+    private int fileTransferTimeout;
+    private boolean fileStoreEnabled;
+    private String fileStoreDir;
+    private long fileStoreQuota;
     
     /**
      * Load configuration from file
@@ -53,6 +148,10 @@ public class ServerConfig {
                 String.valueOf(ProtocolConstants.SOCKET_BACKLOG)));
         config.socketTimeout = Integer.parseInt(props.getProperty("server.socket.timeout", 
                 String.valueOf(ProtocolConstants.SOCKET_TIMEOUT)));
+        config.transportMode = TransportMode.valueOf(props.getProperty("server.transport", 
+                TransportMode.BLOCKING.name()).trim().toUpperCase());
+        config.nioReactors = Integer.parseInt(props.getProperty("server.nio.reactors", 
+                String.valueOf(defaultReactorCount())));
         
         config.sslEnabled = Boolean.parseBoolean(props.getProperty("ssl.enabled", "false"));
         config.keystorePath = props.getProperty("ssl.keystore.path", "server.jks");
@@ -60,6 +159,71 @@ public class ServerConfig {
         
         config.maxClients = Integer.parseInt(props.getProperty("server.max.clients", 
                 String.valueOf(ProtocolConstants.MAX_CLIENTS)));
+        config.executorMode = ExecutorMode.valueOf(props.getProperty("server.executor", 
+                ExecutorMode.CACHED.name()).trim().toUpperCase());
+        
+        config.outboundQueueCapacity = Integer.parseInt(props.getProperty("outbound.queue.capacity", 
+                String.valueOf(ProtocolConstants.OUTBOUND_QUEUE_CAPACITY)));
+        config.overflowPolicy = OverflowPolicy.valueOf(props.getProperty("outbound.overflow.policy", 
+                OverflowPolicy.DROP_OLDEST.name()).trim().toUpperCase());
+        config.writeBatchMax = Integer.parseInt(props.getProperty("outbound.batch.max", 
+                String.valueOf(ProtocolConstants.WRITE_BATCH_MAX)));
+        config.writeBatchLingerMicros = Long.parseLong(props.getProperty("outbound.batch.linger.micros", "0"));
+        
+        config.historyEnabled = Boolean.parseBoolean(props.getProperty("history.enabled", "true"));
+        config.historyDir = props.getProperty("history.dir", ProtocolConstants.HISTORY_DIR);
+        config.historySegmentBytes = Long.parseLong(props.getProperty("history.segment.bytes", 
+                String.valueOf(ProtocolConstants.HISTORY_SEGMENT_BYTES)));
+        config.historyDurability = Durability.valueOf(props.getProperty("history.durability", 
+                Durability.BATCHED.name()).trim().toUpperCase());
+        
+        config.roomMaxMembers = Integer.parseInt(props.getProperty("room.max.members", 
+                String.valueOf(ProtocolConstants.ROOM_MAX_MEMBERS)));
+        config.roomHistoryCapacity = Integer.parseInt(props.getProperty("room.history.capacity", 
+                String.valueOf(ProtocolConstants.ROOM_HISTORY_CAPACITY)));
+        config.roomBackfillCount = Integer.parseInt(props.getProperty("room.backfill.count", 
+                String.valueOf(ProtocolConstants.ROOM_BACKFILL_COUNT)));
+        
+        config.wsDeflateEnabled = Boolean.parseBoolean(props.getProperty("websocket.deflate.enabled", "true"));
+        config.wsDeflateLevel = Integer.parseInt(props.getProperty("websocket.deflate.level", 
+                String.valueOf(ProtocolConstants.WS_DEFLATE_LEVEL)));
+        config.wsDeflateContextTakeover = Boolean.parseBoolean(props.getProperty("websocket.deflate.context.takeover", "true"));
+        config.wsDeflateMinSize = Integer.parseInt(props.getProperty("websocket.deflate.min.size", 
+                String.valueOf(ProtocolConstants.WS_DEFLATE_MIN_SIZE)));
+        
+        config.typingFlushInterval = Integer.parseInt(props.getProperty("websocket.typing.interval", 
+                String.valueOf(ProtocolConstants.TYPING_FLUSH_INTERVAL)));
+        config.typingTtl = Integer.parseInt(props.getProperty("websocket.typing.ttl", 
+                String.valueOf(ProtocolConstants.TYPING_TTL)));
+        
+        config.grpcStreamBuffer = Integer.parseInt(props.getProperty("grpc.stream.buffer", 
+                String.valueOf(ProtocolConstants.GRPC_STREAM_BUFFER)));
+        config.grpcOverflowPolicy = OverflowPolicy.valueOf(props.getProperty("grpc.overflow.policy", 
+                OverflowPolicy.DROP_OLDEST.name()).trim().toUpperCase());
+        config.grpcBatchMax = Integer.parseInt(props.getProperty("grpc.batch.max", 
+                String.valueOf(ProtocolConstants.GRPC_BATCH_MAX)));
+        
+        config.grpcBossThreads = Integer.parseInt(props.getProperty("grpc.boss.threads", "1"));
+        config.grpcWorkerThreads = Integer.parseInt(props.getProperty("grpc.worker.threads", 
+                String.valueOf(defaultReactorCount())));
+        config.grpcExecutorMode = GrpcExecutorMode.valueOf(props.getProperty("grpc.executor", 
+                GrpcExecutorMode.FIXED.name()).trim().toUpperCase());
+        config.grpcExecutorThreads = Integer.parseInt(props.getProperty("grpc.executor.threads", 
+                String.valueOf(defaultReactorCount() * 2)));
+        config.grpcFlowControlWindow = Integer.parseInt(props.getProperty("grpc.flow.window", 
+                String.valueOf(ProtocolConstants.GRPC_FLOW_WINDOW)));
+        config.grpcMaxConcurrentStreams = Integer.parseInt(props.getProperty("grpc.max.concurrent.streams", 
+                String.valueOf(ProtocolConstants.GRPC_MAX_CONCURRENT_STREAMS)));
+        config.grpcKeepAliveTime = Long.parseLong(props.getProperty("grpc.keepalive.time", 
+                String.valueOf(ProtocolConstants.GRPC_KEEPALIVE_TIME)));
+        config.grpcKeepAliveTimeout = Long.parseLong(props.getProperty("grpc.keepalive.timeout", 
+                String.valueOf(ProtocolConstants.GRPC_KEEPALIVE_TIMEOUT)));
+        config.grpcPermitKeepAliveTime = Long.parseLong(props.getProperty("grpc.permit.keepalive.time", 
+                String.valueOf(ProtocolConstants.GRPC_PERMIT_KEEPALIVE_TIME)));
+        config.grpcPermitKeepAliveWithoutCalls = Boolean.parseBoolean(
+                props.getProperty("grpc.permit.keepalive.without.calls", "false"));
+        config.grpcMaxConnectionAge = Long.parseLong(props.getProperty("grpc.max.connection.age", "0"));
+        config.grpcMaxConnectionAgeGrace = Long.parseLong(props.getProperty("grpc.max.connection.age.grace", "0"));
         
         config.pingInterval = Integer.parseInt(props.getProperty("heartbeat.ping.interval", 
                 String.valueOf(ProtocolConstants.PING_INTERVAL)));
@@ -72,6 +236,17 @@ public class ServerConfig {
                 String.valueOf(ProtocolConstants.CHUNK_SIZE)));
         config.maxFileSize = Long.parseLong(props.getProperty("file.max.size", 
                 String.valueOf(ProtocolConstants.MAX_FILE_SIZE)));
+        config.fileRelayEnabled = Boolean.parseBoolean(props.getProperty("file.relay.enabled", "true"));
+        config.fileRelayPort = Integer.parseInt(props.getProperty("file.relay.port", 
+                String.valueOf(ProtocolConstants.FILE_RELAY_PORT)));
+        config.fileOfferTimeout = Integer.parseInt(props.getProperty("file.relay.offer.timeout", 
+                String.valueOf(ProtocolConstants.FILE_OFFER_TIMEOUT)));
+        config.fileTransferTimeout = Integer.parseInt(props.getProperty("file.relay.transfer.timeout", 
+                String.valueOf(ProtocolConstants.FILE_TRANSFER_TIMEOUT)));
+        config.fileStoreEnabled = Boolean.parseBoolean(props.getProperty("file.store.enabled", "false"));
+        config.fileStoreDir = props.getProperty("file.store.dir", ProtocolConstants.FILE_STORE_DIR);
+        config.fileStoreQuota = Long.parseLong(props.getProperty("file.store.quota", 
+                String.valueOf(ProtocolConstants.FILE_STORE_QUOTA)));
         
         return config;
     }
@@ -84,41 +259,133 @@ public class ServerConfig {
         config.port = ProtocolConstants.DEFAULT_PORT;
         config.backlog = ProtocolConstants.SOCKET_BACKLOG;
         config.socketTimeout = ProtocolConstants.SOCKET_TIMEOUT;
+        config.transportMode = TransportMode.BLOCKING;
+        config.nioReactors = defaultReactorCount();
         config.sslEnabled = false;
         config.keystorePath = "server.jks";
         config.keystorePassword = "password";
         config.maxClients = ProtocolConstants.MAX_CLIENTS;
+        config.executorMode = ExecutorMode.CACHED;
+        config.outboundQueueCapacity = ProtocolConstants.OUTBOUND_QUEUE_CAPACITY;
+        config.overflowPolicy = OverflowPolicy.DROP_OLDEST;
+        config.writeBatchMax = ProtocolConstants.WRITE_BATCH_MAX;
+        config.writeBatchLingerMicros = 0;
+        config.historyEnabled = true;
+        config.historyDir = ProtocolConstants.HISTORY_DIR;
+        config.historySegmentBytes = ProtocolConstants.HISTORY_SEGMENT_BYTES;
+        config.historyDurability = Durability.BATCHED;
+        config.roomMaxMembers = ProtocolConstants.ROOM_MAX_MEMBERS;
+        config.roomHistoryCapacity = ProtocolConstants.ROOM_HISTORY_CAPACITY;
+        config.roomBackfillCount = ProtocolConstants.ROOM_BACKFILL_COUNT;
+        config.wsDeflateEnabled = true;
+        config.wsDeflateLevel = ProtocolConstants.WS_DEFLATE_LEVEL;
+        config.wsDeflateContextTakeover = true;
+        config.wsDeflateMinSize = ProtocolConstants.WS_DEFLATE_MIN_SIZE;
+        config.typingFlushInterval = ProtocolConstants.TYPING_FLUSH_INTERVAL;
+        config.typingTtl = ProtocolConstants.TYPING_TTL;
+        config.grpcStreamBuffer = ProtocolConstants.GRPC_STREAM_BUFFER;
+        config.grpcOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+        config.grpcBatchMax = ProtocolConstants.GRPC_BATCH_MAX;
+        config.grpcBossThreads = 1;
+        config.grpcWorkerThreads = defaultReactorCount();
+        config.grpcExecutorMode = GrpcExecutorMode.FIXED;
+        config.grpcExecutorThreads = defaultReactorCount() * 2;
+        config.grpcFlowControlWindow = ProtocolConstants.GRPC_FLOW_WINDOW;
+        config.grpcMaxConcurrentStreams = ProtocolConstants.GRPC_MAX_CONCURRENT_STREAMS;
+        config.grpcKeepAliveTime = ProtocolConstants.GRPC_KEEPALIVE_TIME;
+        config.grpcKeepAliveTimeout = ProtocolConstants.GRPC_KEEPALIVE_TIMEOUT;
+        config.grpcPermitKeepAliveTime = ProtocolConstants.GRPC_PERMIT_KEEPALIVE_TIME;
+        config.grpcPermitKeepAliveWithoutCalls = false;
+        config.grpcMaxConnectionAge = 0;
+        config.grpcMaxConnectionAgeGrace = 0;
         config.pingInterval = ProtocolConstants.PING_INTERVAL;
         config.pongTimeout = ProtocolConstants.PONG_TIMEOUT;
         config.maxMissedPings = ProtocolConstants.MAX_MISSED_PINGS;
         config.chunkSize = ProtocolConstants.CHUNK_SIZE;
         config.maxFileSize = ProtocolConstants.MAX_FILE_SIZE;
+        config.fileRelayEnabled = true;
+        config.fileRelayPort = ProtocolConstants.FILE_RELAY_PORT;
+        config.fileOfferTimeout = ProtocolConstants.FILE_OFFER_TIMEOUT;
+        config.fileTransferTimeout = ProtocolConstants.FILE_TRANSFER_TIMEOUT;
+        config.fileStoreEnabled = false;
+        config.fileStoreDir = ProtocolConstants.FILE_STORE_DIR;
+        config.fileStoreQuota = ProtocolConstants.FILE_STORE_QUOTA;
         return config;
     }
     
+    private static int defaultReactorCount() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+    
     // Getters
     public int getPort() { return port; }
     public int getBacklog() { return backlog; }
     public int getSocketTimeout() { return socketTimeout; }
+    public TransportMode getTransportMode() { return transportMode; }
+    public int getNioReactors() { return nioReactors; }
     public boolean isSslEnabled() { return sslEnabled; }
     public String getKeystorePath() { return keystorePath; }
     public String getKeystorePassword() { return keystorePassword; }
     public int getMaxClients() { return maxClients; }
+    public ExecutorMode getExecutorMode() { return executorMode; }
+    public int getOutboundQueueCapacity() { return outboundQueueCapacity; }
+    public OverflowPolicy getOverflowPolicy() { return overflowPolicy; }
+    public int getWriteBatchMax() { return writeBatchMax; }
+    public long getWriteBatchLingerMicros() { return writeBatchLingerMicros; }
+    public boolean isHistoryEnabled() { return historyEnabled; }
+    public String getHistoryDir() { return historyDir; }
+    // Segment positions are int offsets into a mapped buffer
+    public long getHistorySegmentBytes() { return Math.min(historySegmentBytes, Integer.MAX_VALUE); }
+    public Durability getHistoryDurability() { return historyDurability; }
+    public int getRoomMaxMembers() { return roomMaxMembers; }
+    public int getRoomHistoryCapacity() { return roomHistoryCapacity; }
+    public int getRoomBackfillCount() { return roomBackfillCount; }
+    public boolean isWsDeflateEnabled() { return wsDeflateEnabled; }
+    public int getWsDeflateLevel() { return Math.max(1, Math.min(9, wsDeflateLevel)); }
+    public boolean isWsDeflateContextTakeover() { return wsDeflateContextTakeover; }
+    public int getWsDeflateMinSize() { return wsDeflateMinSize; }
+    public int getTypingFlushInterval() { return typingFlushInterval; }
+    public int getTypingTtl() { return typingTtl; }
+    public int getGrpcStreamBuffer() { return grpcStreamBuffer; }
+    public OverflowPolicy getGrpcOverflowPolicy() { return grpcOverflowPolicy; }
+    public int getGrpcBatchMax() { return Math.max(1, grpcBatchMax); }
+    public int getGrpcBossThreads() { return Math.max(1, grpcBossThreads); }
+    public int getGrpcWorkerThreads() { return Math.max(1, grpcWorkerThreads); }
+    public GrpcExecutorMode getGrpcExecutorMode() { return grpcExecutorMode; }
+    public int getGrpcExecutorThreads() { return Math.max(1, grpcExecutorThreads); }
+    public int getGrpcFlowControlWindow() { return grpcFlowControlWindow; }
+    public int getGrpcMaxConcurrentStreams() { return grpcMaxConcurrentStreams; }
+    public long getGrpcKeepAliveTime() { return grpcKeepAliveTime; }
+    public long getGrpcKeepAliveTimeout() { return grpcKeepAliveTimeout; }
+    public long getGrpcPermitKeepAliveTime() { return grpcPermitKeepAliveTime; }
+    public boolean isGrpcPermitKeepAliveWithoutCalls() { return grpcPermitKeepAliveWithoutCalls; }
+    // 0 = không giới hạn tuổi connection
+    public long getGrpcMaxConnectionAge() { return grpcMaxConnectionAge; }
+    public long getGrpcMaxConnectionAgeGrace() { return grpcMaxConnectionAgeGrace; }
     public int getPingInterval() { return pingInterval; }
     public int getPongTimeout() { return pongTimeout; }
     public int getMaxMissedPings() { return maxMissedPings; }
     public int getChunkSize() { return chunkSize; }
     public long getMaxFileSize() { return maxFileSize; }
+    public boolean isFileRelayEnabled() { return fileRelayEnabled; }
+    public int getFileRelayPort() { return fileRelayPort; }
+    public int getFileOfferTimeout() { return fileOfferTimeout; }
+    public int getFileTransferTimeout() { return fileTransferTimeout; }
+    public boolean isFileStoreEnabled() { return fileStoreEnabled; }
+    public String getFileStoreDir() { return fileStoreDir; }
+    public long getFileStoreQuota() { return fileStoreQuota; }
     
     // Setters
     public void setPort(int port) { this.port = port; }
+    public void setTransportMode(TransportMode transportMode) { this.transportMode = transportMode; }
+    public void setExecutorMode(ExecutorMode executorMode) { this.executorMode = executorMode; }
     public void setSslEnabled(boolean sslEnabled) { this.sslEnabled = sslEnabled; }
     public void setKeystorePath(String keystorePath) { this.keystorePath = keystorePath; }
     public void setKeystorePassword(String keystorePassword) { this.keystorePassword = keystorePassword; }
     
     @Override
     public String toString() {
-        return String.format("ServerConfig[port=%d, ssl=%s, maxClients=%d]",
-                port, sslEnabled, maxClients);
+        return String.format("ServerConfig[port=%d, transport=%s, ssl=%s, maxClients=%d]",
+                port, transportMode, sslEnabled, maxClients);
     }
 }
@@ -19,18 +19,21 @@ import server.websocket.ChatWebSocketServer;
  * Network Programming Concepts:
  * - ServerSocket: Listens for incoming TCP connections
  * - ExecutorService: Thread pool để handle multiple clients
+ * - Selector: Optional NIO transport với fixed reactor threads
  * - SSL/TLS: Optional encrypted communication
  * 
  * Architecture:
  * 1. Bind to port và listen
  * 2. Accept connections trong infinite loop
  * 3. Delegate each client to ClientHandler trong thread pool
+ *    (hoặc NioTransport reactor khi server.transport=nio)
  * 4. ServerContext quản lý toàn bộ shared state
  */
 public class ChatServer {
 
     private final ServerContext context;
     private ServerSocket serverSocket;
+    private NioTransport nioTransport;
     private HttpApiServer httpServer;
     private ChatWebSocketServer wsServer;
     private GrpcChatServer grpcServer;
@@ -68,6 +71,15 @@ public class ChatServer {
 
         System.out.println();
 
+        if (config.getTransportMode() == ServerConfig.TransportMode.NIO) {
+            if (config.isSslEnabled()) {
+                System.err.println("[WARNING] NIO transport does not support SSL, using blocking transport");
+            } else {
+                startNio(config);
+                return;
+            }
+        }
+
         try {
             // Create ServerSocket (plain or SSL)
             if (config.isSslEnabled()) {
@@ -95,17 +107,7 @@ public class ChatServer {
 
         running = true;
         context.start();
-
-        System.out.println("═══════════════════════════════════════════════════");
-        System.out.println("  " + ProtocolConstants.SERVER_NAME);
-        System.out.println("  Version: " + ProtocolConstants.SERVER_VERSION);
-        System.out.println("  Port: " + config.getPort());
-        System.out.println("  SSL: " + (config.isSslEnabled() ? "ENABLED" : "DISABLED"));
-        System.out.println("  Max Clients: " + config.getMaxClients());
-        System.out.println("═══════════════════════════════════════════════════");
-        System.out.println();
-        System.out.println("Server is ready and listening for connections...");
-        System.out.println();
+        printBanner(config, "BLOCKING");
 
         // Main accept loop
         while (running) {
@@ -135,6 +137,36 @@ public class ChatServer {
         }
     }
 
+    /**
+     * Start NIO transport - reactors handle I/O, this thread only accepts
+     */
+    private void startNio(ServerConfig config) throws IOException {
+        System.out.println("Starting server with NIO transport (PLAIN TEXT - NOT SECURE)...");
+        nioTransport = new NioTransport(context, config.getNioReactors());
+        nioTransport.bind(config.getPort(), config.getBacklog());
+
+        running = true;
+        context.start();
+        printBanner(config, "NIO (" + nioTransport.getReactorCount() + " reactors)");
+
+        // Main accept loop
+        nioTransport.acceptLoop();
+    }
+
+    private void printBanner(ServerConfig config, String transport) {
+        System.out.println("═══════════════════════════════════════════════════");
+        System.out.println("  " + ProtocolConstants.SERVER_NAME);
+        System.out.println("  Version: " + ProtocolConstants.SERVER_VERSION);
+        System.out.println("  Port: " + config.getPort());
+        System.out.println("  Transport: " + transport);
+        System.out.println("  SSL: " + (config.isSslEnabled() ? "ENABLED" : "DISABLED"));
+        System.out.println("  Max Clients: " + config.getMaxClients());
+        System.out.println("═══════════════════════════════════════════════════");
+        System.out.println();
+        System.out.println("Server is ready and listening for connections...");
+        System.out.println();
+    }
+
     /**
      * Stop server gracefully
      */
@@ -170,8 +202,12 @@ public class ChatServer {
             System.err.println("[ERROR] Error closing server socket: " + e.getMessage());
         }
 
+        if (nioTransport != null) {
+            nioTransport.stop();
+        }
+
         // Disconnect all clients
-        context.getHandlers().values().forEach(ClientHandler::disconnect);
+        context.getHandlers().values().forEach(ClientConnection::disconnect);
 
         // Stop context (thread pool, heartbeat service)
         context.stop();
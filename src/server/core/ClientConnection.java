@@ -0,0 +1,188 @@
+package server.core;
+
+import common.model.UserSession;
+import common.protocol.EncodedMessage;
+import common.protocol.FrameCodec;
+import common.protocol.Message;
+import common.protocol.MessageCodec;
+import common.protocol.MessageType;
+import common.protocol.ProtocolConstants;
+import server.bus.Subscriber;
+import server.bus.TransportAdapter;
+
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * ClientConnection - Base class cho một client connection, độc lập với transport
+ *
+ * Blocking transport (ClientHandler) và NIO transport (NioClientConnection)
+ * dùng chung CONNECT/ACCEPT handshake và cleanup logic ở đây, nên
+ * MessageRouter và các services không cần biết client dùng transport nào.
+ * Trên MessageBus mọi TCP connection là Subscriber của TcpTransportAdapter.
+ *
+ * Design Pattern: Template Method
+ */
+public abstract class ClientConnection implements Subscriber {
+
+    protected final ServerContext context;
+    protected String username;
+    protected UserSession session;
+    
+    // Payload codec - Java serialization cho đến khi handshake chọn codec khác
+    protected volatile MessageCodec codec = FrameCodec.JAVA;
+    
+    // Bounded queue drained by the connection's writer
+    protected final OutboundQueue outbound;
+
+    protected ClientConnection(ServerContext context) {
+        this.context = context;
+        this.outbound = new OutboundQueue(
+                context.getConfig().getOutboundQueueCapacity(),
+                context.getConfig().getOverflowPolicy());
+    }
+
+    /**
+     * Send message to this client
+     */
+    public void send(Message msg) throws IOException {
+        send(EncodedMessage.of(msg));
+    }
+
+    /**
+     * Send a shared, possibly already encoded message - broadcast path
+     * dùng overload này để mọi recipient cùng codec dùng chung một frame.
+     * Chỉ enqueue, không bao giờ block trên socket của client này.
+     */
+    public void send(EncodedMessage msg) throws IOException {
+        if (!outbound.offer(msg, codec)) {
+            System.out.println("[OVERFLOW] Outbound queue full, disconnecting slow client: " + username);
+            disconnect();
+            return;
+        }
+
+        if (session != null) {
+            session.incrementMessagesSent();
+        }
+        onEnqueued();
+    }
+
+    /**
+     * Hook sau khi một entry được enqueue - wake writer nếu cần
+     */
+    protected abstract void onEnqueued();
+
+    /**
+     * Disconnect client gracefully
+     */
+    public abstract void disconnect();
+
+    public abstract boolean isRunning();
+
+    /**
+     * Send REJECT và đóng connection
+     */
+    protected abstract void sendReject(String reason);
+
+    /**
+     * Handle CONNECT handshake protocol
+     * 1. Receive CONNECT message with username
+     * 2. Validate username via AuthService
+     * 3. Send ACCEPT or REJECT
+     * 4. Switch sang codec đã negotiate (ACCEPT vẫn dùng Java serialization)
+     *
+     * @return true if connection accepted, false if rejected
+     */
+    protected boolean handleConnect(Message connectMsg, Socket socket) throws IOException {
+        if (connectMsg.getType() != MessageType.CONNECT) {
+            sendReject("Invalid handshake - expected CONNECT message");
+            return false;
+        }
+
+        String requested = connectMsg.getSender();
+
+        // Validate username via AuthService
+        if (!context.getAuthService().authenticate(requested, socket)) {
+            sendReject("Username '" + requested + "' is already taken");
+            return false;
+        }
+
+        // Claim trong namespace chung - atomic, thua race (kể cả với
+        // WebSocket / gRPC user) tính là taken
+        username = requested;
+        if (!context.getMessageBus().claim(this)) {
+            username = null;
+            sendReject("Username '" + requested + "' is already taken");
+            return false;
+        }
+
+        // Tên đã thuộc về connection này nên addSession không thể thua
+        session = new UserSession(requested, socket);
+        context.addSession(requested, session);
+
+        // Send ACCEPT
+        MessageCodec negotiated = FrameCodec.negotiate(
+                (String) connectMsg.getMetadata(FrameCodec.META_CODECS));
+        Message accept = new Message(MessageType.ACCEPT, "SERVER", username, "Welcome!");
+        accept.putMetadata("serverVersion", ProtocolConstants.SERVER_VERSION);
+        accept.putMetadata(FrameCodec.META_CODEC, negotiated.getName());
+        send(accept);
+        codec = negotiated;
+
+        // Register only after ACCEPT so no broadcast overtakes the handshake
+        // Subscribe và lobby backfill là một bước - xem RoomService.joinLobby
+        context.addHandler(username, this);
+        context.getRoomService().joinLobby(this);
+
+        // Broadcast join notification
+        context.getMessageRouter().broadcastPresence(username, true);
+
+        System.out.println("[AUTH] User '" + username + "' authenticated successfully");
+        return true;
+    }
+
+    /**
+     * Release session state on disconnect - remove from context, leave rooms
+     * và broadcast leave notification
+     */
+    protected void releaseSession() {
+        if (username == null) {
+            return;
+        }
+
+        System.out.println("[DISCONNECT] Cleaning up for user: " + username);
+
+        // Remove from context và giải phóng username cho mọi transport
+        context.removeSession(username);
+        context.getMessageBus().unsubscribe(this);
+
+        // Leave all rooms
+        if (session != null) {
+            for (String roomName : session.getRooms()) {
+                context.getRoomService().leaveRoom(this, roomName);
+            }
+        }
+
+        // Broadcast leave notification
+        context.getMessageRouter().broadcastPresence(username, false);
+    }
+
+    // Getters
+    public OutboundQueue getOutboundQueue() {
+        return outbound;
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public TransportAdapter getTransport() {
+        return context.getTcpTransport();
+    }
+
+    public UserSession getSession() {
+        return session;
+    }
+}
@@ -1,75 +1,90 @@
 package server.core;
 
+import common.protocol.FrameCodec;
 import common.protocol.Message;
+import common.protocol.MessageEncodingException;
 import common.protocol.MessageType;
-import common.model.UserSession;
+import common.protocol.ProtocolConstants;
 
 import java.io.*;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * ClientHandler - Worker thread xử lý I/O cho mỗi client connection
  * 
- * Threading Model: Mỗi ClientHandler chạy trong một thread riêng từ thread pool
+ * Threading Model: Mỗi ClientHandler chạy trong một thread riêng từ thread pool,
+ * cộng một writer task drain OutboundQueue - senders không bao giờ ghi socket trực tiếp
  * Lifecycle:
- * 1. Setup I/O streams
+ * 1. Setup I/O streams, start writer
  * 2. Handle CONNECT handshake
  * 3. Main message loop
  * 4. Cleanup on disconnect
  */
-public class ClientHandler implements Runnable {
+public class ClientHandler extends ClientConnection implements Runnable {
     
     private final Socket socket;
-    private final ServerContext context;
-    private ObjectInputStream in;
-    private ObjectOutputStream out;
-    private String username;
-    private UserSession session;
+    private DataInputStream in;
+    private OutputStream out;
+    private byte[] writeBuffer;     // writer thread only
+    private final CountDownLatch writerDone;
+    private boolean writerStarted;
     private volatile boolean running;
     
+    // Max time cleanup waits for the writer to flush remaining frames
+    private static final long WRITER_DRAIN_TIMEOUT_MS = 1000;
+    
+    // Batch lớn hơn được ghi thành nhiều writes cỡ này (luôn chứa được một frame lớn nhất)
+    private static final int WRITE_BUFFER_MAX = 4 * (ProtocolConstants.MAX_MESSAGE_SIZE
+            + ProtocolConstants.FRAME_HEADER_SIZE);
+    // Write buffer lớn hơn không được giữ lại giữa các batches
+    private static final int WRITE_BUFFER_RETAIN_MAX = 256 * 1024;
+    
     public ClientHandler(Socket socket, ServerContext context) {
+        super(context);
         this.socket = socket;
-        this.context = context;
+        this.writerDone = new CountDownLatch(1);
         this.running = false;
     }
     
     @Override
     public void run() {
         try {
-            // Setup I/O streams
-            // CRITICAL: Create OutputStream FIRST and flush() để tránh deadlock
-            out = new ObjectOutputStream(socket.getOutputStream());
-            out.flush();
-            in = new ObjectInputStream(socket.getInputStream());
+            // Setup I/O streams - length-prefixed frames (xem FrameCodec)
+            // Không buffer - writer gom cả batch vào writeBuffer (xem writeBatch)
+            out = socket.getOutputStream();
+            in = new DataInputStream(new BufferedInputStream(
+                    socket.getInputStream(), ProtocolConstants.BUFFER_SIZE));
             
             // Set socket timeout
             socket.setSoTimeout(context.getConfig().getSocketTimeout());
             
+            // Dedicated writer - drains outbound queue
+            context.getThreadPool().execute(this::writeLoop);
+            writerStarted = true;
+            
             // Handle CONNECT handshake
-            if (!handleConnect()) {
+            if (!handleConnect(FrameCodec.readMessage(in, codec), socket)) {
                 return; // Connection rejected
             }
             
             running = true;
-            System.out.println("[AUTH] User '" + username + "' authenticated successfully");
             
             // Main message processing loop
             while (running) {
-                try {
-                    Message msg = (Message) in.readObject();
-                    
-                    // Update session activity
-                    session.updateActivity();
-                    session.incrementMessagesReceived();
-                    
-                    // Route message to appropriate handler
-                    context.getMessageRouter().route(msg, this);
-                    
-                } catch (ClassNotFoundException e) {
-                    System.err.println("[ERROR] Invalid message class from " + username);
-                    break;
-                }
+                Message msg = FrameCodec.readMessage(in, codec);
+                
+                // Update session activity
+                session.updateActivity();
+                session.incrementMessagesReceived();
+                
+                // Route message to appropriate handler
+                context.getMessageRouter().route(msg, this);
             }
             
         } catch (EOFException e) {
@@ -86,93 +101,128 @@ public class ClientHandler implements Runnable {
     }
     
     /**
-     * Handle CONNECT handshake protocol
-     * 1. Receive CONNECT message with username
-     * 2. Validate username via AuthService
-     * 3. Send ACCEPT or REJECT
-     * 
-     * @return true if connection accepted, false if rejected
+     * Send REJECT message - connection đóng trong cleanup sau khi writer flush
      */
-    private boolean handleConnect() {
+    @Override
+    protected void sendReject(String reason) {
         try {
-            // Read CONNECT message
-            Message connectMsg = (Message) in.readObject();
-            
-            if (connectMsg.getType() != MessageType.CONNECT) {
-                sendReject("Invalid handshake - expected CONNECT message");
-                return false;
-            }
-            
-            username = connectMsg.getSender();
-            
-            // Validate username via AuthService
-            if (!context.getAuthService().authenticate(username, socket)) {
-                sendReject("Username '" + username + "' is already taken");
-                return false;
-            }
-            
-            // Create session
-            session = new UserSession(username, socket);
-            context.addSession(username, session);
-            context.addHandler(username, this);
-            
-            // Send ACCEPT
-            sendAccept();
-            
-            // Broadcast join notification
-            context.getMessageRouter().broadcastServerMessage(
-                username + " joined the chat"
-            );
-            
-            return true;
-            
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("[ERROR] Handshake failed: " + e.getMessage());
-            return false;
+            send(new Message(MessageType.REJECT, "SERVER", null, reason));
+        } catch (IOException e) {
+            // Ignore
         }
     }
     
-    /**
-     * Send ACCEPT message to client
-     */
-    private void sendAccept() throws IOException {
-        Message accept = new Message(MessageType.ACCEPT, "SERVER", username, "Welcome!");
-        accept.putMetadata("serverVersion", common.protocol.ProtocolConstants.SERVER_VERSION);
-        send(accept);
+    @Override
+    protected void onEnqueued() {
+        // Writer is blocked on the queue condition and wakes by itself
     }
     
     /**
-     * Send REJECT message and close connection
+     * Writer loop - chạy trên thread pool, là thread duy nhất ghi vào socket
+     * Gom mọi frame đang chờ (tối đa batch max, chờ thêm tối đa linger)
+     * rồi ghi cả batch bằng một write thay vì một syscall mỗi message
      */
-    private void sendReject(String reason) {
+    private void writeLoop() {
+        int maxBatch = Math.max(1, context.getConfig().getWriteBatchMax());
+        long lingerNanos = TimeUnit.MICROSECONDS.toNanos(context.getConfig().getWriteBatchLingerMicros());
+        List<OutboundQueue.Entry> batch = new ArrayList<>(maxBatch);
+        List<ByteBuffer> frames = new ArrayList<>(maxBatch);
+        
         try {
-            Message reject = new Message(MessageType.REJECT, "SERVER", null, reason);
-            send(reject);
-            socket.close();
+            OutboundQueue.Entry entry;
+            while ((entry = outbound.take()) != null) {
+                batch.add(entry);
+                outbound.drainTo(batch, maxBatch);
+                if (lingerNanos > 0) {
+                    lingerForMore(batch, maxBatch, lingerNanos);
+                }
+                
+                long bytes = 0;
+                for (OutboundQueue.Entry queued : batch) {
+                    try {
+                        ByteBuffer frame = queued.message.frame(queued.codec);
+                        frames.add(frame);
+                        bytes += frame.remaining();
+                    } catch (MessageEncodingException e) {
+                        // Lỗi của message, không phải socket - bỏ frame, giữ connection
+                        System.err.println("[CODEC] Skipped " + queued.message.getMessage().getType()
+                                + " to " + username + ": " + e.getMessage());
+                    }
+                }
+                if (!frames.isEmpty()) {
+                    writeBatch(frames, bytes);
+                }
+                frames.clear();
+                batch.clear();
+                
+                if (session != null) {
+                    session.addBytesSent(bytes);
+                }
+            }
         } catch (IOException e) {
-            // Ignore
+            disconnect();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            writerDone.countDown();
         }
     }
     
     /**
-     * Send message to this client (synchronized for thread safety)
+     * Copy cả batch vào một buffer cỡ batch rồi ghi bằng một write() - một
+     * BufferedOutputStream 8KB sẽ chia batch lớn hơn thành nhiều writes.
+     * Chỉ batch vượt WRITE_BUFFER_MAX (file chunks) mới bị chia.
      */
-    public synchronized void send(Message msg) throws IOException {
-        if (out != null && !socket.isClosed()) {
-            out.writeObject(msg);
-            out.flush();
-            
-            if (session != null) {
-                session.incrementMessagesSent();
+    private void writeBatch(List<ByteBuffer> frames, long bytes) throws IOException {
+        int capacity = (int) Math.min(bytes, WRITE_BUFFER_MAX);
+        byte[] buffer = writeBuffer;
+        if (buffer == null || buffer.length < capacity) {
+            buffer = new byte[Math.max(capacity, ProtocolConstants.BUFFER_SIZE)];
+            if (buffer.length <= WRITE_BUFFER_RETAIN_MAX) {
+                writeBuffer = buffer;
+            }
+        }
+        int offset = 0;
+        for (ByteBuffer frame : frames) {
+            int length = frame.remaining();
+            if (offset + length > buffer.length) {
+                out.write(buffer, 0, offset);
+                offset = 0;
+            }
+            frame.get(buffer, offset, length);
+            offset += length;
+        }
+        out.write(buffer, 0, offset);
+        out.flush();
+    }
+    
+    /**
+     * Wait up to linger time for the batch to fill
+     */
+    private void lingerForMore(List<OutboundQueue.Entry> batch, int maxBatch, long lingerNanos)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < maxBatch) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            OutboundQueue.Entry next = outbound.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
             }
+            batch.add(next);
+            outbound.drainTo(batch, maxBatch);
         }
     }
     
     /**
      * Disconnect client gracefully
      */
+    @Override
     public void disconnect() {
         running = false;
+        outbound.close();
         try {
             if (socket != null && !socket.isClosed()) {
                 socket.close();
@@ -188,23 +238,16 @@ public class ClientHandler implements Runnable {
     private void cleanup() {
         running = false;
         
-        if (username != null) {
-            System.out.println("[DISCONNECT] Cleaning up for user: " + username);
-            
-            // Remove from context
-            context.removeSession(username);
-            
-            // Leave all rooms
-            if (session != null) {
-                for (String roomName : session.getRooms()) {
-                    context.getRoomService().leaveRoom(username, roomName);
-                }
+        releaseSession();
+        
+        // Let the writer flush what is already queued (e.g. REJECT)
+        outbound.close();
+        try {
+            if (writerStarted) {
+                writerDone.await(WRITER_DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
             }
-            
-            // Broadcast leave notification
-            context.getMessageRouter().broadcastServerMessage(
-                username + " left the chat"
-            );
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
         
         // Close streams
@@ -217,15 +260,7 @@ public class ClientHandler implements Runnable {
         }
     }
     
-    // Getters
-    public String getUsername() {
-        return username;
-    }
-    
-    public UserSession getSession() {
-        return session;
-    }
-    
+    @Override
     public boolean isRunning() {
         return running;
     }
@@ -0,0 +1,283 @@
+package server.core;
+
+import common.protocol.FrameCodec;
+import common.protocol.Message;
+import common.protocol.MessageEncodingException;
+import common.protocol.MessageType;
+import common.protocol.ProtocolConstants;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * NioClientConnection - Client connection trên non-blocking SocketChannel
+ *
+ * Không giữ thread riêng: reactor gọi onReadable/onWritable khi channel ready.
+ * Incoming bytes được tích lũy cho đến khi đủ một frame; outgoing frames
+ * nằm trong queue và được reactor flush khi socket writable.
+ *
+ * Frames được route ngay trên reactor thread: MessageRouter.route() không
+ * block (mọi delivery chỉ enqueue vào OutboundQueue, history append chỉ
+ * enqueue cho writer thread, file relay chỉ cập nhật state trong memory),
+ * và route inline giữ thứ tự messages của mỗi connection mà không cần một
+ * executor serial riêng cho từng connection. Code mới trong route path
+ * không được làm blocking I/O - nó sẽ chặn mọi connection của reactor.
+ *
+ * Channel non-blocking không có SO_TIMEOUT, nên reactor kiểm tra deadline
+ * thay cho read timeout của ClientHandler: handshake phải xong trong
+ * socket timeout kể từ lúc accept, sau đó connection bị đóng nếu không
+ * nhận được byte nào trong socket timeout (heartbeat PONG giữ nó sống).
+ */
+public class NioClientConnection extends ClientConnection {
+
+    private final SocketChannel channel;
+    private final NioReactor reactor;
+    private final AtomicBoolean writeRequested;
+    private final AtomicBoolean closed;
+    private SelectionKey key;
+    private ByteBuffer readBuffer;
+    private final ByteBuffer[] writeBatch; // frames của gathered write hiện tại (reactor thread only)
+    private int batchIndex;                // frame đầu tiên chưa ghi xong
+    private int batchCount;
+    private volatile boolean running;
+    private volatile boolean closeAfterFlush;
+    private final long timeoutNanos;        // 0 = không timeout
+    private final long handshakeDeadline;
+    private long lastReadNanos;             // reactor thread only
+
+    NioClientConnection(SocketChannel channel, NioReactor reactor, ServerContext context) {
+        super(context);
+        this.channel = channel;
+        this.reactor = reactor;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, context.getConfig().getSocketTimeout()));
+        this.lastReadNanos = System.nanoTime();
+        this.handshakeDeadline = lastReadNanos + timeoutNanos;
+        this.writeRequested = new AtomicBoolean(false);
+        this.closed = new AtomicBoolean(false);
+        this.readBuffer = ByteBuffer.allocate(ProtocolConstants.BUFFER_SIZE);
+        this.writeBatch = new ByteBuffer[Math.max(1, context.getConfig().getWriteBatchMax())];
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    void attach(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Called on reactor thread khi channel có data để đọc
+     */
+    void onReadable() throws IOException {
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            System.out.println("[DISCONNECT] Client disconnected: " + username);
+            disconnect();
+            return;
+        }
+        lastReadNanos = System.nanoTime();
+
+        if (closeAfterFlush) {
+            // Handshake đã bị từ chối - bỏ mọi byte còn lại cho tới khi REJECT flush xong
+            readBuffer.clear();
+            return;
+        }
+
+        readBuffer.flip();
+        while (!closed.get() && !closeAfterFlush && readBuffer.remaining() >= ProtocolConstants.FRAME_HEADER_SIZE) {
+            int length = readBuffer.getInt(readBuffer.position());
+            FrameCodec.checkLength(length);
+
+            int frameSize = ProtocolConstants.FRAME_HEADER_SIZE + length;
+            if (readBuffer.remaining() < frameSize) {
+                ensureCapacity(frameSize);
+                break;
+            }
+
+            Message msg = codec.decode(readBuffer.array(),
+                    readBuffer.arrayOffset() + readBuffer.position() + ProtocolConstants.FRAME_HEADER_SIZE,
+                    length);
+            readBuffer.position(readBuffer.position() + frameSize);
+            onMessage(msg);
+        }
+        if (closeAfterFlush) {
+            readBuffer.clear();
+        } else {
+            readBuffer.compact();
+        }
+    }
+
+    /**
+     * Đóng connection nếu handshake deadline / idle timeout đã qua - reactor
+     * gọi định kỳ trên thread của nó
+     * @return true nếu connection bị đóng
+     */
+    boolean expireIfIdle(long now) {
+        if (timeoutNanos == 0 || closed.get()) {
+            return false;
+        }
+        boolean handshaking = !running;
+        long deadline = handshaking ? handshakeDeadline : lastReadNanos + timeoutNanos;
+        if (now - deadline < 0) {
+            return false;
+        }
+        System.out.println("[TIMEOUT] " + (handshaking ? "Handshake" : "Idle") + " timeout, closing: "
+                + (username != null ? username : remoteAddress()));
+        disconnect();
+        return true;
+    }
+
+    private String remoteAddress() {
+        try {
+            return String.valueOf(channel.getRemoteAddress());
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * Grow read buffer so a whole frame fits (buffer đang ở read mode)
+     */
+    private void ensureCapacity(int frameSize) {
+        if (readBuffer.capacity() < frameSize) {
+            ByteBuffer bigger = ByteBuffer.allocate(frameSize);
+            bigger.put(readBuffer);
+            bigger.flip();
+            readBuffer = bigger;
+        }
+    }
+
+    private void onMessage(Message msg) throws IOException {
+        if (!running) {
+            // First frame must be the CONNECT handshake - thất bại thì sendReject
+            // đã đặt closeAfterFlush: không đọc thêm frame nào, đóng sau REJECT
+            if (handleConnect(msg, channel.socket())) {
+                running = true;
+            }
+            return;
+        }
+
+        // Update session activity
+        session.updateActivity();
+        session.incrementMessagesReceived();
+
+        // Route message to appropriate handler
+        context.getMessageRouter().route(msg, this);
+    }
+
+    /**
+     * Called on reactor thread khi socket writable
+     * Frames đang chờ được ghi bằng một gathering write (tối đa batch max)
+     */
+    void onWritable() throws IOException {
+        while (true) {
+            if (batchIndex == batchCount && !fillWriteBatch()) {
+                break;
+            }
+
+            channel.write(writeBatch, batchIndex, batchCount - batchIndex);
+            while (batchIndex < batchCount && !writeBatch[batchIndex].hasRemaining()) {
+                writeBatch[batchIndex++] = null;
+            }
+            if (batchIndex < batchCount) {
+                return; // TCP send buffer full - wait for next OP_WRITE
+            }
+        }
+
+        key.interestOps(SelectionKey.OP_READ);
+        writeRequested.set(false);
+
+        // Re-check: a sender may have queued after the loop drained
+        if (!outbound.isEmpty() && writeRequested.compareAndSet(false, true)) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+
+        if (closeAfterFlush && outbound.isEmpty()) {
+            disconnect();
+        }
+    }
+
+    /**
+     * Load next batch of frames from the outbound queue
+     * @return false nếu queue rỗng
+     */
+    private boolean fillWriteBatch() throws IOException {
+        batchIndex = 0;
+        batchCount = 0;
+        long bytes = 0;
+        OutboundQueue.Entry entry;
+        while (batchCount < writeBatch.length && (entry = outbound.poll()) != null) {
+            ByteBuffer frame;
+            try {
+                frame = entry.message.frame(entry.codec);
+            } catch (MessageEncodingException e) {
+                // Lỗi của message, không phải socket - bỏ frame, giữ connection
+                System.err.println("[CODEC] Skipped " + entry.message.getMessage().getType()
+                        + " to " + username + ": " + e.getMessage());
+                continue;
+            }
+            bytes += frame.remaining();
+            writeBatch[batchCount++] = frame;
+        }
+        if (session != null && bytes > 0) {
+            session.addBytesSent(bytes);
+        }
+        return batchCount > 0;
+    }
+
+    void enableWriteInterest() {
+        if (key != null && key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Wake reactor để flush queue - safe from any thread
+     */
+    @Override
+    protected void onEnqueued() {
+        if (writeRequested.compareAndSet(false, true)) {
+            reactor.requestWrite(this);
+        }
+    }
+
+    @Override
+    protected void sendReject(String reason) {
+        try {
+            closeAfterFlush = true;
+            send(new Message(MessageType.REJECT, "SERVER", null, reason));
+        } catch (IOException e) {
+            disconnect();
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        running = false;
+        outbound.close();
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+
+        releaseSession();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,144 @@
+package server.core;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NioReactor - Một event loop thread với Selector riêng
+ *
+ * Mỗi reactor multiplex hàng nghìn SocketChannel trên một thread duy nhất.
+ * Registration và write-interest requests từ thread khác được đưa vào queue
+ * rồi wakeup selector, vì SelectionKey chỉ nên thay đổi trên reactor thread.
+ *
+ * Design Pattern: Reactor Pattern
+ */
+class NioReactor implements Runnable {
+
+    // Khoảng giữa hai lần kiểm tra handshake / idle deadlines
+    private static final long TIMEOUT_CHECK_MS = 1000;
+
+    private final ServerContext context;
+    private final Selector selector;
+    private final Queue<NioClientConnection> pendingRegistrations;
+    private final Queue<NioClientConnection> pendingWrites;
+    private volatile boolean running;
+    private long nextTimeoutCheck;
+
+    NioReactor(ServerContext context) throws IOException {
+        this.context = context;
+        this.selector = Selector.open();
+        this.pendingRegistrations = new ConcurrentLinkedQueue<>();
+        this.pendingWrites = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Hand off accepted channel to this reactor (called from acceptor thread)
+     */
+    void register(SocketChannel channel) throws IOException {
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        pendingRegistrations.add(new NioClientConnection(channel, this, context));
+        selector.wakeup();
+    }
+
+    /**
+     * Request OP_WRITE for connection (called from any thread)
+     */
+    void requestWrite(NioClientConnection connection) {
+        pendingWrites.add(connection);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        running = true;
+        while (running) {
+            try {
+                selector.select(TIMEOUT_CHECK_MS);
+                processPending();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    NioClientConnection connection = (NioClientConnection) key.attachment();
+                    if (!key.isValid()) {
+                        connection.disconnect();
+                        continue;
+                    }
+
+                    try {
+                        if (key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (IOException e) {
+                        System.out.println("[DISCONNECT] Socket closed: " + connection.getUsername());
+                        connection.disconnect();
+                    }
+                }
+                expireIdleConnections();
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("[ERROR] Reactor select failed: " + e.getMessage());
+                }
+            }
+        }
+
+        // Close all connections owned by this reactor
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+            ((NioClientConnection) key.attachment()).disconnect();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
+    /**
+     * Đóng connections quá handshake deadline hoặc idle timeout
+     */
+    private void expireIdleConnections() {
+        long now = System.nanoTime();
+        if (now - nextTimeoutCheck < 0) {
+            return;
+        }
+        nextTimeoutCheck = now + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_CHECK_MS);
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+            ((NioClientConnection) key.attachment()).expireIfIdle(now);
+        }
+    }
+
+    private void processPending() {
+        NioClientConnection connection;
+        while ((connection = pendingRegistrations.poll()) != null) {
+            try {
+                connection.attach(connection.getChannel().register(
+                        selector, SelectionKey.OP_READ, connection));
+            } catch (ClosedChannelException e) {
+                connection.disconnect();
+            }
+        }
+
+        while ((connection = pendingWrites.poll()) != null) {
+            connection.enableWriteInterest();
+        }
+    }
+
+    void stop() {
+        running = false;
+        selector.wakeup();
+    }
+}
@@ -0,0 +1,106 @@
+package server.core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * NioTransport - Selector-based transport thay cho thread-per-connection
+ *
+ * Architecture:
+ * 1. Acceptor (caller thread) accept connections trên ServerSocketChannel
+ * 2. Mỗi channel được gán round-robin cho một trong N reactor threads
+ * 3. Reactor decode frames và gọi MessageRouter.route trực tiếp
+ *
+ * Số thread cố định (N reactors + 1 acceptor) bất kể số client,
+ * nên idle connections chỉ tốn socket buffer thay vì một thread stack.
+ */
+public class NioTransport {
+
+    private final ServerContext context;
+    private final NioReactor[] reactors;
+    private final Thread[] reactorThreads;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running;
+    private int nextReactor;
+
+    public NioTransport(ServerContext context, int reactorCount) throws IOException {
+        this.context = context;
+        this.reactors = new NioReactor[reactorCount];
+        this.reactorThreads = new Thread[reactorCount];
+        for (int i = 0; i < reactorCount; i++) {
+            reactors[i] = new NioReactor(context);
+        }
+    }
+
+    /**
+     * Bind server channel và start reactor threads
+     */
+    public void bind(int port, int backlog) throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), backlog);
+
+        running = true;
+        for (int i = 0; i < reactors.length; i++) {
+            reactorThreads[i] = new Thread(reactors[i], "nio-reactor-" + i);
+            reactorThreads[i].start();
+        }
+    }
+
+    /**
+     * Main accept loop (blocks until stop)
+     */
+    public void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+
+                String clientAddr = channel.getRemoteAddress().toString();
+                System.out.println("[CONNECTION] Client connected from: " + clientAddr);
+
+                // Check if server is at capacity
+                if (context.getOnlineUserCount() >= context.getConfig().getMaxClients()) {
+                    System.out.println("[REJECT] Server at capacity, rejecting: " + clientAddr);
+                    channel.close();
+                    continue;
+                }
+
+                reactors[nextReactor].register(channel);
+                nextReactor = (nextReactor + 1) % reactors.length;
+
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("[ERROR] Error accepting connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+
+        try {
+            if (serverChannel != null && serverChannel.isOpen()) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            System.err.println("[ERROR] Error closing server channel: " + e.getMessage());
+        }
+
+        for (NioReactor reactor : reactors) {
+            reactor.stop();
+        }
+    }
+
+    /**
+     * Port thực sự đã bind - khác config khi bind port 0
+     */
+    public int getLocalPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : -1;
+    }
+
+    public int getReactorCount() {
+        return reactors.length;
+    }
+}
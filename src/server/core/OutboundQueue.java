@@ -0,0 +1,222 @@
+package server.core;
+
+import common.protocol.EncodedMessage;
+import common.protocol.MessageCodec;
+import server.config.ServerConfig.OverflowPolicy;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * OutboundQueue - Bounded per-client queue giữa senders và writer của connection
+ *
+ * Sender (router, heartbeat, broadcast) chỉ enqueue và return ngay, nên một
+ * client có TCP window đầy không làm chậm reader thread của người gửi hay
+ * các recipients khác. Khi queue đầy, OverflowPolicy quyết định drop hay
+ * disconnect.
+ *
+ * Design Pattern: Bounded Buffer (Producer-Consumer)
+ */
+public class OutboundQueue {
+
+    /**
+     * Queue entry - codec được chốt lúc enqueue, vì connection có thể đổi
+     * codec (handshake) trước khi writer kịp ghi entry
+     */
+    public static final class Entry {
+        final EncodedMessage message;
+        final MessageCodec codec;
+
+        Entry(EncodedMessage message, MessageCodec codec) {
+            this.message = message;
+            this.codec = codec;
+        }
+
+        String presenceUser() {
+            return OutboundQueue.presenceUser(message);
+        }
+    }
+
+    /**
+     * Metadata key đánh dấu join/leave notifications (COALESCE_PRESENCE)
+     */
+    public static final String PRESENCE_KEY = "presence";
+
+    /**
+     * Metadata key của user mà presence event nói tới - key để coalesce
+     */
+    public static final String PRESENCE_USER_KEY = "username";
+
+    /**
+     * @return user của join/leave notification, null nếu message không phải presence
+     */
+    public static String presenceUser(EncodedMessage message) {
+        if (message.getMessage().getMetadata(PRESENCE_KEY) == null) {
+            return null;
+        }
+        Object user = message.getMessage().getMetadata(PRESENCE_USER_KEY);
+        return user instanceof String ? (String) user : null;
+    }
+
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ArrayDeque<Entry> queue;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final AtomicLong dropped;
+    private volatile int highWaterMark;
+    private boolean closed;
+
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.capacity = capacity;
+        this.policy = policy;
+        this.queue = new ArrayDeque<>(Math.min(capacity, 64));
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.dropped = new AtomicLong();
+    }
+
+    /**
+     * Enqueue message, áp dụng overflow policy khi queue đầy
+     * @return false nếu policy yêu cầu disconnect client
+     */
+    public boolean offer(EncodedMessage message, MessageCodec codec) {
+        Entry entry = new Entry(message, codec);
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+            if (queue.size() >= capacity) {
+                dropped.incrementAndGet();
+                if (!Overflow.makeRoom(queue, policy, entry, Entry::presenceUser)) {
+                    return false;
+                }
+            }
+            queue.addLast(entry);
+            if (queue.size() > highWaterMark) {
+                highWaterMark = queue.size();
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writer side - block cho đến khi có entry
+     * @return null khi queue đã close và đã drain hết
+     */
+    public Entry take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (queue.isEmpty() && !closed) {
+                notEmpty.await();
+            }
+            return queue.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writer side - non-blocking poll (NIO reactor)
+     */
+    public Entry poll() {
+        lock.lock();
+        try {
+            return queue.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Move queued entries vào batch cho đến khi batch đạt maxBatch
+     * @return số entries đã move
+     */
+    public int drainTo(List<Entry> batch, int maxBatch) {
+        lock.lock();
+        try {
+            int moved = 0;
+            while (batch.size() < maxBatch && !queue.isEmpty()) {
+                batch.add(queue.pollFirst());
+                moved++;
+            }
+            return moved;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait up to timeout for an entry
+     * @return null on timeout hoặc khi queue đã close và rỗng
+     */
+    public Entry poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (queue.isEmpty() && !closed) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return queue.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close queue - writer drains entries còn lại rồi kết thúc
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return queue.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Metrics
+    public int size() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() { return capacity; }
+    public long getDropped() { return dropped.get(); }
+    public int getHighWaterMark() { return highWaterMark; }
+    public OverflowPolicy getPolicy() { return policy; }
+}
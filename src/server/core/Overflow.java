@@ -0,0 +1,79 @@
+package server.core;
+
+import server.config.ServerConfig.OverflowPolicy;
+
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Overflow - Giải phóng một slot của outbound buffer đầy theo OverflowPolicy
+ *
+ * Dùng chung bởi OutboundQueue (TCP) và GrpcSubscriber (gRPC streams).
+ *
+ * COALESCE_PRESENCE coalesce theo user: một presence event chỉ bị bỏ khi
+ * có event mới hơn cho cùng user (trong queue hoặc chính entry đang tới),
+ * nên event cuối cùng của mỗi user luôn còn - recipient thấy version bị nhảy
+ * và lấy snapshot, roster không bao giờ giữ trạng thái cũ. Không có event
+ * nào bị thay thế thì policy rõ ràng quay về DROP_OLDEST.
+ */
+public final class Overflow {
+
+    /**
+     * Free một slot (caller giữ lock của queue)
+     * @param incoming entry sắp được enqueue
+     * @param presenceKey user của presence event, null nếu entry không phải presence
+     * @return false nếu policy yêu cầu disconnect
+     */
+    public static <E> boolean makeRoom(Deque<E> queue, OverflowPolicy policy, E incoming,
+            Function<E, String> presenceKey) {
+        switch (policy) {
+            case DISCONNECT:
+                return false;
+            case COALESCE_PRESENCE:
+                if (removeSupersededPresence(queue, incoming, presenceKey)) {
+                    return true;
+                }
+                queue.pollFirst();
+                return true;
+            case DROP_OLDEST:
+            default:
+                queue.pollFirst();
+                return true;
+        }
+    }
+
+    /**
+     * Bỏ presence event cũ nhất đã có event mới hơn cho cùng user
+     * @return false nếu không có event nào bị thay thế
+     */
+    private static <E> boolean removeSupersededPresence(Deque<E> queue, E incoming,
+            Function<E, String> presenceKey) {
+        Set<String> newer = new HashSet<>();
+        String incomingKey = presenceKey.apply(incoming);
+        if (incomingKey != null) {
+            newer.add(incomingKey);
+        }
+
+        // Duyệt từ mới nhất về cũ nhất - entry cuối cùng tìm thấy là cũ nhất
+        E superseded = null;
+        for (Iterator<E> it = queue.descendingIterator(); it.hasNext(); ) {
+            E entry = it.next();
+            String key = presenceKey.apply(entry);
+            if (key != null && !newer.add(key)) {
+                superseded = entry;
+            }
+        }
+        if (superseded == null) {
+            return false;
+        }
+        queue.removeFirstOccurrence(superseded);
+        return true;
+    }
+
+    private Overflow() {
+        throw new AssertionError("Cannot instantiate Overflow");
+    }
+}
@@ -5,12 +5,19 @@ import common.model.ChatRoom;
 import server.service.*;
 import server.monitor.HeartbeatService;
 import server.config.ServerConfig;
+import server.bus.MessageBus;
+import server.bus.TransportAdapter;
+import server.bus.TypingAggregator;
+import server.storage.BlobStore;
+import server.storage.MessageStore;
 
+import java.io.IOException;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -25,23 +32,35 @@ import java.util.concurrent.TimeUnit;
  */
 public class ServerContext {
     
+    // Default room - every client joins it on connect
+    public static final String LOBBY = "lobby";
+    
     // Configuration
     private final ServerConfig config;
     
-    // Thread-safe collections for concurrent access by multiple ClientHandler threads
+    // Thread-safe collections for concurrent access by multiple handler/reactor threads
     private final Map<String, UserSession> sessions;          // username -> session
-    private final Map<String, ClientHandler> handlers;        // username -> handler
+    private final Map<String, ClientConnection> handlers;     // username -> connection
     private final Map<String, ChatRoom> rooms;                // roomName -> room
     
     // Thread pool for client handlers
     private final ExecutorService threadPool;
+    private final ThreadFactory threadFactory;
     
     // Services - Business logic layer
     private final AuthService authService;
     private final MessageRouter messageRouter;
     private final RoomService roomService;
     private final FileTransferService fileTransferService;
+    private final FileRelayService fileRelayService;    // null khi file relay disabled
+    private final BlobStore blobStore;                  // null khi file store disabled
     private final HeartbeatService heartbeatService;
+    private final MessageStore messageStore;    // null khi history disabled
+    
+    // Cross-transport bus - shared username namespace cho TCP, WebSocket và gRPC
+    private final MessageBus messageBus;
+    private final TcpTransportAdapter tcpTransport;
+    private final TypingAggregator typingAggregator;
     
     // Server state
     private volatile boolean running;
@@ -58,19 +77,46 @@ public class ServerContext {
         this.rooms = new ConcurrentHashMap<>();
         
         // Create thread pool for handling client connections
-        // CachedThreadPool: Creates threads on demand, reuses idle threads
-        this.threadPool = Executors.newCachedThreadPool();
+        // VIRTUAL: one virtual thread per task (blocking I/O không giữ OS thread)
+        // CACHED: Creates threads on demand, reuses idle threads
+        ThreadFactory virtualFactory = config.getExecutorMode() == ServerConfig.ExecutorMode.VIRTUAL
+                ? createVirtualThreadFactory() : null;
+        if (virtualFactory != null) {
+            this.threadFactory = virtualFactory;
+            this.threadPool = createThreadPerTaskExecutor(virtualFactory);
+            System.out.println("[CONTEXT] Using virtual-thread executor");
+        } else {
+            if (config.getExecutorMode() == ServerConfig.ExecutorMode.VIRTUAL) {
+                System.err.println("[WARNING] Virtual threads require Java 21+, using cached thread pool");
+            }
+            this.threadFactory = Executors.defaultThreadFactory();
+            this.threadPool = Executors.newCachedThreadPool();
+        }
+        
+        // Bus phải tồn tại trước services - MessageRouter publish qua nó
+        this.messageBus = new MessageBus();
+        this.tcpTransport = new TcpTransportAdapter();
+        this.typingAggregator = new TypingAggregator(config.getTypingFlushInterval(), config.getTypingTtl());
         
         // Initialize services
         this.authService = new AuthService(this);
         this.messageRouter = new MessageRouter(this);
         this.roomService = new RoomService(this);
         this.fileTransferService = new FileTransferService(this);
+        this.fileRelayService = config.isFileRelayEnabled() ? new FileRelayService(this) : null;
+        this.blobStore = config.isFileRelayEnabled() && config.isFileStoreEnabled()
+                ? new BlobStore(config.getFileStoreDir(), config.getFileStoreQuota())
+                : null;
         this.heartbeatService = new HeartbeatService(this);
+        this.messageStore = config.isHistoryEnabled()
+                ? new MessageStore(config.getHistoryDir(), config.getHistorySegmentBytes(),
+                        config.getHistoryDurability())
+                : null;
         
-        // Create default lobby room
-        ChatRoom lobby = new ChatRoom("lobby", "Default public chat room");
-        rooms.put("lobby", lobby);
+        // Create default lobby room - sized for every client on the server
+        ChatRoom lobby = new ChatRoom(LOBBY, "Default public chat room",
+                config.getMaxClients(), false, null, config.getRoomHistoryCapacity());
+        rooms.put(LOBBY, lobby);
         
         this.running = false;
     }
@@ -97,14 +143,91 @@ public class ServerContext {
         return fileTransferService;
     }
     
+    /**
+     * @return null nếu file relay bị tắt hoặc không bind được port -
+     *         file transfers khi đó dùng FILE_CHUNK messages
+     */
+    public FileRelayService getFileRelayService() {
+        return fileRelayService != null && fileRelayService.isRunning() ? fileRelayService : null;
+    }
+    
+    /**
+     * @return null nếu file store bị tắt hoặc không mở được store dir -
+     *         file relay khi đó luôn stream từ sender
+     */
+    public BlobStore getBlobStore() {
+        return blobStore != null && blobStore.isRunning() ? blobStore : null;
+    }
+    
     public HeartbeatService getHeartbeatService() {
         return heartbeatService;
     }
     
+    /**
+     * @return null nếu message history bị tắt (history.enabled=false)
+     */
+    public MessageStore getMessageStore() {
+        return messageStore;
+    }
+    
+    public MessageBus getMessageBus() {
+        return messageBus;
+    }
+    
+    /**
+     * Adapter của mọi TCP connection (blocking và NIO)
+     */
+    public TransportAdapter getTcpTransport() {
+        return tcpTransport;
+    }
+    
+    /**
+     * Typing indicators của WebSocket và gRPC Chat clients
+     */
+    public TypingAggregator getTypingAggregator() {
+        return typingAggregator;
+    }
+    
     public ExecutorService getThreadPool() {
         return threadPool;
     }
     
+    /**
+     * Thread factory matching the configured executor mode - dùng cho
+     * schedulers của services để chúng cũng chạy trên virtual threads
+     */
+    public ThreadFactory getThreadFactory() {
+        return threadFactory;
+    }
+    
+    /**
+     * Thread.ofVirtual().name("chat-vt-", 0).factory() qua reflection, vì
+     * project vẫn compile với target 11
+     * @return null nếu runtime không hỗ trợ virtual threads
+     */
+    private static ThreadFactory createVirtualThreadFactory() {
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Class<?> ofVirtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = ofVirtualClass.getMethod("name", String.class, long.class)
+                    .invoke(builder, "chat-vt-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+    
+    private static ExecutorService createThreadPerTaskExecutor(ThreadFactory factory) {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, factory);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Virtual-thread executor unavailable", e);
+        }
+    }
+    
     // Session Management
     
     /**
@@ -139,15 +262,15 @@ public class ServerContext {
     
     // Handler Management
     
-    public void addHandler(String username, ClientHandler handler) {
+    public void addHandler(String username, ClientConnection handler) {
         handlers.put(username, handler);
     }
     
-    public ClientHandler getHandler(String username) {
+    public ClientConnection getHandler(String username) {
         return handlers.get(username);
     }
     
-    public Map<String, ClientHandler> getHandlers() {
+    public Map<String, ClientConnection> getHandlers() {
         return handlers;
     }
     
@@ -163,7 +286,7 @@ public class ServerContext {
     
     public void removeRoom(String name) {
         // Cannot remove lobby
-        if (!"lobby".equals(name)) {
+        if (!LOBBY.equals(name)) {
             rooms.remove(name);
         }
     }
@@ -181,6 +304,28 @@ public class ServerContext {
     public void start() {
         running = true;
         heartbeatService.start();
+        typingAggregator.start(threadFactory);
+        if (blobStore != null) {
+            try {
+                blobStore.start();
+            } catch (IOException e) {
+                System.err.println("[STORE] Cannot open file store dir: " + e.getMessage());
+            }
+        }
+        if (fileRelayService != null) {
+            try {
+                fileRelayService.start();
+            } catch (IOException e) {
+                System.err.println("[RELAY] Cannot bind file relay port: " + e.getMessage());
+            }
+        }
+        if (messageStore != null) {
+            try {
+                messageStore.start();
+            } catch (IOException e) {
+                System.err.println("[HISTORY] Cannot open history dir: " + e.getMessage());
+            }
+        }
     }
     
     public void stop() {
@@ -188,6 +333,15 @@ public class ServerContext {
         
         // Stop heartbeat service
         heartbeatService.stop();
+        typingAggregator.stop();
+        if (fileRelayService != null) {
+            fileRelayService.stop();
+        }
+        
+        // Flush pending history appends
+        if (messageStore != null) {
+            messageStore.stop();
+        }
         
         // Shutdown thread pool gracefully
         threadPool.shutdown();
@@ -0,0 +1,45 @@
+package server.core;
+
+import common.protocol.EncodedMessage;
+import common.protocol.Message;
+import common.protocol.MessageType;
+import server.bus.Subscriber;
+import server.bus.TransportAdapter;
+import server.service.MessageRouter;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * TcpTransportAdapter - MessageBus adapter cho TCP clients (blocking và NIO)
+ *
+ * Wire form là frame của codec đã negotiate (binary / java) - EncodedMessage
+ * cache một frame mỗi codec nên mọi recipient cùng codec dùng chung bytes.
+ */
+public class TcpTransportAdapter implements TransportAdapter {
+
+    @Override
+    public String getName() {
+        return "tcp";
+    }
+
+    @Override
+    public void deliver(EncodedMessage msg, Collection<Subscriber> recipients) {
+        for (Subscriber recipient : recipients) {
+            try {
+                ((ClientConnection) recipient).send(msg);
+            } catch (IOException e) {
+                // Client disconnected
+            }
+        }
+    }
+
+    @Override
+    public void deliverPresenceSnapshot(Subscriber target, Collection<String> usernames, long version) {
+        Message response = new Message(MessageType.SERVER, "SERVER",
+                target.getUsername(), "Online users: " + String.join(", ", usernames));
+        response.putMetadata(MessageRouter.META_PRESENCE_VERSION, version);
+        deliver(EncodedMessage.of(response), Collections.singletonList(target));
+    }
+}
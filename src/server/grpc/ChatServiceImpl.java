@@ -1,20 +1,55 @@
 package server.grpc;
 
 import common.grpc.*;
+import common.protocol.EncodedMessage;
+import common.protocol.Message;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
+import server.bus.MessageBus;
+import server.bus.Subscriber;
+import server.bus.TransportAdapter;
+import server.config.ServerConfig;
 import server.core.ServerContext;
+import server.service.MessageRouter;
 
-import java.util.Map;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-
-public class ChatServiceImpl extends ChatServiceGrpc.ChatServiceImplBase {
+import java.util.function.Function;
+
+/**
+ * ChatServiceImpl - gRPC service và MessageBus adapter của nó
+ *
+ * Mỗi StreamMessages hoặc Chat call là một GrpcSubscriber trên bus chung,
+ * nên gRPC users nhận lobby chat, private messages và presence từ TCP /
+ * WebSocket users và ngược lại. Wire forms là ChatMessage (StreamMessages),
+ * ChatMessageBatch (StreamMessageBatches) và ServerEvent (Chat), mỗi form
+ * build một lần mỗi message và cache trong EncodedMessage.
+ *
+ * deliver() không gọi onNext trực tiếp trên thread của sender: mỗi stream
+ * có queue riêng, bounded, drain theo flow control (GrpcSubscriber).
+ *
+ * Design Pattern: Adapter
+ */
+public class ChatServiceImpl extends ChatServiceGrpc.ChatServiceImplBase implements TransportAdapter {
+
+    // Wire form key cho ServerEvent (ChatMessage form dùng key là adapter này)
+    private static final Object EVENT_FORM = new Object();
+    private static final Object BATCH_FORM = new Object();
 
     private final ServerContext context;
-    private final Map<String, StreamObserver<ChatMessage>> activeStreams;
+    private final MessageBus bus;
+    private final Set<GrpcSubscriber<ServerEvent>> chatStreams;   // Chat calls - nhận typing updates
 
     public ChatServiceImpl(ServerContext context) {
         this.context = context;
-        this.activeStreams = new ConcurrentHashMap<>();
+        this.bus = context.getMessageBus();
+        this.chatStreams = ConcurrentHashMap.newKeySet();
+        context.getTypingAggregator().addListener(this::deliverTyping);
         System.out.println("[gRPC] ChatServiceImpl initialized");
     }
 
@@ -25,12 +60,13 @@ public class ChatServiceImpl extends ChatServiceGrpc.ChatServiceImplBase {
             String username = request.getUsername();
             System.out.println("[gRPC] Auth request from: " + username);
 
-            // Simple validation - always succeed for testing
+            // Simple validation - password chưa được kiểm tra
             boolean valid = username != null && !username.trim().isEmpty();
+            boolean taken = valid && bus.isTaken(username);
 
             AuthResponse.Builder responseBuilder = AuthResponse.newBuilder();
 
-            if (valid) {
+            if (valid && !taken) {
                 responseBuilder
                         .setSuccess(true)
                         .setMessage("Authentication successful")
@@ -40,9 +76,9 @@ public class ChatServiceImpl extends ChatServiceGrpc.ChatServiceImplBase {
             } else {
                 responseBuilder
                         .setSuccess(false)
-                        .setMessage("Invalid username");
+                        .setMessage(taken ? "Username already taken" : "Invalid username");
 
-                System.out.println("[gRPC] Auth failed: invalid username");
+                System.out.println("[gRPC] Auth failed: " + (taken ? "username taken" : "invalid username"));
             }
 
             AuthResponse response = responseBuilder.build();
@@ -65,22 +101,19 @@ public class ChatServiceImpl extends ChatServiceGrpc.ChatServiceImplBase {
 
             System.out.println("[gRPC] Message from " + sender + ": " + content);
 
-            // Broadcast to all connected gRPC clients
-            ChatMessage grpcMsg = ChatMessage.newBuilder()
-                    .setSender(sender)
-                    .setContent(content)
-                    .setTimestamp(System.currentTimeMillis())
-                    .setType(MessageType.BROADCAST)
-                    .build();
-
-            broadcastToGrpcClients(grpcMsg);
+            MessageResponse.Builder response = MessageResponse.newBuilder();
+            Subscriber owner = bus.getSubscriber(sender);
 
-            MessageResponse response = MessageResponse.newBuilder()
-                    .setSuccess(true)
-                    .setMessage("Message sent")
-                    .build();
+            if (sender.trim().isEmpty() || isForeign(owner)) {
+                response.setSuccess(false).setMessage("Username is in use on another connection");
+            } else {
+                // Routed once - delivered to TCP, WebSocket and gRPC users
+                context.getMessageRouter().routeChat(
+                        new Message(common.protocol.MessageType.CHAT, sender, content), owner);
+                response.setSuccess(true).setMessage("Message sent");
+            }
 
-            responseObserver.onNext(response);
+            responseObserver.onNext(response.build());
             responseObserver.onCompleted();
 
         } catch (Exception e) {
@@ -90,46 +123,140 @@ public class ChatServiceImpl extends ChatServiceGrpc.ChatServiceImplBase {
         }
     }
 
+    @Override
+    public void sendMessages(MessageBatch request,
+            StreamObserver<BatchResponse> responseObserver) {
+        try {
+            List<ChatMessage> entries = request.getMessagesList();
+            System.out.println("[gRPC] Batch of " + entries.size() + " messages");
+
+            BatchResponse.Builder response = BatchResponse.newBuilder();
+            String error = entries.isEmpty() ? "Empty batch" : null;
+
+            // Validate cả batch trước - hoặc route tất cả, hoặc không message nào
+            List<Message> batch = new ArrayList<>(entries.size());
+            for (int i = 0; i < entries.size() && error == null; i++) {
+                ChatMessage entry = entries.get(i);
+                String sender = entry.getSender();
+                if (sender.trim().isEmpty() || entry.getContent().trim().isEmpty()) {
+                    error = "Message " + i + ": sender and content required";
+                } else if (isForeign(bus.getSubscriber(sender))) {
+                    error = "Message " + i + ": username '" + sender + "' is in use on another connection";
+                } else {
+                    batch.add(new Message(common.protocol.MessageType.CHAT, sender, entry.getContent()));
+                }
+            }
+
+            if (error != null) {
+                response.setSuccess(false).setMessage(error);
+            } else {
+                // Một lần qua bus - StreamMessageBatches subscribers nhận một ChatMessageBatch
+                context.getMessageRouter().routeChatBatch(batch);
+                response.setSuccess(true).setMessage("Messages sent").setAccepted(batch.size());
+            }
+
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+
+        } catch (Exception e) {
+            System.err.println("[gRPC] Exception in sendMessages: " + e.getMessage());
+            e.printStackTrace();
+            responseObserver.onError(e);
+        }
+    }
+
     @Override
     public void streamMessages(StreamRequest request,
             StreamObserver<ChatMessage> responseObserver) {
+        ServerConfig config = context.getConfig();
+        openStream(request, (ServerCallStreamObserver<ChatMessage>) responseObserver,
+                stream -> new GrpcSubscriber<>(request.getUsername().trim(), stream, this, this::messageForm,
+                        config.getGrpcStreamBuffer(), config.getGrpcOverflowPolicy()));
+    }
+
+    @Override
+    public void streamMessageBatches(StreamRequest request,
+            StreamObserver<ChatMessageBatch> responseObserver) {
+        ServerConfig config = context.getConfig();
+        openStream(request, (ServerCallStreamObserver<ChatMessageBatch>) responseObserver,
+                stream -> new GrpcSubscriber<>(request.getUsername().trim(), stream, this, this::batchForm,
+                        ChatServiceImpl::combine, config.getGrpcBatchMax(),
+                        config.getGrpcStreamBuffer(), config.getGrpcOverflowPolicy()));
+    }
+
+    /**
+     * Server-streaming call chung cho StreamMessages / StreamMessageBatches -
+     * chỉ khác wire form
+     */
+    private <T extends com.google.protobuf.MessageLite> void openStream(StreamRequest request,
+            ServerCallStreamObserver<T> stream,
+            Function<ServerCallStreamObserver<T>, GrpcSubscriber<T>> factory) {
         try {
-            String username = request.getUsername();
+            String username = request.getUsername().trim();
+            if (username.isEmpty()) {
+                stream.onError(Status.INVALID_ARGUMENT
+                        .withDescription("Username required").asRuntimeException());
+                return;
+            }
 
-            activeStreams.put(username, responseObserver);
+            GrpcSubscriber<T> subscriber = factory.apply(stream);
 
-            System.out.println("[gRPC] Stream started for: " + username);
+            // Flow-control window mở lại - gửi tiếp phần đang chờ
+            stream.setOnReadyHandler(subscriber::drain);
+            // Client cancel / disconnect giải phóng username
+            stream.setOnCancelHandler(() -> release(subscriber));
 
-            ChatMessage welcome = ChatMessage.newBuilder()
-                    .setSender("SERVER")
-                    .setContent("Welcome to gRPC chat, " + username + "!")
-                    .setTimestamp(System.currentTimeMillis())
-                    .setType(MessageType.SYSTEM)
-                    .build();
+            // Namespace chung - tên có thể đang được dùng trên TCP / WebSocket
+            if (!bus.claim(subscriber)) {
+                stream.onError(Status.ALREADY_EXISTS
+                        .withDescription("Username '" + username + "' is already taken").asRuntimeException());
+                return;
+            }
+
+            System.out.println("[gRPC] Stream started for: " + username);
 
-            responseObserver.onNext(welcome);
+            subscriber.deliver(EncodedMessage.of(new Message(common.protocol.MessageType.SERVER,
+                    "SERVER", username, "Welcome to gRPC chat, " + username + "!")));
+            bus.subscribe(subscriber);
+            context.getMessageRouter().broadcastPresence(username, true);
 
         } catch (Exception e) {
             System.err.println("[gRPC] Exception in streamMessages: " + e.getMessage());
             e.printStackTrace();
-            responseObserver.onError(e);
+            stream.onError(e);
         }
     }
 
+    /**
+     * Bidirectional chat - xem ChatStream
+     */
+    @Override
+    public StreamObserver<ClientEvent> chat(StreamObserver<ServerEvent> responseObserver) {
+        return new ChatStream(this, context, (ServerCallStreamObserver<ServerEvent>) responseObserver);
+    }
+
+    GrpcSubscriber<ServerEvent> newChatSubscriber(String username, ServerCallStreamObserver<ServerEvent> stream) {
+        ServerConfig config = context.getConfig();
+        return new GrpcSubscriber<>(username, stream, this, this::eventForm,
+                config.getGrpcStreamBuffer(), config.getGrpcOverflowPolicy());
+    }
+
+    /**
+     * Chat stream đã join - bắt đầu nhận broadcasts và typing updates
+     */
+    void subscribe(GrpcSubscriber<ServerEvent> subscriber) {
+        chatStreams.add(subscriber);
+        bus.subscribe(subscriber);
+    }
+
     @Override
     public void getOnlineUsers(Empty request,
             StreamObserver<UserList> responseObserver) {
         try {
             System.out.println("[gRPC] Get online users request");
 
-            // Get usernames from context (may be empty)
-            java.util.List<String> usernames = new java.util.ArrayList<>();
-
-            try {
-                usernames.addAll(context.getAllUsernames());
-            } catch (Exception e) {
-                System.err.println("[gRPC] Warning: Could not get usernames from context");
-            }
+            // Users trên mọi transport
+            java.util.List<String> usernames = bus.getUsernames();
 
             // If no users, add test data
             if (usernames.isEmpty()) {
@@ -161,29 +288,19 @@ public class ChatServiceImpl extends ChatServiceGrpc.ChatServiceImplBase {
 
             System.out.println("[gRPC] PM from " + sender + " to " + receiver);
 
-            StreamObserver<ChatMessage> receiverStream = activeStreams.get(receiver);
-
-            if (receiverStream != null) {
-                ChatMessage pm = ChatMessage.newBuilder()
-                        .setSender(sender)
-                        .setContent("[PM] " + content)
-                        .setTimestamp(System.currentTimeMillis())
-                        .setType(MessageType.PRIVATE)
-                        .build();
+            MessageResponse.Builder response = MessageResponse.newBuilder();
+            Subscriber owner = bus.getSubscriber(sender);
 
-                try {
-                    receiverStream.onNext(pm);
-                } catch (Exception e) {
-                    System.err.println("[gRPC] Failed to send PM: " + e.getMessage());
-                }
+            if (sender.trim().isEmpty() || isForeign(owner)) {
+                response.setSuccess(false).setMessage("Username is in use on another connection");
+            } else {
+                // Receiver có thể ở bất kỳ transport nào
+                Message pm = new Message(common.protocol.MessageType.PRIVATE, sender, receiver, content);
+                boolean delivered = context.getMessageRouter().routePrivate(pm, owner);
+                response.setSuccess(delivered).setMessage(delivered ? "PM sent" : "User offline");
             }
 
-            MessageResponse response = MessageResponse.newBuilder()
-                    .setSuccess(receiverStream != null)
-                    .setMessage(receiverStream != null ? "PM sent" : "User offline")
-                    .build();
-
-            responseObserver.onNext(response);
+            responseObserver.onNext(response.build());
             responseObserver.onCompleted();
 
         } catch (Exception e) {
@@ -193,14 +310,157 @@ public class ChatServiceImpl extends ChatServiceGrpc.ChatServiceImplBase {
         }
     }
 
-    private void broadcastToGrpcClients(ChatMessage message) {
-        activeStreams.forEach((username, stream) -> {
-            try {
-                stream.onNext(message);
-            } catch (Exception e) {
-                System.err.println("[gRPC] Failed to send to " + username);
-                activeStreams.remove(username);
+    /**
+     * Unary calls không có stream - sender chỉ được dùng tên chưa ai claim
+     * hoặc tên của chính gRPC stream của mình
+     */
+    private boolean isForeign(Subscriber owner) {
+        return owner != null && owner.getTransport() != this;
+    }
+
+    /**
+     * Idempotent - cancel handler, send failure và slow-consumer disconnect
+     * đều có thể gọi; chỉ lần unsubscribe đầu tiên broadcast presence
+     */
+    void release(GrpcSubscriber<?> subscriber) {
+        subscriber.close();
+        long dropped = subscriber.getDropped();
+        chatStreams.remove(subscriber);
+        if (bus.unsubscribe(subscriber)) {
+            context.getTypingAggregator().remove(subscriber.getUsername());
+            System.out.println("[gRPC] Stream closed for: " + subscriber.getUsername()
+                    + (dropped > 0 ? " (" + dropped + " messages dropped)" : ""));
+            context.getMessageRouter().broadcastPresence(subscriber.getUsername(), false);
+        }
+    }
+
+    // TransportAdapter
+
+    @Override
+    public String getName() {
+        return "grpc";
+    }
+
+    /**
+     * Mỗi wire form build một lần mỗi message (cached trong EncodedMessage).
+     * send() chỉ enqueue hoặc onNext khi stream ready - O(1) cho sender
+     */
+    @Override
+    public void deliver(EncodedMessage msg, Collection<Subscriber> recipients) {
+        for (Subscriber recipient : recipients) {
+            GrpcSubscriber<?> subscriber = (GrpcSubscriber<?>) recipient;
+            if (!subscriber.deliver(msg)) {
+                System.err.println("[gRPC] Failed to send to " + subscriber.getUsername());
+                release(subscriber);
+            }
+        }
+    }
+
+    /**
+     * Batch từ SendMessages - batching streams nhận một ChatMessageBatch,
+     * các streams khác nhận từng message
+     */
+    @Override
+    public void deliverAll(List<EncodedMessage> msgs, Collection<Subscriber> recipients) {
+        for (Subscriber recipient : recipients) {
+            GrpcSubscriber<?> subscriber = (GrpcSubscriber<?>) recipient;
+            if (!subscriber.deliverAll(msgs)) {
+                System.err.println("[gRPC] Failed to send to " + subscriber.getUsername());
+                release(subscriber);
+            }
+        }
+    }
+
+    @Override
+    public void deliverPresenceSnapshot(Subscriber target, Collection<String> usernames, long version) {
+        ((GrpcSubscriber<?>) target).deliver(EncodedMessage.of(new Message(common.protocol.MessageType.SERVER,
+                "SERVER", target.getUsername(), "Online users: " + String.join(", ", usernames))));
+    }
+
+    private void deliverTyping(String room, List<String> users) {
+        if (chatStreams.isEmpty()) {
+            return;
+        }
+        ServerEvent update = ServerEvent.newBuilder()
+                .setTyping(TypingUpdate.newBuilder().setRoom(room).addAllUsers(users))
+                .build();
+        for (GrpcSubscriber<ServerEvent> subscriber : chatStreams) {
+            subscriber.send(update);
+        }
+    }
+
+    private ChatMessage messageForm(EncodedMessage encoded) {
+        return encoded.wireForm(this, ChatServiceImpl::toGrpc);
+    }
+
+    /**
+     * ChatMessageBatch form của một message - GrpcSubscriber gộp các batch
+     * đang chờ bằng combine()
+     */
+    private ChatMessageBatch batchForm(EncodedMessage encoded) {
+        return encoded.wireForm(BATCH_FORM, msg -> {
+            ChatMessage chat = messageForm(encoded);
+            return chat != null ? ChatMessageBatch.newBuilder().addMessages(chat).build() : null;
+        });
+    }
+
+    private static ChatMessageBatch combine(List<ChatMessageBatch> batches) {
+        ChatMessageBatch.Builder combined = ChatMessageBatch.newBuilder();
+        for (ChatMessageBatch batch : batches) {
+            combined.addAllMessages(batch.getMessagesList());
+        }
+        return combined.build();
+    }
+
+    /**
+     * ServerEvent form - ACK của chính sender thành Ack event, mọi message
+     * khác bọc ChatMessage form đã cache
+     */
+    private ServerEvent eventForm(EncodedMessage encoded) {
+        return encoded.wireForm(EVENT_FORM, msg -> {
+            if (msg.getType() == common.protocol.MessageType.ACK) {
+                return toAck(msg);
             }
+            ChatMessage chat = messageForm(encoded);
+            return chat != null ? ServerEvent.newBuilder().setMessage(chat).build() : null;
         });
     }
-}
\ No newline at end of file
+
+    private static ServerEvent toAck(Message msg) {
+        Object id = msg.getMetadata(MessageRouter.META_MESSAGE_ID);
+        Object sequence = msg.getMetadata("sequence");
+        Object error = msg.getMetadata("error");
+        Ack.Builder ack = Ack.newBuilder()
+                .setId(id instanceof Number ? ((Number) id).longValue() : 0)
+                .setSuccess(error == null)
+                .setMessage(error != null ? error.toString() : "Accepted");
+        if (sequence instanceof Number) {
+            ack.setSequence(((Number) sequence).longValue());
+        }
+        return ServerEvent.newBuilder().setAck(ack).build();
+    }
+
+    /**
+     * Bus message → ChatMessage
+     * @return null nếu message không có dạng trên gRPC (room chat, ACK,
+     *         heartbeat, file transfer - TCP only)
+     */
+    private static ChatMessage toGrpc(Message msg) {
+        ChatMessage.Builder builder = ChatMessage.newBuilder()
+                .setSender(msg.getSender())
+                .setTimestamp(msg.getTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        switch (msg.getType()) {
+            case CHAT:
+                if (msg.getRoom() != null) {
+                    return null;
+                }
+                return builder.setContent(msg.getContent()).setType(MessageType.BROADCAST).build();
+            case PRIVATE:
+                return builder.setContent("[PM] " + msg.getContent()).setType(MessageType.PRIVATE).build();
+            case SERVER:
+                return builder.setContent(msg.getContent()).setType(MessageType.SYSTEM).build();
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package server.grpc;
+
+import common.grpc.*;
+import common.protocol.Message;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import server.core.ServerContext;
+import server.service.MessageRouter;
+
+/**
+ * ChatStream - Một Chat (bidirectional) call
+ *
+ * Event đầu tiên phải là join; sau đó chat, private, typing và ping đi lên
+ * cùng một HTTP/2 stream, còn messages, acks, typing updates và pongs đi
+ * xuống qua GrpcSubscriber (flow control như StreamMessages). Không có unary
+ * round-trip hay header frame cho mỗi message.
+ *
+ * Inbound callbacks được gRPC gọi tuần tự; subscriber volatile vì cancel và
+ * onReady handlers chạy trên thread khác.
+ */
+class ChatStream implements StreamObserver<ClientEvent> {
+
+    private final ChatServiceImpl service;
+    private final ServerContext context;
+    private final ServerCallStreamObserver<ServerEvent> responses;
+    private volatile GrpcSubscriber<ServerEvent> subscriber;
+
+    ChatStream(ChatServiceImpl service, ServerContext context, ServerCallStreamObserver<ServerEvent> responses) {
+        this.service = service;
+        this.context = context;
+        this.responses = responses;
+        // Handlers chỉ đăng ký được trước khi chat() return - subscriber chưa có lúc này
+        responses.setOnReadyHandler(() -> {
+            GrpcSubscriber<ServerEvent> current = subscriber;
+            if (current != null) {
+                current.drain();
+            }
+        });
+        responses.setOnCancelHandler(this::release);
+    }
+
+    @Override
+    public void onNext(ClientEvent event) {
+        GrpcSubscriber<ServerEvent> current = subscriber;
+        if (current == null) {
+            if (event.getEventCase() != ClientEvent.EventCase.JOIN) {
+                fail(Status.FAILED_PRECONDITION.withDescription("Join first"));
+                return;
+            }
+            join(event);
+            return;
+        }
+
+        String username = current.getUsername();
+        MessageRouter router = context.getMessageRouter();
+
+        switch (event.getEventCase()) {
+            case CHAT: {
+                String content = event.getChat().getContent().trim();
+                if (content.isEmpty()) {
+                    ack(current, event.getId(), false, "Content required");
+                    return;
+                }
+                // Gửi message nghĩa là đã ngừng gõ
+                context.getTypingAggregator().update(ServerContext.LOBBY, username, false);
+                router.routeChat(withAckId(new Message(common.protocol.MessageType.CHAT, username, content),
+                        event.getId()), current);
+                break;
+            }
+            case PRIVATE_MESSAGE: {
+                PrivateEvent pm = event.getPrivateMessage();
+                String content = pm.getContent().trim();
+                if (content.isEmpty()) {
+                    ack(current, event.getId(), false, "Content required");
+                    return;
+                }
+                Message msg = withAckId(new Message(common.protocol.MessageType.PRIVATE, username,
+                        pm.getReceiver(), content), event.getId());
+                if (!router.routePrivate(msg, current)) {
+                    ack(current, event.getId(), false, "User offline");
+                }
+                break;
+            }
+            case TYPING:
+                // Coalesced cùng WebSocket typing - TypingAggregator gửi update
+                context.getTypingAggregator().update(ServerContext.LOBBY, username, event.getTyping().getTyping());
+                break;
+            case PING:
+                current.send(ServerEvent.newBuilder()
+                        .setPong(Pong.newBuilder()
+                                .setTimestamp(event.getPing().getTimestamp())
+                                .setServerTime(System.currentTimeMillis()))
+                        .build());
+                break;
+            case JOIN:
+                ack(current, event.getId(), false, "Already joined");
+                break;
+            default:
+                ack(current, event.getId(), false, "Unknown event");
+        }
+    }
+
+    private void join(ClientEvent event) {
+        String username = event.getJoin().getUsername().trim();
+        if (username.isEmpty()) {
+            fail(Status.INVALID_ARGUMENT.withDescription("Username required"));
+            return;
+        }
+
+        GrpcSubscriber<ServerEvent> joined = service.newChatSubscriber(username, responses);
+
+        // Namespace chung - tên có thể đang được dùng trên TCP / WebSocket / gRPC
+        if (!context.getMessageBus().claim(joined)) {
+            joined.fail(Status.ALREADY_EXISTS.withDescription("Username '" + username + "' is already taken"));
+            return;
+        }
+        subscriber = joined;
+
+        System.out.println("[gRPC] Chat stream joined: " + username);
+
+        ack(joined, event.getId(), true, "Welcome to gRPC chat, " + username + "!");
+        service.subscribe(joined);
+
+        // One snapshot for the new client, O(1) delta for everyone else
+        MessageRouter router = context.getMessageRouter();
+        router.sendPresenceSnapshot(joined);
+        router.broadcastPresence(username, true);
+    }
+
+    /**
+     * Id của client được gắn làm "messageId" - MessageRouter gửi ACK khi
+     * message đã durable, ChatServiceImpl chuyển nó thành Ack event
+     */
+    private static Message withAckId(Message msg, long id) {
+        if (id != 0) {
+            msg.putMetadata(MessageRouter.META_MESSAGE_ID, id);
+        }
+        return msg;
+    }
+
+    private static void ack(GrpcSubscriber<ServerEvent> target, long id, boolean success, String message) {
+        target.send(ServerEvent.newBuilder()
+                .setAck(Ack.newBuilder().setId(id).setSuccess(success).setMessage(message))
+                .build());
+    }
+
+    /**
+     * Lỗi trước khi join - chưa có subscriber nào dùng responses
+     */
+    private void fail(Status status) {
+        try {
+            responses.onError(status.asRuntimeException());
+        } catch (RuntimeException e) {
+            // Call đã bị cancel
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        // Client cancel / connection lost
+        release();
+    }
+
+    @Override
+    public void onCompleted() {
+        GrpcSubscriber<ServerEvent> current = subscriber;
+        if (current == null) {
+            try {
+                responses.onCompleted();
+            } catch (RuntimeException e) {
+                // Call đã kết thúc (fail trước join)
+            }
+            return;
+        }
+        // Client half-close - kết thúc response stream rồi giải phóng username
+        current.complete();
+        release();
+    }
+
+    private void release() {
+        GrpcSubscriber<ServerEvent> current = subscriber;
+        if (current != null) {
+            service.release(current);
+        }
+    }
+}
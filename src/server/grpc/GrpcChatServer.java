@@ -1,17 +1,38 @@
 package server.grpc;
 
 import io.grpc.Server;
-import io.grpc.ServerBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+import server.config.ServerConfig;
 import server.core.ServerContext;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * GrpcChatServer - Netty-based gRPC server
+ *
+ * Event loops, handler executor, flow-control window và keepalive policy
+ * đều lấy từ ServerConfig (grpc.* trong server.properties) thay vì defaults
+ * của ServerBuilder: boss group accept connections, worker group làm HTTP/2
+ * I/O, handlers chạy trên fixed pool start sẵn (hoặc trực tiếp trên event
+ * loop) - không có thread creation trên hot path.
+ */
 public class GrpcChatServer {
 
     private final ServerContext context;
     private final int port;
     private Server server;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private ExecutorService executor;     // null với CACHED (gRPC tự quản lý) và DIRECT
 
     public GrpcChatServer(ServerContext context, int port) {
         this.context = context;
@@ -27,14 +48,19 @@ public class GrpcChatServer {
             System.setProperty("java.net.preferIPv4Stack", "true");
             System.setProperty("java.net.preferIPv4Addresses", "true");
 
-            server = ServerBuilder.forPort(port)
+            server = configure(NettyServerBuilder.forAddress(new InetSocketAddress(port)))
                     .addService(new ChatServiceImpl(context))
                     .build()
                     .start();
 
+            ServerConfig config = context.getConfig();
             System.out.println("═══════════════════════════════════════");
             System.out.println("  gRPC Server Started");
             System.out.println("  Port: " + port);
+            System.out.println("  Event loops: " + config.getGrpcBossThreads() + " boss / "
+                    + config.getGrpcWorkerThreads() + " worker");
+            System.out.println("  Executor: " + config.getGrpcExecutorMode().name().toLowerCase()
+                    + (executor != null ? " (" + config.getGrpcExecutorThreads() + " threads)" : ""));
             System.out.println("  Listening on: 0.0.0.0:" + port);
             System.out.println("  Connect via: localhost:" + port);
             System.out.println("═══════════════════════════════════════");
@@ -55,14 +81,75 @@ public class GrpcChatServer {
         }
     }
 
-    public void stop() throws InterruptedException {
+    /**
+     * Áp dụng grpc.* settings lên builder
+     */
+    private NettyServerBuilder configure(NettyServerBuilder builder) {
+        ServerConfig config = context.getConfig();
+
+        // Builder không shutdown groups được truyền vào - stop() làm việc đó
+        bossGroup = new NioEventLoopGroup(config.getGrpcBossThreads(), new DefaultThreadFactory("grpc-boss", true));
+        workerGroup = new NioEventLoopGroup(config.getGrpcWorkerThreads(), new DefaultThreadFactory("grpc-worker", true));
+        builder.bossEventLoopGroup(bossGroup)
+                .workerEventLoopGroup(workerGroup)
+                .channelType(NioServerSocketChannel.class);
+
+        switch (config.getGrpcExecutorMode()) {
+            case DIRECT:
+                // Handlers chỉ enqueue (MessageBus, GrpcSubscriber, MessageStore) - không block event loop
+                builder.directExecutor();
+                break;
+            case FIXED:
+                int threads = config.getGrpcExecutorThreads();
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>(), new DefaultThreadFactory("grpc-exec", true));
+                pool.prestartAllCoreThreads();
+                executor = pool;
+                builder.executor(pool);
+                break;
+            case CACHED:
+            default:
+                // Shared cached pool của grpc-java
+                break;
+        }
+
+        builder.initialFlowControlWindow(config.getGrpcFlowControlWindow())
+                .maxConcurrentCallsPerConnection(config.getGrpcMaxConcurrentStreams())
+                .keepAliveTime(config.getGrpcKeepAliveTime(), TimeUnit.MILLISECONDS)
+                .keepAliveTimeout(config.getGrpcKeepAliveTimeout(), TimeUnit.MILLISECONDS)
+                .permitKeepAliveTime(config.getGrpcPermitKeepAliveTime(), TimeUnit.MILLISECONDS)
+                .permitKeepAliveWithoutCalls(config.isGrpcPermitKeepAliveWithoutCalls());
+
+        if (config.getGrpcMaxConnectionAge() > 0) {
+            builder.maxConnectionAge(config.getGrpcMaxConnectionAge(), TimeUnit.MILLISECONDS);
+            if (config.getGrpcMaxConnectionAgeGrace() > 0) {
+                builder.maxConnectionAgeGrace(config.getGrpcMaxConnectionAgeGrace(), TimeUnit.MILLISECONDS);
+            }
+        }
+        return builder;
+    }
+
+    public synchronized void stop() throws InterruptedException {
         if (server != null) {
             System.out.println("[gRPC] Stopping server...");
             server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
+            server = null;
+            if (executor != null) {
+                executor.shutdown();
+            }
+            workerGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+            bossGroup.shutdownGracefully(0, 5, TimeUnit.SECONDS);
             System.out.println("[gRPC] Server stopped");
         }
     }
 
+    /**
+     * Port thực sự đã bind - khác port của constructor khi bind port 0
+     */
+    public synchronized int getLocalPort() {
+        return server != null ? server.getPort() : -1;
+    }
+
     public void blockUntilShutdown() throws InterruptedException {
         if (server != null) {
             server.awaitTermination();
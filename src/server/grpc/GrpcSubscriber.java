@@ -0,0 +1,271 @@
+package server.grpc;
+
+import com.google.protobuf.MessageLite;
+import common.protocol.EncodedMessage;
+import common.protocol.ProtocolConstants;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import server.bus.Subscriber;
+import server.bus.TransportAdapter;
+import server.config.ServerConfig.OverflowPolicy;
+import server.core.OutboundQueue;
+import server.core.Overflow;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * GrpcSubscriber - Một gRPC stream trên MessageBus
+ *
+ * T là message type của stream: ChatMessage cho StreamMessages, ServerEvent
+ * cho Chat. form chuyển bus message sang T (cached trong EncodedMessage).
+ *
+ * StreamObserver không thread-safe, còn bus deliver từ nhiều threads (TCP
+ * readers, WebSocket, gRPC calls, history writer) - mọi onNext đi qua lock
+ * của subscriber nên mỗi stream được dispatch tuần tự.
+ *
+ * Backpressure: onNext chỉ được gọi khi stream isReady() (HTTP/2
+ * flow-control window còn chỗ). Khi client đọc chậm, messages chờ trong
+ * một queue bounded và được drain bởi onReady handler (caller đăng ký
+ * drain() lúc bắt đầu call - gRPC không cho đăng ký sau); khi queue đầy,
+ * OverflowPolicy quyết định drop hay disconnect - Netty không bao giờ
+ * buffer không giới hạn cho một stream.
+ *
+ * Batching (StreamMessageBatches): khi có combiner, các messages đang chờ
+ * được gộp thành một item (tối đa batchMax messages, dưới MAX_MESSAGE_SIZE)
+ * cho mỗi onNext - một burst hay một client chậm tốn một HTTP/2 DATA frame
+ * thay vì một frame mỗi message.
+ *
+ * Design Pattern: Bounded Buffer
+ */
+class GrpcSubscriber<T extends MessageLite> implements Subscriber {
+
+    /**
+     * Queued message - presence notifications được coalesce theo user (COALESCE_PRESENCE)
+     */
+    private static final class Pending<T> {
+        final T message;
+        final String presenceUser;  // null - không phải join/leave event
+        final int count;            // Số chat messages trong item (batch form)
+
+        Pending(T message, String presenceUser, int count) {
+            this.message = message;
+            this.presenceUser = presenceUser;
+            this.count = count;
+        }
+    }
+
+    private final String username;
+    private final ServerCallStreamObserver<T> stream;
+    private final TransportAdapter transport;
+    private final Function<EncodedMessage, T> form;
+    private final Function<List<T>, T> combiner;    // null - không batching
+    private final int batchMax;
+    private final int capacity;
+    private final OverflowPolicy policy;
+    private final ArrayDeque<Pending<T>> queue;
+    private long dropped;
+    private boolean open = true;
+
+    GrpcSubscriber(String username, ServerCallStreamObserver<T> stream, TransportAdapter transport,
+            Function<EncodedMessage, T> form, int capacity, OverflowPolicy policy) {
+        this(username, stream, transport, form, null, 1, capacity, policy);
+    }
+
+    GrpcSubscriber(String username, ServerCallStreamObserver<T> stream, TransportAdapter transport,
+            Function<EncodedMessage, T> form, Function<List<T>, T> combiner, int batchMax,
+            int capacity, OverflowPolicy policy) {
+        this.username = username;
+        this.stream = stream;
+        this.transport = transport;
+        this.form = form;
+        this.combiner = combiner;
+        this.batchMax = batchMax;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.queue = new ArrayDeque<>(Math.min(capacity, 64));
+    }
+
+    @Override
+    public String getUsername() {
+        return username;
+    }
+
+    @Override
+    public TransportAdapter getTransport() {
+        return transport;
+    }
+
+    /**
+     * Bus message theo wire form của stream này
+     * @return false nếu subscriber cần được release
+     */
+    boolean deliver(EncodedMessage msg) {
+        T item = form.apply(msg);
+        if (item == null) {
+            return true;    // Không có dạng trên stream này
+        }
+        return send(item, OutboundQueue.presenceUser(msg));
+    }
+
+    /**
+     * Batch từ bus (MessageBus.publishAll) - với combiner, mỗi batchMax
+     * messages thành một item; không có combiner thì deliver từng message
+     * @return false nếu subscriber cần được release
+     */
+    boolean deliverAll(List<EncodedMessage> msgs) {
+        if (combiner == null) {
+            for (EncodedMessage msg : msgs) {
+                if (!deliver(msg)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        List<T> chunk = new ArrayList<>(Math.min(msgs.size(), batchMax));
+        for (EncodedMessage msg : msgs) {
+            T item = form.apply(msg);
+            if (item == null) {
+                continue;
+            }
+            chunk.add(item);
+            if (chunk.size() == batchMax) {
+                if (!send(combiner.apply(chunk), null, chunk.size())) {
+                    return false;
+                }
+                chunk = new ArrayList<>(Math.min(msgs.size(), batchMax));
+            }
+        }
+        return chunk.isEmpty() || send(chunk.size() == 1 ? chunk.get(0) : combiner.apply(chunk), null, chunk.size());
+    }
+
+    /**
+     * Gửi ngay nếu stream ready và không có gì đang chờ, ngược lại enqueue
+     * @param presenceUser user của join/leave event (key để coalesce), null nếu không phải
+     * @return false nếu stream đã đóng, gửi thất bại, hoặc policy yêu cầu
+     *         disconnect (stream đã được kết thúc với RESOURCE_EXHAUSTED)
+     */
+    synchronized boolean send(T message, String presenceUser) {
+        return send(message, presenceUser, 1);
+    }
+
+    // count - số chat messages trong item (batch form), để nextBatch() giữ batchMax
+    private synchronized boolean send(T message, String presenceUser, int count) {
+        if (!open) {
+            return false;
+        }
+        if (queue.isEmpty() && stream.isReady()) {
+            return emit(message);
+        }
+        Pending<T> pending = new Pending<>(message, presenceUser, count);
+        if (queue.size() >= capacity) {
+            dropped++;
+            if (!Overflow.makeRoom(queue, policy, pending, p -> p.presenceUser)) {
+                System.err.println("[gRPC] Slow consumer disconnected: " + username);
+                fail(Status.RESOURCE_EXHAUSTED.withDescription("Stream buffer full"));
+                return false;
+            }
+        }
+        queue.addLast(pending);
+        return true;
+    }
+
+    boolean send(T message) {
+        return send(message, null);
+    }
+
+    /**
+     * Kết thúc stream bình thường (client half-close) - phần đang chờ vẫn
+     * được bỏ, client đã ngừng gửi và sắp đóng
+     */
+    synchronized void complete() {
+        if (!open) {
+            return;
+        }
+        open = false;
+        queue.clear();
+        try {
+            stream.onCompleted();
+        } catch (RuntimeException e) {
+            // Call đã bị cancel
+        }
+    }
+
+    /**
+     * Kết thúc stream với status lỗi - bỏ phần đang chờ
+     */
+    synchronized void fail(Status status) {
+        if (!open) {
+            return;
+        }
+        open = false;
+        queue.clear();
+        try {
+            stream.onError(status.asRuntimeException());
+        } catch (RuntimeException e) {
+            // Call đã bị cancel
+        }
+    }
+
+    /**
+     * onReady handler - flow-control window mở lại, drain queue cho đến khi
+     * window đầy lại
+     */
+    synchronized void drain() {
+        while (open && !queue.isEmpty() && stream.isReady()) {
+            if (!emit(combiner != null ? nextBatch() : queue.pollFirst().message)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gộp phần đầu queue thành một item - tối đa batchMax messages và
+     * MAX_MESSAGE_SIZE bytes (item đầu tiên luôn được lấy) - caller giữ lock
+     */
+    private T nextBatch() {
+        Pending<T> first = queue.pollFirst();
+        Pending<T> next = queue.peekFirst();
+        if (next == null || first.count + next.count > batchMax) {
+            return first.message;
+        }
+        List<T> batch = new ArrayList<>();
+        batch.add(first.message);
+        int count = first.count;
+        int bytes = first.message.getSerializedSize();
+        while (next != null && count + next.count <= batchMax
+                && bytes + next.message.getSerializedSize() <= ProtocolConstants.MAX_MESSAGE_SIZE) {
+            queue.pollFirst();
+            batch.add(next.message);
+            count += next.count;
+            bytes += next.message.getSerializedSize();
+            next = queue.peekFirst();
+        }
+        return batch.size() == 1 ? first.message : combiner.apply(batch);
+    }
+
+    private boolean emit(T message) {
+        try {
+            stream.onNext(message);
+            return true;
+        } catch (RuntimeException e) {
+            open = false;
+            queue.clear();
+            return false;
+        }
+    }
+
+    synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Đánh dấu stream đã đóng (client cancel hoặc server shutdown) và bỏ phần đang chờ
+     */
+    synchronized void close() {
+        open = false;
+        queue.clear();
+    }
+}
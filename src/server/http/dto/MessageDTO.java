@@ -1,6 +1,7 @@
 package server.http.dto;
 
 // import common.protocol.MessageType;
+import common.protocol.Message;
 import java.time.LocalDateTime;
 
 /**
@@ -26,6 +27,16 @@ public class MessageDTO {
         this.timestamp = LocalDateTime.now();
     }
 
+    public static MessageDTO fromMessage(Message msg) {
+        MessageDTO dto = new MessageDTO();
+        dto.sender = msg.getSender();
+        dto.receiver = msg.getReceiver();
+        dto.content = msg.getContent();
+        dto.type = msg.getType().name();
+        dto.timestamp = msg.getTimestamp();
+        return dto;
+    }
+
     // Getters/Setters
     public String getSender() {
         return sender;
@@ -1,21 +1,34 @@
 package server.http.servlets;
 
+import common.model.ChatRoom;
 import server.core.ServerContext;
 import server.http.dto.MessageDTO;
+import server.storage.MessageStore;
+import server.storage.StoredMessage;
 import common.protocol.Message;
 import common.protocol.MessageType;
+import common.protocol.ProtocolConstants;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import java.io.IOException;
-// import java.util.List;
-// import java.util.stream.Collectors;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * Servlet xử lý /api/messages endpoints
  * 
- * GET /api/messages → Get message history (TODO: requires database)
+ * GET /api/messages?room=lobby&before=<epochMillis>&limit=50 → Room history
  * POST /api/messages → Send message
+ *
+ * HTTP API không có authentication nên chỉ history của public rooms được
+ * phục vụ - private conversations và private rooms không đọc được ở đây.
+ * 
+ * History page trả về messages cũ → mới; trang tiếp theo dùng
+ * cursor=nextCursor cho đến khi nextCursor là null. before (server time)
+ * chỉ dùng để nhảy tới một thời điểm - nhiều messages có thể cùng millisecond.
  */
 public class MessagesServlet extends BaseServlet {
 
@@ -81,8 +94,59 @@ public class MessagesServlet extends BaseServlet {
             HttpServletResponse response) throws IOException {
         enableCORS(response);
 
-        // TODO: Implement when database is added
-        sendError(response, "NOT_IMPLEMENTED",
-                "Message history requires database", 501);
+        MessageStore store = context.getMessageStore();
+        if (store == null) {
+            sendError(response, "HISTORY_DISABLED",
+                    "Message history is disabled (history.enabled=false)", 404);
+            return;
+        }
+
+        String room = request.getParameter("room");
+        if (room == null || room.isEmpty()) {
+            sendError(response, "INVALID_QUERY", "room is required", 400);
+            return;
+        }
+        ChatRoom chatRoom = context.getRoom(room);
+        if (chatRoom != null && chatRoom.isPrivate()) {
+            sendError(response, "FORBIDDEN",
+                    "History of private rooms is not available over HTTP", 403);
+            return;
+        }
+        String stream = MessageStore.roomStream(room);
+
+        long before;
+        long cursor;
+        int limit;
+        try {
+            String beforeParam = request.getParameter("before");
+            String cursorParam = request.getParameter("cursor");
+            String limitParam = request.getParameter("limit");
+            before = beforeParam != null ? Long.parseLong(beforeParam) : Long.MAX_VALUE;
+            cursor = cursorParam != null ? Long.parseLong(cursorParam) : Long.MAX_VALUE;
+            limit = limitParam != null ? Integer.parseInt(limitParam) : ProtocolConstants.HISTORY_PAGE_SIZE;
+        } catch (NumberFormatException e) {
+            sendError(response, "INVALID_QUERY",
+                    "before, cursor and limit must be numbers", 400);
+            return;
+        }
+        limit = Math.max(1, Math.min(limit, ProtocolConstants.HISTORY_MAX_PAGE_SIZE));
+
+        try {
+            List<StoredMessage> page = store.read(stream, before, cursor, limit);
+
+            List<MessageDTO> messages = page.stream()
+                    .map(stored -> MessageDTO.fromMessage(stored.getMessage()))
+                    .collect(Collectors.toList());
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("messages", messages);
+            // Còn messages cũ hơn khi trang đầy và chưa chạm sequence 0
+            boolean more = page.size() == limit && page.get(0).getSequence() > 0;
+            result.put("nextCursor", more ? page.get(0).getSequence() : null);
+            sendSuccess(response, result);
+        } catch (IOException e) {
+            sendError(response, "SERVER_ERROR",
+                    "Failed to read history: " + e.getMessage(), 500);
+        }
     }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package server.http.servlets;
 
 import server.core.ServerContext;
+import server.http.dto.MessageDTO;
 import server.http.dto.RoomDTO;
 import common.model.ChatRoom;
 import javax.servlet.http.HttpServletRequest;
@@ -16,9 +17,12 @@ import java.util.stream.Collectors;
  * GET /api/rooms → List all rooms
  * POST /api/rooms → Create new room
  * GET /api/rooms/:id → Get room info
+ * GET /api/rooms/:id/messages?limit=N → Recent messages từ in-memory ring buffer
  */
 public class RoomsServlet extends BaseServlet {
 
+    private static final String MESSAGES_SUFFIX = "/messages";
+
     public RoomsServlet(ServerContext context) {
         super(context);
     }
@@ -33,6 +37,10 @@ public class RoomsServlet extends BaseServlet {
         if (pathInfo == null || pathInfo.equals("/")) {
             // List all rooms
             listRooms(response);
+        } else if (pathInfo.endsWith(MESSAGES_SUFFIX)) {
+            // Recent messages of a room
+            String roomName = pathInfo.substring(1, pathInfo.length() - MESSAGES_SUFFIX.length());
+            getRecentMessages(roomName, request, response);
         } else {
             // Get specific room
             String roomName = pathInfo.substring(1);
@@ -40,6 +48,35 @@ public class RoomsServlet extends BaseServlet {
         }
     }
 
+    private void getRecentMessages(String roomName, HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
+        ChatRoom room = context.getRoom(roomName);
+
+        if (room == null) {
+            sendError(response, "ROOM_NOT_FOUND",
+                    "Room not found", 404);
+            return;
+        }
+
+        int limit = room.getRecentMessages().getCapacity();
+        String limitParam = request.getParameter("limit");
+        if (limitParam != null) {
+            try {
+                limit = Math.max(1, Math.min(limit, Integer.parseInt(limitParam)));
+            } catch (NumberFormatException e) {
+                sendError(response, "INVALID_QUERY",
+                        "limit must be a number", 400);
+                return;
+            }
+        }
+
+        List<MessageDTO> messages = room.getRecentMessages().latest(limit).stream()
+                .map(encoded -> MessageDTO.fromMessage(encoded.getMessage()))
+                .collect(Collectors.toList());
+
+        sendSuccess(response, messages);
+    }
+
     private void listRooms(HttpServletResponse response) throws IOException {
         List<RoomDTO> rooms = context.getRooms().values().stream()
                 .map(RoomDTO::fromRoom)
@@ -83,7 +120,8 @@ public class RoomsServlet extends BaseServlet {
             }
 
             // Create room
-            ChatRoom room = new ChatRoom(dto.getName(), dto.getDescription());
+            ChatRoom room = new ChatRoom(dto.getName(), dto.getDescription(), 100, false, null,
+                    context.getConfig().getRoomHistoryCapacity());
             context.getRooms().put(dto.getName(), room);
 
             sendCreated(response, RoomDTO.fromRoom(room));
@@ -1,5 +1,6 @@
 package server.http.servlets;
 
+import server.core.OutboundQueue;
 import server.core.ServerContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -7,7 +8,9 @@ import javax.servlet.http.HttpServletResponse;
 // import java.util.List;
 // import java.util.stream.Collectors;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -42,6 +45,21 @@ public class StatusServlet extends BaseServlet {
         memory.put("max", runtime.maxMemory());
         status.put("memory", memory);
 
+        // Per-client outbound queue depth
+        List<Map<String, Object>> queues = new ArrayList<>();
+        context.getHandlers().forEach((username, handler) -> {
+            OutboundQueue queue = handler.getOutboundQueue();
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("username", username);
+            stats.put("depth", queue.size());
+            stats.put("capacity", queue.getCapacity());
+            stats.put("highWaterMark", queue.getHighWaterMark());
+            stats.put("dropped", queue.getDropped());
+            queues.add(stats);
+        });
+        status.put("outboundPolicy", context.getConfig().getOverflowPolicy().name());
+        status.put("outboundQueues", queues);
+
         sendSuccess(response, status);
     }
 
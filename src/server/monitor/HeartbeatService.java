@@ -23,7 +23,8 @@ public class HeartbeatService {
         }
 
         running = true;
-        scheduler = Executors.newSingleThreadScheduledExecutor();
+        // Ticks chạy trên thread factory của context (virtual threads khi được bật)
+        scheduler = Executors.newSingleThreadScheduledExecutor(context.getThreadFactory());
 
         scheduler.scheduleAtFixedRate(this::sendPings,
                 context.getConfig().getPingInterval(),
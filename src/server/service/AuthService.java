@@ -17,6 +17,7 @@ public class AuthService {
         if (username.length() > 20) {
             return false;
         }
-        return context.getSession(username) == null;
+        // Namespace chung cho TCP, WebSocket và gRPC users
+        return !context.getMessageBus().isTaken(username);
     }
 }
@@ -0,0 +1,520 @@
+package server.service;
+
+import common.protocol.Message;
+import common.protocol.ProtocolConstants;
+import common.protocol.RelayHandshake;
+import common.util.ChecksumUtil;
+import server.core.ServerContext;
+import server.storage.BlobStore;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FileRelayService - Dedicated channel cho file data giữa hai TCP clients
+ *
+ * FILE_META / FILE_ACK vẫn đi qua chat connection; FileTransferService cấp
+ * một token cho mỗi transfer. Sau khi receiver accept, cả hai peers mở
+ * connection tới relay port, gửi RelayHandshake, và server splice bytes
+ * của sender thẳng sang socket của receiver qua một direct ByteBuffer:
+ * payload không bao giờ thành byte[], Message hay serialized frame trên
+ * server (trước đây mỗi 64KB chunk bị decode/copy/encode lại ít nhất 4 lần).
+ *
+ * Mỗi relay đang chạy dùng một thread của context pool (blocking channels).
+ * Token chờ receiver accept tối đa file.relay.offer.timeout (mặc định
+ * FILE_OFFER_TIMEOUT, cùng khoảng sender chờ reply); sau accept, peers có
+ * file.relay.transfer.timeout để kết nối.
+ *
+ * Với BlobStore: upload đầy đủ được tee vào store trong lúc splice. Khi
+ * checksum của FILE_META đã có trong store, relay giữ một Lease của blob
+ * ngay từ register. Checksum không chứng minh sender có file, nên FILE_ACK
+ * forward cho sender mang một ownership challenge (nonce + range ngẫu
+ * nhiên) cho mọi transfer dedup được, dù store có file hay không. Chỉ khi
+ * proof trong RelayHandshake khớp blob, sender được trả STATUS_STORED và
+ * server stream blob cho receiver bằng FileChannel.transferTo - một blob
+ * fan-out cho bao nhiêu receivers cũng được. Không có / sai proof: sender
+ * upload như bình thường.
+ */
+public class FileRelayService {
+
+    private static final int HANDSHAKE_TIMEOUT = 10000;
+    private static final int PROOF_NONCE_BYTES = 16;
+
+    /**
+     * Ownership challenge của một transfer - server chọn, sender trả lời
+     */
+    private static final class Challenge {
+        final byte[] nonce;
+        final long offset;
+        final int length;
+
+        Challenge(byte[] nonce, long offset, int length) {
+            this.nonce = nonce;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        /**
+         * Proof của sender có khớp blob không - đọc length bytes của blob
+         */
+        boolean verify(BlobStore.Lease blob, String proof) {
+            if (proof == null || proof.isEmpty()) {
+                return false;
+            }
+            try (FileChannel channel = blob.open()) {
+                return ChecksumUtil.ownershipProof(channel, nonce, offset, length).equalsIgnoreCase(proof);
+            } catch (IOException e) {
+                System.err.println("[STORE] Cannot verify ownership proof: " + e.getMessage());
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Một transfer đã được cấp token - chờ đủ hai peers
+     */
+    private static final class Relay {
+        final String token;
+        final String sender;
+        final String receiver;
+        final String filename;
+        final long size;
+        final String checksum;
+        final String algorithm;         // checksumAlgorithm của FILE_META (null = MD5)
+        volatile long expiresAt;        // Đổi từ offer timeout sang transfer timeout khi accept
+        final BlobStore.Lease stored;   // null = store không có file
+        final Challenge challenge;      // null = không dedup được
+        long offset;                    // Resume - bytes receiver đã có; guarded by this
+        boolean accepted;               // guarded by this
+        boolean proven;                 // Sender đã chứng minh có file - serve blob; guarded by this
+        boolean closed;                 // guarded by this
+        SocketChannel upstream;         // sender → server
+        SocketChannel downstream;       // server → receiver
+
+        Relay(String token, String sender, String receiver, String filename, long size, String checksum,
+                String algorithm, long expiresAt, BlobStore.Lease stored, Challenge challenge) {
+            this.token = token;
+            this.sender = sender;
+            this.receiver = receiver;
+            this.filename = filename;
+            this.size = size;
+            this.checksum = checksum;
+            this.algorithm = algorithm;
+            this.expiresAt = expiresAt;
+            this.stored = stored;
+            this.challenge = challenge;
+        }
+
+        /**
+         * Đủ peers để bắt đầu - guarded by this
+         */
+        boolean isReady() {
+            return downstream != null && (proven ? accepted : upstream != null);
+        }
+    }
+
+    private final ServerContext context;
+    private final int port;
+    private final int bufferSize;
+    private final long offerTimeout;
+    private final long transferTimeout;
+    private final Map<String, Relay> relays;    // token -> relay chưa bắt đầu
+    private final SecureRandom random;
+    private volatile ServerSocketChannel serverChannel;
+    private ScheduledExecutorService sweeper;
+    private volatile boolean running;
+
+    public FileRelayService(ServerContext context) {
+        this.context = context;
+        this.port = context.getConfig().getFileRelayPort();
+        this.bufferSize = context.getConfig().getChunkSize();
+        this.offerTimeout = context.getConfig().getFileOfferTimeout();
+        this.transferTimeout = context.getConfig().getFileTransferTimeout();
+        this.relays = new ConcurrentHashMap<>();
+        this.random = new SecureRandom();
+    }
+
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), context.getConfig().getBacklog());
+        running = true;
+
+        Thread acceptor = context.getThreadFactory().newThread(this::acceptLoop);
+        acceptor.setName("file-relay-accept");
+        acceptor.start();
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(context.getThreadFactory());
+        long sweep = Math.max(1, Math.min(offerTimeout, transferTimeout) / 2);
+        sweeper.scheduleAtFixedRate(this::expire, sweep, sweep, TimeUnit.MILLISECONDS);
+
+        System.out.println("[RELAY] File relay listening on port " + getPort());
+    }
+
+    /**
+     * Port peers kết nối tới - port thật đã bind khi file.relay.port=0
+     */
+    public int getPort() {
+        ServerSocketChannel channel = serverChannel;
+        return channel != null ? channel.socket().getLocalPort() : port;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Cấp token cho một FILE_META - chỉ sender và receiver biết token
+     * @param checksum whole-file checksum của FILE_META (null = không dùng store)
+     * @param algorithm checksumAlgorithm của FILE_META
+     */
+    public String register(String sender, String receiver, String filename, long size, String checksum,
+            String algorithm) {
+        byte[] bytes = new byte[18];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        BlobStore store = context.getBlobStore();
+        BlobStore.Lease stored = null;
+        Challenge challenge = null;
+        if (store != null && size > 0 && BlobStore.isStorable(checksum, algorithm)) {
+            stored = store.acquire(checksum, algorithm, size);
+            challenge = newChallenge(size);
+        }
+        relays.put(token, new Relay(token, sender, receiver, filename, size, checksum, algorithm,
+                System.currentTimeMillis() + offerTimeout, stored, challenge));
+        return token;
+    }
+
+    private Challenge newChallenge(long size) {
+        byte[] nonce = new byte[PROOF_NONCE_BYTES];
+        random.nextBytes(nonce);
+        int length = (int) Math.min(size, ProtocolConstants.FILE_PROOF_LENGTH);
+        long offset = random.longs(1, 0, size - length + 1).findFirst().getAsLong();
+        return new Challenge(nonce, offset, length);
+    }
+
+    /**
+     * Gắn ownership challenge của token vào FILE_ACK accept forward cho sender
+     */
+    public void attachChallenge(String token, Message ack) {
+        Relay relay = token != null ? relays.get(token) : null;
+        if (relay != null && relay.challenge != null) {
+            Challenge challenge = relay.challenge;
+            ack.setOwnershipChallenge(challenge.nonce, challenge.offset, challenge.length);
+        }
+    }
+
+    /**
+     * FILE_ACK từ receiver - chỉ chấp nhận ACK của đúng receiver cho đúng sender
+     * @param resumeFrom chunk đầu tiên receiver còn thiếu (0 = cả file)
+     * @return false nếu token không tồn tại / đã hết hạn / không khớp
+     */
+    public boolean accept(String token, String receiver, String sender, boolean accepted, int resumeFrom) {
+        Relay relay = token != null ? relays.get(token) : null;
+        if (relay == null || !relay.receiver.equals(receiver) || !relay.sender.equals(sender)) {
+            return false;
+        }
+        if (!accepted) {
+            discard(relay);
+            return true;
+        }
+        if (relay.expiresAt < System.currentTimeMillis()) {
+            discard(relay);             // Sweeper chưa chạy tới
+            return false;
+        }
+        boolean ready;
+        synchronized (relay) {
+            if (relay.closed) {
+                return false;           // Sweeper đã discard giữa get() và lock
+            }
+            relay.accepted = true;
+            relay.expiresAt = System.currentTimeMillis() + transferTimeout;
+            relay.offset = Math.min((long) resumeFrom * ProtocolConstants.CHUNK_SIZE, relay.size);
+            // Stored blob: receiver đã kết nối trước ACK thì không còn peer nào để chờ
+            ready = relay.isReady();
+            if (ready) {
+                relays.remove(relay.token);
+            }
+        }
+        if (ready) {
+            context.getThreadPool().execute(() -> start(relay));
+        }
+        return true;
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                context.getThreadPool().execute(() -> handshake(channel));
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("[RELAY] Accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Đọc RelayHandshake rồi ghép vào relay - peer thứ hai bắt đầu splice
+     * trên thread của nó. Sender nhận status byte: upload, hoặc stored khi
+     * proof khớp blob
+     */
+    private void handshake(SocketChannel channel) {
+        Relay ready = null;
+        byte status = 0;
+        try {
+            // Socket adaptor stream tôn trọng SO_TIMEOUT, channel read thì không
+            channel.socket().setSoTimeout(HANDSHAKE_TIMEOUT);
+            RelayHandshake hello = RelayHandshake.read(channel.socket().getInputStream());
+            channel.socket().setSoTimeout(0);
+            channel.socket().setTcpNoDelay(true);
+
+            Relay relay = relays.get(hello.token);
+            if (relay == null) {
+                throw new IOException("Unknown or expired relay token");
+            }
+            boolean sender = hello.role == RelayHandshake.ROLE_SENDER;
+            // Đọc blob ngoài lock của relay
+            boolean proven = sender && relay.stored != null && relay.challenge != null
+                    && relay.challenge.verify(relay.stored, hello.proof);
+            synchronized (relay) {
+                // Receiver có thể tới trước khi FILE_ACK của nó được xử lý;
+                // sender chỉ nhận token qua FILE_ACK đã forward
+                if (relay.closed || (sender && !relay.accepted)) {
+                    throw new IOException("Transfer not accepted");
+                }
+                if (sender && (relay.upstream != null || relay.proven)) {
+                    throw new IOException("Duplicate relay peer");
+                }
+                if (sender && proven) {
+                    relay.proven = true;
+                    status = RelayHandshake.STATUS_STORED;
+                } else if (sender) {
+                    relay.upstream = channel;
+                    status = RelayHandshake.STATUS_UPLOAD;
+                } else if (hello.role == RelayHandshake.ROLE_RECEIVER && relay.downstream == null) {
+                    relay.downstream = channel;
+                } else {
+                    throw new IOException("Duplicate relay peer");
+                }
+                if (relay.isReady()) {
+                    relays.remove(relay.token);
+                    ready = relay;
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            System.err.println("[RELAY] Handshake timeout");
+            close(channel);
+        } catch (IOException e) {
+            System.err.println("[RELAY] Rejected peer: " + e.getMessage());
+            close(channel);
+        }
+
+        if (status != 0) {
+            reply(channel, status);
+        }
+        if (ready != null) {
+            start(ready);
+        }
+    }
+
+    /**
+     * Status cho sender - sender không còn thì splice tự thấy EOF
+     */
+    private static void reply(SocketChannel channel, byte status) {
+        try {
+            ByteBuffer reply = ByteBuffer.wrap(new byte[] { status });
+            while (reply.hasRemaining()) {
+                channel.write(reply);
+            }
+        } catch (IOException e) {
+            System.err.println("[RELAY] Cannot reply to sender: " + e.getMessage());
+        }
+        if (status == RelayHandshake.STATUS_STORED) {
+            close(channel);
+        }
+    }
+
+    private void start(Relay relay) {
+        boolean proven;
+        synchronized (relay) {
+            proven = relay.proven;
+        }
+        if (proven) {
+            serve(relay);
+        } else {
+            if (relay.stored != null) {
+                relay.stored.close();       // Sender upload - không cần giữ blob
+            }
+            splice(relay);
+        }
+    }
+
+    /**
+     * Sender socket → direct buffer → receiver socket, đúng size - offset bytes.
+     * (Sender và receiver dùng cùng ProtocolConstants.CHUNK_SIZE cho resumeFrom)
+     * Direct buffer: kernel copy vào native memory và ra lại, không có
+     * heap array hay object nào cho payload. Upload cả file (không resume)
+     * được tee vào BlobStore từ cùng buffer
+     */
+    private void splice(Relay relay) {
+        long start = System.currentTimeMillis();
+        long relayed = 0;
+        long length = relay.size - relay.offset;
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+        BlobStore.Upload upload = relay.offset == 0 ? beginUpload(relay) : null;
+        try {
+            while (relayed < length) {
+                buffer.clear();
+                if (length - relayed < buffer.capacity()) {
+                    buffer.limit((int) (length - relayed));
+                }
+                int n = relay.upstream.read(buffer);
+                if (n < 0) {
+                    break;      // Sender ngắt giữa chừng - receiver thấy EOF trước size
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    relay.downstream.write(buffer);
+                }
+                relayed += n;
+                if (upload != null) {
+                    buffer.rewind();
+                    upload = tee(upload, buffer);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[RELAY] " + relay.filename + " aborted: " + e.getMessage());
+        } finally {
+            close(relay.upstream);
+            close(relay.downstream);
+        }
+
+        if (upload != null && relayed == length) {
+            try {
+                upload.commit();
+            } catch (IOException e) {
+                System.err.println("[STORE] Cannot store " + relay.filename + ": " + e.getMessage());
+            }
+        } else if (upload != null) {
+            upload.abort();
+        }
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println("[RELAY] " + relay.sender + " -> " + relay.receiver + ": " + relay.filename
+                + " " + relayed + "/" + length + " bytes"
+                + (relay.offset > 0 ? " (resumed at " + relay.offset + ")" : "") + " in " + elapsed + "ms");
+    }
+
+    /**
+     * Blob → receiver socket bằng FileChannel.transferTo (sendfile) - không
+     * có sender socket, không có buffer trong JVM
+     */
+    private void serve(Relay relay) {
+        long start = System.currentTimeMillis();
+        long position = relay.offset;
+        try (FileChannel blob = relay.stored.open()) {
+            while (position < relay.size) {
+                position += blob.transferTo(position, relay.size - position, relay.downstream);
+            }
+        } catch (IOException e) {
+            System.err.println("[RELAY] " + relay.filename + " aborted: " + e.getMessage());
+        } finally {
+            close(relay.downstream);
+            relay.stored.close();
+        }
+
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println("[RELAY] store -> " + relay.receiver + ": " + relay.filename
+                + " " + (position - relay.offset) + "/" + (relay.size - relay.offset) + " bytes"
+                + (relay.offset > 0 ? " (resumed at " + relay.offset + ")" : "")
+                + " in " + elapsed + "ms (upload by " + relay.sender + " skipped)");
+    }
+
+    private BlobStore.Upload beginUpload(Relay relay) {
+        BlobStore store = context.getBlobStore();
+        if (store == null) {
+            return null;
+        }
+        try {
+            return store.beginUpload(relay.checksum, relay.algorithm, relay.size);
+        } catch (IOException e) {
+            System.err.println("[STORE] Cannot store " + relay.filename + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Ghi buffer vào upload - lỗi disk chỉ bỏ việc lưu, relay vẫn tiếp tục
+     * @return upload, hoặc null nếu đã bị abort
+     */
+    private BlobStore.Upload tee(BlobStore.Upload upload, ByteBuffer buffer) {
+        try {
+            upload.write(buffer);
+            return upload;
+        } catch (IOException e) {
+            System.err.println("[STORE] Upload write failed: " + e.getMessage());
+            upload.abort();
+            return null;
+        }
+    }
+
+    private void expire() {
+        long now = System.currentTimeMillis();
+        relays.values().forEach(relay -> {
+            if (relay.expiresAt < now) {
+                System.out.println("[RELAY] Transfer expired: " + relay.filename);
+                discard(relay);
+            }
+        });
+    }
+
+    private void discard(Relay relay) {
+        relays.remove(relay.token);
+        synchronized (relay) {
+            relay.closed = true;        // Peer đến muộn bị từ chối
+            close(relay.upstream);
+            close(relay.downstream);
+        }
+        if (relay.stored != null) {
+            relay.stored.close();
+        }
+    }
+
+    private static void close(SocketChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    public void stop() {
+        running = false;
+        if (sweeper != null) {
+            sweeper.shutdownNow();
+        }
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            // Ignore
+        }
+        relays.values().forEach(this::discard);
+    }
+}
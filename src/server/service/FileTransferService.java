@@ -1,27 +1,53 @@
 package server.service;
 
+import server.core.ClientConnection;
 import server.core.ServerContext;
 import common.protocol.Message;
+import common.protocol.MessageType;
 
+/**
+ * FileTransferService - FILE_META / FILE_ACK negotiation giữa hai TCP clients
+ *
+ * Khi file relay được bật, FILE_META được forward kèm relay token và FILE_ACK
+ * của receiver mở relay (FileRelayService) - file data không đi qua chat
+ * connection. FILE_CHUNK vẫn được forward cho clients cũ / relay tắt.
+ * File đã có trong blob store được server gửi cho receiver khi sender trả
+ * lời đúng ownership challenge mà FILE_ACK forward mang theo.
+ */
 public class FileTransferService {
     private final ServerContext context;
-    
+
     public FileTransferService(ServerContext context) {
         this.context = context;
     }
-    
-    public void handleFileMeta(Message msg) {
+
+    public void handleFileMeta(Message msg, ClientConnection sender) {
+        Long size = msg.getFileSize();
+        if (size == null || size < 0 || size > context.getConfig().getMaxFileSize()) {
+            decline(sender, msg, "File too large");
+            return;
+        }
+
         // Forward file offer to receiver
         var handler = context.getHandler(msg.getReceiver());
-        if (handler != null) {
-            try {
-                handler.send(msg);
-            } catch (Exception e) {
-                // Ignore
-            }
+        if (handler == null) {
+            decline(sender, msg, "User offline");
+            return;
+        }
+
+        FileRelayService relay = context.getFileRelayService();
+        if (relay != null && msg.getTransferId() != null) {
+            String token = relay.register(sender.getUsername(), handler.getUsername(),
+                    msg.getFilename(), size, msg.getChecksum(), msg.getChecksumAlgorithm());
+            msg.setRelayEndpoint(token, relay.getPort());
+        }
+        try {
+            handler.send(msg);
+        } catch (Exception e) {
+            // Ignore
         }
     }
-    
+
     public void handleFileChunk(Message msg) {
         // Forward chunk to receiver
         var handler = context.getHandler(msg.getReceiver());
@@ -33,8 +59,26 @@ public class FileTransferService {
             }
         }
     }
-    
-    public void handleFileAck(Message msg) {
+
+    public void handleFileAck(Message msg, ClientConnection sender) {
+        // Receiver trả lời offer - bật relay cho cặp (sender, receiver) này
+        FileRelayService relay = context.getFileRelayService();
+        String token = msg.getRelayToken();
+        if (relay != null && token != null
+                && !relay.accept(token, sender.getUsername(), msg.getReceiver(), msg.isFileAccepted(),
+                        msg.getResumeFrom())) {
+            System.err.println("[RELAY] Invalid or expired FILE_ACK from " + sender.getUsername());
+            // Sender đang chờ reply - trả lời rõ ràng thay vì để nó timeout
+            var origin = context.getHandler(msg.getReceiver());
+            if (origin != null && msg.isFileAccepted()) {
+                decline(origin, msg, "Transfer expired before " + sender.getUsername() + " accepted");
+            }
+            return;
+        }
+        if (relay != null && msg.isFileAccepted()) {
+            relay.attachChallenge(token, msg);
+        }
+
         // Forward ACK back to sender
         var handler = context.getHandler(msg.getReceiver());
         if (handler != null) {
@@ -45,4 +89,19 @@ public class FileTransferService {
             }
         }
     }
+
+    /**
+     * Server trả lời FILE_META thay receiver
+     * @param offer FILE_META hoặc FILE_ACK mang transferId của transfer
+     */
+    private void decline(ClientConnection sender, Message offer, String reason) {
+        Message ack = new Message(MessageType.FILE_ACK, "SERVER", sender.getUsername(), reason);
+        ack.setTransferId(offer.getTransferId());
+        ack.setFileAccepted(false);
+        try {
+            sender.send(ack);
+        } catch (Exception e) {
+            // Ignore
+        }
+    }
 }
@@ -1,25 +1,74 @@
 package server.service;
 
+import common.model.ChatRoom;
+import common.protocol.BinaryMessageCodec;
+import common.protocol.EncodedMessage;
 import common.protocol.Message;
 import common.protocol.MessageType;
 import server.core.ServerContext;
-import server.core.ClientHandler;
+import server.core.ClientConnection;
+import server.core.OutboundQueue;
+import server.bus.MessageBus;
+import server.bus.Subscriber;
+import server.storage.MessageStore;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * MessageRouter - Route mỗi message một lần, deliver qua MessageBus
+ *
+ * TCP connections gọi route(); WebSocket và gRPC adapters gọi routeChat() /
+ * routePrivate() với Subscriber của họ, nên lobby chat, private messages,
+ * presence và history giống nhau trên mọi transport.
+ */
 public class MessageRouter {
+    
+    /**
+     * Client-assigned id của CHAT/PRIVATE message, được echo lại trong ACK
+     */
+    public static final String META_MESSAGE_ID = "messageId";
+    
+    /**
+     * Version của presence state trên join/leave deltas và /who snapshots
+     */
+    public static final String META_PRESENCE_VERSION = "presenceVersion";
+    
     private final ServerContext context;
+    private final Object presenceLock = new Object();
+    private long presenceVersion;   // guarded by presenceLock
 
     public MessageRouter(ServerContext context) {
         this.context = context;
     }
 
-    public void route(Message msg, ClientHandler sender) {
+    public void route(Message msg, ClientConnection sender) {
+        // Java serialization clients gửi được metadata value tùy ý - từ chối
+        // ở đây thay vì để frame không encode được tới recipients / history
+        String unsupported = BinaryMessageCodec.findUnsupportedMetadata(msg);
+        if (unsupported != null) {
+            System.err.println("[WARNING] Rejected " + msg.getType() + " from " + sender.getUsername()
+                    + ": unsupported metadata '" + unsupported + "'");
+            sendServerReply(sender, "Message rejected: unsupported metadata '" + unsupported + "'");
+            return;
+        }
+
         switch (msg.getType()) {
             case CHAT:
-                handleBroadcast(msg);
+                if (ServerContext.LOBBY.equals(msg.getRoom())) {
+                    // room="lobby" là lobby chat - bỏ tag để WebSocket / gRPC
+                    // adapters (chỉ deliver CHAT không room) cũng nhận
+                    msg.getMetadata().remove("room");
+                }
+                if (msg.getRoom() != null) {
+                    handleRoomMessage(msg, sender);
+                } else {
+                    handleLobbyMessage(msg, sender);
+                }
                 break;
             case PRIVATE:
-                handlePrivate(msg);
+                handlePrivate(msg, sender);
                 break;
             case COMMAND:
                 handleCommand(msg, sender);
@@ -31,13 +80,13 @@ public class MessageRouter {
                 handlePong(msg);
                 break;
             case FILE_META:
-                context.getFileTransferService().handleFileMeta(msg);
+                context.getFileTransferService().handleFileMeta(msg, sender);
                 break;
             case FILE_CHUNK:
                 context.getFileTransferService().handleFileChunk(msg);
                 break;
             case FILE_ACK:
-                context.getFileTransferService().handleFileAck(msg);
+                context.getFileTransferService().handleFileAck(msg, sender);
                 break;
             case CONNECT:
                 System.err.println("[WARNING] CONNECT after handshake from: " + msg.getSender());
@@ -60,28 +109,126 @@ public class MessageRouter {
         }
     }
 
+    /**
+     * Lobby CHAT từ transport khác TCP (WebSocket, gRPC)
+     * @param sender null nếu sender không có stream để nhận ACK
+     */
+    public void routeChat(Message msg, Subscriber sender) {
+        handleLobbyMessage(msg, sender);
+    }
+
+    /**
+     * Nhiều lobby CHAT như một unit (gRPC SendMessages) - mỗi adapter nhận
+     * cả batch một lần, history giữ đúng thứ tự. Không có ACK per message:
+     * caller đã trả lời cho cả batch.
+     */
+    public void routeChatBatch(List<Message> msgs) {
+        List<EncodedMessage> encoded = new ArrayList<>(msgs.size());
+        for (Message msg : msgs) {
+            encoded.add(EncodedMessage.of(msg));
+        }
+        context.getRoomService().publishLobby(encoded);
+
+        String stream = MessageStore.roomStream(ServerContext.LOBBY);
+        for (EncodedMessage e : encoded) {
+            recordHistory(stream, e, null);
+        }
+    }
+
+    /**
+     * PRIVATE từ transport khác TCP - receiver có thể ở bất kỳ transport nào
+     * @return false nếu receiver offline
+     */
+    public boolean routePrivate(Message msg, Subscriber sender) {
+        return handlePrivate(msg, sender);
+    }
+
+    /**
+     * Broadcast to all users on every transport - message được encode một
+     * lần cho mỗi wire form và cùng bytes được ghi tới mọi recipient
+     */
     private void handleBroadcast(Message msg) {
-        context.getHandlers().values().forEach(handler -> {
-            try {
-                handler.send(msg);
-            } catch (IOException e) {
-                // Client disconnected
-            }
-        });
+        handleBroadcast(EncodedMessage.of(msg));
+    }
+
+    private void handleBroadcast(EncodedMessage encoded) {
+        context.getMessageBus().publish(encoded);
     }
 
-    private void handlePrivate(Message msg) {
-        ClientHandler target = context.getHandler(msg.getReceiver());
-        if (target != null) {
-            try {
-                target.send(msg);
-            } catch (IOException e) {
-                // Target disconnected
+    /**
+     * CHAT không có room - broadcast tới mọi client, history lưu vào lobby
+     */
+    private void handleLobbyMessage(Message msg, Subscriber sender) {
+        EncodedMessage encoded = EncodedMessage.of(msg);
+        context.getRoomService().publishLobby(encoded);
+        recordHistory(MessageStore.roomStream(ServerContext.LOBBY), encoded, sender);
+    }
+
+    /**
+     * Room-scoped CHAT - chỉ gửi tới members của room qua member index
+     */
+    private void handleRoomMessage(Message msg, ClientConnection sender) {
+        String roomName = msg.getRoom();
+        ChatRoom room = context.getRoom(roomName);
+        if (room == null || !sender.getSession().isInRoom(roomName)) {
+            sendServerReply(sender, "You are not in room '" + roomName + "'");
+            return;
+        }
+
+        EncodedMessage encoded = EncodedMessage.of(msg);
+        context.getRoomService().publish(room, encoded);
+        recordHistory(MessageStore.roomStream(roomName), encoded, sender);
+    }
+
+    private boolean handlePrivate(Message msg, Subscriber sender) {
+        MessageBus bus = context.getMessageBus();
+        Subscriber target = bus.getSubscriber(msg.getReceiver());
+        if (target == null) {
+            return false;
+        }
+        EncodedMessage encoded = EncodedMessage.of(msg);
+        bus.send(target, encoded);
+        recordHistory(MessageStore.conversationStream(msg.getSender(), target.getUsername()),
+                encoded, sender);
+        return true;
+    }
+
+    /**
+     * Queue delivered message cho history log - non-blocking, writer thread
+     * của MessageStore ghi xuống disk. Nếu sender gắn "messageId", sender
+     * nhận ACK khi batch chứa message đã durable (history.durability).
+     */
+    private void recordHistory(String stream, EncodedMessage encoded, Subscriber sender) {
+        Object messageId = sender != null ? encoded.getMessage().getMetadata(META_MESSAGE_ID) : null;
+        MessageStore store = context.getMessageStore();
+        if (store == null) {
+            if (messageId != null) {
+                sendAck(sender, messageId, null, null);
             }
+            return;
+        }
+
+        CompletableFuture<Long> durable = store.append(stream, encoded);
+        if (messageId != null) {
+            // Completes trên history writer thread - send() chỉ enqueue
+            durable.whenComplete((sequence, error) -> sendAck(sender, messageId, sequence,
+                    error != null ? error.getMessage() : null));
+        }
+    }
+
+    private void sendAck(Subscriber target, Object messageId, Long sequence, String error) {
+        Message ack = new Message(MessageType.ACK, "SERVER", target.getUsername(), "");
+        ack.putMetadata(META_MESSAGE_ID, messageId);
+        if (sequence != null) {
+            ack.putMetadata("sequence", sequence);
         }
+        if (error != null) {
+            ack.putMetadata("error", error);
+        }
+        context.getMessageBus().send(target, EncodedMessage.of(ack));
     }
 
-    private void handlePing(Message msg, ClientHandler sender) {
+    private void handlePing(Message msg, ClientConnection sender) {
         try {
             Message pong = new Message(MessageType.PONG, "SERVER", msg.getSender(), "");
             sender.send(pong);
@@ -90,25 +237,73 @@ public class MessageRouter {
         }
     }
 
-    private void handleCommand(Message msg, ClientHandler sender) {
+    private void handleCommand(Message msg, ClientConnection sender) {
         String cmd = msg.getContent();
         try {
             if (cmd.startsWith("/who")) {
-                String users = String.join(", ", context.getAllUsernames());
-                Message response = new Message(MessageType.SERVER, "SERVER",
-                        sender.getUsername(), "Online users: " + users);
-                sender.send(response);
+                sendPresenceSnapshot(sender);
             } else if (cmd.startsWith("/rooms")) {
                 String rooms = String.join(", ", context.getAllRoomNames());
                 Message response = new Message(MessageType.SERVER, "SERVER",
                         sender.getUsername(), "Available rooms: " + rooms);
                 sender.send(response);
+            } else if (cmd.startsWith("/join ")) {
+                handleJoin(cmd.substring(6).trim(), sender);
+            } else if (cmd.startsWith("/leave ")) {
+                handleLeave(cmd.substring(7).trim(), sender);
             }
         } catch (IOException e) {
             // Ignore
         }
     }
 
+    /**
+     * /join <room> - tạo room nếu chưa tồn tại
+     */
+    private void handleJoin(String roomName, ClientConnection sender) {
+        if (roomName.isEmpty()) {
+            sendServerReply(sender, "Usage: /join <room>");
+            return;
+        }
+
+        if (sender.getSession().isInRoom(roomName)) {
+            sendServerReply(sender, "Already in room '" + roomName + "'");
+            return;
+        }
+
+        RoomService roomService = context.getRoomService();
+        if (context.getRoom(roomName) == null) {
+            roomService.createRoom(roomName, "Created by " + sender.getUsername(), sender.getUsername());
+        }
+
+        if (roomService.joinRoom(sender, roomName)) {
+            sendServerReply(sender, "Joined room '" + roomName + "'");
+        } else {
+            sendServerReply(sender, "Cannot join room '" + roomName + "'");
+        }
+    }
+
+    /**
+     * /leave <room> - lobby không thể rời
+     */
+    private void handleLeave(String roomName, ClientConnection sender) {
+        if (ServerContext.LOBBY.equals(roomName) || !sender.getSession().isInRoom(roomName)) {
+            sendServerReply(sender, "Cannot leave room '" + roomName + "'");
+            return;
+        }
+
+        context.getRoomService().leaveRoom(sender, roomName);
+        sendServerReply(sender, "Left room '" + roomName + "'");
+    }
+
+    private void sendServerReply(ClientConnection target, String content) {
+        try {
+            target.send(new Message(MessageType.SERVER, "SERVER", target.getUsername(), content));
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+
     private void handlePong(Message msg) {
         String username = msg.getSender();
         var session = context.getSession(username);
@@ -121,4 +316,35 @@ public class MessageRouter {
         Message msg = new Message(MessageType.SERVER, "SERVER", content);
         handleBroadcast(msg);
     }
+
+    /**
+     * Broadcast join/leave delta - đánh dấu presence để outbound queues có
+     * thể coalesce khi client chậm (COALESCE_PRESENCE)
+     *
+     * Mỗi delta mang presenceVersion tăng dần. Version được cấp và fan-out
+     * trong cùng lock, nên mỗi client nhận deltas đúng thứ tự version; client
+     * thấy version bị nhảy (delta bị drop) thì gửi /who để lấy snapshot mới.
+     */
+    public void broadcastPresence(String username, boolean joined) {
+        synchronized (presenceLock) {
+            Message msg = new Message(MessageType.SERVER, "SERVER",
+                    username + (joined ? " joined the chat" : " left the chat"));
+            msg.putMetadata(OutboundQueue.PRESENCE_KEY, joined ? "joined" : "left");
+            msg.putMetadata(OutboundQueue.PRESENCE_USER_KEY, username);
+            msg.putMetadata(META_PRESENCE_VERSION, ++presenceVersion);
+            handleBroadcast(msg);
+        }
+    }
+
+    /**
+     * /who reply - full user list (mọi transport) kèm presenceVersion hiện
+     * tại, theo format của transport target. Enqueue trong presence lock nên
+     * mọi delta sau snapshot có version lớn hơn.
+     */
+    public void sendPresenceSnapshot(Subscriber target) {
+        synchronized (presenceLock) {
+            target.getTransport().deliverPresenceSnapshot(target,
+                    context.getMessageBus().getUsernames(), presenceVersion);
+        }
+    }
 }
\ No newline at end of file
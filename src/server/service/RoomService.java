@@ -1,47 +1,203 @@
 package server.service;
 
+import server.core.ClientConnection;
 import server.core.ServerContext;
 import common.model.ChatRoom;
+import common.protocol.EncodedMessage;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class RoomService {
     private final ServerContext context;
-    
+
+    // roomName -> member connections: room fan-out iterates resolved
+    // connections directly instead of a username -> handler lookup per member.
+    // Entry bị xóa khi member cuối rời room; add / remove / prune chạy trong
+    // compute của map nên một join không thể rơi vào set vừa bị prune.
+    // ChatRoom là lock của room: publish() và join backfill giữ nó
+    private final Map<String, Set<ClientConnection>> roomMembers;
+
     public RoomService(ServerContext context) {
         this.context = context;
+        this.roomMembers = new ConcurrentHashMap<>();
     }
-    
+
     public boolean createRoom(String name, String description, String creator) {
         if (context.getRoom(name) != null) {
             return false;
         }
-        ChatRoom room = new ChatRoom(name, description);
+        ChatRoom room = new ChatRoom(name, description, context.getConfig().getRoomMaxMembers(), false, null,
+                context.getConfig().getRoomHistoryCapacity());
         room.addMember(creator);
         context.addRoom(name, room);
         return true;
     }
-    
+
     public boolean joinRoom(String username, String roomName) {
+        ClientConnection connection = context.getHandler(username);
+        return connection != null && joinRoom(connection, roomName);
+    }
+
+    /**
+     * Join room - cập nhật ChatRoom, UserSession và member index, rồi gửi
+     * backfill các messages gần nhất của room từ ring buffer
+     */
+    public boolean joinRoom(ClientConnection connection, String roomName) {
         ChatRoom room = context.getRoom(roomName);
         if (room == null || room.isFull()) {
             return false;
         }
-        var session = context.getSession(username);
-        if (session != null) {
-            session.joinRoom(roomName);
-            return room.addMember(username);
+        var session = connection.getSession();
+        if (session == null) {
+            return false;
         }
-        return false;
+        // createRoom may already have added the creator to ChatRoom members
+        boolean joined = session.joinRoom(roomName);
+        room.addMember(connection.getUsername());
+        // UserSession đã có sẵn lobby, nên dùng member index để biết connection mới vào room
+        synchronized (room) {
+            if (addMember(roomName, connection)) {
+                // Message có sequence < mark đã fan-out trước khi connection vào index,
+                // mọi message sau mark sẽ tới live - không trùng, không đảo thứ tự
+                sendBackfill(connection, room, room.getRecentMessages().getTotalAdded());
+            }
+        }
+        return joined;
     }
-    
+
+    /**
+     * Lobby join của TCP connection lúc handshake - subscribe vào bus, vào
+     * member index và lấy backfill mark trong cùng lock với publishLobby(),
+     * nên mỗi lobby message tới đúng một lần: trong backfill (sequence < mark)
+     * hoặc live sau backfill
+     */
+    public void joinLobby(ClientConnection connection) {
+        ChatRoom lobby = context.getRoom(ServerContext.LOBBY);
+        lobby.addMember(connection.getUsername());
+        synchronized (lobby) {
+            context.getMessageBus().subscribe(connection);
+            if (addMember(ServerContext.LOBBY, connection)) {
+                sendBackfill(connection, lobby, lobby.getRecentMessages().getTotalAdded());
+            }
+        }
+    }
+
+    /**
+     * Lobby fan-out - lobby là mọi subscriber trên bus (mọi transport), nên
+     * publish qua bus thay vì member index; ring add và publish dưới lock
+     * của lobby như publish() của room
+     */
+    public void publishLobby(EncodedMessage encoded) {
+        publishLobby(Collections.singletonList(encoded));
+    }
+
+    /**
+     * Batch lobby CHAT - mỗi adapter nhận cả batch một lần (publishAll)
+     */
+    public void publishLobby(List<EncodedMessage> encoded) {
+        ChatRoom lobby = context.getRoom(ServerContext.LOBBY);
+        synchronized (lobby) {
+            for (EncodedMessage message : encoded) {
+                lobby.getRecentMessages().add(message);
+            }
+            if (encoded.size() == 1) {
+                context.getMessageBus().publish(encoded.get(0));
+            } else {
+                context.getMessageBus().publishAll(encoded);
+            }
+        }
+    }
+
+    /**
+     * Room-scoped fan-out - append vào ring buffer rồi enqueue tới mọi member
+     * dưới lock của room, nên join không thể chen giữa hai bước
+     */
+    public void publish(ChatRoom room, EncodedMessage encoded) {
+        synchronized (room) {
+            room.getRecentMessages().add(encoded);
+            for (ClientConnection member : getMemberConnections(room.getName())) {
+                try {
+                    member.send(encoded);
+                } catch (IOException e) {
+                    // Member disconnected
+                }
+            }
+        }
+    }
+
+    /**
+     * Replay recent messages - frames đã encode sẵn trong ring buffer nên
+     * join storm không tốn serialization hay disk reads. Chỉ enqueue (caller
+     * giữ lock của room), không block trên socket.
+     * @param mark sequence của ring buffer lúc join được đăng ký
+     */
+    private void sendBackfill(ClientConnection connection, ChatRoom room, long mark) {
+        int count = context.getConfig().getRoomBackfillCount();
+        if (count <= 0) {
+            return;
+        }
+        for (EncodedMessage message : room.getRecentMessages().latest(count, mark)) {
+            try {
+                connection.send(message);
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
     public boolean leaveRoom(String username, String roomName) {
+        ClientConnection connection = context.getHandler(username);
+        if (connection != null) {
+            return leaveRoom(connection, roomName);
+        }
+        ChatRoom room = context.getRoom(roomName);
+        return room != null && room.removeMember(username);
+    }
+
+    /**
+     * Leave room - cũng dùng khi disconnect, lúc connection đã rời context
+     */
+    public boolean leaveRoom(ClientConnection connection, String roomName) {
+        roomMembers.computeIfPresent(roomName, (name, members) -> {
+            members.remove(connection);
+            return members.isEmpty() ? null : members;
+        });
+
         ChatRoom room = context.getRoom(roomName);
         if (room != null) {
-            var session = context.getSession(username);
+            var session = connection.getSession();
             if (session != null) {
                 session.leaveRoom(roomName);
             }
-            return room.removeMember(username);
+            return room.removeMember(connection.getUsername());
         }
         return false;
     }
+
+    /**
+     * Thêm connection vào member index, tạo entry nếu room chưa có member nào
+     * @return false nếu connection đã là member
+     */
+    private boolean addMember(String roomName, ClientConnection connection) {
+        boolean[] added = new boolean[1];
+        roomMembers.compute(roomName, (name, members) -> {
+            Set<ClientConnection> set = members != null ? members : ConcurrentHashMap.<ClientConnection>newKeySet();
+            added[0] = set.add(connection);
+            return set;
+        });
+        return added[0];
+    }
+
+    /**
+     * Connections currently in room - live view for fan-out
+     */
+    public Set<ClientConnection> getMemberConnections(String roomName) {
+        Set<ClientConnection> members = roomMembers.get(roomName);
+        return members != null ? members : Collections.emptySet();
+    }
 }
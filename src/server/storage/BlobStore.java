@@ -0,0 +1,328 @@
+package server.storage;
+
+import common.util.ChecksumUtil;
+import common.util.IncrementalChecksum;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * BlobStore - Content-addressed file store trên local disk
+ *
+ * Mỗi blob là một file tên là whole-file hash (checksum của FILE_META) dưới
+ * store dir - MD5 (32 hex) hoặc SHA-256 (64 hex); CRC32C không đủ mạnh để
+ * định danh nội dung nên không được lưu. Upload được ghi vào file tạm trong
+ * lúc relay splice, hash được tính lại trên chính bytes đó, và chỉ được
+ * publish (atomic rename) khi khớp checksum + size - client không thể đầu
+ * độc store bằng checksum sai.
+ *
+ * Checksum chỉ định danh blob, không chứng minh quyền đọc: caller chỉ
+ * được dùng blob đã lease cho một client sau khi client chứng minh có nội
+ * dung (upload hoặc ownership proof, xem FileRelayService).
+ *
+ * Reference counting: mỗi relay đang / sẽ đọc một blob giữ một Lease;
+ * eviction chỉ xóa blobs không còn lease. Tổng size bị giới hạn bởi quota,
+ * blobs ít được dùng gần đây nhất bị evict trước (LRU).
+ *
+ * Design Pattern: Content-Addressable Storage + Reference Counting
+ */
+public class BlobStore {
+
+    private static final Pattern KEY = Pattern.compile("[0-9a-f]{32}|[0-9a-f]{64}");
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Một blob đã publish - refs / evicted guarded by BlobStore
+     */
+    private static final class Blob {
+        final String key;
+        final long size;
+        int refs;
+        boolean evicted;        // Đã khỏi index, xóa file khi lease cuối được trả
+
+        Blob(String key, long size) {
+            this.key = key;
+            this.size = size;
+        }
+    }
+
+    private final Path dir;
+    private final long quota;
+    // Access order: iteration bắt đầu từ blob ít được dùng gần đây nhất
+    private final LinkedHashMap<String, Blob> blobs;    // guarded by this
+    private long usedBytes;                             // guarded by this
+    private volatile boolean running;
+
+    public BlobStore(String dir, long quota) {
+        this.dir = Paths.get(dir);
+        this.quota = quota;
+        this.blobs = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Index lại blobs trên disk (cũ nhất theo mtime = LRU) và xóa uploads dở
+     */
+    public void start() throws IOException {
+        Files.createDirectories(dir);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path file : entries) {
+                if (file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                    Files.deleteIfExists(file);
+                } else if (KEY.matcher(file.getFileName().toString()).matches()) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort((a, b) -> {
+            try {
+                return Files.getLastModifiedTime(a).compareTo(Files.getLastModifiedTime(b));
+            } catch (IOException e) {
+                return 0;
+            }
+        });
+
+        synchronized (this) {
+            for (Path file : files) {
+                String key = file.getFileName().toString();
+                long size = Files.size(file);
+                blobs.put(key, new Blob(key, size));
+                usedBytes += size;
+            }
+            evict();
+        }
+        running = true;
+        System.out.println("[STORE] Blob store at " + dir.toAbsolutePath() + ": " + blobs.size()
+                + " blobs, " + usedBytes + "/" + quota + " bytes");
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return true nếu file với checksum này có thể được lưu / dedup
+     *         (MD5 hoặc SHA-256 hợp lệ) - không phụ thuộc store đã có file
+     */
+    public static boolean isStorable(String checksum, String algorithm) {
+        return keyOf(checksum, algorithm) != null;
+    }
+
+    /**
+     * Lease một blob đã có - blob không bị evict cho tới khi lease được close
+     * @return null nếu store không có file này
+     */
+    public synchronized Lease acquire(String checksum, String algorithm, long size) {
+        String key = keyOf(checksum, algorithm);
+        Blob blob = key != null ? blobs.get(key) : null;    // get = touch LRU
+        if (blob == null || blob.size != size) {
+            return null;
+        }
+        blob.refs++;
+        return new Lease(blob);
+    }
+
+    /**
+     * Bắt đầu lưu một upload - gọi write() với mọi bytes của file theo thứ tự,
+     * rồi commit() hoặc abort()
+     * @return null nếu file đã có, checksum không hợp lệ hoặc lớn hơn quota
+     */
+    public Upload beginUpload(String checksum, String algorithm, long size) throws IOException {
+        String key = keyOf(checksum, algorithm);
+        if (key == null || size > quota) {
+            return null;
+        }
+        synchronized (this) {
+            if (blobs.containsKey(key)) {
+                return null;
+            }
+        }
+        Path temp = dir.resolve(key + "." + UUID.randomUUID() + TEMP_SUFFIX);
+        return new Upload(key, ChecksumUtil.Algorithm.forName(algorithm), size, temp);
+    }
+
+    private synchronized void release(Blob blob) {
+        if (--blob.refs == 0) {
+            if (blob.evicted) {
+                delete(blob);
+            } else {
+                evict();
+            }
+        }
+    }
+
+    private synchronized void publish(Blob blob) {
+        blobs.put(blob.key, blob);
+        usedBytes += blob.size;
+        evict();
+    }
+
+    /**
+     * LRU eviction tới khi usedBytes <= quota - blobs có lease bị bỏ qua
+     * (quota có thể bị vượt tạm thời khi mọi blob đều đang được đọc)
+     */
+    private void evict() {
+        Iterator<Blob> lru = blobs.values().iterator();
+        while (usedBytes > quota && lru.hasNext()) {
+            Blob blob = lru.next();
+            if (blob.refs > 0) {
+                continue;
+            }
+            lru.remove();
+            usedBytes -= blob.size;
+            blob.evicted = true;
+            delete(blob);
+            System.out.println("[STORE] Evicted " + blob.key + " (" + blob.size + " bytes)");
+        }
+    }
+
+    private void delete(Blob blob) {
+        try {
+            Files.deleteIfExists(dir.resolve(blob.key));
+        } catch (IOException e) {
+            System.err.println("[STORE] Cannot delete " + blob.key + ": " + e.getMessage());
+        }
+    }
+
+    public synchronized int getBlobCount() {
+        return blobs.size();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public long getQuota() {
+        return quota;
+    }
+
+    /**
+     * @param algorithm tên trong FILE_META (null = MD5)
+     * @return tên file của blob, null nếu checksum không dùng làm key được
+     */
+    private static String keyOf(String checksum, String algorithm) {
+        ChecksumUtil.Algorithm hash;
+        try {
+            hash = ChecksumUtil.Algorithm.forName(algorithm);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (checksum == null || !hash.isCryptographic() || checksum.length() != hash.getHexLength()) {
+            return null;
+        }
+        String key = checksum.toLowerCase(Locale.ROOT);
+        return KEY.matcher(key).matches() ? key : null;
+    }
+
+    /**
+     * Quyền đọc một blob - close() trả reference
+     */
+    public final class Lease implements AutoCloseable {
+        private final Blob blob;
+        private boolean closed;
+
+        private Lease(Blob blob) {
+            this.blob = blob;
+        }
+
+        public long size() {
+            return blob.size;
+        }
+
+        public FileChannel open() throws IOException {
+            return FileChannel.open(dir.resolve(blob.key), StandardOpenOption.READ);
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!closed) {
+                closed = true;
+                release(blob);
+            }
+        }
+    }
+
+    /**
+     * Upload đang ghi vào file tạm - chỉ một thread (relay splice) dùng
+     */
+    public final class Upload {
+        private final String key;
+        private final long size;
+        private final Path temp;
+        private final FileChannel channel;
+        private final IncrementalChecksum checksum;
+        private long written;
+
+        private Upload(String key, ChecksumUtil.Algorithm algorithm, long size, Path temp) throws IOException {
+            this.key = key;
+            this.size = size;
+            this.temp = temp;
+            this.checksum = ChecksumUtil.newChecksum(algorithm);
+            this.channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        }
+
+        /**
+         * Ghi remaining bytes của buffer - position của buffer không đổi
+         */
+        public void write(ByteBuffer data) throws IOException {
+            ByteBuffer view = data.duplicate();
+            checksum.update(view.duplicate());
+            while (view.hasRemaining()) {
+                written += channel.write(view);
+            }
+        }
+
+        /**
+         * Publish blob nếu bytes đã ghi đúng là file của checksum
+         * @return false nếu upload không đầy đủ hoặc hash không khớp
+         */
+        public boolean commit() throws IOException {
+            try {
+                channel.close();
+                if (written != size || !checksum.matches(key)) {
+                    System.err.println("[STORE] Upload of " + key + " rejected: "
+                            + (written != size ? written + "/" + size + " bytes" : "checksum mismatch"));
+                    Files.deleteIfExists(temp);
+                    return false;
+                }
+                synchronized (BlobStore.this) {
+                    if (blobs.containsKey(key)) {
+                        Files.deleteIfExists(temp);     // Upload song song đã publish trước
+                        return true;
+                    }
+                    Files.move(temp, dir.resolve(key), StandardCopyOption.ATOMIC_MOVE,
+                            StandardCopyOption.REPLACE_EXISTING);
+                    publish(new Blob(key, size));
+                }
+                System.out.println("[STORE] Stored " + key + " (" + size + " bytes)");
+                return true;
+            } catch (IOException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        public void abort() {
+            try {
+                channel.close();
+                Files.deleteIfExists(temp);
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package server.storage;
+
+import common.protocol.EncodedMessage;
+import common.protocol.FrameCodec;
+import common.protocol.Message;
+import common.protocol.MessageEncodingException;
+import common.protocol.ProtocolConstants;
+import server.config.ServerConfig.Durability;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MessageStore - Embedded message history, không cần database
+ *
+ * Mỗi room / private conversation có một SegmentedLog riêng dưới history dir.
+ * MessageRouter chỉ enqueue (append không bao giờ block routing thread);
+ * một writer thread drain queue và ghi vào log. Khi queue đầy, message
+ * bị bỏ khỏi history (vẫn được deliver) và được đếm trong dropped.
+ *
+ * Group commit: mọi appends đến trong lúc writer đang fsync batch trước
+ * được ghi thành một batch - một gathering write mỗi log, rồi một force mỗi
+ * log - nên throughput không bị giới hạn bởi IOPS của disk. Future của
+ * append complete khi record đạt mức durability đã cấu hình:
+ * NONE - đã ghi vào page cache, BATCHED - batch đã fsync,
+ * PER_MESSAGE - fsync riêng cho từng message.
+ *
+ * Design Pattern: Facade + Producer-Consumer
+ */
+public class MessageStore {
+
+    private static final int QUEUE_CAPACITY = 65536;
+
+    /**
+     * Append đang chờ writer thread - frame encode sẵn bằng binary codec
+     */
+    private static final class PendingAppend {
+        final String stream;
+        final long timestamp;
+        final EncodedMessage message;
+        final CompletableFuture<Long> durable;   // completes với sequence của record
+        long sequence;                           // writer thread only
+
+        PendingAppend(String stream, long timestamp, EncodedMessage message) {
+            this.stream = stream;
+            this.timestamp = timestamp;
+            this.message = message;
+            this.durable = new CompletableFuture<>();
+        }
+    }
+
+    private final Path baseDir;
+    private final long segmentBytes;
+    private final Durability durability;
+    private final ConcurrentHashMap<String, SegmentedLog> logs;
+    private final BlockingQueue<PendingAppend> queue;
+    private final AtomicLong dropped;
+    private Thread writer;
+    private volatile boolean running;
+
+    public MessageStore(String baseDir, long segmentBytes, Durability durability) {
+        this.baseDir = Paths.get(baseDir);
+        this.segmentBytes = segmentBytes;
+        this.durability = durability;
+        this.logs = new ConcurrentHashMap<>();
+        this.queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        this.dropped = new AtomicLong();
+    }
+
+    public void start() throws IOException {
+        Files.createDirectories(baseDir);
+        running = true;
+        writer = new Thread(this::writeLoop, "history-writer");
+        writer.setDaemon(true);
+        writer.start();
+        System.out.println("[HISTORY] Message history at " + baseDir.toAbsolutePath()
+                + " (durability: " + durability + ")");
+    }
+
+    /**
+     * Stop writer sau khi ghi hết pending appends, rồi close logs
+     *
+     * Không interrupt writer: interrupt trong FileChannel write / force đóng
+     * channel (ClosedByInterruptException) và batch cuối - kể cả records đã
+     * ACK theo BATCHED - bị mất. Writer thấy running = false trong lần poll
+     * tiếp theo, tự drain, force rồi kết thúc.
+     */
+    public void stop() {
+        running = false;
+        if (writer != null) {
+            boolean interrupted = false;
+            while (writer.isAlive()) {
+                try {
+                    writer.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;     // Vẫn chờ - close logs khi writer đang ghi sẽ mất data
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // append() thấy running trước stop() nhưng enqueue sau khi writer kết thúc
+        List<PendingAppend> late = new ArrayList<>();
+        queue.drainTo(late);
+        late.forEach(pending -> pending.durable.completeExceptionally(
+                new IOException("Message store is stopped")));
+
+        for (SegmentedLog log : logs.values()) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    // Stream keys
+
+    public static String roomStream(String room) {
+        return "room/" + room;
+    }
+
+    /**
+     * Conversation key không phụ thuộc ai là sender
+     */
+    public static String conversationStream(String userA, String userB) {
+        return userA.compareTo(userB) <= 0
+                ? "dm/" + userA + "/" + userB
+                : "dm/" + userB + "/" + userA;
+    }
+
+    /**
+     * Queue message cho history - non-blocking
+     * @return future complete với sequence khi record đạt durability đã cấu
+     *         hình; complete exceptionally nếu message không được lưu
+     */
+    public CompletableFuture<Long> append(String stream, Message msg) {
+        return append(stream, EncodedMessage.of(msg));
+    }
+
+    public CompletableFuture<Long> append(String stream, EncodedMessage msg) {
+        PendingAppend pending = new PendingAppend(stream, System.currentTimeMillis(), msg);
+        if (!running) {
+            pending.durable.completeExceptionally(new IOException("Message store is stopped"));
+        } else if (!queue.offer(pending)) {
+            if (dropped.incrementAndGet() % 1000 == 1) {
+                System.err.println("[HISTORY] Write queue full, dropped " + dropped.get() + " messages");
+            }
+            pending.durable.completeExceptionally(new IOException("History write queue full"));
+        }
+        return pending.durable;
+    }
+
+    /**
+     * Trang history của stream - tối đa limit messages trước timestamp before
+     * (epoch millis) và trước sequence beforeSequence, cũ → mới
+     * Dùng Long.MAX_VALUE cho bound không giới hạn.
+     */
+    public List<StoredMessage> read(String stream, long before, long beforeSequence, int limit)
+            throws IOException {
+        SegmentedLog log = existingLog(stream);
+        return log != null ? log.readBefore(before, beforeSequence, limit) : Collections.emptyList();
+    }
+
+    private void writeLoop() {
+        List<PendingAppend> batch = new ArrayList<>();
+        while (running || !queue.isEmpty()) {
+            PendingAppend first;
+            try {
+                // Timeout ngắn - stop() chỉ hạ running, không interrupt
+                first = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                first = queue.poll();
+            }
+            if (first == null) {
+                continue;
+            }
+
+            // Mọi thứ đến trong lúc fsync trước đang chạy thuộc về batch này
+            batch.add(first);
+            queue.drainTo(batch, ProtocolConstants.HISTORY_COMMIT_BATCH_MAX - 1);
+            if (durability == Durability.PER_MESSAGE) {
+                for (PendingAppend pending : batch) {
+                    commit(Collections.singletonList(pending));
+                }
+            } else {
+                commit(batch);
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Ghi batch (gom theo log, giữ thứ tự), force nếu cần rồi complete futures
+     */
+    private void commit(List<PendingAppend> batch) {
+        Map<String, List<PendingAppend>> byStream = new LinkedHashMap<>();
+        for (PendingAppend pending : batch) {
+            byStream.computeIfAbsent(pending.stream, k -> new ArrayList<>()).add(pending);
+        }
+
+        Map<SegmentedLog, List<PendingAppend>> written = new IdentityHashMap<>();
+        for (Map.Entry<String, List<PendingAppend>> entry : byStream.entrySet()) {
+            List<PendingAppend> records = encodable(entry.getKey(), entry.getValue());
+            if (records.isEmpty()) {
+                continue;
+            }
+            try {
+                SegmentedLog log = log(entry.getKey());
+                long[] timestamps = new long[records.size()];
+                ByteBuffer[] frames = new ByteBuffer[records.size()];
+                for (int i = 0; i < records.size(); i++) {
+                    timestamps[i] = records.get(i).timestamp;
+                    frames[i] = records.get(i).message.frame(FrameCodec.BINARY);    // cached bởi encodable()
+                }
+                long sequence = log.append(timestamps, frames, records.size());
+                for (PendingAppend pending : records) {
+                    pending.sequence = sequence++;
+                }
+                written.put(log, records);
+            } catch (IOException e) {
+                System.err.println("[HISTORY] Append to " + entry.getKey() + " failed: " + e.getMessage());
+                records.forEach(pending -> pending.durable.completeExceptionally(e));
+            }
+        }
+
+        for (Map.Entry<SegmentedLog, List<PendingAppend>> entry : written.entrySet()) {
+            try {
+                if (durability != Durability.NONE) {
+                    entry.getKey().force();
+                }
+                entry.getValue().forEach(pending -> pending.durable.complete(pending.sequence));
+            } catch (IOException e) {
+                System.err.println("[HISTORY] fsync failed: " + e.getMessage());
+                entry.getValue().forEach(pending -> pending.durable.completeExceptionally(e));
+            }
+        }
+    }
+
+    /**
+     * Encode trước mọi record của batch - record không encode được chỉ fail
+     * riêng nó thay vì cả batch của stream
+     */
+    private static List<PendingAppend> encodable(String stream, List<PendingAppend> records) {
+        List<PendingAppend> ok = new ArrayList<>(records.size());
+        for (PendingAppend pending : records) {
+            try {
+                pending.message.frame(FrameCodec.BINARY);
+                ok.add(pending);
+            } catch (MessageEncodingException e) {
+                System.err.println("[HISTORY] Skipped record in " + stream + ": " + e.getMessage());
+                pending.durable.completeExceptionally(e);
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * Log của stream, tạo khi append lần đầu
+     */
+    private SegmentedLog log(String stream) throws IOException {
+        SegmentedLog log = logs.get(stream);
+        return log != null ? log : openLog(stream);
+    }
+
+    /**
+     * Log đã có trên disk (reader side) - không tạo stream mới cho query lạ
+     */
+    private SegmentedLog existingLog(String stream) throws IOException {
+        SegmentedLog log = logs.get(stream);
+        if (log != null) {
+            return log;
+        }
+        return Files.isDirectory(streamDir(stream)) ? openLog(stream) : null;
+    }
+
+    /**
+     * Writer và readers có thể cùng mở một stream - chỉ một SegmentedLog
+     * được phép sở hữu segment files
+     */
+    private SegmentedLog openLog(String stream) throws IOException {
+        synchronized (logs) {
+            SegmentedLog log = logs.get(stream);
+            if (log == null) {
+                log = new SegmentedLog(streamDir(stream), segmentBytes);
+                logs.put(stream, log);
+            }
+            return log;
+        }
+    }
+
+    /**
+     * Mỗi phần của stream key được URL-encode nên room/user names không
+     * thể thoát khỏi history dir
+     */
+    private Path streamDir(String stream) {
+        Path dir = baseDir;
+        for (String part : stream.split("/")) {
+            dir = dir.resolve(encode(part));
+        }
+        return dir;
+    }
+
+    private static String encode(String part) {
+        try {
+            String encoded = URLEncoder.encode(part, "UTF-8").replace("*", "%2A");
+            return encoded.startsWith(".") ? "%2E" + encoded.substring(1) : encoded;
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Metrics
+    public int getPendingCount() { return queue.size(); }
+    public long getDropped() { return dropped.get(); }
+}
@@ -0,0 +1,401 @@
+package server.storage;
+
+import common.protocol.FrameCodec;
+import common.protocol.Message;
+import common.protocol.ProtocolConstants;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * SegmentedLog - Append-only log của một stream (room hoặc conversation)
+ *
+ * Log là chuỗi segment files, mỗi file đặt tên theo sequence của record đầu
+ * tiên (00000000000000000000.log, ...). Khi segment vượt segmentBytes thì
+ * mở segment mới; record cũ không bao giờ bị sửa.
+ *
+ * Record layout: [int32 payloadLength][int64 timestamp][payload]
+ * payload là binary codec encoding của Message (không có frame header).
+ *
+ * Sparse index giữ một entry cho mỗi INDEX_INTERVAL records (sequence,
+ * timestamp, segment, position), nên tìm theo timestamp là binary search
+ * trên index rồi scan tối đa INDEX_INTERVAL records. Reads dùng
+ * MappedByteBuffer của segment thay vì read() syscalls.
+ *
+ * Single writer (MessageStore writer thread), nhiều readers (HTTP threads).
+ */
+class SegmentedLog implements Closeable {
+
+    static final int INDEX_INTERVAL = 32;
+    private static final int RECORD_HEADER_SIZE = 12;   // length + timestamp
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * Một segment file - size là số bytes records hoàn chỉnh
+     */
+    private static final class Segment {
+        final long baseSequence;
+        final FileChannel channel;
+        long size;
+        MappedByteBuffer mapped;   // read view, remap khi segment lớn thêm
+
+        Segment(long baseSequence, FileChannel channel, long size) {
+            this.baseSequence = baseSequence;
+            this.channel = channel;
+            this.size = size;
+        }
+
+        /**
+         * Read-only mapping bao phủ ít nhất limit bytes
+         */
+        synchronized MappedByteBuffer map(long limit) throws IOException {
+            if (mapped == null || mapped.capacity() < limit) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, limit);
+            }
+            return mapped;
+        }
+    }
+
+    /**
+     * Sparse index entry - record có sequence % INDEX_INTERVAL == 0
+     */
+    private static final class IndexEntry {
+        final long sequence;
+        final long timestamp;
+        final int segment;
+        final long position;
+
+        IndexEntry(long sequence, long timestamp, int segment, long position) {
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+            this.segment = segment;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Vị trí đọc tuần tự qua các segments (chỉ dùng trong read lock)
+     */
+    private final class Cursor {
+        int segment;
+        long position;
+        long sequence;
+
+        Cursor(IndexEntry entry) {
+            this.segment = entry.segment;
+            this.position = entry.position;
+            this.sequence = entry.sequence;
+        }
+
+        MappedByteBuffer buffer() throws IOException {
+            if (position >= segments.get(segment).size) {
+                segment++;
+                position = 0;
+            }
+            Segment current = segments.get(segment);
+            return current.map(current.size);
+        }
+
+        long timestamp() throws IOException {
+            return buffer().getLong((int) position + 4);
+        }
+
+        void advance() throws IOException {
+            // buffer() trước: nó có thể chuyển sang segment kế tiếp và reset position
+            MappedByteBuffer buf = buffer();
+            position += RECORD_HEADER_SIZE + buf.getInt((int) position);
+            sequence++;
+        }
+
+        StoredMessage read() throws IOException {
+            MappedByteBuffer buf = buffer();
+            int pos = (int) position;
+            int length = buf.getInt(pos);
+            long timestamp = buf.getLong(pos + 4);
+
+            byte[] payload = new byte[length];
+            ByteBuffer view = buf.duplicate();
+            view.position(pos + RECORD_HEADER_SIZE);
+            view.get(payload);
+
+            Message msg = FrameCodec.BINARY.decode(payload, 0, length);
+            StoredMessage stored = new StoredMessage(sequence, timestamp, msg);
+            advance();
+            return stored;
+        }
+    }
+
+    private final Path dir;
+    private final long segmentBytes;
+    private final List<Segment> segments;
+    private final List<IndexEntry> index;
+    private final ReentrantReadWriteLock lock;
+    private final ByteBuffer header;           // recovery scan only
+    private int firstDirtySegment = -1;        // writer thread only - segments chưa force
+    private long nextSequence;
+    private long lastTimestamp;
+
+    SegmentedLog(Path dir, long segmentBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.segments = new ArrayList<>();
+        this.index = new ArrayList<>();
+        this.lock = new ReentrantReadWriteLock();
+        this.header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+
+        Files.createDirectories(dir);
+        recover();
+        if (segments.isEmpty()) {
+            roll();
+        }
+    }
+
+    /**
+     * Scan segments hiện có để rebuild sparse index; record cuối bị ghi dở
+     * (crash giữa chừng) được truncate
+     */
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);   // zero-padded names sort theo base sequence
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long base = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+            FileChannel channel = FileChannel.open(file,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(base, channel, 0);
+            segments.add(segment);
+            nextSequence = base;
+
+            long fileSize = channel.size();
+            long position = 0;
+            while (position + RECORD_HEADER_SIZE <= fileSize) {
+                header.clear();
+                channel.read(header, position);
+                int length = header.getInt(0);
+                long timestamp = header.getLong(4);
+                if (length < 0 || length > ProtocolConstants.MAX_MESSAGE_SIZE
+                        || position + RECORD_HEADER_SIZE + length > fileSize) {
+                    break;
+                }
+                if (nextSequence % INDEX_INTERVAL == 0) {
+                    index.add(new IndexEntry(nextSequence, timestamp, segments.size() - 1, position));
+                }
+                position += RECORD_HEADER_SIZE + length;
+                nextSequence++;
+                lastTimestamp = timestamp;
+            }
+
+            if (position < fileSize) {
+                System.err.println("[HISTORY] Truncating partial record in " + file);
+                channel.truncate(position);
+            }
+            segment.size = position;
+        }
+    }
+
+    private void roll() throws IOException {
+        Path file = dir.resolve(String.format("%020d%s", nextSequence, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segments.add(new Segment(nextSequence, channel, 0));
+    }
+
+    /**
+     * Append một record - chỉ gọi từ writer thread
+     * @param frame binary codec frame [length][payload]
+     * @return sequence của record
+     */
+    long append(long timestamp, ByteBuffer frame) throws IOException {
+        return append(new long[] { timestamp }, new ByteBuffer[] { frame }, 1);
+    }
+
+    /**
+     * Append records bằng gathering writes - một write cho mỗi segment được
+     * chạm, thay vì một write mỗi record. Chỉ gọi từ writer thread.
+     * Records chỉ nằm trong page cache cho đến khi force() được gọi.
+     * @return sequence của record đầu tiên
+     */
+    long append(long[] timestamps, ByteBuffer[] frames, int count) throws IOException {
+        ByteBuffer headers = ByteBuffer.allocate(RECORD_HEADER_SIZE * count);
+        ByteBuffer[] pending = new ByteBuffer[count * 2];
+
+        lock.writeLock().lock();
+        try {
+            long first = nextSequence;
+            Segment active = segments.get(segments.size() - 1);
+            long position = active.size;
+            int buffered = 0;
+
+            for (int i = 0; i < count; i++) {
+                int length = frames[i].remaining() - ProtocolConstants.FRAME_HEADER_SIZE;
+                int recordSize = RECORD_HEADER_SIZE + length;
+
+                if (position > 0 && position + recordSize > segmentBytes) {
+                    writeFully(active, pending, buffered, position);
+                    buffered = 0;
+                    roll();
+                    active = segments.get(segments.size() - 1);
+                    position = 0;
+                }
+
+                // Timestamps trong một stream không giảm, binary search dựa vào điều này
+                long timestamp = Math.max(timestamps[i], lastTimestamp);
+
+                ByteBuffer header = headers.slice();
+                header.limit(RECORD_HEADER_SIZE);
+                header.putInt(length).putLong(timestamp).flip();
+                headers.position(headers.position() + RECORD_HEADER_SIZE);
+
+                ByteBuffer payload = frames[i].duplicate();
+                payload.position(payload.position() + ProtocolConstants.FRAME_HEADER_SIZE);
+                pending[buffered++] = header;
+                pending[buffered++] = payload;
+
+                if (nextSequence % INDEX_INTERVAL == 0) {
+                    index.add(new IndexEntry(nextSequence, timestamp, segments.size() - 1, position));
+                }
+                position += recordSize;
+                nextSequence++;
+                lastTimestamp = timestamp;
+            }
+            writeFully(active, pending, buffered, position);
+            return first;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Gathering write của buffered records vào cuối segment, rồi publish
+     * size mới cho readers (caller giữ write lock)
+     */
+    private void writeFully(Segment segment, ByteBuffer[] buffers, int count, long newSize)
+            throws IOException {
+        if (count == 0) {
+            return;
+        }
+        if (firstDirtySegment < 0) {
+            firstDirtySegment = segments.indexOf(segment);
+        }
+        segment.channel.position(segment.size);
+        while (buffers[count - 1].hasRemaining()) {
+            segment.channel.write(buffers, 0, count);
+        }
+        segment.size = newSize;
+    }
+
+    /**
+     * fsync mọi segment đã ghi từ lần force trước (group commit) - writer thread only
+     */
+    void force() throws IOException {
+        if (firstDirtySegment < 0) {
+            return;
+        }
+        for (int i = firstDirtySegment; i < segments.size(); i++) {
+            segments.get(i).channel.force(false);
+        }
+        firstDirtySegment = -1;
+    }
+
+    /**
+     * Trang history: tối đa limit records mới nhất có timestamp < before
+     * và sequence < beforeSequence, theo thứ tự cũ → mới
+     *
+     * Nhiều records có thể cùng một millisecond, nên trang tiếp theo nên
+     * dùng beforeSequence (exact) thay vì timestamp.
+     */
+    List<StoredMessage> readBefore(long before, long beforeSequence, int limit) throws IOException {
+        lock.readLock().lock();
+        try {
+            if (index.isEmpty() || limit <= 0 || beforeSequence <= 0) {
+                return Collections.emptyList();
+            }
+
+            long end = Math.min(nextSequence, beforeSequence);
+            if (before != Long.MAX_VALUE) {
+                end = Math.min(end, firstSequenceAtOrAfter(before));
+            }
+            long start = Math.max(0, end - limit);
+            if (start >= end) {
+                return Collections.emptyList();
+            }
+
+            // Nhảy tới start qua index (sequence / INDEX_INTERVAL) rồi đọc tuần tự
+            Cursor cursor = new Cursor(index.get((int) (start / INDEX_INTERVAL)));
+            while (cursor.sequence < start) {
+                cursor.advance();
+            }
+            List<StoredMessage> page = new ArrayList<>((int) (end - start));
+            while (cursor.sequence < end) {
+                page.add(cursor.read());
+            }
+            return page;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sequence của record đầu tiên có timestamp >= ts (caller giữ read lock)
+     * Binary search trên sparse index rồi scan tối đa INDEX_INTERVAL records
+     */
+    private long firstSequenceAtOrAfter(long ts) throws IOException {
+        int lo = 0;
+        int hi = index.size() - 1;
+        int found = -1;   // index entry cuối cùng có timestamp < ts
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (index.get(mid).timestamp < ts) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        if (found < 0) {
+            return 0;
+        }
+
+        Cursor cursor = new Cursor(index.get(found));
+        while (cursor.sequence < nextSequence && cursor.timestamp() < ts) {
+            cursor.advance();
+        }
+        return cursor.sequence;
+    }
+
+    long size() {
+        lock.readLock().lock();
+        try {
+            return nextSequence;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : segments) {
+                segment.channel.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package server.storage;
+
+import common.protocol.Message;
+
+/**
+ * StoredMessage - Message đọc từ history log kèm vị trí của nó trong stream
+ *
+ * timestamp là server time lúc append (epoch millis), không phải timestamp
+ * do client đặt, nên pagination theo "before" ổn định dù client lệch giờ.
+ */
+public final class StoredMessage {
+    private final long sequence;
+    private final long timestamp;
+    private final Message message;
+
+    StoredMessage(long sequence, long timestamp, Message message) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.message = message;
+    }
+
+    public long getSequence() { return sequence; }
+    public long getTimestamp() { return timestamp; }
+    public Message getMessage() { return message; }
+}
@@ -1,27 +1,90 @@
 package server.websocket;
 
+import common.protocol.EncodedMessage;
+import common.protocol.Message;
+import common.protocol.MessageType;
 import org.java_websocket.WebSocket;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.IExtension;
 import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.protocols.IProtocol;
+import org.java_websocket.protocols.Protocol;
 import org.java_websocket.server.WebSocketServer;
+import server.bus.MessageBus;
+import server.bus.Subscriber;
+import server.bus.TransportAdapter;
+import server.bus.TypingAggregator;
+import server.config.ServerConfig;
+import server.core.OutboundQueue;
 import server.core.ServerContext;
+import server.service.MessageRouter;
+import server.websocket.dto.BinaryFrames;
+import server.websocket.dto.Frame;
 import server.websocket.dto.WebSocketMessage;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
-public class ChatWebSocketServer extends WebSocketServer {
+/**
+ * ChatWebSocketServer - WebSocket endpoint và MessageBus adapter của nó
+ *
+ * Authenticated clients là Subscribers trên bus chung: username namespace,
+ * lobby chat, private messages và presence được chia sẻ với TCP và gRPC
+ * users. Wire form là một Frame, cache trong EncodedMessage: clients
+ * negotiate subprotocol "chat.binary.v1" (Sec-WebSocket-Protocol) nhận binary
+ * frames (BinaryFrames), các clients khác nhận JSON text (JsonFrames). Mỗi
+ * form encode tối đa một lần mỗi message.
+ *
+ * Clients offer permessage-deflate được nén với DeflateExtension (xem
+ * websocket.deflate.*); clients không offer nhận frames uncompressed.
+ *
+ * Design Pattern: Adapter
+ */
+public class ChatWebSocketServer extends WebSocketServer implements TransportAdapter {
 
     private final ServerContext context;
+    private final MessageBus bus;
     private final Map<WebSocket, WebSocketClient> clients;
+    private final TypingAggregator typing;
 
     public ChatWebSocketServer(int port, ServerContext context) {
-        super(new InetSocketAddress(port));
+        super(new InetSocketAddress(port), drafts(context.getConfig()));
         this.context = context;
+        this.bus = context.getMessageBus();
         this.clients = new ConcurrentHashMap<>();
+        this.typing = context.getTypingAggregator();
+        typing.addListener((room, users) -> sendFrame(Frame.typingUsers(room, users), bus.getSubscribers(this), null));
         setConnectionLostTimeout(30);
     }
 
+    /**
+     * Draft_6455 luôn giữ DefaultExtension làm fallback cho clients không offer
+     * deflate. Protocol("") chấp nhận clients không gửi Sec-WebSocket-Protocol
+     * (JSON).
+     */
+    private static List<Draft> drafts(ServerConfig config) {
+        List<IExtension> extensions = new ArrayList<>();
+        if (config.isWsDeflateEnabled()) {
+            extensions.add(new DeflateExtension(
+                    config.getWsDeflateLevel(),
+                    config.getWsDeflateMinSize(),
+                    config.isWsDeflateContextTakeover()));
+        }
+        List<IProtocol> protocols = Arrays.asList(
+                new Protocol(BinaryFrames.SUBPROTOCOL),
+                new Protocol(""));
+        return Collections.singletonList(new Draft_6455(extensions, protocols));
+    }
+
     @Override
     public void onStart() {
         System.out.println("═══════════════════════════════════════");
@@ -36,14 +99,12 @@ public class ChatWebSocketServer extends WebSocketServer {
     @Override
     public void onOpen(WebSocket conn, ClientHandshake handshake) {
         String clientAddress = conn.getRemoteSocketAddress().toString();
-        System.out.println("[WS] New connection: " + clientAddress);
-
-        WebSocketClient client = new WebSocketClient(conn);
+        WebSocketClient client = new WebSocketClient(conn, this);
+        System.out.println("[WS] New connection: " + clientAddress
+                + (client.isBinary() ? " (" + BinaryFrames.SUBPROTOCOL + ")" : ""));
         clients.put(conn, client);
 
-        WebSocketMessage welcome = new WebSocketMessage("system");
-        welcome.put("message", "Welcome! Please authenticate.");
-        client.send(welcome);
+        client.send(Frame.system("Welcome! Please authenticate."));
 
         System.out.println("[WS] Total: " + clients.size());
     }
@@ -65,161 +126,209 @@ public class ChatWebSocketServer extends WebSocketServer {
 
         } catch (Exception e) {
             System.err.println("[WS ERROR] " + e.getMessage());
-            client.send(WebSocketMessage.error("Invalid format"));
+            client.send(Frame.error("Invalid format"));
+        }
+    }
+
+    /**
+     * chat.binary.v1 frame - fields đọc thẳng từ payload, không qua JSON
+     */
+    @Override
+    public void onMessage(WebSocket conn, ByteBuffer message) {
+        WebSocketClient client = clients.get(conn);
+        if (client == null)
+            return;
+
+        try {
+            BinaryFrames.Reader in = new BinaryFrames.Reader(message);
+            int opcode = in.readByte();
+            client.incrementMessagesReceived();
+
+            switch (opcode) {
+                case BinaryFrames.OP_AUTH:
+                    handleAuth(client, in.readString());
+                    break;
+                case BinaryFrames.OP_CHAT:
+                    handleChat(client, in.readString());
+                    break;
+                case BinaryFrames.OP_PRIVATE:
+                    handlePrivate(client, in.readString(), in.readString());
+                    break;
+                case BinaryFrames.OP_PING:
+                    handlePing(client);
+                    break;
+                case BinaryFrames.OP_TYPING:
+                    handleTyping(client, in.readBoolean());
+                    break;
+                case BinaryFrames.OP_PRESENCE_SYNC:
+                    handlePresenceSync(client);
+                    break;
+                default:
+                    client.send(Frame.error("Unknown type"));
+            }
+
+        } catch (IOException e) {
+            System.err.println("[WS ERROR] " + e.getMessage());
+            client.send(Frame.error("Invalid format"));
         }
     }
 
     private void handleMessage(WebSocketClient client, WebSocketMessage msg) {
         String type = msg.getType();
         if (type == null) {
-            client.send(WebSocketMessage.error("Type required"));
+            client.send(Frame.error("Type required"));
             return;
         }
 
         switch (type) {
             case "auth":
-                handleAuth(client, msg);
+                handleAuth(client, msg.getString("username"));
                 break;
             case "chat":
-                handleChat(client, msg);
+                handleChat(client, msg.getString("content"));
                 break;
             case "private":
-                handlePrivate(client, msg);
+                handlePrivate(client, msg.getString("receiver"), msg.getString("content"));
                 break;
             case "ping":
                 handlePing(client);
                 break;
             case "typing":
-                handleTyping(client, msg);
+                handleTyping(client, Boolean.TRUE.equals(msg.get("isTyping")));
+                break;
+            case "presence_sync":
+                handlePresenceSync(client);
                 break;
             default:
-                client.send(WebSocketMessage.error("Unknown type"));
+                client.send(Frame.error("Unknown type"));
         }
     }
 
-    private void handleAuth(WebSocketClient client, WebSocketMessage msg) {
-        String username = msg.getString("username");
-
+    private void handleAuth(WebSocketClient client, String username) {
         if (username == null || username.trim().isEmpty()) {
-            client.send(WebSocketMessage.error("Username required"));
+            client.send(Frame.error("Username required"));
             return;
         }
 
         username = username.trim();
 
         if (username.length() < 3 || username.length() > 20) {
-            client.send(WebSocketMessage.error("Username 3-20 chars"));
+            client.send(Frame.error("Username 3-20 chars"));
             return;
         }
 
-        for (WebSocketClient c : clients.values()) {
-            if (username.equalsIgnoreCase(c.getUsername())) {
-                client.send(WebSocketMessage.error("Username taken"));
+        synchronized (client.getLifecycleLock()) {
+            if (client.isClosed()) {
+                return;     // onClose đã chạy - không claim tên cho socket đã đóng
+            }
+
+            if (client.isAuthenticated()) {
+                client.send(Frame.error("Already authenticated"));
                 return;
             }
-        }
 
-        client.setUsername(username);
-        System.out.println("[WS AUTH] " + username);
+            // Claim là atomic trên namespace chung - thua race với bất kỳ
+            // TCP / WebSocket / gRPC user nào cũng là taken. Username của
+            // client chỉ được set sau khi claim thắng.
+            if (!bus.claim(username, client)) {
+                client.send(Frame.error("Username taken"));
+                return;
+            }
+            client.setUsername(username);
+
+            System.out.println("[WS AUTH] " + username);
 
-        WebSocketMessage success = new WebSocketMessage("auth_success");
-        success.put("username", username);
-        success.put("message", "Welcome, " + username + "!");
-        client.send(success);
+            client.send(Frame.authSuccess(username, "Welcome, " + username + "!"));
 
-        client.send(getUserListMessage());
-        broadcast(WebSocketMessage.userJoined(username), client);
-        broadcastUserList();
+            // One snapshot for the new client, O(1) delta for everyone else
+            MessageRouter router = context.getMessageRouter();
+            bus.subscribe(client);
+            router.sendPresenceSnapshot(client);
+            router.broadcastPresence(username, true);
+        }
     }
 
-    private void handleChat(WebSocketClient client, WebSocketMessage msg) {
+    /**
+     * Client thấy version gap (delta bị mất) - gửi lại snapshot
+     */
+    private void handlePresenceSync(WebSocketClient client) {
         if (!client.isAuthenticated()) {
-            client.send(WebSocketMessage.error("Login first"));
+            client.send(Frame.error("Login first"));
             return;
         }
+        context.getMessageRouter().sendPresenceSnapshot(client);
+    }
 
-        String content = msg.getString("content");
+    private void handleChat(WebSocketClient client, String content) {
+        if (!client.isAuthenticated()) {
+            client.send(Frame.error("Login first"));
+            return;
+        }
 
         if (content == null || content.trim().isEmpty()) {
-            client.send(WebSocketMessage.error("Content required"));
+            client.send(Frame.error("Content required"));
             return;
         }
 
         content = content.trim();
 
         if (content.length() > 1000) {
-            client.send(WebSocketMessage.error("Too long"));
+            client.send(Frame.error("Too long"));
             return;
         }
 
-        WebSocketMessage chat = WebSocketMessage.chat(
-                client.getUsername(), content);
-
         System.out.println("[WS CHAT] " + client.getUsername() +
                 ": " + content);
 
-        broadcastToAuthenticated(chat);
+        // Gửi message nghĩa là đã ngừng gõ
+        typing.update(ServerContext.LOBBY, client.getUsername(), false);
+
+        // Routed once - mọi transport nhận, WebSocket recipients dùng chung một text frame
+        context.getMessageRouter().routeChat(
+                new Message(MessageType.CHAT, client.getUsername(), content), client);
     }
 
-    private void handlePrivate(WebSocketClient client, WebSocketMessage msg) {
+    private void handlePrivate(WebSocketClient client, String receiver, String content) {
         if (!client.isAuthenticated()) {
-            client.send(WebSocketMessage.error("Login first"));
+            client.send(Frame.error("Login first"));
             return;
         }
 
-        String receiver = msg.getString("receiver");
-        String content = msg.getString("content");
-
         if (receiver == null || content == null) {
-            client.send(WebSocketMessage.error("Receiver & content required"));
+            client.send(Frame.error("Receiver & content required"));
             return;
         }
 
         content = content.trim();
 
         if (content.isEmpty()) {
-            client.send(WebSocketMessage.error("Content required"));
+            client.send(Frame.error("Content required"));
             return;
         }
 
-        WebSocketClient target = findClientByUsername(receiver);
-        if (target == null) {
-            client.send(WebSocketMessage.error("User not found"));
+        Message pm = new Message(MessageType.PRIVATE, client.getUsername(), receiver, content);
+        if (!context.getMessageRouter().routePrivate(pm, client)) {
+            client.send(Frame.error("User not found"));
             return;
         }
 
-        WebSocketMessage pm = WebSocketMessage.privateMsg(
-                client.getUsername(), receiver, content);
-
         System.out.println("[WS PM] " + client.getUsername() +
                 " → " + receiver);
 
-        target.send(pm);
-
-        WebSocketMessage confirm = new WebSocketMessage("private_sent");
-        confirm.put("receiver", receiver);
-        confirm.put("content", content);
-        client.send(confirm);
+        client.send(Frame.privateSent(receiver, content));
     }
 
     private void handlePing(WebSocketClient client) {
-        WebSocketMessage pong = new WebSocketMessage("pong");
-        pong.put("timestamp", System.currentTimeMillis());
-        client.send(pong);
+        client.send(Frame.pong(System.currentTimeMillis()));
     }
 
-    private void handleTyping(WebSocketClient client, WebSocketMessage msg) {
+    private void handleTyping(WebSocketClient client, boolean isTyping) {
         if (!client.isAuthenticated())
             return;
 
-        boolean isTyping = msg.get("isTyping") != null &&
-                (boolean) msg.get("isTyping");
-
-        WebSocketMessage typingMsg = new WebSocketMessage("typing");
-        typingMsg.put("username", client.getUsername());
-        typingMsg.put("isTyping", isTyping);
-
-        broadcast(typingMsg, client);
+        // Coalesced - TypingAggregator gửi tối đa một update mỗi interval.
+        // WebSocket clients chỉ chat trong lobby.
+        typing.update(ServerContext.LOBBY, client.getUsername(), isTyping);
     }
 
     @Override
@@ -227,14 +336,21 @@ public class ChatWebSocketServer extends WebSocketServer {
         WebSocketClient client = clients.remove(conn);
 
         if (client != null) {
-            String username = client.getUsername();
-            System.out.println("[WS] Closed: " +
-                    (username != null ? username : "anonymous"));
-
-            if (client.isAuthenticated()) {
-                System.out.println("[WS] User left: " + username);
-                broadcast(WebSocketMessage.userLeft(username), null);
-                broadcastUserList();
+            // Cùng lock với handleAuth: hoặc auth đã claim và set username xong,
+            // hoặc nó sẽ thấy closed và không claim gì
+            synchronized (client.getLifecycleLock()) {
+                client.markClosed();
+                String username = client.getUsername();
+                System.out.println("[WS] Closed: " +
+                        (username != null ? username : "anonymous"));
+
+                if (client.isAuthenticated()) {
+                    System.out.println("[WS] User left: " + username);
+                    typing.remove(username);
+                    if (bus.unsubscribe(client)) {
+                        context.getMessageRouter().broadcastPresence(username, false);
+                    }
+                }
             }
 
             System.out.println("[WS] Total: " + clients.size());
@@ -248,53 +364,97 @@ public class ChatWebSocketServer extends WebSocketServer {
         if (conn != null) {
             WebSocketClient client = clients.get(conn);
             if (client != null) {
-                client.send(WebSocketMessage.error("Server error"));
+                client.send(Frame.error("Server error"));
             }
         }
     }
 
-    private void broadcast(WebSocketMessage message, WebSocketClient exclude) {
-        String json = message.toJson();
+    // TransportAdapter
 
-        for (WebSocketClient client : clients.values()) {
-            if (client != exclude && client.isAuthenticated() &&
-                    client.isConnected()) {
-                client.send(json);
-            }
-        }
+    @Override
+    public String getName() {
+        return "websocket";
     }
 
-    private void broadcastToAuthenticated(WebSocketMessage message) {
-        String json = message.toJson();
-
-        for (WebSocketClient client : clients.values()) {
-            if (client.isAuthenticated() && client.isConnected()) {
-                client.send(json);
-            }
+    /**
+     * Frame tạo một lần mỗi message (wire form key là adapter này)
+     */
+    @Override
+    public void deliver(EncodedMessage msg, Collection<Subscriber> recipients) {
+        Frame frame = msg.wireForm(this, ChatWebSocketServer::toFrame);
+        if (frame != null) {
+            sendFrame(frame, recipients, null);
         }
     }
 
-    private void broadcastUserList() {
-        WebSocketMessage userList = getUserListMessage();
-        broadcastToAuthenticated(userList);
+    @Override
+    public void deliverPresenceSnapshot(Subscriber target, Collection<String> usernames, long version) {
+        sendFrame(Frame.userList(usernames, version), Collections.singletonList(target), null);
     }
 
-    private WebSocketClient findClientByUsername(String username) {
-        for (WebSocketClient client : clients.values()) {
-            if (username.equalsIgnoreCase(client.getUsername())) {
-                return client;
-            }
+    /**
+     * Bus message → WebSocket message shape
+     * @return null nếu message không có dạng trên WebSocket (room chat, ACK,
+     *         heartbeat, file transfer - TCP only)
+     */
+    private static Frame toFrame(Message msg) {
+        switch (msg.getType()) {
+            case CHAT:
+                return msg.getRoom() == null ? Frame.chat(msg.getSender(), msg.getContent()) : null;
+            case PRIVATE:
+                return Frame.privateMsg(msg.getSender(), msg.getReceiver(), msg.getContent());
+            case SERVER:
+                Object presence = msg.getMetadata(OutboundQueue.PRESENCE_KEY);
+                Object version = msg.getMetadata(MessageRouter.META_PRESENCE_VERSION);
+                if (presence != null && version instanceof Long) {
+                    String username = (String) msg.getMetadata("username");
+                    return "joined".equals(presence)
+                            ? Frame.userJoined(username, (Long) version)
+                            : Frame.userLeft(username, (Long) version);
+                }
+                return Frame.system(msg.getContent());
+            default:
+                return null;
         }
-        return null;
     }
 
-    private WebSocketMessage getUserListMessage() {
-        String[] users = clients.values().stream()
-                .filter(WebSocketClient::isAuthenticated)
-                .map(WebSocketClient::getUsername)
-                .toArray(String[]::new);
+    /**
+     * Send one frame to every recipient except exclude.
+     * WebSocketServer.broadcast builds the WebSocket frame once per draft and
+     * writes the same bytes to each uncompressed connection - một broadcast
+     * cho JSON clients, một cho binary clients.
+     *
+     * Deflate connections được gửi riêng: mỗi connection có compression
+     * context riêng, và broadcast() sẽ nén frame dùng chung tại chỗ một lần
+     * cho mỗi connection.
+     */
+    private void sendFrame(Frame frame, Collection<Subscriber> recipients, WebSocketClient exclude) {
+        List<WebSocket> textTargets = new ArrayList<>(recipients.size());
+        List<WebSocket> binaryTargets = new ArrayList<>();
+        for (Subscriber recipient : recipients) {
+            WebSocketClient client = (WebSocketClient) recipient;
+            if (client != exclude && client.isConnected()) {
+                WebSocket conn = client.getConnection();
+                if (isDeflate(conn)) {
+                    client.send(frame);
+                } else {
+                    (client.isBinary() ? binaryTargets : textTargets).add(conn);
+                    client.incrementMessagesSent();
+                }
+            }
+        }
+        if (!textTargets.isEmpty()) {
+            broadcast(frame.json(), textTargets);
+        }
+        if (!binaryTargets.isEmpty()) {
+            broadcast(frame.binary(), binaryTargets);
+        }
+    }
 
-        return WebSocketMessage.userList(users);
+    private static boolean isDeflate(WebSocket conn) {
+        Draft draft = conn.getDraft();
+        return draft instanceof Draft_6455
+                && ((Draft_6455) draft).getExtension() instanceof DeflateExtension;
     }
 
     public int getClientCount() {
@@ -305,9 +465,7 @@ public class ChatWebSocketServer extends WebSocketServer {
         try {
             System.out.println("[WS] Shutting down...");
 
-            WebSocketMessage shutdownMsg = new WebSocketMessage("system");
-            shutdownMsg.put("message", "Server shutting down");
-            broadcastToAuthenticated(shutdownMsg);
+            sendFrame(Frame.system("Server shutting down"), bus.getSubscribers(this), null);
 
             stop(1000);
 
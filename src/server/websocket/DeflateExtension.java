@@ -0,0 +1,79 @@
+package server.websocket;
+
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.framing.Framedata;
+
+import java.util.zip.Deflater;
+
+/**
+ * DeflateExtension - permessage-deflate (RFC 7692) với level, context
+ * takeover và min frame size cấu hình được
+ *
+ * PerMessageDeflateExtension của Java-WebSocket 1.5.4 luôn trả lời
+ * "server_no_context_takeover" và tạo lại Deflater level mặc định sau mỗi
+ * message. Subclass này giữ Deflater (và level) qua các messages khi context
+ * takeover được bật - LZ77 window chứa các JSON frames trước nên keys và
+ * usernames lặp lại chỉ tốn vài bytes - và chỉ reset khi client yêu cầu
+ * server_no_context_takeover hoặc config tắt nó.
+ *
+ * Draft copy extension cho mỗi connection (copyInstance) nên mỗi connection
+ * có compression context riêng.
+ */
+class DeflateExtension extends PerMessageDeflateExtension {
+
+    private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+
+    private final int level;
+    private final int minSize;
+    private final boolean contextTakeover;
+    private boolean resetPerMessage;
+
+    DeflateExtension(int level, int minSize, boolean contextTakeover) {
+        this.level = level;
+        this.minSize = minSize;
+        this.contextTakeover = contextTakeover;
+        this.resetPerMessage = !contextTakeover;
+        setDeflater(new Deflater(level, true));
+        setThreshold(minSize);
+        // Reset do encodeFrame() tự làm, giữ level đã cấu hình
+        setServerNoContextTakeover(false);
+    }
+
+    @Override
+    public boolean acceptProvidedExtensionAsServer(String inputExtension) {
+        if (!super.acceptProvidedExtensionAsServer(inputExtension)) {
+            return false;
+        }
+        if (inputExtension.contains(SERVER_NO_CONTEXT_TAKEOVER)) {
+            resetPerMessage = true;
+        }
+        return true;
+    }
+
+    @Override
+    public String getProvidedExtensionAsServer() {
+        return "permessage-deflate"
+                + (resetPerMessage ? "; " + SERVER_NO_CONTEXT_TAKEOVER : "")
+                + (isClientNoContextTakeover() ? "; client_no_context_takeover" : "");
+    }
+
+    @Override
+    public void encodeFrame(Framedata inputFrame) {
+        super.encodeFrame(inputFrame);
+        if (resetPerMessage && inputFrame.isFin()) {
+            getDeflater().reset();
+        }
+    }
+
+    @Override
+    public IExtension copyInstance() {
+        return new DeflateExtension(level, minSize, contextTakeover);
+    }
+
+    @Override
+    public String toString() {
+        return "DeflateExtension[level=" + level + ", minSize=" + minSize
+                + ", contextTakeover=" + !resetPerMessage + "]";
+    }
+}
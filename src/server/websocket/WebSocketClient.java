@@ -1,22 +1,34 @@
 package server.websocket;
 
 import org.java_websocket.WebSocket;
-import server.websocket.dto.WebSocketMessage;
+import server.bus.Subscriber;
+import server.bus.TransportAdapter;
+import org.java_websocket.protocols.IProtocol;
+import server.websocket.dto.BinaryFrames;
+import server.websocket.dto.Frame;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 
-public class WebSocketClient {
+public class WebSocketClient implements Subscriber {
 
     private final WebSocket connection;
-    private String username;
+    private final TransportAdapter transport;
+    private final boolean binary; // negotiated chat.binary.v1 subprotocol
+    private volatile String username; // set by auth, read by other connections' threads
+    // Auth và close chạy dưới lock này - không dùng monitor của client, send() đã giữ nó
+    private final Object lifecycleLock = new Object();
+    private boolean closed; // guarded by lifecycleLock
     private String connectedAt; // ← Changed to String
     private int messagesSent;
     private int messagesReceived;
 
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
-    public WebSocketClient(WebSocket connection) {
+    public WebSocketClient(WebSocket connection, TransportAdapter transport) {
         this.connection = connection;
+        this.transport = transport;
+        IProtocol protocol = connection.getProtocol();
+        this.binary = protocol != null && BinaryFrames.SUBPROTOCOL.equals(protocol.getProvidedProtocol());
         this.connectedAt = LocalDateTime.now().format(formatter);
         this.messagesSent = 0;
         this.messagesReceived = 0;
@@ -26,14 +38,43 @@ public class WebSocketClient {
         return connection;
     }
 
+    @Override
     public String getUsername() {
         return username;
     }
 
+    @Override
+    public TransportAdapter getTransport() {
+        return transport;
+    }
+
     public void setUsername(String username) {
         this.username = username;
     }
 
+    /**
+     * Lock của auth / close - handleAuth và onClose giữ nó suốt claim,
+     * subscribe và presence broadcast, nên join và leave không đảo thứ tự
+     */
+    public Object getLifecycleLock() {
+        return lifecycleLock;
+    }
+
+    /**
+     * Đánh dấu socket đã đóng - sau đó auth không được claim tên nữa.
+     * Caller giữ lifecycle lock.
+     */
+    public void markClosed() {
+        closed = true;
+    }
+
+    /**
+     * Caller giữ lifecycle lock
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
     public String getConnectedAt() {
         return connectedAt;
     }
@@ -46,20 +87,33 @@ public class WebSocketClient {
         return messagesReceived;
     }
 
-    public void send(WebSocketMessage message) {
-        if (connection.isOpen()) {
-            connection.send(message.toJson());
-            messagesSent++;
-        }
+    public boolean isBinary() {
+        return binary;
     }
 
-    public void send(String message) {
+    /**
+     * Gửi frame theo wire form đã negotiate (binary hoặc JSON text).
+     *
+     * Synchronized: với permessage-deflate, frame được nén trước khi vào
+     * write lock của connection - nén và ghi phải cùng thứ tự để client
+     * giải nén được (context takeover), và Deflater không thread-safe
+     */
+    public synchronized void send(Frame frame) {
         if (connection.isOpen()) {
-            connection.send(message);
+            if (binary) {
+                connection.send(frame.binary());
+            } else {
+                connection.send(frame.json());
+            }
             messagesSent++;
         }
     }
 
+    // Shared broadcast frames bypass send() but still count per recipient
+    public void incrementMessagesSent() {
+        messagesSent++;
+    }
+
     public void incrementMessagesReceived() {
         messagesReceived++;
     }
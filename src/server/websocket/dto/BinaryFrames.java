@@ -0,0 +1,283 @@
+package server.websocket.dto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * BinaryFrames - Binary WebSocket subprotocol "chat.binary.v1"
+ *
+ * Cùng message types với JSON protocol, nhưng mỗi frame là:
+ *   byte    opcode
+ *   fields  theo thứ tự cố định của opcode (xem từng method)
+ *
+ * Server → client frames có thêm int64 timestamp (epoch millis) ngay sau
+ * opcode thay cho chuỗi "yyyy-MM-dd HH:mm:ss" của JSON.
+ *
+ * string = varint (UTF-8 length + 1), 0 nghĩa là null - giống
+ * BinaryMessageCodec. Strings được encode UTF-8 thẳng vào buffer của thread
+ * hiện tại; Reader decode fields trực tiếp từ payload của WebSocket frame,
+ * không qua JSON text hay Map trung gian.
+ */
+public final class BinaryFrames {
+
+    public static final String SUBPROTOCOL = "chat.binary.v1";
+
+    // Client → server opcodes
+    public static final int OP_AUTH = 0x01;            // string username
+    public static final int OP_CHAT = 0x02;            // string content
+    public static final int OP_PRIVATE = 0x03;         // string receiver, string content
+    public static final int OP_PING = 0x04;
+    public static final int OP_TYPING = 0x05;          // byte isTyping
+    public static final int OP_PRESENCE_SYNC = 0x06;
+
+    // Server → client opcodes
+    public static final int OP_SYSTEM = 0x41;          // string message
+    public static final int OP_AUTH_SUCCESS = 0x42;    // string username, string message
+    public static final int OP_CHAT_MSG = 0x43;        // string sender, string content
+    public static final int OP_PRIVATE_MSG = 0x44;     // string sender, string receiver, string content
+    public static final int OP_PRIVATE_SENT = 0x45;    // string receiver, string content
+    public static final int OP_USER_LIST = 0x46;       // varlong version, varint count, string[count]
+    public static final int OP_USER_JOINED = 0x47;     // string username, varlong version
+    public static final int OP_USER_LEFT = 0x48;       // string username, varlong version
+    public static final int OP_TYPING_USERS = 0x49;    // string room, varint count, string[count]
+    public static final int OP_PONG = 0x4A;            // int64 timestamp
+    public static final int OP_ERROR = 0x4B;           // string message
+
+    private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+
+    private static final ThreadLocal<Writer> BUFFER = ThreadLocal.withInitial(Writer::new);
+
+    private BinaryFrames() {
+    }
+
+    // Message shapes
+
+    public static byte[] system(String message) {
+        return begin(OP_SYSTEM).string(message).end();
+    }
+
+    public static byte[] authSuccess(String username, String message) {
+        return begin(OP_AUTH_SUCCESS).string(username).string(message).end();
+    }
+
+    public static byte[] chat(String sender, String content) {
+        return begin(OP_CHAT_MSG).string(sender).string(content).end();
+    }
+
+    public static byte[] privateMsg(String sender, String receiver, String content) {
+        return begin(OP_PRIVATE_MSG).string(sender).string(receiver).string(content).end();
+    }
+
+    public static byte[] privateSent(String receiver, String content) {
+        return begin(OP_PRIVATE_SENT).string(receiver).string(content).end();
+    }
+
+    public static byte[] userList(Collection<String> users, long version) {
+        Writer out = begin(OP_USER_LIST).varlong(version).varint(users.size());
+        for (String user : users) {
+            out.string(user);
+        }
+        return out.end();
+    }
+
+    public static byte[] userJoined(String username, long version) {
+        return begin(OP_USER_JOINED).string(username).varlong(version).end();
+    }
+
+    public static byte[] userLeft(String username, long version) {
+        return begin(OP_USER_LEFT).string(username).varlong(version).end();
+    }
+
+    public static byte[] typingUsers(String room, Collection<String> users) {
+        Writer out = begin(OP_TYPING_USERS).string(room).varint(users.size());
+        for (String user : users) {
+            out.string(user);
+        }
+        return out.end();
+    }
+
+    public static byte[] pong(long timestamp) {
+        return begin(OP_PONG).int64(timestamp).end();
+    }
+
+    public static byte[] error(String message) {
+        return begin(OP_ERROR).string(message).end();
+    }
+
+    private static Writer begin(int opcode) {
+        Writer out = BUFFER.get();
+        out.size = 0;
+        return out.byte1(opcode).int64(System.currentTimeMillis());
+    }
+
+    /**
+     * Writer - Growable byte buffer, tái sử dụng theo thread
+     */
+    private static final class Writer {
+        private byte[] buf = new byte[256];
+        private int size;
+
+        Writer byte1(int value) {
+            ensure(1);
+            buf[size++] = (byte) value;
+            return this;
+        }
+
+        Writer int64(long value) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[size++] = (byte) (value >>> shift);
+            }
+            return this;
+        }
+
+        Writer varint(int value) {
+            return varlong(value & 0xFFFFFFFFL);
+        }
+
+        Writer varlong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[size++] = (byte) value;
+            return this;
+        }
+
+        /**
+         * UTF-8 encode thẳng vào buffer - không tạo byte[] tạm cho mỗi string
+         */
+        Writer string(String value) {
+            if (value == null) {
+                return varint(0);
+            }
+            varint(utf8Length(value) + 1);
+            ensure(value.length() * 3);
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    buf[size++] = (byte) c;
+                } else if (c < 0x800) {
+                    buf[size++] = (byte) (0xC0 | (c >> 6));
+                    buf[size++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, value.charAt(++i));
+                    buf[size++] = (byte) (0xF0 | (cp >> 18));
+                    buf[size++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    buf[size++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    buf[size++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    buf[size++] = (byte) '?';   // Lone surrogate - giống String.getBytes(UTF_8)
+                } else {
+                    buf[size++] = (byte) (0xE0 | (c >> 12));
+                    buf[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    buf[size++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return this;
+        }
+
+        byte[] end() {
+            byte[] frame = Arrays.copyOf(buf, size);
+            if (buf.length > MAX_RETAINED_CAPACITY) {
+                // Không giữ buffer lớn sau một message dài bất thường
+                buf = new byte[256];
+            }
+            return frame;
+        }
+
+        private void ensure(int bytes) {
+            if (size + bytes > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + bytes));
+            }
+        }
+
+        private static int utf8Length(String value) {
+            int length = 0;
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c < 0x80) {
+                    length++;
+                } else if (c < 0x800) {
+                    length += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    length++;
+                } else {
+                    length += 3;
+                }
+            }
+            return length;
+        }
+    }
+
+    /**
+     * Reader - Cursor trên payload của một client frame, kiểm tra bounds cho mọi field
+     */
+    public static final class Reader {
+        private final byte[] buf;
+        private final int limit;
+        private int pos;
+
+        public Reader(ByteBuffer frame) {
+            if (frame.hasArray()) {
+                this.buf = frame.array();
+                this.pos = frame.arrayOffset() + frame.position();
+            } else {
+                // Direct buffer - copy một lần
+                this.buf = new byte[frame.remaining()];
+                frame.duplicate().get(buf);
+                this.pos = 0;
+            }
+            this.limit = pos + frame.remaining();
+        }
+
+        public int readByte() throws IOException {
+            require(1);
+            return buf[pos++] & 0xFF;
+        }
+
+        public boolean readBoolean() throws IOException {
+            return readByte() != 0;
+        }
+
+        public int readVarint() throws IOException {
+            int result = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                result |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        public String readString() throws IOException {
+            int length = readVarint();
+            if (length == 0) {
+                return null;
+            }
+            length--;
+            require(length);
+            String value = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return value;
+        }
+
+        private void require(int bytes) throws IOException {
+            // limit - pos thay vì pos + bytes - length prefix lớn không được overflow qua check
+            if (bytes < 0 || bytes > limit - pos) {
+                throw new IOException("Truncated binary frame");
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package server.websocket.dto;
+
+import java.util.Collection;
+import java.util.function.Supplier;
+
+/**
+ * Frame - Một server → client message với cả hai wire forms
+ *
+ * JSON text (JsonFrames) và chat.binary.v1 (BinaryFrames) được encode lazy,
+ * tối đa một lần mỗi form: broadcast tới toàn JSON clients không bao giờ
+ * encode binary và ngược lại. Hai threads cùng encode một form lần đầu chỉ
+ * tốn thêm một lần encode - kết quả giống nhau.
+ *
+ * Design Pattern: Flyweight
+ */
+public final class Frame {
+
+    private final Supplier<String> jsonEncoder;
+    private final Supplier<byte[]> binaryEncoder;
+    private volatile String json;
+    private volatile byte[] binary;
+
+    private Frame(Supplier<String> jsonEncoder, Supplier<byte[]> binaryEncoder) {
+        this.jsonEncoder = jsonEncoder;
+        this.binaryEncoder = binaryEncoder;
+    }
+
+    public String json() {
+        String value = json;
+        if (value == null) {
+            value = jsonEncoder.get();
+            json = value;
+        }
+        return value;
+    }
+
+    public byte[] binary() {
+        byte[] value = binary;
+        if (value == null) {
+            value = binaryEncoder.get();
+            binary = value;
+        }
+        return value;
+    }
+
+    // Message shapes
+
+    public static Frame system(String message) {
+        return new Frame(() -> JsonFrames.system(message), () -> BinaryFrames.system(message));
+    }
+
+    public static Frame authSuccess(String username, String message) {
+        return new Frame(() -> JsonFrames.authSuccess(username, message),
+                () -> BinaryFrames.authSuccess(username, message));
+    }
+
+    public static Frame chat(String sender, String content) {
+        return new Frame(() -> JsonFrames.chat(sender, content), () -> BinaryFrames.chat(sender, content));
+    }
+
+    public static Frame privateMsg(String sender, String receiver, String content) {
+        return new Frame(() -> JsonFrames.privateMsg(sender, receiver, content),
+                () -> BinaryFrames.privateMsg(sender, receiver, content));
+    }
+
+    public static Frame privateSent(String receiver, String content) {
+        return new Frame(() -> JsonFrames.privateSent(receiver, content),
+                () -> BinaryFrames.privateSent(receiver, content));
+    }
+
+    public static Frame userList(Collection<String> users, long version) {
+        return new Frame(() -> JsonFrames.userList(users, version), () -> BinaryFrames.userList(users, version));
+    }
+
+    public static Frame userJoined(String username, long version) {
+        return new Frame(() -> JsonFrames.userJoined(username, version),
+                () -> BinaryFrames.userJoined(username, version));
+    }
+
+    public static Frame userLeft(String username, long version) {
+        return new Frame(() -> JsonFrames.userLeft(username, version),
+                () -> BinaryFrames.userLeft(username, version));
+    }
+
+    public static Frame typingUsers(String room, Collection<String> users) {
+        return new Frame(() -> JsonFrames.typingUsers(room, users), () -> BinaryFrames.typingUsers(room, users));
+    }
+
+    public static Frame pong(long timestamp) {
+        return new Frame(() -> JsonFrames.pong(timestamp), () -> BinaryFrames.pong(timestamp));
+    }
+
+    public static Frame error(String message) {
+        return new Frame(() -> JsonFrames.error(message), () -> BinaryFrames.error(message));
+    }
+}
@@ -0,0 +1,224 @@
+package server.websocket.dto;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * JsonFrames - Hand-written JSON encoder cho các message shapes cố định
+ *
+ * Output giống WebSocketMessage.toJson(): {"type":..,"data":{..},"timestamp":..}
+ * nhưng không có reflection, HashMap hay LocalDateTime per message - mỗi
+ * frame được ghi thẳng vào một StringBuilder tái sử dụng của thread hiện tại.
+ * Timestamp string được cache theo giây.
+ *
+ * Broadcast: encode một lần rồi gửi cùng String cho mọi recipient.
+ */
+public final class JsonFrames {
+
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final int MAX_RETAINED_CAPACITY = 16 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<StringBuilder> BUFFER =
+            ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    /**
+     * Formatted timestamp của một giây - thay cả holder để readers luôn thấy cặp nhất quán
+     */
+    private static final class CachedTimestamp {
+        final long second;
+        final String text;
+
+        CachedTimestamp(long second, String text) {
+            this.second = second;
+            this.text = text;
+        }
+    }
+
+    private static volatile CachedTimestamp cachedTimestamp = new CachedTimestamp(-1, "");
+
+    private JsonFrames() {
+    }
+
+    /**
+     * "yyyy-MM-dd HH:mm:ss" của thời điểm hiện tại, format tối đa một lần mỗi giây
+     */
+    public static String timestamp() {
+        long second = System.currentTimeMillis() / 1000;
+        CachedTimestamp cached = cachedTimestamp;
+        if (cached.second != second) {
+            cached = new CachedTimestamp(second, LocalDateTime.now(ZoneId.systemDefault()).format(FORMATTER));
+            cachedTimestamp = cached;
+        }
+        return cached.text;
+    }
+
+    // Message shapes
+
+    public static String authSuccess(String username, String message) {
+        StringBuilder sb = begin("auth_success");
+        field(sb, "username", username);
+        field(sb, "message", message);
+        return end(sb);
+    }
+
+    public static String chat(String sender, String content) {
+        StringBuilder sb = begin("chat");
+        field(sb, "sender", sender);
+        field(sb, "content", content);
+        return end(sb);
+    }
+
+    public static String privateMsg(String sender, String receiver, String content) {
+        StringBuilder sb = begin("private");
+        field(sb, "sender", sender);
+        field(sb, "receiver", receiver);
+        field(sb, "content", content);
+        return end(sb);
+    }
+
+    public static String privateSent(String receiver, String content) {
+        StringBuilder sb = begin("private_sent");
+        field(sb, "receiver", receiver);
+        field(sb, "content", content);
+        return end(sb);
+    }
+
+    public static String typingUsers(String room, Iterable<String> users) {
+        StringBuilder sb = begin("typing_users");
+        field(sb, "room", room);
+        key(sb, "users");
+        array(sb, users);
+        return end(sb);
+    }
+
+    public static String userJoined(String username, long version) {
+        StringBuilder sb = begin("user_joined");
+        field(sb, "username", username);
+        field(sb, "version", version);
+        return end(sb);
+    }
+
+    public static String userLeft(String username, long version) {
+        StringBuilder sb = begin("user_left");
+        field(sb, "username", username);
+        field(sb, "version", version);
+        return end(sb);
+    }
+
+    public static String userList(Iterable<String> users, long version) {
+        StringBuilder sb = begin("user_list");
+        key(sb, "users");
+        array(sb, users);
+        field(sb, "version", version);
+        return end(sb);
+    }
+
+    public static String system(String message) {
+        StringBuilder sb = begin("system");
+        field(sb, "message", message);
+        return end(sb);
+    }
+
+    public static String pong(long timestamp) {
+        StringBuilder sb = begin("pong");
+        field(sb, "timestamp", timestamp);
+        return end(sb);
+    }
+
+    public static String error(String message) {
+        StringBuilder sb = begin("error");
+        field(sb, "message", message);
+        return end(sb);
+    }
+
+    // Streaming writer
+
+    private static StringBuilder begin(String type) {
+        StringBuilder sb = BUFFER.get();
+        sb.setLength(0);
+        sb.append("{\"type\":");
+        string(sb, type);
+        sb.append(",\"data\":{");
+        return sb;
+    }
+
+    private static String end(StringBuilder sb) {
+        sb.append("},\"timestamp\":\"").append(timestamp()).append("\"}");
+        String json = sb.toString();
+        if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+            // Không giữ buffer lớn sau một message dài bất thường
+            BUFFER.set(new StringBuilder(256));
+        }
+        return json;
+    }
+
+    private static void key(StringBuilder sb, String key) {
+        if (sb.charAt(sb.length() - 1) != '{') {
+            sb.append(',');
+        }
+        sb.append('"').append(key).append("\":");
+    }
+
+    private static void field(StringBuilder sb, String key, String value) {
+        key(sb, key);
+        string(sb, value);
+    }
+
+    private static void field(StringBuilder sb, String key, long value) {
+        key(sb, key);
+        sb.append(value);
+    }
+
+    private static void array(StringBuilder sb, Iterable<String> values) {
+        sb.append('[');
+        boolean first = true;
+        for (String value : values) {
+            if (!first) {
+                sb.append(',');
+            }
+            string(sb, value);
+            first = false;
+        }
+        sb.append(']');
+    }
+
+    /**
+     * JSON string literal (RFC 8259 escaping)
+     */
+    private static void string(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -26,7 +26,7 @@ public class WebSocketMessage {
     private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
 
     public WebSocketMessage() {
-        this.timestamp = LocalDateTime.now().format(formatter);
+        this.timestamp = JsonFrames.timestamp();
         this.data = new HashMap<>();
     }
 
@@ -90,45 +90,6 @@ public class WebSocketMessage {
         return msg;
     }
 
-    public static WebSocketMessage chat(String sender, String content) {
-        WebSocketMessage msg = new WebSocketMessage("chat");
-        msg.put("sender", sender);
-        msg.put("content", content);
-        return msg;
-    }
-
-    public static WebSocketMessage privateMsg(String sender, String receiver, String content) {
-        WebSocketMessage msg = new WebSocketMessage("private");
-        msg.put("sender", sender);
-        msg.put("receiver", receiver);
-        msg.put("content", content);
-        return msg;
-    }
-
-    public static WebSocketMessage userJoined(String username) {
-        WebSocketMessage msg = new WebSocketMessage("user_joined");
-        msg.put("username", username);
-        return msg;
-    }
-
-    public static WebSocketMessage userLeft(String username) {
-        WebSocketMessage msg = new WebSocketMessage("user_left");
-        msg.put("username", username);
-        return msg;
-    }
-
-    public static WebSocketMessage userList(String[] users) {
-        WebSocketMessage msg = new WebSocketMessage("user_list");
-        msg.put("users", users);
-        return msg;
-    }
-
-    public static WebSocketMessage error(String message) {
-        WebSocketMessage msg = new WebSocketMessage("error");
-        msg.put("message", message);
-        return msg;
-    }
-
     // Custom serializer for LocalDateTime
     private static class LocalDateTimeSerializer implements JsonSerializer<LocalDateTime> {
         @Override
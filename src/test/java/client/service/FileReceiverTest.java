@@ -0,0 +1,257 @@
+package client.service;
+
+import client.core.ChatClient;
+import common.protocol.FrameCodec;
+import common.protocol.Message;
+import common.protocol.MessageType;
+import common.protocol.ProtocolConstants;
+import common.protocol.RelayHandshake;
+import common.util.ChecksumUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * FileReceiverTest - Chunk CRC, whole-file checksum và resume trên cả hai
+ * đường nhận (FILE_CHUNK và file relay)
+ *
+ * Một fake server trên loopback chấp nhận CONNECT của ChatClient và giữ lại
+ * mọi FILE_ACK receiver gửi; relay được giả lập bằng một ServerSocket khác.
+ */
+public class FileReceiverTest {
+
+    private static final int CHUNK = ProtocolConstants.CHUNK_SIZE;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerSocket server;
+    private final BlockingQueue<Message> acks = new LinkedBlockingQueue<>();
+    private ExecutorService threads;
+    private ChatClient client;
+    private FileReceiver receiver;
+    private byte[] data;
+    private File target;
+
+    @Before
+    public void setUp() throws Exception {
+        threads = Executors.newCachedThreadPool();
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        threads.execute(this::serve);
+        client = new ChatClient(server.getInetAddress().getHostAddress(), server.getLocalPort(), "bob");
+        receiver = new FileReceiver(client);
+
+        data = new byte[CHUNK * 2 + CHUNK / 2];
+        new Random(7).nextBytes(data);
+        target = new File(folder.getRoot(), "received.bin");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.disconnect();
+        server.close();
+        threads.shutdownNow();
+    }
+
+    /**
+     * Fake chat server - ACCEPT (giữ Java serialization) rồi thu FILE_ACKs
+     */
+    private void serve() {
+        try (Socket socket = server.accept()) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            FrameCodec.readMessage(in, FrameCodec.JAVA);
+            FrameCodec.writeFrame(out, FrameCodec.JAVA.encode(new Message(MessageType.ACCEPT, "SERVER", "bob", "")));
+            out.flush();
+            while (true) {
+                Message msg = FrameCodec.readMessage(in, FrameCodec.JAVA);
+                if (msg.getType() == MessageType.FILE_ACK) {
+                    acks.add(msg);
+                }
+            }
+        } catch (IOException e) {
+            // Client disconnected
+        }
+    }
+
+    private Message meta(String transferId, String checksum) {
+        Message meta = new Message(MessageType.FILE_META, "alice", "bob", "");
+        meta.setFileMetadata("data.bin", data.length, checksum);
+        meta.setChecksumAlgorithm(ChecksumUtil.Algorithm.SHA_256.getName());
+        meta.setTransferId(transferId);
+        return meta;
+    }
+
+    private Message meta(String transferId) throws IOException {
+        File source = folder.newFile(transferId + ".src");
+        Files.write(source.toPath(), data);
+        return meta(transferId, ChecksumUtil.calculate(source, ChecksumUtil.Algorithm.SHA_256));
+    }
+
+    private Message chunk(String transferId, int sequence, boolean corrupt) {
+        byte[] payload = Arrays.copyOfRange(data, sequence * CHUNK, Math.min(data.length, (sequence + 1) * CHUNK));
+        int crc = ChecksumUtil.crc32c(payload);
+        if (corrupt) {
+            payload[0] ^= 1;
+        }
+        Message chunk = new Message(MessageType.FILE_CHUNK, "alice", "bob", "");
+        chunk.setTransferId(transferId);
+        chunk.setChunkData(sequence, payload);
+        chunk.setChunkChecksum(crc);
+        return chunk;
+    }
+
+    private Message nextAck() throws InterruptedException {
+        Message ack = acks.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull("Expected a FILE_ACK", ack);
+        return ack;
+    }
+
+    private int nextChunkAck() throws InterruptedException {
+        Integer sequence = nextAck().getAckSequence();
+        assertNotNull(sequence);
+        return sequence;
+    }
+
+    private Future<Void> receiveAsync(Message meta) {
+        return threads.submit(() -> {
+            receiver.receive(meta, target);
+            return null;
+        });
+    }
+
+    private static void await(Future<Void> receive) throws Exception {
+        receive.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static IOException failure(Future<Void> receive) throws Exception {
+        try {
+            receive.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            return (IOException) e.getCause();
+        }
+        fail("Expected receive to fail");
+        return null;
+    }
+
+    @Test
+    public void corruptChunkIsNotAcknowledgedAndResentChunkCompletesFile() throws Exception {
+        Future<Void> receive = receiveAsync(meta("t1"));
+        Message accept = nextAck();
+        assertTrue(accept.isFileAccepted());
+        assertEquals(0, accept.getResumeFrom());
+
+        receiver.onChunk(chunk("t1", 0, false));
+        assertEquals(0, nextChunkAck());
+        receiver.onChunk(chunk("t1", 1, true));
+        receiver.onChunk(chunk("t1", 2, false));
+        // Chunk 1 hỏng bị bỏ - ACK cumulative vẫn dừng ở 0
+        assertEquals(0, nextChunkAck());
+        assertNull(acks.poll(200, TimeUnit.MILLISECONDS));
+
+        receiver.onChunk(chunk("t1", 1, false));
+        assertEquals(2, nextChunkAck());
+        await(receive);
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void wholeFileChecksumMismatchDeletesTarget() throws Exception {
+        String wrong = ChecksumUtil.calculate(folder.newFile("empty"), ChecksumUtil.Algorithm.SHA_256);
+        Future<Void> receive = receiveAsync(meta("t1", wrong));
+        nextAck();
+        for (int sequence = 0; sequence < 3; sequence++) {
+            receiver.onChunk(chunk("t1", sequence, false));
+        }
+        assertEquals("Checksum mismatch", failure(receive).getMessage());
+        assertFalse(target.exists());
+    }
+
+    @Test
+    public void reofferResumesChunkTransferFromFirstMissingChunk() throws Exception {
+        Message first = meta("t1");
+        Future<Void> interrupted = receiveAsync(first);
+        nextAck();
+        receiver.onChunk(chunk("t1", 0, false));
+        receiver.onChunk(chunk("t1", 1, false));
+        assertEquals(0, nextChunkAck());
+        assertEquals(1, nextChunkAck());
+        assertEquals(target, receiver.resumeTarget(first));
+
+        // Sender mất kết nối và offer lại cùng file
+        Message second = meta("t2", first.getChecksum());
+        Future<Void> resumed = receiveAsync(second);
+        failure(interrupted);
+        Message accept = nextAck();
+        assertTrue(accept.isFileAccepted());
+        assertEquals(2, accept.getResumeFrom());
+
+        receiver.onChunk(chunk("t2", 2, false));
+        assertEquals(2, nextChunkAck());
+        await(resumed);
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void interruptedRelayTransferResumesFromLastFullChunk() throws Exception {
+        try (ServerSocket relay = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Message first = meta("t1");
+            first.setRelayEndpoint("token", relay.getLocalPort());
+            Future<Void> interrupted = receiveAsync(first);
+            assertTrue(nextAck().isFileAccepted());
+
+            // Relay ngắt sau 1.5 chunks
+            try (Socket peer = relay.accept()) {
+                RelayHandshake hello = RelayHandshake.read(peer.getInputStream());
+                assertEquals(RelayHandshake.ROLE_RECEIVER, hello.role);
+                assertEquals("token", hello.token);
+                peer.getOutputStream().write(data, 0, CHUNK + CHUNK / 2);
+            }
+            failure(interrupted);
+
+            Message second = meta("t2", first.getChecksum());
+            second.setRelayEndpoint("token2", relay.getLocalPort());
+            Future<Void> resumed = receiveAsync(second);
+            Message accept = nextAck();
+            assertEquals(1, accept.getResumeFrom());
+
+            try (Socket peer = relay.accept()) {
+                RelayHandshake.read(peer.getInputStream());
+                peer.getOutputStream().write(data, CHUNK, data.length - CHUNK);
+                await(resumed);
+            }
+        }
+        assertArrayEquals(data, Files.readAllBytes(target.toPath()));
+    }
+}
@@ -0,0 +1,294 @@
+package client.service;
+
+import client.core.ChatClient;
+import common.protocol.FrameCodec;
+import common.protocol.Message;
+import common.protocol.MessageType;
+import common.protocol.ProtocolConstants;
+import common.util.ChecksumUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * FileSenderTest - Sliding window (Go-Back-N) của đường FILE_CHUNK: tối đa
+ * window chunks chưa ACK, cumulative ACK mở window, timeout gửi lại từ
+ * chunk chưa ACK đầu tiên, resume và bỏ cuộc khi receiver im lặng
+ *
+ * Fake server trên loopback chấp nhận CONNECT của ChatClient và giữ lại
+ * FILE_META / FILE_CHUNK sender gửi; test đóng vai receiver bằng cách gọi
+ * onFileAck như network listener.
+ */
+public class FileSenderTest {
+
+    private static final int CHUNK = ProtocolConstants.CHUNK_SIZE;
+    private static final int CHUNKS = 11;
+    private static final int WINDOW = 4;
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final long QUIET_MS = 300;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerSocket server;
+    private final BlockingQueue<Message> metas = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Message> chunks = new LinkedBlockingQueue<>();
+    private ExecutorService threads;
+    private ChatClient client;
+    private FileSender sender;
+    private byte[] data;
+    private File source;
+
+    @Before
+    public void setUp() throws Exception {
+        threads = Executors.newCachedThreadPool();
+        server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        threads.execute(this::serve);
+        client = new ChatClient(server.getInetAddress().getHostAddress(), server.getLocalPort(), "alice");
+        sender = new FileSender(client, WINDOW);
+
+        // Chunk cuối không đầy
+        data = new byte[(CHUNKS - 1) * CHUNK + CHUNK / 3];
+        new Random(11).nextBytes(data);
+        source = folder.newFile("data.bin");
+        Files.write(source.toPath(), data);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.disconnect();
+        server.close();
+        threads.shutdownNow();
+    }
+
+    /**
+     * Fake chat server - ACCEPT (giữ Java serialization) rồi thu FILE_META / FILE_CHUNK
+     */
+    private void serve() {
+        try (Socket socket = server.accept()) {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            FrameCodec.readMessage(in, FrameCodec.JAVA);
+            FrameCodec.writeFrame(out, FrameCodec.JAVA.encode(new Message(MessageType.ACCEPT, "SERVER", "alice", "")));
+            out.flush();
+            while (true) {
+                Message msg = FrameCodec.readMessage(in, FrameCodec.JAVA);
+                if (msg.getType() == MessageType.FILE_META) {
+                    metas.add(msg);
+                } else if (msg.getType() == MessageType.FILE_CHUNK) {
+                    chunks.add(msg);
+                }
+            }
+        } catch (IOException e) {
+            // Client disconnected
+        }
+    }
+
+    private Future<Void> sendAsync() {
+        return threads.submit(() -> {
+            sender.sendFile(source, "bob");
+            return null;
+        });
+    }
+
+    /**
+     * Đợi FILE_META rồi trả lời accept (không có relay - đường FILE_CHUNK)
+     * @return transferId
+     */
+    private String accept(int resumeFrom) throws InterruptedException {
+        Message meta = metas.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull("Expected FILE_META", meta);
+        assertEquals(data.length, (long) meta.getFileSize());
+        Message ack = new Message(MessageType.FILE_ACK, "bob", "alice", "");
+        ack.setTransferId(meta.getTransferId());
+        ack.setFileAccepted(true);
+        ack.setResumeFrom(resumeFrom);
+        sender.onFileAck(ack);
+        return meta.getTransferId();
+    }
+
+    private void ack(String transferId, int sequence) {
+        Message ack = new Message(MessageType.FILE_ACK, "bob", "alice", "");
+        ack.setTransferId(transferId);
+        ack.setAckSequence(sequence);
+        sender.onFileAck(ack);
+    }
+
+    private Message nextChunk() throws InterruptedException {
+        Message chunk = chunks.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull("Expected a FILE_CHUNK", chunk);
+        return chunk;
+    }
+
+    /**
+     * count chunks tiếp theo, rồi không có gì thêm - window đã đầy
+     */
+    private List<Integer> nextSequences(int count) throws InterruptedException {
+        List<Integer> sequences = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            sequences.add(nextChunk().getSequence());
+        }
+        assertNull("Sender exceeded its window", chunks.poll(QUIET_MS, TimeUnit.MILLISECONDS));
+        return sequences;
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> sequences = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            sequences.add(i);
+        }
+        return sequences;
+    }
+
+    private static void await(Future<Void> send) throws Exception {
+        send.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void windowLimitsChunksInFlightAndAcksOpenIt() throws Exception {
+        Future<Void> send = sendAsync();
+        String id = accept(0);
+
+        assertEquals(range(0, WINDOW), nextSequences(WINDOW));
+        ack(id, 1);
+        assertEquals(range(WINDOW, WINDOW + 2), nextSequences(2));
+
+        // ACK cũ / trùng không mở thêm window
+        ack(id, 0);
+        ack(id, 1);
+        assertNull(chunks.poll(QUIET_MS, TimeUnit.MILLISECONDS));
+
+        // Cumulative ACK nhảy qua nhiều chunks
+        ack(id, 5);
+        assertEquals(range(6, 10), nextSequences(4));
+        ack(id, 9);
+        assertEquals(range(10, CHUNKS), nextSequences(1));
+        ack(id, CHUNKS - 1);
+        await(send);
+    }
+
+    @Test
+    public void chunksCarryPayloadAndCrc() throws Exception {
+        Future<Void> send = sendAsync();
+        String id = accept(0);
+
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        for (int sequence = 0; sequence < CHUNKS; sequence++) {
+            Message chunk = nextChunk();
+            assertEquals(sequence, (int) chunk.getSequence());
+            assertEquals(id, chunk.getTransferId());
+            byte[] payload = chunk.getData();
+            assertEquals(ChecksumUtil.crc32c(payload), (int) chunk.getChunkChecksum());
+            received.write(payload);
+            ack(id, sequence);
+        }
+        await(send);
+        assertArrayEquals(data, received.toByteArray());
+    }
+
+    @Test
+    public void timeoutResendsFromFirstUnackedChunk() throws Exception {
+        Future<Void> send = sendAsync();
+        String id = accept(0);
+
+        assertEquals(range(0, WINDOW), nextSequences(WINDOW));
+        ack(id, 1);
+        assertEquals(range(WINDOW, WINDOW + 2), nextSequences(2));
+
+        // Chunks 2..5 bị drop - sau FILE_RETRANSMIT_TIMEOUT cả window được gửi lại
+        long begin = System.currentTimeMillis();
+        assertEquals(range(2, 2 + WINDOW), nextSequences(WINDOW));
+        assertTrue(System.currentTimeMillis() - begin >= ProtocolConstants.FILE_RETRANSMIT_TIMEOUT - 2 * QUIET_MS);
+
+        ack(id, CHUNKS - 1);
+        await(send);
+    }
+
+    @Test
+    public void resumeStartsAtRequestedChunk() throws Exception {
+        Future<Void> send = sendAsync();
+        String id = accept(7);
+
+        Message first = nextChunk();
+        assertEquals(7, (int) first.getSequence());
+        assertArrayEquals(Arrays.copyOfRange(data, 7 * CHUNK, 8 * CHUNK), first.getData());
+        assertEquals(range(8, CHUNKS), nextSequences(CHUNKS - 8));
+        ack(id, CHUNKS - 1);
+        await(send);
+    }
+
+    @Test
+    public void declinedOfferFails() throws Exception {
+        Future<Void> send = sendAsync();
+        Message meta = metas.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull(meta);
+        Message decline = new Message(MessageType.FILE_ACK, "bob", "alice", "Busy");
+        decline.setTransferId(meta.getTransferId());
+        decline.setFileAccepted(false);
+        sender.onFileAck(decline);
+
+        try {
+            await(send);
+            fail("Expected sendFile to fail");
+        } catch (ExecutionException e) {
+            assertEquals("Declined: Busy", e.getCause().getMessage());
+        }
+        assertNull(chunks.poll(QUIET_MS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void silentReceiverGivesUpAfterMaxRetries() throws Exception {
+        Future<Void> send = sendAsync();
+        accept(0);
+
+        // Lần gửi đầu + MAX_RETRY_ATTEMPTS lần gửi lại cùng window
+        long timeout = (long) (ProtocolConstants.MAX_RETRY_ATTEMPTS + 2) * ProtocolConstants.FILE_RETRANSMIT_TIMEOUT;
+        try {
+            send.get(timeout, TimeUnit.MILLISECONDS);
+            fail("Expected sendFile to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+            assertEquals("Receiver stopped acknowledging at chunk 0/" + CHUNKS, e.getCause().getMessage());
+        }
+        List<Integer> sent = new ArrayList<>();
+        for (Message chunk : chunks) {
+            sent.add(chunk.getSequence());
+        }
+        List<Integer> expected = new ArrayList<>();
+        for (int round = 0; round <= ProtocolConstants.MAX_RETRY_ATTEMPTS; round++) {
+            expected.addAll(range(0, WINDOW));
+        }
+        assertEquals(expected, sent);
+    }
+}
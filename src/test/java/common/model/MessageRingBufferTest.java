@@ -0,0 +1,114 @@
+package common.model;
+
+import common.protocol.EncodedMessage;
+import common.protocol.Message;
+import common.protocol.MessageType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MessageRingBufferTest - Wraparound, giới hạn count / end và concurrent writers
+ */
+public class MessageRingBufferTest {
+
+    private static EncodedMessage message(String content) {
+        return EncodedMessage.of(new Message(MessageType.CHAT, "alice", content));
+    }
+
+    private static List<String> contents(List<EncodedMessage> messages) {
+        List<String> contents = new ArrayList<>();
+        for (EncodedMessage message : messages) {
+            contents.add(message.getMessage().getContent());
+        }
+        return contents;
+    }
+
+    private static MessageRingBuffer filled(int capacity, int count) {
+        MessageRingBuffer buffer = new MessageRingBuffer(capacity);
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, buffer.add(message("m" + i)));
+        }
+        return buffer;
+    }
+
+    @Test
+    public void latestBeforeWraparound() {
+        MessageRingBuffer buffer = filled(4, 3);
+        assertEquals(List.of("m0", "m1", "m2"), contents(buffer.latest(10)));
+        assertEquals(List.of("m1", "m2"), contents(buffer.latest(2)));
+    }
+
+    @Test
+    public void wraparoundKeepsOnlyNewestInOrder() {
+        MessageRingBuffer buffer = filled(4, 10);
+        assertEquals(List.of("m6", "m7", "m8", "m9"), contents(buffer.latest(10)));
+        assertEquals(List.of("m8", "m9"), contents(buffer.latest(2)));
+        assertEquals(10, buffer.getTotalAdded());
+    }
+
+    @Test
+    public void latestUpToCapturedSequence() {
+        MessageRingBuffer buffer = filled(4, 6);
+        long mark = buffer.getTotalAdded();
+        buffer.add(message("m6"));
+        buffer.add(message("m7"));
+        // Messages sau mark không có trong backfill; m4 / m5 vẫn còn trong buffer
+        assertEquals(List.of("m4", "m5"), contents(buffer.latest(10, mark)));
+        assertEquals(List.of("m5"), contents(buffer.latest(1, mark)));
+    }
+
+    @Test
+    public void latestSkipsSequencesAlreadyOverwritten() {
+        MessageRingBuffer buffer = filled(4, 3);
+        long mark = buffer.getTotalAdded();
+        for (int i = 3; i < 9; i++) {
+            buffer.add(message("m" + i));
+        }
+        // Mọi slot của m0..m2 đã bị ghi đè
+        assertTrue(buffer.latest(10, mark).isEmpty());
+    }
+
+    @Test
+    public void endBeyondTotalIsClamped() {
+        MessageRingBuffer buffer = filled(4, 2);
+        assertEquals(List.of("m0", "m1"), contents(buffer.latest(10, 100)));
+    }
+
+    @Test
+    public void concurrentWritersKeepSequenceCount() throws InterruptedException {
+        int writers = 4;
+        int perWriter = 5000;
+        MessageRingBuffer buffer = new MessageRingBuffer(64);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < writers; w++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perWriter; i++) {
+                    buffer.add(message("m"));
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        while (threads.stream().anyMatch(Thread::isAlive)) {
+            assertTrue(buffer.latest(64).size() <= 64);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(writers * perWriter, buffer.getTotalAdded());
+        assertEquals(64, buffer.latest(100).size());
+    }
+}
@@ -0,0 +1,162 @@
+package common.protocol;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Date;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * MessageCodecTest - Round-trip của hai codecs, framing và codec negotiation
+ */
+public class MessageCodecTest {
+
+    private static Message sample() {
+        Message msg = new Message(MessageType.CHAT, "alice", "bob", "xin chào 👋");
+        // Binary codec giữ timestamp tới millisecond
+        msg.setTimestamp(LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS));
+        msg.putMetadata("room", "dev");
+        msg.putMetadata("sequence", -42);
+        msg.putMetadata("fileSize", 5_000_000_000L);
+        msg.putMetadata("accepted", true);
+        msg.putMetadata("data", new byte[] { 0, 1, (byte) 0xff });
+        msg.putMetadata("ratio", 0.25);
+        msg.putMetadata("empty", null);
+        return msg;
+    }
+
+    private static Message roundTrip(MessageCodec codec, Message msg) throws IOException {
+        byte[] frame = codec.encode(msg);
+        return codec.decode(frame, ProtocolConstants.FRAME_HEADER_SIZE,
+                frame.length - ProtocolConstants.FRAME_HEADER_SIZE);
+    }
+
+    private static void assertSameMessage(Message expected, Message actual) {
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getSender(), actual.getSender());
+        assertEquals(expected.getReceiver(), actual.getReceiver());
+        assertEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getMetadata().keySet(), actual.getMetadata().keySet());
+        for (String key : expected.getMetadata().keySet()) {
+            Object value = expected.getMetadata(key);
+            if (value instanceof byte[]) {
+                assertArrayEquals(key, (byte[]) value, (byte[]) actual.getMetadata(key));
+            } else {
+                assertEquals(key, value, actual.getMetadata(key));
+            }
+        }
+    }
+
+    @Test
+    public void binaryRoundTripKeepsFieldsAndMetadataTypes() throws IOException {
+        Message msg = sample();
+        assertSameMessage(msg, roundTrip(FrameCodec.BINARY, msg));
+    }
+
+    @Test
+    public void javaRoundTripKeepsFieldsAndMetadata() throws IOException {
+        Message msg = sample();
+        assertSameMessage(msg, roundTrip(FrameCodec.JAVA, msg));
+    }
+
+    @Test
+    public void frameHeaderIsPayloadLength() throws IOException {
+        for (MessageCodec codec : new MessageCodec[] { FrameCodec.BINARY, FrameCodec.JAVA }) {
+            byte[] frame = codec.encode(sample());
+            int length = ByteBuffer.wrap(frame).getInt();
+            assertEquals(codec.getName(), frame.length - ProtocolConstants.FRAME_HEADER_SIZE, length);
+        }
+    }
+
+    @Test
+    public void readMessageReadsConsecutiveFrames() throws IOException {
+        Message first = sample();
+        Message second = new Message(MessageType.DISCONNECT, "alice", "bye");
+        byte[] a = FrameCodec.BINARY.encode(first);
+        byte[] b = FrameCodec.BINARY.encode(second);
+        byte[] stream = new byte[a.length + b.length];
+        System.arraycopy(a, 0, stream, 0, a.length);
+        System.arraycopy(b, 0, stream, a.length, b.length);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(stream));
+        assertSameMessage(first, FrameCodec.readMessage(in, FrameCodec.BINARY));
+        assertEquals(MessageType.DISCONNECT, FrameCodec.readMessage(in, FrameCodec.BINARY).getType());
+    }
+
+    @Test
+    public void frameBuilderGrowsPastInitialSize() throws IOException {
+        // Payload lớn hơn nhiều lần initial size của builder (64 / 256 bytes)
+        Message msg = sample();
+        msg.putMetadata("data", new byte[100_000]);
+        for (MessageCodec codec : new MessageCodec[] { FrameCodec.BINARY, FrameCodec.JAVA }) {
+            assertSameMessage(msg, roundTrip(codec, msg));
+        }
+    }
+
+    @Test
+    public void messageLargerThanMaxSizeFailsToEncode() {
+        Message msg = new Message(MessageType.CHAT, "alice", "");
+        msg.putMetadata("data", new byte[ProtocolConstants.MAX_MESSAGE_SIZE]);
+        try {
+            FrameCodec.BINARY.encode(msg);
+            fail("Expected IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Message too large"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void oversizedFrameLengthIsRejected() throws IOException {
+        FrameCodec.checkLength(ProtocolConstants.MAX_MESSAGE_SIZE + 1);
+    }
+
+    @Test
+    public void negotiatePicksFirstSupportedCodec() {
+        assertSame(FrameCodec.BINARY, FrameCodec.negotiate(FrameCodec.SUPPORTED_CODECS));
+        assertSame(FrameCodec.BINARY, FrameCodec.negotiate("zstd, binary, java"));
+        assertSame(FrameCodec.JAVA, FrameCodec.negotiate("java,binary"));
+    }
+
+    @Test
+    public void negotiateFallsBackToJava() {
+        assertSame(FrameCodec.JAVA, FrameCodec.negotiate(null));
+        assertSame(FrameCodec.JAVA, FrameCodec.negotiate(""));
+        assertSame(FrameCodec.JAVA, FrameCodec.negotiate("zstd"));
+        assertSame(FrameCodec.JAVA, FrameCodec.forName("zstd"));
+    }
+
+    @Test
+    public void unsupportedMetadataIsFoundBeforeEncoding() {
+        Message msg = sample();
+        assertNull(BinaryMessageCodec.findUnsupportedMetadata(msg));
+        msg.putMetadata("messageId", new Date());
+        assertEquals("messageId", BinaryMessageCodec.findUnsupportedMetadata(msg));
+    }
+
+    @Test
+    public void unencodableMessageFailsOnlyForThatCodec() throws IOException {
+        Message msg = sample();
+        msg.putMetadata("messageId", new Date());
+        EncodedMessage encoded = EncodedMessage.of(msg);
+        try {
+            encoded.frame(FrameCodec.BINARY);
+            fail("Binary codec cannot encode a Date");
+        } catch (MessageEncodingException e) {
+            assertTrue(e.getMessage().contains(BinaryMessageCodec.NAME));
+        }
+        // Java serialization vẫn encode được cùng message
+        assertTrue(encoded.frame(FrameCodec.JAVA).remaining() > ProtocolConstants.FRAME_HEADER_SIZE);
+    }
+}
@@ -0,0 +1,248 @@
+package server.bus;
+
+import common.protocol.EncodedMessage;
+import common.protocol.Message;
+import common.protocol.MessageType;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * MessageBusTest - Username namespace chung giữa các transports, và mỗi
+ * adapter nhận mỗi message một lần kèm toàn bộ recipients của nó
+ */
+public class MessageBusTest {
+
+    private final MessageBus bus = new MessageBus();
+    private final RecordingAdapter tcp = new RecordingAdapter("tcp");
+    private final RecordingAdapter websocket = new RecordingAdapter("websocket");
+
+    /**
+     * Adapter ghi lại mỗi lần deliver (message content, recipients)
+     */
+    private static class RecordingAdapter implements TransportAdapter {
+
+        private final String name;
+        final List<String> contents = new ArrayList<>();
+        final List<Set<Subscriber>> recipients = new ArrayList<>();
+        volatile boolean failing;
+
+        RecordingAdapter(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public synchronized void deliver(EncodedMessage msg, Collection<Subscriber> to) {
+            if (failing) {
+                throw new IllegalStateException(name + " down");
+            }
+            contents.add(msg.getMessage().getContent());
+            recipients.add(new HashSet<>(to));
+        }
+
+        @Override
+        public void deliverPresenceSnapshot(Subscriber target, Collection<String> usernames, long version) {
+        }
+    }
+
+    /**
+     * Subscriber tối thiểu - username có thể được gán sau khi claim
+     */
+    private static final class TestSubscriber implements Subscriber {
+
+        volatile String username;
+        private final TransportAdapter transport;
+
+        TestSubscriber(String username, TransportAdapter transport) {
+            this.username = username;
+            this.transport = transport;
+        }
+
+        @Override
+        public String getUsername() {
+            return username;
+        }
+
+        @Override
+        public TransportAdapter getTransport() {
+            return transport;
+        }
+    }
+
+    private TestSubscriber join(String username, TransportAdapter transport) {
+        TestSubscriber subscriber = new TestSubscriber(username, transport);
+        assertTrue(bus.claim(subscriber));
+        bus.subscribe(subscriber);
+        return subscriber;
+    }
+
+    private static EncodedMessage chat(String content) {
+        return EncodedMessage.of(new Message(MessageType.CHAT, "alice", content));
+    }
+
+    private static Set<Subscriber> setOf(Subscriber... subscribers) {
+        return new HashSet<>(Arrays.asList(subscribers));
+    }
+
+    @Test
+    public void namesAreCaseInsensitiveAcrossTransports() {
+        TestSubscriber alice = join("alice", tcp);
+
+        assertFalse(bus.claim(new TestSubscriber("Alice", websocket)));
+        assertFalse(bus.claim("ALICE", new TestSubscriber(null, websocket)));
+        assertTrue(bus.isTaken("aLiCe"));
+        assertFalse(bus.isTaken(null));
+        assertSame(alice, bus.getSubscriber("ALICE"));
+        assertNull(bus.getSubscriber("bob"));
+        assertEquals(1, bus.getUserCount());
+    }
+
+    @Test
+    public void concurrentClaimsHaveOneWinner() throws InterruptedException {
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger winners = new AtomicInteger();
+        List<Thread> claimers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            TestSubscriber subscriber = new TestSubscriber(i % 2 == 0 ? "bob" : "BOB", i % 2 == 0 ? tcp : websocket);
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (bus.claim(subscriber)) {
+                    winners.incrementAndGet();
+                }
+            });
+            thread.start();
+            claimers.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : claimers) {
+            thread.join();
+        }
+        assertEquals(1, winners.get());
+    }
+
+    @Test
+    public void pendingClaimIsTakenButNotListed() {
+        join("alice", tcp);
+        TestSubscriber pending = new TestSubscriber(null, websocket);
+        assertTrue(bus.claim("carol", pending));
+
+        assertTrue(bus.isTaken("carol"));
+        assertEquals(2, bus.getUserCount());
+        assertEquals(List.of("alice"), bus.getUsernames());
+        assertTrue(bus.getSubscribers(websocket).isEmpty());     // Claim chưa subscribe
+
+        pending.username = "carol";
+        assertEquals(new HashSet<>(List.of("alice", "carol")), new HashSet<>(bus.getUsernames()));
+    }
+
+    @Test
+    public void unsubscribeReleasesOnlyTheOwnersName() {
+        TestSubscriber alice = join("alice", tcp);
+        TestSubscriber impostor = new TestSubscriber("Alice", websocket);
+        bus.subscribe(impostor);
+
+        assertFalse(bus.unsubscribe(impostor));
+        assertTrue(bus.isTaken("alice"));
+        assertTrue(bus.unsubscribe(alice));
+        assertFalse(bus.isTaken("alice"));
+        assertFalse(bus.unsubscribe(alice));
+        assertTrue(bus.getSubscribers(tcp).isEmpty());
+    }
+
+    @Test
+    public void publishCallsEachAdapterOnceWithAllItsRecipients() {
+        TestSubscriber alice = join("alice", tcp);
+        TestSubscriber bob = join("bob", tcp);
+        TestSubscriber carol = join("carol", websocket);
+        assertTrue(bus.claim(new TestSubscriber("dave", websocket)));   // Chưa subscribe
+
+        bus.publish(chat("hello"));
+
+        assertEquals(List.of("hello"), tcp.contents);
+        assertEquals(List.of(setOf(alice, bob)), tcp.recipients);
+        assertEquals(List.of("hello"), websocket.contents);
+        assertEquals(List.of(setOf(carol)), websocket.recipients);
+    }
+
+    @Test
+    public void adapterWithoutSubscribersIsSkipped() {
+        TestSubscriber alice = join("alice", tcp);
+        join("bob", websocket);
+        bus.unsubscribe(alice);
+
+        bus.publish(chat("hello"));
+
+        assertTrue(tcp.contents.isEmpty());
+        assertEquals(List.of("hello"), websocket.contents);
+    }
+
+    @Test
+    public void publishAllKeepsOrderAndBatchOverride() {
+        List<List<String>> batches = new ArrayList<>();
+        RecordingAdapter grpc = new RecordingAdapter("grpc") {
+            @Override
+            public void deliverAll(List<EncodedMessage> msgs, Collection<Subscriber> to) {
+                List<String> batch = new ArrayList<>();
+                msgs.forEach(msg -> batch.add(msg.getMessage().getContent()));
+                batches.add(batch);
+            }
+        };
+        join("alice", tcp);
+        join("bob", grpc);
+
+        bus.publishAll(List.of(chat("1"), chat("2"), chat("3")));
+
+        assertEquals(List.of("1", "2", "3"), tcp.contents);
+        assertEquals(List.of(List.of("1", "2", "3")), batches);
+        assertTrue(grpc.contents.isEmpty());
+    }
+
+    @Test
+    public void failingAdapterDoesNotBlockOtherTransports() {
+        join("alice", tcp);
+        join("bob", websocket);
+        tcp.failing = true;
+
+        bus.publish(chat("one"));
+        bus.publishAll(List.of(chat("two"), chat("three")));
+
+        assertEquals(List.of("one", "two", "three"), websocket.contents);
+        assertTrue(tcp.contents.isEmpty());
+    }
+
+    @Test
+    public void sendToUsesTheTargetsTransport() {
+        join("alice", tcp);
+        TestSubscriber bob = join("Bob", websocket);
+
+        assertTrue(bus.sendTo("bob", chat("hi bob")));
+        assertFalse(bus.sendTo("nobody", chat("lost")));
+
+        assertTrue(tcp.contents.isEmpty());
+        assertEquals(List.of("hi bob"), websocket.contents);
+        assertEquals(List.of(setOf(bob)), websocket.recipients);
+    }
+}
@@ -0,0 +1,212 @@
+package server.core;
+
+import common.protocol.FrameCodec;
+import common.protocol.Message;
+import common.protocol.MessageType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import server.config.ServerConfig;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ClientHandlerTest - Writer của blocking transport ghi mỗi batch bằng một
+ * socket write, kể cả khi batch lớn hơn BUFFER_SIZE
+ */
+public class ClientHandlerTest {
+
+    private static final long TIMEOUT_MS = 10000;
+    private static final long LINGER_MICROS = 200000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerContext context;
+    private RecordingSocket socket;
+    private Thread handlerThread;
+
+    /**
+     * Socket không có mạng - input từ pipe, mỗi write() vào output được giữ riêng
+     */
+    private static final class RecordingSocket extends Socket {
+
+        final PipedOutputStream client = new PipedOutputStream();
+        private final PipedInputStream in;
+        final List<byte[]> writes = new ArrayList<>();
+        private volatile boolean closed;
+
+        RecordingSocket() throws IOException {
+            in = new PipedInputStream(client, 64 * 1024);
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    synchronized (writes) {
+                        writes.add(Arrays.copyOfRange(b, off, off + len));
+                        writes.notifyAll();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void setSoTimeout(int timeout) {
+        }
+
+        @Override
+        public SocketAddress getRemoteSocketAddress() {
+            return new InetSocketAddress("127.0.0.1", 40000);
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            client.close();
+        }
+
+        int writeCount() {
+            synchronized (writes) {
+                return writes.size();
+            }
+        }
+
+        /**
+         * Chờ đến khi có ít nhất count writes
+         */
+        void awaitWrites(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            synchronized (writes) {
+                while (writes.size() < count && System.currentTimeMillis() < deadline) {
+                    writes.wait(100);
+                }
+                assertTrue("Expected " + count + " writes, got " + writes.size(), writes.size() >= count);
+            }
+        }
+
+        List<byte[]> writesFrom(int index) {
+            synchronized (writes) {
+                return new ArrayList<>(writes.subList(index, writes.size()));
+            }
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        File config = folder.newFile("server.properties");
+        Files.write(config.toPath(), ("outbound.batch.linger.micros=" + LINGER_MICROS + "\n"
+                + "history.enabled=false\n"
+                + "file.relay.enabled=false\n").getBytes());
+        context = new ServerContext(ServerConfig.loadFromFile(config.getPath()));
+        socket = new RecordingSocket();
+        handlerThread = new Thread(new ClientHandler(socket, context), "test-handler");
+        handlerThread.start();
+
+        ByteArrayOutputStream hello = new ByteArrayOutputStream();
+        FrameCodec.writeFrame(hello, FrameCodec.JAVA.encode(new Message(MessageType.CONNECT, "alice", "")));
+        socket.client.write(hello.toByteArray());
+        socket.client.flush();
+
+        // ACCEPT và lobby snapshot đi trong batch đầu tiên
+        socket.awaitWrites(1);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (context.getHandler("alice") == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(LINGER_MICROS / 1000 * 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        socket.close();
+        handlerThread.join(TIMEOUT_MS);
+        context.stop();
+    }
+
+    private static List<Message> decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        List<Message> messages = new ArrayList<>();
+        while (in.available() > 0) {
+            messages.add(FrameCodec.readMessage(in, FrameCodec.JAVA));
+        }
+        return messages;
+    }
+
+    @Test
+    public void batchLargerThanStreamBufferIsOneWrite() throws Exception {
+        ClientConnection alice = context.getHandler("alice");
+        char[] padding = new char[1024];
+        Arrays.fill(padding, 'x');
+        int before = socket.writeCount();
+
+        // 20 x ~1KB trong linger window - một batch khoảng 20KB
+        for (int i = 0; i < 20; i++) {
+            alice.send(new Message(MessageType.SERVER, "SERVER", "alice", "m" + i + ":" + new String(padding)));
+        }
+        socket.awaitWrites(before + 1);
+        Thread.sleep(LINGER_MICROS / 1000 * 2);
+
+        List<byte[]> writes = socket.writesFrom(before);
+        assertEquals(1, writes.size());
+        assertTrue(writes.get(0).length > 20 * 1024);
+        List<Message> messages = decode(writes.get(0));
+        assertEquals(20, messages.size());
+        for (int i = 0; i < 20; i++) {
+            assertTrue(messages.get(i).getContent().startsWith("m" + i + ":"));
+        }
+    }
+
+    @Test
+    public void eachBatchIsWrittenSeparately() throws Exception {
+        ClientConnection alice = context.getHandler("alice");
+        int before = socket.writeCount();
+
+        alice.send(new Message(MessageType.SERVER, "SERVER", "alice", "first"));
+        socket.awaitWrites(before + 1);
+        alice.send(new Message(MessageType.SERVER, "SERVER", "alice", "second"));
+        socket.awaitWrites(before + 2);
+
+        List<byte[]> writes = socket.writesFrom(before);
+        assertEquals(2, writes.size());
+        assertEquals("first", decode(writes.get(0)).get(0).getContent());
+        assertEquals("second", decode(writes.get(1)).get(0).getContent());
+    }
+}
@@ -0,0 +1,228 @@
+package server.core;
+
+import common.protocol.FrameCodec;
+import common.protocol.Message;
+import common.protocol.MessageType;
+import server.config.ServerConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * ConnectionMemoryBenchmark - Chi phí bộ nhớ mỗi TCP connection theo
+ * executor mode (server.executor) hoặc NIO transport
+ *
+ * Mở N connections đã CONNECT vào một server in-process rồi so sánh heap
+ * used, RSS của process và số platform threads trước / sau. Blocking
+ * transport tốn hai tasks mỗi connection (reader + writeLoop): với cached
+ * đó là hai OS threads (stack native, thấy trong RSS), với virtual chỉ
+ * là stack chunks trên heap.
+ *
+ * Clients chạy trong cùng JVM nhưng chỉ dùng một selector thread để đọc
+ * bỏ (presence deltas, pings) - phần của clients như nhau ở mọi mode.
+ * Mỗi mode chạy trong một JVM riêng để RSS không lẫn nhau:
+ *
+ *   mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ *   java -cp target/classes:target/test-classes:$(cat target/cp.txt) \
+ *       server.core.ConnectionMemoryBenchmark cached|virtual|nio [connections]
+ *
+ * virtual cần Java 21+ (trên runtime cũ hơn server fallback về cached).
+ */
+public class ConnectionMemoryBenchmark {
+
+    private static final long ESTABLISH_TIMEOUT_MS = 60000;
+    private static final long SETTLE_MS = 2000;
+
+    private static volatile boolean draining = true;
+
+    public static void main(String[] args) throws Exception {
+        String mode = args.length > 0 ? args[0].toLowerCase() : "cached";
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        boolean nio = mode.equals("nio");
+
+        Path config = Files.createTempFile("bench-server", ".properties");
+        Files.write(config, ("server.executor=" + (nio ? "cached" : mode) + "\n"
+                + "server.socket.timeout=600000\n"
+                + "server.max.clients=" + (connections + 16) + "\n"
+                + "history.enabled=false\n"
+                + "file.relay.enabled=false\n").getBytes());
+        ServerContext context = new ServerContext(ServerConfig.loadFromFile(config.toString()));
+        Files.delete(config);
+        context.start();
+
+        NioTransport transport = null;
+        ServerSocket serverSocket = null;
+        Thread acceptor;
+        int port;
+        if (nio) {
+            transport = new NioTransport(context, context.getConfig().getNioReactors());
+            transport.bind(0, 1024);
+            port = transport.getLocalPort();
+            acceptor = new Thread(transport::acceptLoop, "bench-acceptor");
+        } else {
+            ServerSocket listener = new ServerSocket(0, 1024, InetAddress.getLoopbackAddress());
+            serverSocket = listener;
+            port = listener.getLocalPort();
+            acceptor = new Thread(() -> acceptBlocking(listener, context), "bench-acceptor");
+        }
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        Snapshot before = Snapshot.take();
+
+        Selector selector = Selector.open();
+        Queue<SocketChannel> registrations = new ConcurrentLinkedQueue<>();
+        Thread drainer = new Thread(() -> drain(selector, registrations), "bench-clients");
+        drainer.setDaemon(true);
+        drainer.start();
+
+        List<SocketChannel> clients = new ArrayList<>(connections);
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        for (int i = 0; i < connections; i++) {
+            SocketChannel channel = SocketChannel.open(address);
+            ByteBuffer hello = ByteBuffer.wrap(connectFrame("bench" + i));
+            while (hello.hasRemaining()) {
+                channel.write(hello);
+            }
+            channel.configureBlocking(false);
+            clients.add(channel);
+            registrations.add(channel);
+            selector.wakeup();
+        }
+
+        long deadline = System.currentTimeMillis() + ESTABLISH_TIMEOUT_MS;
+        while (context.getHandlers().size() < connections && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        int established = context.getHandlers().size();
+        Thread.sleep(SETTLE_MS);
+        Snapshot after = Snapshot.take();
+
+        System.out.println();
+        System.out.println("[BENCH] mode " + mode + " (Java " + Runtime.version().feature() + "), "
+                + established + "/" + connections + " connections established");
+        if (established > 0) {
+            System.out.printf("[BENCH] heap used     %8.1f KB/connection%n",
+                    (after.heapUsed - before.heapUsed) / 1024.0 / established);
+            if (before.rss >= 0 && after.rss >= 0) {
+                System.out.printf("[BENCH] process RSS   %8.1f KB/connection%n",
+                        (after.rss - before.rss) / 1024.0 / established);
+            }
+            System.out.printf("[BENCH] OS threads    %8.2f /connection (%d -> %d)%n",
+                    (after.threads - before.threads) / (double) established, before.threads, after.threads);
+        }
+
+        draining = false;
+        selector.wakeup();
+        for (SocketChannel client : clients) {
+            client.close();
+        }
+        if (transport != null) {
+            transport.stop();
+        }
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        context.stop();
+        System.exit(0);
+    }
+
+    /**
+     * Accept loop như ChatServer với blocking transport
+     */
+    private static void acceptBlocking(ServerSocket listener, ServerContext context) {
+        while (!listener.isClosed()) {
+            try {
+                Socket socket = listener.accept();
+                context.getThreadPool().execute(new ClientHandler(socket, context));
+            } catch (IOException e) {
+                // Listener closed
+            }
+        }
+    }
+
+    /**
+     * Selector thread của clients - đọc và bỏ mọi thứ server gửi
+     */
+    private static void drain(Selector selector, Queue<SocketChannel> registrations) {
+        ByteBuffer sink = ByteBuffer.allocateDirect(64 * 1024);
+        try {
+            while (draining) {
+                SocketChannel pending;
+                while ((pending = registrations.poll()) != null) {
+                    pending.register(selector, SelectionKey.OP_READ);
+                }
+                selector.select(100);
+                for (SelectionKey key : selector.selectedKeys()) {
+                    sink.clear();
+                    if (((SocketChannel) key.channel()).read(sink) < 0) {
+                        key.cancel();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            System.err.println("[BENCH] Client selector failed: " + e.getMessage());
+        }
+    }
+
+    private static byte[] connectFrame(String username) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FrameCodec.writeFrame(out, FrameCodec.JAVA.encode(new Message(MessageType.CONNECT, username, "")));
+        return out.toByteArray();
+    }
+
+    /**
+     * Heap used sau GC, RSS (Linux /proc, -1 nếu không có) và số live platform threads
+     */
+    private static final class Snapshot {
+        final long heapUsed;
+        final long rss;
+        final int threads;
+
+        private Snapshot(long heapUsed, long rss, int threads) {
+            this.heapUsed = heapUsed;
+            this.rss = rss;
+            this.threads = threads;
+        }
+
+        static Snapshot take() throws InterruptedException {
+            for (int i = 0; i < 3; i++) {
+                System.gc();
+                Thread.sleep(200);
+            }
+            long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+            return new Snapshot(heap, rss(), threads);
+        }
+
+        private static long rss() {
+            try {
+                for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                    if (line.startsWith("VmRSS:")) {
+                        return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                    }
+                }
+            } catch (IOException | NumberFormatException e) {
+                // Không phải Linux
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package server.core;
+
+import common.protocol.EncodedMessage;
+import common.protocol.Message;
+import common.protocol.MessageType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import server.bus.Subscriber;
+import server.bus.TransportAdapter;
+import server.config.ServerConfig;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CrossTransportTest - TCP connections và subscribers của transport khác
+ * trên cùng ServerContext: lobby chat, private messages và presence đi qua
+ * MessageBus theo cả hai chiều
+ */
+public class CrossTransportTest {
+
+    private ServerContext context;
+    private RemoteAdapter remote;
+
+    /**
+     * Transport khác TCP - giữ (receiver, content) của mỗi message được deliver
+     */
+    private static final class RemoteAdapter implements TransportAdapter {
+
+        final List<String> delivered = new ArrayList<>();
+        List<String> snapshot;
+
+        @Override
+        public String getName() {
+            return "remote";
+        }
+
+        @Override
+        public synchronized void deliver(EncodedMessage msg, Collection<Subscriber> recipients) {
+            for (Subscriber recipient : recipients) {
+                delivered.add(recipient.getUsername() + ":" + msg.getMessage().getContent());
+            }
+        }
+
+        @Override
+        public void deliverPresenceSnapshot(Subscriber target, Collection<String> usernames, long version) {
+            snapshot = new ArrayList<>(usernames);
+        }
+
+        synchronized List<String> take() {
+            List<String> messages = new ArrayList<>(delivered);
+            delivered.clear();
+            return messages;
+        }
+    }
+
+    private static final class RemoteUser implements Subscriber {
+
+        private final String username;
+        private final TransportAdapter transport;
+
+        RemoteUser(String username, TransportAdapter transport) {
+            this.username = username;
+            this.transport = transport;
+        }
+
+        @Override
+        public String getUsername() {
+            return username;
+        }
+
+        @Override
+        public TransportAdapter getTransport() {
+            return transport;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        context = new ServerContext(ServerConfig.createDefault());     // History store không start
+        remote = new RemoteAdapter();
+    }
+
+    @After
+    public void tearDown() {
+        context.stop();
+    }
+
+    private QueuedConnection tcpUser(String username) {
+        QueuedConnection connection = new QueuedConnection(context, username);
+        assertTrue(context.getMessageBus().claim(connection));
+        context.getRoomService().joinLobby(connection);
+        connection.drain();
+        return connection;
+    }
+
+    private RemoteUser remoteUser(String username) {
+        RemoteUser user = new RemoteUser(username, remote);
+        assertTrue(context.getMessageBus().claim(user));
+        context.getMessageBus().subscribe(user);
+        return user;
+    }
+
+    private static List<String> contents(QueuedConnection connection) {
+        List<String> contents = new ArrayList<>();
+        for (Message message : connection.drain()) {
+            contents.add(message.getContent());
+        }
+        return contents;
+    }
+
+    @Test
+    public void lobbyChatReachesEveryTransport() {
+        QueuedConnection alice = tcpUser("alice");
+        RemoteUser bob = remoteUser("bob");
+        remoteUser("carol");
+
+        context.getMessageRouter().routeChat(new Message(MessageType.CHAT, "bob", "from remote"), bob);
+        context.getMessageRouter().routeChat(new Message(MessageType.CHAT, "alice", "from tcp"), null);
+
+        assertEquals(List.of("from remote", "from tcp"), contents(alice));
+        List<String> delivered = remote.take();
+        assertEquals(4, delivered.size());
+        assertTrue(delivered.containsAll(List.of("bob:from remote", "carol:from remote",
+                "bob:from tcp", "carol:from tcp")));
+    }
+
+    @Test
+    public void privateMessagesCrossTransportsBothWays() {
+        QueuedConnection alice = tcpUser("alice");
+        RemoteUser bob = remoteUser("Bob");
+
+        Message toTcp = new Message(MessageType.PRIVATE, "Bob", "ALICE", "hi alice");
+        assertTrue(context.getMessageRouter().routePrivate(toTcp, bob));
+        Message toRemote = new Message(MessageType.PRIVATE, "alice", "bob", "hi bob");
+        assertTrue(context.getMessageRouter().routePrivate(toRemote, null));
+        assertFalse(context.getMessageRouter().routePrivate(
+                new Message(MessageType.PRIVATE, "alice", "nobody", "lost"), null));
+
+        assertEquals(List.of("hi alice"), contents(alice));
+        assertEquals(List.of("Bob:hi bob"), remote.take());
+    }
+
+    @Test
+    public void oneNamespaceAndOneUserList() {
+        tcpUser("alice");
+        RemoteUser bob = remoteUser("bob");
+
+        assertFalse(context.getMessageBus().claim(new RemoteUser("ALICE", remote)));
+        assertFalse(context.getMessageBus().claim(new QueuedConnection(context, "Bob")));
+
+        context.getMessageRouter().sendPresenceSnapshot(bob);
+        assertEquals(2, remote.snapshot.size());
+        assertTrue(remote.snapshot.containsAll(List.of("alice", "bob")));
+    }
+
+    @Test
+    public void presenceFromOneTransportReachesTheOther() {
+        QueuedConnection alice = tcpUser("alice");
+        RemoteUser bob = remoteUser("bob");
+        remote.take();
+
+        context.getMessageRouter().broadcastPresence("bob", true);
+        context.getMessageBus().unsubscribe(bob);
+        context.getMessageRouter().broadcastPresence("bob", false);
+        context.getMessageRouter().broadcastPresence("alice", true);
+
+        assertEquals(List.of("bob joined the chat", "bob left the chat", "alice joined the chat"), contents(alice));
+        assertEquals(List.of("bob:bob joined the chat"), remote.take());
+        assertFalse(context.getMessageBus().isTaken("bob"));
+    }
+}
@@ -0,0 +1,130 @@
+package server.core;
+
+import common.protocol.Message;
+import common.protocol.MessageType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import server.config.ServerConfig;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * LobbyBackfillTest - TCP join chạy song song với lobby publish: backfill và
+ * live messages không trùng, không đảo thứ tự
+ */
+public class LobbyBackfillTest {
+
+    private static final int MESSAGES = 300;
+
+    private ServerContext context;
+
+    @Before
+    public void setUp() {
+        ServerConfig config = ServerConfig.createDefault();
+        context = new ServerContext(config);     // History store không start - appends fail ngay
+    }
+
+    @After
+    public void tearDown() {
+        context.stop();
+    }
+
+    private static List<Integer> received(QueuedConnection connection) {
+        List<Integer> received = new ArrayList<>();
+        for (Message message : connection.drain()) {
+            received.add(Integer.parseInt(message.getContent()));
+        }
+        return received;
+    }
+
+    private void publish(int from, int to) {
+        for (int i = from; i < to; i++) {
+            context.getMessageRouter().routeChat(new Message(MessageType.CHAT, "alice", String.valueOf(i)), null);
+        }
+    }
+
+    @Test
+    public void backfillEndsWhereLiveMessagesBegin() {
+        publish(0, 30);
+        QueuedConnection bob = new QueuedConnection(context, "bob");
+        context.getRoomService().joinLobby(bob);
+        publish(30, 35);
+
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 30 - context.getConfig().getRoomBackfillCount(); i < 35; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, received(bob));
+    }
+
+    @Test
+    public void batchPublishGoesToRingAndBus() {
+        QueuedConnection bob = new QueuedConnection(context, "bob");
+        context.getRoomService().joinLobby(bob);
+        List<Message> batch = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            batch.add(new Message(MessageType.CHAT, "alice", String.valueOf(i)));
+        }
+        context.getMessageRouter().routeChatBatch(batch);
+
+        assertEquals(List.of(0, 1, 2), received(bob));
+        assertEquals(3, context.getRoom(ServerContext.LOBBY).getRecentMessages().getTotalAdded());
+    }
+
+    @Test
+    public void concurrentJoinAndPublishDeliverEachMessageOnceInOrder() throws InterruptedException {
+        for (int round = 0; round < 50; round++) {
+            ServerContext previous = context;
+            context = new ServerContext(ServerConfig.createDefault());
+            previous.stop();
+
+            List<QueuedConnection> joiners = new ArrayList<>();
+            for (int j = 0; j < 4; j++) {
+                joiners.add(new QueuedConnection(context, "user" + j));
+            }
+            CountDownLatch start = new CountDownLatch(1);
+            Thread publisher = new Thread(() -> {
+                awaitQuietly(start);
+                publish(0, MESSAGES);
+            });
+            List<Thread> threads = new ArrayList<>();
+            threads.add(publisher);
+            for (QueuedConnection joiner : joiners) {
+                threads.add(new Thread(() -> {
+                    awaitQuietly(start);
+                    context.getRoomService().joinLobby(joiner);
+                }));
+            }
+            threads.forEach(Thread::start);
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            for (QueuedConnection joiner : joiners) {
+                List<Integer> received = received(joiner);
+                assertTrue(received.size() <= MESSAGES);
+                // Backfill rồi live: một dãy liên tục kết thúc ở message cuối
+                int first = MESSAGES - received.size();
+                for (int i = 0; i < received.size(); i++) {
+                    assertEquals("round " + round + ", " + joiner.getUsername() + ": " + received,
+                            first + i, (int) received.get(i));
+                }
+            }
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
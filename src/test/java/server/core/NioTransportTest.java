@@ -0,0 +1,183 @@
+package server.core;
+
+import common.protocol.FrameCodec;
+import common.protocol.Message;
+import common.protocol.MessageType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import server.config.ServerConfig;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * NioTransportTest - CONNECT handshake trên NIO transport: reject đóng
+ * channel, handshake deadline và idle timeout
+ */
+public class NioTransportTest {
+
+    private static final int SOCKET_TIMEOUT = 1500;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerContext context;
+    private NioTransport transport;
+    private Thread acceptor;
+
+    @Before
+    public void setUp() throws IOException {
+        File config = folder.newFile("server.properties");
+        Files.write(config.toPath(), ("server.socket.timeout=" + SOCKET_TIMEOUT + "\n"
+                + "history.enabled=false\n"
+                + "file.relay.enabled=false\n").getBytes());
+        context = new ServerContext(ServerConfig.loadFromFile(config.getPath()));
+        transport = new NioTransport(context, 1);
+        transport.bind(0, 50);
+        acceptor = new Thread(transport::acceptLoop, "test-acceptor");
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        transport.stop();
+        acceptor.join(5000);
+        context.stop();
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), transport.getLocalPort());
+        socket.setSoTimeout(10000);
+        return socket;
+    }
+
+    private static void send(Socket socket, Message msg) throws IOException {
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+        FrameCodec.writeFrame(out, FrameCodec.JAVA.encode(msg));
+        out.flush();
+    }
+
+    private static Message connectMessage(String username) {
+        return new Message(MessageType.CONNECT, username, "");
+    }
+
+    private static Message read(Socket socket) throws IOException {
+        return FrameCodec.readMessage(new DataInputStream(socket.getInputStream()), FrameCodec.JAVA);
+    }
+
+    /**
+     * Peer đã đóng connection - EOF hoặc reset, trong thời gian chờ của socket
+     */
+    private static void assertClosedByServer(Socket socket) throws IOException {
+        try {
+            int b = socket.getInputStream().read();
+            assertEquals(-1, b);
+        } catch (SocketException e) {
+            // Connection reset - cũng là đóng
+        }
+    }
+
+    @Test
+    public void acceptedClientReceivesAccept() throws IOException {
+        try (Socket socket = connect()) {
+            send(socket, connectMessage("alice"));
+            assertEquals(MessageType.ACCEPT, read(socket).getType());
+            assertTrue(context.getMessageBus().isTaken("alice"));
+        }
+    }
+
+    @Test
+    public void rejectedHandshakeClosesChannelAndIgnoresLaterFrames() throws IOException {
+        try (Socket alice = connect(); Socket impostor = connect()) {
+            send(alice, connectMessage("alice"));
+            assertEquals(MessageType.ACCEPT, read(alice).getType());
+
+            // Tên đã bị dùng, rồi thử lại ngay trên cùng channel với tên khác
+            send(impostor, connectMessage("alice"));
+            send(impostor, connectMessage("bob"));
+            assertEquals(MessageType.REJECT, read(impostor).getType());
+            assertClosedByServer(impostor);
+            assertFalse(context.getMessageBus().isTaken("bob"));
+        }
+    }
+
+    @Test
+    public void nonConnectFirstFrameIsRejected() throws IOException {
+        try (Socket socket = connect()) {
+            send(socket, new Message(MessageType.CHAT, "mallory", "hi"));
+            assertEquals(MessageType.REJECT, read(socket).getType());
+            assertClosedByServer(socket);
+        }
+    }
+
+    @Test
+    public void silentClientIsClosedAfterHandshakeDeadline() throws IOException {
+        try (Socket socket = connect()) {
+            long start = System.nanoTime();
+            assertClosedByServer(socket);
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            assertTrue("closed after " + elapsedMs + " ms", elapsedMs >= SOCKET_TIMEOUT - 100);
+        }
+    }
+
+    @Test
+    public void partialFramesDoNotExtendHandshakeDeadline() throws Exception {
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            out.write(new byte[] { 0, 0, 0, 100 });     // Header hứa 100 bytes, payload nhỏ giọt
+            long start = System.nanoTime();
+            for (int i = 0; i < 6; i++) {
+                Thread.sleep(SOCKET_TIMEOUT / 3);
+                try {
+                    out.write(0);
+                    out.flush();
+                } catch (IOException e) {
+                    break;
+                }
+            }
+            assertClosedByServer(socket);
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+            assertTrue("closed after " + elapsedMs + " ms", elapsedMs < 3L * SOCKET_TIMEOUT);
+        }
+    }
+
+    @Test
+    public void idleClientIsClosedAfterSocketTimeout() throws Exception {
+        try (Socket socket = connect()) {
+            send(socket, connectMessage("alice"));
+            assertEquals(MessageType.ACCEPT, read(socket).getType());
+            try {
+                while (true) {
+                    read(socket);   // Backfill / presence - client không bao giờ gửi gì
+                }
+            } catch (EOFException | SocketException e) {
+                // Server đóng connection
+            } catch (SocketTimeoutException e) {
+                fail("Idle connection was not closed");
+            }
+        }
+        // releaseSession chạy trên reactor ngay sau khi channel đóng
+        long deadline = System.currentTimeMillis() + 5000;
+        while (context.getMessageBus().isTaken("alice") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(context.getMessageBus().isTaken("alice"));
+    }
+}
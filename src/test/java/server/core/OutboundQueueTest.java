@@ -0,0 +1,123 @@
+package server.core;
+
+import common.protocol.EncodedMessage;
+import common.protocol.FrameCodec;
+import common.protocol.Message;
+import common.protocol.MessageType;
+import org.junit.Test;
+import server.config.ServerConfig.OverflowPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * OutboundQueueTest - Overflow policies của per-client outbound queue
+ */
+public class OutboundQueueTest {
+
+    private static EncodedMessage chat(String content) {
+        return EncodedMessage.of(new Message(MessageType.CHAT, "alice", content));
+    }
+
+    private static EncodedMessage presence(String user, boolean joined) {
+        Message msg = new Message(MessageType.SERVER, "SERVER", user + (joined ? " joined" : " left"));
+        msg.putMetadata(OutboundQueue.PRESENCE_KEY, joined ? "joined" : "left");
+        msg.putMetadata(OutboundQueue.PRESENCE_USER_KEY, user);
+        return EncodedMessage.of(msg);
+    }
+
+    private static OutboundQueue queueOf(int capacity, OverflowPolicy policy, EncodedMessage... messages) {
+        OutboundQueue queue = new OutboundQueue(capacity, policy);
+        for (EncodedMessage message : messages) {
+            assertTrue(queue.offer(message, FrameCodec.BINARY));
+        }
+        return queue;
+    }
+
+    private static List<String> contents(OutboundQueue queue) {
+        List<OutboundQueue.Entry> batch = new ArrayList<>();
+        queue.drainTo(batch, Integer.MAX_VALUE);
+        List<String> contents = new ArrayList<>();
+        for (OutboundQueue.Entry entry : batch) {
+            contents.add(entry.message.getMessage().getContent());
+        }
+        return contents;
+    }
+
+    @Test
+    public void dropOldestKeepsNewestEntries() {
+        OutboundQueue queue = queueOf(3, OverflowPolicy.DROP_OLDEST,
+                chat("m0"), chat("m1"), chat("m2"), chat("m3"), chat("m4"));
+        assertEquals(List.of("m2", "m3", "m4"), contents(queue));
+        assertEquals(2, queue.getDropped());
+        assertEquals(3, queue.getHighWaterMark());
+    }
+
+    @Test
+    public void disconnectRejectsWhenFull() {
+        OutboundQueue queue = queueOf(2, OverflowPolicy.DISCONNECT, chat("m0"), chat("m1"));
+        assertFalse(queue.offer(chat("m2"), FrameCodec.BINARY));
+        assertEquals(List.of("m0", "m1"), contents(queue));
+    }
+
+    @Test
+    public void coalesceReplacesQueuedEventOfSameUser() {
+        OutboundQueue queue = queueOf(3, OverflowPolicy.COALESCE_PRESENCE,
+                presence("x", true), chat("m0"), chat("m1"));
+        // Leave của x thay join cũ của x, không đụng tới chat
+        assertTrue(queue.offer(presence("x", false), FrameCodec.BINARY));
+        assertEquals(List.of("m0", "m1", "x left"), contents(queue));
+    }
+
+    @Test
+    public void coalesceDropsOldestSupersededEventAndKeepsLatestPerUser() {
+        OutboundQueue queue = queueOf(3, OverflowPolicy.COALESCE_PRESENCE,
+                presence("x", true), presence("y", true), presence("x", false));
+        assertTrue(queue.offer(chat("m0"), FrameCodec.BINARY));
+        assertEquals(List.of("y joined", "x left", "m0"), contents(queue));
+    }
+
+    @Test
+    public void coalesceNeverDropsLatestEventOfAUser() {
+        // Leave của x mới hơn join của x - chỉ join được phép bị bỏ
+        OutboundQueue queue = queueOf(3, OverflowPolicy.COALESCE_PRESENCE,
+                presence("x", true), presence("x", false), chat("m0"));
+        assertTrue(queue.offer(chat("m1"), FrameCodec.BINARY));
+        assertEquals(List.of("x left", "m0", "m1"), contents(queue));
+    }
+
+    @Test
+    public void coalesceFallsBackToDropOldest() {
+        OutboundQueue queue = queueOf(3, OverflowPolicy.COALESCE_PRESENCE,
+                chat("m0"), presence("x", true), chat("m1"));
+        assertTrue(queue.offer(presence("y", true), FrameCodec.BINARY));
+        assertEquals(List.of("x joined", "m1", "y joined"), contents(queue));
+        assertEquals(1, queue.getDropped());
+    }
+
+    @Test
+    public void closedQueueDrainsThenReturnsNull() throws InterruptedException {
+        OutboundQueue queue = queueOf(4, OverflowPolicy.DROP_OLDEST, chat("m0"));
+        queue.close();
+        assertTrue(queue.offer(chat("m1"), FrameCodec.BINARY));     // Bị bỏ qua sau close
+        assertEquals("m0", queue.take().message.getMessage().getContent());
+        assertNull(queue.take());
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void entryKeepsCodecChosenAtEnqueue() {
+        OutboundQueue queue = new OutboundQueue(2, OverflowPolicy.DROP_OLDEST);
+        queue.offer(chat("m0"), FrameCodec.JAVA);
+        queue.offer(chat("m1"), FrameCodec.BINARY);
+        assertEquals(FrameCodec.JAVA, queue.poll().codec);
+        assertEquals(FrameCodec.BINARY, queue.poll().codec);
+        assertNull(queue.poll());
+    }
+}
@@ -0,0 +1,50 @@
+package server.core;
+
+import common.model.UserSession;
+import common.protocol.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * QueuedConnection - ClientConnection không có socket cho tests: frames ở
+ * lại trong outbound queue để test đọc ra
+ */
+class QueuedConnection extends ClientConnection {
+
+    QueuedConnection(ServerContext context, String username) {
+        super(context);
+        this.username = username;
+        this.session = new UserSession(username, null);
+    }
+
+    /**
+     * Lấy ra mọi message đang chờ trong outbound queue
+     */
+    List<Message> drain() {
+        List<OutboundQueue.Entry> batch = new ArrayList<>();
+        outbound.drainTo(batch, Integer.MAX_VALUE);
+        List<Message> messages = new ArrayList<>();
+        for (OutboundQueue.Entry entry : batch) {
+            messages.add(entry.message.getMessage());
+        }
+        return messages;
+    }
+
+    @Override
+    protected void onEnqueued() {
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public boolean isRunning() {
+        return true;
+    }
+
+    @Override
+    protected void sendReject(String reason) {
+    }
+}
@@ -0,0 +1,173 @@
+package server.core;
+
+import common.protocol.EncodedMessage;
+import common.protocol.Message;
+import common.protocol.MessageType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import server.bus.Subscriber;
+import server.bus.TransportAdapter;
+import server.config.ServerConfig;
+import server.service.RoomService;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * RoomServiceTest - Room capacity theo config, prune member index khi room
+ * rỗng và CHAT gắn room="lobby" đi qua bus như lobby chat
+ */
+public class RoomServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerContext context;
+    private RoomService rooms;
+
+    /**
+     * Transport không phải TCP (như WebSocket / gRPC) - giữ lại mọi delivery
+     */
+    private static final class RecordingTransport implements TransportAdapter, Subscriber {
+
+        final List<Message> delivered = new ArrayList<>();
+
+        @Override
+        public String getName() {
+            return "recording";
+        }
+
+        @Override
+        public void deliver(EncodedMessage msg, Collection<Subscriber> recipients) {
+            delivered.add(msg.getMessage());
+        }
+
+        @Override
+        public void deliverPresenceSnapshot(Subscriber target, Collection<String> usernames, long version) {
+        }
+
+        @Override
+        public String getUsername() {
+            return "carol";
+        }
+
+        @Override
+        public TransportAdapter getTransport() {
+            return this;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        File config = folder.newFile("server.properties");
+        Files.write(config.toPath(), ("room.max.members=2\n"
+                + "history.enabled=false\n"
+                + "file.relay.enabled=false\n").getBytes());
+        context = new ServerContext(ServerConfig.loadFromFile(config.getPath()));
+        rooms = context.getRoomService();
+    }
+
+    @After
+    public void tearDown() {
+        context.stop();
+    }
+
+    private QueuedConnection connect(String username) {
+        QueuedConnection connection = new QueuedConnection(context, username);
+        assertTrue(context.getMessageBus().claim(connection));
+        context.addHandler(username, connection);
+        rooms.joinLobby(connection);
+        connection.drain();
+        return connection;
+    }
+
+    private static Message chat(String sender, String room, String content) {
+        Message msg = new Message(MessageType.CHAT, sender, content);
+        if (room != null) {
+            msg.setRoom(room);
+        }
+        return msg;
+    }
+
+    @Test
+    public void roomCapacityComesFromConfig() {
+        QueuedConnection alice = connect("alice");
+        QueuedConnection bob = connect("bob");
+        QueuedConnection dave = connect("dave");
+        rooms.createRoom("dev", "test", "alice");
+
+        assertEquals(2, context.getRoom("dev").getMaxMembers());
+        assertTrue(rooms.joinRoom(alice, "dev"));
+        assertTrue(rooms.joinRoom(bob, "dev"));
+        assertFalse(rooms.joinRoom(dave, "dev"));
+        assertEquals(2, rooms.getMemberConnections("dev").size());
+    }
+
+    @Test
+    public void memberEntryIsRemovedWhenLastMemberLeaves() {
+        QueuedConnection alice = connect("alice");
+        QueuedConnection bob = connect("bob");
+        rooms.createRoom("dev", "test", "alice");
+        rooms.joinRoom(alice, "dev");
+        rooms.joinRoom(bob, "dev");
+
+        rooms.leaveRoom(alice, "dev");
+        assertEquals(Collections.singleton(bob), rooms.getMemberConnections("dev"));
+        rooms.leaveRoom(bob, "dev");
+        assertSame(Collections.emptySet(), rooms.getMemberConnections("dev"));
+
+        // Join lại sau khi prune - room fan-out dùng entry mới
+        rooms.joinRoom(alice, "dev");
+        context.getMessageRouter().route(chat("alice", "dev", "again"), alice);
+        List<Message> received = alice.drain();
+        assertEquals("again", received.get(received.size() - 1).getContent());
+    }
+
+    @Test
+    public void lobbyTaggedChatReachesEveryTransport() {
+        QueuedConnection alice = connect("alice");
+        RecordingTransport carol = new RecordingTransport();
+        assertTrue(context.getMessageBus().claim(carol));
+        context.getMessageBus().subscribe(carol);
+
+        context.getMessageRouter().route(chat("alice", ServerContext.LOBBY, "hello all"), alice);
+
+        assertEquals(1, carol.delivered.size());
+        assertEquals("hello all", carol.delivered.get(0).getContent());
+        assertNull(carol.delivered.get(0).getRoom());
+        assertEquals("hello all", alice.drain().get(0).getContent());
+        assertEquals(1, context.getRoom(ServerContext.LOBBY).getRecentMessages().getTotalAdded());
+    }
+
+    @Test
+    public void roomChatStaysInRoom() {
+        QueuedConnection alice = connect("alice");
+        QueuedConnection bob = connect("bob");
+        RecordingTransport carol = new RecordingTransport();
+        context.getMessageBus().claim(carol);
+        context.getMessageBus().subscribe(carol);
+        rooms.createRoom("dev", "test", "alice");
+        rooms.joinRoom(alice, "dev");
+        alice.drain();
+
+        context.getMessageRouter().route(chat("alice", "dev", "devs only"), alice);
+
+        assertEquals("devs only", alice.drain().get(0).getContent());
+        assertTrue(bob.drain().isEmpty());
+        assertTrue(carol.delivered.isEmpty());
+    }
+}
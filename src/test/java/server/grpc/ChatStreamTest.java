@@ -0,0 +1,268 @@
+package server.grpc;
+
+import common.grpc.Ack;
+import common.grpc.ChatEvent;
+import common.grpc.ChatServiceGrpc;
+import common.grpc.ClientEvent;
+import common.grpc.JoinEvent;
+import common.grpc.PingEvent;
+import common.grpc.PrivateEvent;
+import common.grpc.ServerEvent;
+import common.grpc.TypingEvent;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import server.config.ServerConfig;
+import server.core.ServerContext;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ChatStreamTest - Bidirectional Chat call trên một server thật: join,
+ * acks theo client id, private messages, ping, typing và giải phóng tên
+ * khi stream kết thúc
+ */
+public class ChatStreamTest {
+
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerContext context;
+    private GrpcChatServer server;
+    private ManagedChannel channel;
+
+    /**
+     * Một Chat call - server events vào queue, test đợi event cần thiết và
+     * bỏ qua phần còn lại (presence, lobby echo)
+     */
+    private final class Session implements StreamObserver<ServerEvent> {
+
+        final BlockingQueue<ServerEvent> events = new LinkedBlockingQueue<>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final StreamObserver<ClientEvent> out;
+        volatile Throwable error;
+
+        Session() {
+            out = ChatServiceGrpc.newStub(channel).chat(this);
+        }
+
+        @Override
+        public void onNext(ServerEvent event) {
+            events.add(event);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            done.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+            done.countDown();
+        }
+
+        void send(long id, ClientEvent.Builder event) {
+            out.onNext(event.setId(id).build());
+        }
+
+        ServerEvent await(Predicate<ServerEvent> match) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+            while (true) {
+                ServerEvent event = events.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                assertNotNull("Timed out waiting for server event", event);
+                if (match.test(event)) {
+                    return event;
+                }
+            }
+        }
+
+        Ack awaitAck(long id) throws InterruptedException {
+            return await(event -> event.hasAck() && event.getAck().getId() == id).getAck();
+        }
+
+        ServerEvent awaitMessage(String content) throws InterruptedException {
+            return await(event -> event.hasMessage() && event.getMessage().getContent().equals(content));
+        }
+
+        Status awaitFailure() throws InterruptedException {
+            assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            assertNotNull(error);
+            return Status.fromThrowable(error);
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        File config = folder.newFile("server.properties");
+        Files.write(config.toPath(), ("history.dir=" + folder.newFolder("history").getPath() + "\n"
+                + "websocket.typing.interval=50\n"
+                + "file.relay.enabled=false\n").getBytes());
+        context = new ServerContext(ServerConfig.loadFromFile(config.getPath()));
+        context.start();
+        server = new GrpcChatServer(context, 0);
+        server.start();
+        channel = ManagedChannelBuilder.forAddress("127.0.0.1", server.getLocalPort())
+                .usePlaintext()
+                .build();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.stop();
+        context.stop();
+    }
+
+    private static ClientEvent.Builder join(String username) {
+        return ClientEvent.newBuilder().setJoin(JoinEvent.newBuilder().setUsername(username));
+    }
+
+    private static ClientEvent.Builder chat(String content) {
+        return ClientEvent.newBuilder().setChat(ChatEvent.newBuilder().setContent(content));
+    }
+
+    private static ClientEvent.Builder privateMessage(String receiver, String content) {
+        return ClientEvent.newBuilder().setPrivateMessage(
+                PrivateEvent.newBuilder().setReceiver(receiver).setContent(content));
+    }
+
+    private Session joined(String username) throws InterruptedException {
+        Session session = new Session();
+        session.send(1, join(username));
+        Ack ack = session.awaitAck(1);
+        assertTrue(ack.getMessage(), ack.getSuccess());
+        return session;
+    }
+
+    @Test
+    public void joinIsAckedWithItsId() throws Exception {
+        Session alice = new Session();
+        alice.send(7, join("alice"));
+
+        Ack ack = alice.awaitAck(7);
+        assertTrue(ack.getSuccess());
+        assertTrue(ack.getMessage().contains("alice"));
+        assertTrue(context.getMessageBus().isTaken("alice"));
+        alice.await(event -> event.hasMessage() && event.getMessage().getContent().startsWith("Online users:"));
+    }
+
+    @Test
+    public void eventBeforeJoinFailsPrecondition() throws Exception {
+        Session anonymous = new Session();
+        anonymous.send(1, chat("hello"));
+        assertEquals(Status.Code.FAILED_PRECONDITION, anonymous.awaitFailure().getCode());
+    }
+
+    @Test
+    public void emptyUsernameIsInvalid() throws Exception {
+        Session anonymous = new Session();
+        anonymous.send(1, join("   "));
+        assertEquals(Status.Code.INVALID_ARGUMENT, anonymous.awaitFailure().getCode());
+    }
+
+    @Test
+    public void takenNameOnAnyTransportIsRejected() throws Exception {
+        joined("alice");
+        Session twin = new Session();
+        twin.send(1, join("ALICE"));
+        assertEquals(Status.Code.ALREADY_EXISTS, twin.awaitFailure().getCode());
+        assertTrue(context.getMessageBus().isTaken("alice"));
+    }
+
+    @Test
+    public void chatIsAckedWhenDurableAndBroadcast() throws Exception {
+        Session alice = joined("alice");
+        Session bob = joined("bob");
+
+        alice.send(42, chat("  hello stream  "));
+        Ack ack = alice.awaitAck(42);
+        assertTrue(ack.getMessage(), ack.getSuccess());
+        assertEquals("alice", bob.awaitMessage("hello stream").getMessage().getSender());
+
+        // Ack đến sau khi record đã ghi vào history - sequence liên tiếp
+        alice.send(43, chat("second"));
+        assertEquals(ack.getSequence() + 1, alice.awaitAck(43).getSequence());
+
+        alice.send(44, chat("   "));
+        Ack rejected = alice.awaitAck(44);
+        assertFalse(rejected.getSuccess());
+        assertEquals("Content required", rejected.getMessage());
+    }
+
+    @Test
+    public void privateMessageToOfflineUserIsNacked() throws Exception {
+        Session alice = joined("alice");
+        Session bob = joined("bob");
+
+        alice.send(2, privateMessage("BOB", "psst"));
+        assertTrue(alice.awaitAck(2).getSuccess());
+        assertEquals("alice", bob.awaitMessage("[PM] psst").getMessage().getSender());
+
+        alice.send(3, privateMessage("nobody", "hello?"));
+        Ack nack = alice.awaitAck(3);
+        assertFalse(nack.getSuccess());
+        assertEquals("User offline", nack.getMessage());
+    }
+
+    @Test
+    public void pingEchoesClientTimestamp() throws Exception {
+        Session alice = joined("alice");
+        alice.send(0, ClientEvent.newBuilder().setPing(PingEvent.newBuilder().setTimestamp(12345)));
+        ServerEvent pong = alice.await(ServerEvent::hasPong);
+        assertEquals(12345, pong.getPong().getTimestamp());
+        assertTrue(pong.getPong().getServerTime() > 0);
+    }
+
+    @Test
+    public void secondJoinIsNackedAndTypingIsAggregated() throws Exception {
+        Session alice = joined("alice");
+        Session bob = joined("bob");
+
+        alice.send(5, join("carol"));
+        Ack again = alice.awaitAck(5);
+        assertFalse(again.getSuccess());
+        assertEquals("Already joined", again.getMessage());
+        assertFalse(context.getMessageBus().isTaken("carol"));
+
+        alice.send(0, ClientEvent.newBuilder().setTyping(TypingEvent.newBuilder().setTyping(true)));
+        ServerEvent typing = bob.await(event -> event.hasTyping() && !event.getTyping().getUsersList().isEmpty());
+        assertEquals(List.of("alice"), typing.getTyping().getUsersList());
+    }
+
+    @Test
+    public void halfCloseCompletesStreamAndReleasesName() throws Exception {
+        Session alice = joined("alice");
+        Session bob = joined("bob");
+
+        alice.out.onCompleted();
+        assertTrue(alice.done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNull(alice.error);
+        bob.awaitMessage("alice left the chat");
+        assertFalse(context.getMessageBus().isTaken("alice"));
+
+        // Tên dùng lại được ngay
+        joined("alice");
+    }
+}
@@ -0,0 +1,207 @@
+package server.grpc;
+
+import common.grpc.ChatMessage;
+import common.grpc.ChatServiceGrpc;
+import common.grpc.StreamRequest;
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import server.config.ServerConfig;
+import server.core.ServerContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * GrpcBackpressureTest - StreamMessages trên một server thật khi một reader
+ * ngừng đọc: reader nhanh vẫn nhận đủ, reader chậm bị giới hạn bởi
+ * grpc.stream.buffer và grpc.overflow.policy
+ *
+ * Reader chậm tắt auto inbound flow control và không request message nào
+ * trong lúc flood, nên HTTP/2 window của nó đầy và server thấy isReady() false.
+ */
+public class GrpcBackpressureTest {
+
+    private static final int BUFFER = 32;
+    private static final int MESSAGES = 2000;
+    private static final int CLIENT_WINDOW = 64 * 1024;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerContext context;
+    private GrpcChatServer server;
+    private ManagedChannel channel;
+
+    /**
+     * Client của StreamMessages - giữ chat messages ("m..." content), đánh dấu khi có lỗi
+     */
+    private static final class Reader implements ClientResponseObserver<StreamRequest, ChatMessage> {
+
+        private final boolean slow;
+        final List<String> received = new CopyOnWriteArrayList<>();
+        final CountDownLatch last = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile ClientCallStreamObserver<StreamRequest> call;
+        volatile Throwable error;
+
+        Reader(boolean slow) {
+            this.slow = slow;
+        }
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<StreamRequest> requestStream) {
+            call = requestStream;
+            if (slow) {
+                requestStream.disableAutoRequestWithInitial(0);
+            }
+        }
+
+        @Override
+        public void onNext(ChatMessage value) {
+            String content = value.getContent();
+            if (content.startsWith("m")) {
+                String id = content.substring(0, content.indexOf(':'));
+                received.add(id);
+                if (id.equals("m" + (MESSAGES - 1))) {
+                    last.countDown();
+                }
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            last.countDown();
+            done.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+            done.countDown();
+        }
+    }
+
+    private void start(ServerConfig.OverflowPolicy policy) throws IOException {
+        File config = folder.newFile("server.properties");
+        Files.write(config.toPath(), ("grpc.stream.buffer=" + BUFFER + "\n"
+                + "grpc.overflow.policy=" + policy.name().toLowerCase() + "\n"
+                + "history.enabled=false\n"
+                + "file.relay.enabled=false\n").getBytes());
+        context = new ServerContext(ServerConfig.loadFromFile(config.getPath()));
+        server = new GrpcChatServer(context, 0);
+        server.start();
+        channel = NettyChannelBuilder.forAddress("127.0.0.1", server.getLocalPort())
+                .usePlaintext()
+                .flowControlWindow(CLIENT_WINDOW)
+                .build();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (channel != null) {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+        if (server != null) {
+            server.stop();
+        }
+        if (context != null) {
+            context.stop();
+        }
+    }
+
+    private Reader open(String username, boolean slow) throws InterruptedException {
+        Reader reader = new Reader(slow);
+        ChatServiceGrpc.newStub(channel).streamMessages(
+                StreamRequest.newBuilder().setUsername(username).build(), reader);
+        long deadline = System.currentTimeMillis() + TIMEOUT_SECONDS * 1000;
+        while (!context.getMessageBus().isTaken(username) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(context.getMessageBus().isTaken(username));
+        return reader;
+    }
+
+    /**
+     * MESSAGES lobby chats khoảng 2KB, content "m<i>:xxx..."
+     */
+    private void flood() {
+        char[] padding = new char[2048];
+        Arrays.fill(padding, 'x');
+        ChatServiceGrpc.ChatServiceBlockingStub stub = ChatServiceGrpc.newBlockingStub(channel);
+        for (int i = 0; i < MESSAGES; i++) {
+            assertTrue(stub.sendMessage(ChatMessage.newBuilder()
+                    .setSender("flooder")
+                    .setContent("m" + i + ":" + new String(padding))
+                    .build()).getSuccess());
+        }
+    }
+
+    private static List<String> tail(int count) {
+        List<String> ids = new ArrayList<>();
+        for (int i = MESSAGES - count; i < MESSAGES; i++) {
+            ids.add("m" + i);
+        }
+        return ids;
+    }
+
+    @Test
+    public void dropOldestKeepsWindowAndNewestMessagesForSlowReader() throws Exception {
+        start(ServerConfig.OverflowPolicy.DROP_OLDEST);
+        Reader fast = open("fast", false);
+        Reader slow = open("slow", true);
+
+        flood();
+        assertTrue(fast.last.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(MESSAGES, fast.received.size());
+
+        slow.call.request(Integer.MAX_VALUE);
+        assertTrue(slow.last.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        List<String> received = slow.received;
+        assertTrue("Slow reader should have lost messages, got " + received.size(),
+                received.size() < MESSAGES / 2);
+        // Phần đầu đã ở trong flow-control window, phần cuối là BUFFER messages mới nhất
+        assertEquals(tail(BUFFER), received.subList(received.size() - BUFFER, received.size()));
+        assertEquals("m0", received.get(0));
+        assertTrue(context.getMessageBus().isTaken("slow"));
+    }
+
+    @Test
+    public void disconnectPolicyEndsSlowStreamAndReleasesName() throws Exception {
+        start(ServerConfig.OverflowPolicy.DISCONNECT);
+        Reader fast = open("fast", false);
+        Reader slow = open("slow", true);
+
+        flood();
+        assertTrue(fast.last.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(MESSAGES, fast.received.size());
+        assertFalse(context.getMessageBus().isTaken("slow"));
+
+        // Status đứng sau các DATA frames đang bị chặn - đọc hết để thấy nó
+        slow.call.request(Integer.MAX_VALUE);
+        assertTrue(slow.done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNotNull(slow.error);
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(slow.error).getCode());
+        assertTrue(slow.received.size() < MESSAGES / 2);
+        assertTrue(fast.done.getCount() > 0);
+    }
+}
@@ -0,0 +1,133 @@
+package server.grpc;
+
+import common.grpc.ChatMessage;
+import common.grpc.ChatServiceGrpc;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import server.config.ServerConfig;
+import server.core.ServerContext;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GrpcLoadBenchmark - Load generator so sánh các grpc.executor profiles
+ *
+ * Chạy GrpcChatServer in-process trên port tạm với profile được chọn, rồi
+ * K client threads gọi SendMessage (unary) trên một channel:
+ * - cold burst: K calls đồng thời ngay sau call đầu tiên (channel đã
+ *   connect) - với cached đây là lúc pool phải tạo threads mới
+ * - steady: K threads x N calls, throughput và latency percentiles
+ *
+ * Mỗi profile chạy trong JVM riêng (shared cached pool của grpc-java là
+ * static, chạy chung sẽ làm ấm nó cho profile sau). Server logs mỗi
+ * message ra stdout nên stdout bị tắt trong lúc đo.
+ *
+ *   mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ *   java -cp target/classes:target/test-classes:$(cat target/cp.txt) \
+ *       server.grpc.GrpcLoadBenchmark cached|fixed|direct [clients] [callsPerClient]
+ */
+public class GrpcLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        String profile = args.length > 0 ? args[0].toLowerCase() : "fixed";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int calls = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+
+        Path config = Files.createTempFile("bench-server", ".properties");
+        Files.write(config, ("grpc.executor=" + profile + "\n"
+                + "history.enabled=false\n"
+                + "file.relay.enabled=false\n").getBytes());
+        ServerContext context = new ServerContext(ServerConfig.loadFromFile(config.toString()));
+        Files.delete(config);
+        context.start();
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        GrpcChatServer server = new GrpcChatServer(context, 0);
+        server.start();
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("127.0.0.1", server.getLocalPort())
+                .usePlaintext()
+                .build();
+
+        long[] cold;
+        long[] steady;
+        long elapsed;
+        try {
+            // Một call để connect channel và load classes - cold burst chỉ đo executor
+            run(channel, 1, 1);
+            cold = run(channel, clients, 1);
+            long begin = System.nanoTime();
+            steady = run(channel, clients, calls);
+            elapsed = System.nanoTime() - begin;
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server.stop();
+            context.stop();
+            System.setOut(console);
+        }
+
+        System.out.println("[BENCH] grpc.executor=" + profile + ", " + clients + " clients x " + calls + " calls");
+        System.out.printf("[BENCH] cold burst   p50 %7.2f ms  max %7.2f ms%n",
+                percentile(cold, 50), percentile(cold, 100));
+        System.out.printf("[BENCH] steady       %,9.0f calls/s%n", steady.length / (elapsed / 1e9));
+        System.out.printf("[BENCH] steady       p50 %7.2f ms  p99 %7.2f ms  max %7.2f ms%n",
+                percentile(steady, 50), percentile(steady, 99), percentile(steady, 100));
+        System.exit(0);
+    }
+
+    /**
+     * clients threads, mỗi thread calls unary SendMessage tuần tự
+     * @return latency (ns) của mọi call
+     */
+    private static long[] run(ManagedChannel channel, int clients, int calls) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        long[][] latencies = new long[clients][calls];
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            long[] own = latencies[c];
+            ChatServiceGrpc.ChatServiceBlockingStub stub = ChatServiceGrpc.newBlockingStub(channel);
+            ChatMessage msg = ChatMessage.newBuilder().setSender("bench" + c).setContent("load").build();
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < own.length; i++) {
+                    long begin = System.nanoTime();
+                    stub.sendMessage(msg);
+                    own[i] = System.nanoTime() - begin;
+                }
+            }, "bench-client-" + c);
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long[] all = new long[clients * calls];
+        for (int c = 0; c < clients; c++) {
+            System.arraycopy(latencies[c], 0, all, c * calls, calls);
+        }
+        Arrays.sort(all);
+        return all;
+    }
+
+    /**
+     * @return percentile (ms) của latencies đã sort
+     */
+    private static double percentile(long[] sorted, int percent) {
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * percent / 100.0) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
@@ -0,0 +1,151 @@
+package server.grpc;
+
+import common.grpc.ChatEvent;
+import common.grpc.ChatMessage;
+import common.grpc.ChatServiceGrpc;
+import common.grpc.ClientEvent;
+import common.grpc.JoinEvent;
+import common.grpc.ServerEvent;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.stub.StreamObserver;
+import server.config.ServerConfig;
+import server.core.ServerContext;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GrpcStreamBenchmark - Chat messages/sec của một client: unary SendMessage
+ * so với bidirectional Chat stream
+ *
+ * - unary: mỗi message một SendMessage call, chờ response rồi gửi tiếp
+ * - stream, window 1: chat event rồi chờ Ack của nó trước khi gửi tiếp
+ * - stream, window W: tối đa W chat events chưa được Ack
+ *
+ * History tắt (Ack được gửi ngay sau routing), nên cả ba chỉ đo RPC và
+ * routing overhead. Server logs mỗi message ra stdout nên stdout bị tắt
+ * trong lúc đo.
+ *
+ *   mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ *   java -cp target/classes:target/test-classes:$(cat target/cp.txt) \
+ *       server.grpc.GrpcStreamBenchmark [messages] [window]
+ */
+public class GrpcStreamBenchmark {
+
+    private static final int WARMUP_MESSAGES = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int window = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        Path config = Files.createTempFile("bench-server", ".properties");
+        Files.write(config, ("history.enabled=false\n"
+                + "file.relay.enabled=false\n").getBytes());
+        ServerContext context = new ServerContext(ServerConfig.loadFromFile(config.toString()));
+        Files.delete(config);
+        context.start();
+
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        GrpcChatServer server = new GrpcChatServer(context, 0);
+        server.start();
+        ManagedChannel channel = ManagedChannelBuilder.forAddress("127.0.0.1", server.getLocalPort())
+                .usePlaintext()
+                .build();
+
+        double unary;
+        double sequential;
+        double pipelined;
+        try {
+            unary(channel, "warmup-unary", WARMUP_MESSAGES);
+            unary = unary(channel, "unary", messages);
+            stream(channel, "warmup-stream", WARMUP_MESSAGES, window);
+            sequential = stream(channel, "stream1", messages, 1);
+            pipelined = stream(channel, "streamW", messages, window);
+        } finally {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            server.stop();
+            context.stop();
+            System.setOut(console);
+        }
+
+        System.out.println("[BENCH] " + messages + " messages on one channel");
+        System.out.printf("[BENCH] unary SendMessage      %,9.0f msg/s%n", unary);
+        System.out.printf("[BENCH] Chat stream, window 1  %,9.0f msg/s%n", sequential);
+        System.out.printf("[BENCH] Chat stream, window %-3d%,9.0f msg/s%n", window, pipelined);
+        System.exit(0);
+    }
+
+    private static double unary(ManagedChannel channel, String username, int messages) {
+        ChatServiceGrpc.ChatServiceBlockingStub stub = ChatServiceGrpc.newBlockingStub(channel);
+        ChatMessage msg = ChatMessage.newBuilder().setSender(username).setContent("load").build();
+        long begin = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            stub.sendMessage(msg);
+        }
+        return messages / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    /**
+     * Join rồi gửi messages chat events, giữ tối đa window events chưa Ack
+     * @return messages/sec từ chat event đầu tiên đến Ack cuối cùng
+     */
+    private static double stream(ManagedChannel channel, String username, int messages, int window)
+            throws InterruptedException {
+        Semaphore credits = new Semaphore(0);
+        CountDownLatch joined = new CountDownLatch(1);
+        CountDownLatch closed = new CountDownLatch(1);
+        StreamObserver<ClientEvent> events = ChatServiceGrpc.newStub(channel).chat(new StreamObserver<ServerEvent>() {
+            @Override
+            public void onNext(ServerEvent event) {
+                if (!event.hasAck()) {
+                    return;     // Echo của lobby chat
+                }
+                if (!event.getAck().getSuccess()) {
+                    System.err.println("[BENCH] Nack: " + event.getAck().getMessage());
+                }
+                if (event.getAck().getId() == 1) {
+                    joined.countDown();
+                } else {
+                    credits.release();
+                }
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                System.err.println("[BENCH] Chat stream failed: " + t);
+                joined.countDown();
+                closed.countDown();
+            }
+
+            @Override
+            public void onCompleted() {
+                closed.countDown();
+            }
+        });
+
+        events.onNext(ClientEvent.newBuilder().setId(1)
+                .setJoin(JoinEvent.newBuilder().setUsername(username)).build());
+        joined.await();
+
+        ChatEvent chat = ChatEvent.newBuilder().setContent("load").build();
+        credits.release(window);
+        long begin = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            credits.acquire();
+            events.onNext(ClientEvent.newBuilder().setId(i + 2).setChat(chat).build());
+        }
+        credits.acquire(window);
+        double rate = messages / ((System.nanoTime() - begin) / 1e9);
+
+        events.onCompleted();
+        closed.await(5, TimeUnit.SECONDS);
+        return rate;
+    }
+}
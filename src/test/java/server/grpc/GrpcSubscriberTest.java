@@ -0,0 +1,333 @@
+package server.grpc;
+
+import common.grpc.ChatMessage;
+import common.grpc.ChatMessageBatch;
+import common.protocol.EncodedMessage;
+import common.protocol.Message;
+import common.protocol.MessageType;
+import common.protocol.ProtocolConstants;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
+import org.junit.Test;
+import server.config.ServerConfig.OverflowPolicy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * GrpcSubscriberTest - Flow control (isReady / onReady drain), overflow
+ * policies và giới hạn của nextBatch trên một fake stream
+ */
+public class GrpcSubscriberTest {
+
+    /**
+     * Stream mà test bật / tắt isReady() như HTTP/2 flow-control window
+     */
+    private static class FakeStream<T> extends ServerCallStreamObserver<T> {
+
+        final List<T> sent = new ArrayList<>();
+        boolean ready = true;
+        boolean completed;
+        Throwable error;
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void onNext(T value) {
+            sent.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+        }
+
+        @Override
+        public void onCompleted() {
+            completed = true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void setOnCancelHandler(Runnable onCancelHandler) {
+        }
+
+        @Override
+        public void setCompression(String compression) {
+        }
+
+        @Override
+        public void setOnReadyHandler(Runnable onReadyHandler) {
+        }
+
+        @Override
+        public void disableAutoInboundFlowControl() {
+        }
+
+        @Override
+        public void request(int count) {
+        }
+
+        @Override
+        public void setMessageCompression(boolean enable) {
+        }
+    }
+
+    private static ChatMessage toGrpc(EncodedMessage encoded) {
+        Message msg = encoded.getMessage();
+        if (msg.getType() != MessageType.CHAT && msg.getType() != MessageType.SERVER) {
+            return null;
+        }
+        return ChatMessage.newBuilder().setSender(msg.getSender()).setContent(msg.getContent()).build();
+    }
+
+    private static ChatMessageBatch toBatch(EncodedMessage encoded) {
+        ChatMessage chat = toGrpc(encoded);
+        return chat != null ? ChatMessageBatch.newBuilder().addMessages(chat).build() : null;
+    }
+
+    private static ChatMessageBatch combine(List<ChatMessageBatch> batches) {
+        ChatMessageBatch.Builder combined = ChatMessageBatch.newBuilder();
+        for (ChatMessageBatch batch : batches) {
+            combined.addAllMessages(batch.getMessagesList());
+        }
+        return combined.build();
+    }
+
+    private static GrpcSubscriber<ChatMessage> subscriber(FakeStream<ChatMessage> stream, int capacity,
+            OverflowPolicy policy) {
+        return new GrpcSubscriber<>("bob", stream, null, GrpcSubscriberTest::toGrpc, capacity, policy);
+    }
+
+    private static GrpcSubscriber<ChatMessageBatch> batching(FakeStream<ChatMessageBatch> stream, int batchMax,
+            int capacity) {
+        return new GrpcSubscriber<>("bob", stream, null, GrpcSubscriberTest::toBatch,
+                GrpcSubscriberTest::combine, batchMax, capacity, OverflowPolicy.DROP_OLDEST);
+    }
+
+    private static EncodedMessage chat(String content) {
+        return EncodedMessage.of(new Message(MessageType.CHAT, "alice", content));
+    }
+
+    private static EncodedMessage presence(String user, boolean joined) {
+        Message msg = new Message(MessageType.SERVER, "SERVER", user + (joined ? " joined" : " left"));
+        msg.putMetadata(server.core.OutboundQueue.PRESENCE_KEY, joined ? "joined" : "left");
+        msg.putMetadata(server.core.OutboundQueue.PRESENCE_USER_KEY, user);
+        return EncodedMessage.of(msg);
+    }
+
+    private static List<String> contents(List<ChatMessage> messages) {
+        List<String> contents = new ArrayList<>();
+        for (ChatMessage message : messages) {
+            contents.add(message.getContent());
+        }
+        return contents;
+    }
+
+    private static List<List<String>> batchContents(List<ChatMessageBatch> batches) {
+        List<List<String>> contents = new ArrayList<>();
+        for (ChatMessageBatch batch : batches) {
+            contents.add(contents(batch.getMessagesList()));
+        }
+        return contents;
+    }
+
+    @Test
+    public void readyStreamReceivesImmediately() {
+        FakeStream<ChatMessage> stream = new FakeStream<>();
+        GrpcSubscriber<ChatMessage> subscriber = subscriber(stream, 4, OverflowPolicy.DROP_OLDEST);
+        assertTrue(subscriber.deliver(chat("m0")));
+        assertTrue(subscriber.deliver(EncodedMessage.of(new Message(MessageType.ACK, "SERVER", ""))));
+        assertEquals(List.of("m0"), contents(stream.sent));
+    }
+
+    @Test
+    public void notReadyStreamQueuesUntilDrain() {
+        FakeStream<ChatMessage> stream = new FakeStream<>();
+        GrpcSubscriber<ChatMessage> subscriber = subscriber(stream, 4, OverflowPolicy.DROP_OLDEST);
+        stream.ready = false;
+        subscriber.deliver(chat("m0"));
+        subscriber.deliver(chat("m1"));
+        assertTrue(stream.sent.isEmpty());
+
+        // Window mở lại: queue đi trước message mới để giữ thứ tự
+        stream.ready = true;
+        subscriber.deliver(chat("m2"));
+        assertTrue(stream.sent.isEmpty());
+        subscriber.drain();
+        assertEquals(List.of("m0", "m1", "m2"), contents(stream.sent));
+    }
+
+    @Test
+    public void drainStopsWhenWindowFillsAgain() {
+        int[] window = {0};
+        FakeStream<ChatMessage> stream = new FakeStream<>() {
+            @Override
+            public void onNext(ChatMessage value) {
+                super.onNext(value);
+                ready = --window[0] > 0;
+            }
+        };
+        GrpcSubscriber<ChatMessage> subscriber = subscriber(stream, 8, OverflowPolicy.DROP_OLDEST);
+        stream.ready = false;
+        for (int i = 0; i < 4; i++) {
+            subscriber.deliver(chat("m" + i));
+        }
+        // Window mỗi lần mở chỉ đủ cho hai messages
+        window[0] = 2;
+        stream.ready = true;
+        subscriber.drain();
+        assertEquals(List.of("m0", "m1"), contents(stream.sent));
+        assertFalse(stream.ready);
+
+        window[0] = 2;
+        stream.ready = true;
+        subscriber.drain();
+        assertEquals(List.of("m0", "m1", "m2", "m3"), contents(stream.sent));
+    }
+
+    @Test
+    public void dropOldestKeepsNewestWhenFull() {
+        FakeStream<ChatMessage> stream = new FakeStream<>();
+        GrpcSubscriber<ChatMessage> subscriber = subscriber(stream, 2, OverflowPolicy.DROP_OLDEST);
+        stream.ready = false;
+        for (int i = 0; i < 5; i++) {
+            assertTrue(subscriber.deliver(chat("m" + i)));
+        }
+        assertEquals(3, subscriber.getDropped());
+        stream.ready = true;
+        subscriber.drain();
+        assertEquals(List.of("m3", "m4"), contents(stream.sent));
+    }
+
+    @Test
+    public void disconnectPolicyFailsStreamWithResourceExhausted() {
+        FakeStream<ChatMessage> stream = new FakeStream<>();
+        GrpcSubscriber<ChatMessage> subscriber = subscriber(stream, 2, OverflowPolicy.DISCONNECT);
+        stream.ready = false;
+        assertTrue(subscriber.deliver(chat("m0")));
+        assertTrue(subscriber.deliver(chat("m1")));
+        assertFalse(subscriber.deliver(chat("m2")));
+
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, ((StatusRuntimeException) stream.error).getStatus().getCode());
+        // Stream đã kết thúc - không gửi gì thêm, kể cả khi window mở lại
+        stream.ready = true;
+        subscriber.drain();
+        assertFalse(subscriber.deliver(chat("m3")));
+        assertTrue(stream.sent.isEmpty());
+    }
+
+    @Test
+    public void coalescePresenceKeepsLatestEventPerUser() {
+        FakeStream<ChatMessage> stream = new FakeStream<>();
+        GrpcSubscriber<ChatMessage> subscriber = subscriber(stream, 3, OverflowPolicy.COALESCE_PRESENCE);
+        stream.ready = false;
+        subscriber.deliver(presence("x", true));
+        subscriber.deliver(chat("m0"));
+        subscriber.deliver(presence("y", true));
+        subscriber.deliver(presence("x", false));
+
+        stream.ready = true;
+        subscriber.drain();
+        assertEquals(List.of("m0", "y joined", "x left"), contents(stream.sent));
+    }
+
+    @Test
+    public void closedSubscriberRejectsAndDropsPending() {
+        FakeStream<ChatMessage> stream = new FakeStream<>();
+        GrpcSubscriber<ChatMessage> subscriber = subscriber(stream, 4, OverflowPolicy.DROP_OLDEST);
+        stream.ready = false;
+        subscriber.deliver(chat("m0"));
+        subscriber.close();
+        stream.ready = true;
+        subscriber.drain();
+        assertFalse(subscriber.deliver(chat("m1")));
+        assertTrue(stream.sent.isEmpty());
+    }
+
+    @Test
+    public void failingOnNextClosesSubscriber() {
+        FakeStream<ChatMessage> stream = new FakeStream<>() {
+            @Override
+            public void onNext(ChatMessage value) {
+                throw new IllegalStateException("call already closed");
+            }
+        };
+        GrpcSubscriber<ChatMessage> subscriber = subscriber(stream, 4, OverflowPolicy.DROP_OLDEST);
+        assertFalse(subscriber.deliver(chat("m0")));
+        assertFalse(subscriber.deliver(chat("m1")));
+        assertNull(stream.error);
+    }
+
+    @Test
+    public void pendingItemsAreMergedUpToBatchMax() {
+        FakeStream<ChatMessageBatch> stream = new FakeStream<>();
+        GrpcSubscriber<ChatMessageBatch> subscriber = batching(stream, 3, 16);
+        stream.ready = false;
+        for (int i = 0; i < 7; i++) {
+            subscriber.deliver(chat("m" + i));
+        }
+        stream.ready = true;
+        subscriber.drain();
+        assertEquals(Arrays.asList(List.of("m0", "m1", "m2"), List.of("m3", "m4", "m5"), List.of("m6")),
+                batchContents(stream.sent));
+    }
+
+    @Test
+    public void busBatchIsSplitAtBatchMaxAndNotMergedPastIt() {
+        FakeStream<ChatMessageBatch> stream = new FakeStream<>();
+        GrpcSubscriber<ChatMessageBatch> subscriber = batching(stream, 3, 16);
+        stream.ready = false;
+        subscriber.deliver(chat("a"));
+        subscriber.deliverAll(List.of(chat("b0"), chat("b1"), chat("b2"), chat("b3")));
+        stream.ready = true;
+        subscriber.drain();
+        // "a" + [b0 b1 b2] vượt batchMax nên không gộp; [b3] không vượt nên không tách
+        assertEquals(Arrays.asList(List.of("a"), List.of("b0", "b1", "b2"), List.of("b3")),
+                batchContents(stream.sent));
+    }
+
+    @Test
+    public void busBatchIsSentWholeWhenReady() {
+        FakeStream<ChatMessageBatch> stream = new FakeStream<>();
+        GrpcSubscriber<ChatMessageBatch> subscriber = batching(stream, 8, 16);
+        subscriber.deliverAll(List.of(chat("b0"), EncodedMessage.of(new Message(MessageType.PING, "SERVER", "")),
+                chat("b1")));
+        assertEquals(List.of(List.of("b0", "b1")), batchContents(stream.sent));
+    }
+
+    @Test
+    public void mergedBatchStaysUnderMaxMessageSize() {
+        FakeStream<ChatMessageBatch> stream = new FakeStream<>();
+        GrpcSubscriber<ChatMessageBatch> subscriber = batching(stream, 100, 16);
+        char[] big = new char[ProtocolConstants.MAX_MESSAGE_SIZE / 3];
+        Arrays.fill(big, 'x');
+        String content = new String(big);
+        stream.ready = false;
+        for (int i = 0; i < 4; i++) {
+            subscriber.deliver(chat(content));
+        }
+        stream.ready = true;
+        subscriber.drain();
+
+        assertEquals(2, stream.sent.size());
+        for (ChatMessageBatch batch : stream.sent) {
+            assertEquals(2, batch.getMessagesCount());
+            assertTrue(batch.getSerializedSize() <= ProtocolConstants.MAX_MESSAGE_SIZE);
+        }
+    }
+}
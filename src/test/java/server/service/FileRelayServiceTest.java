@@ -0,0 +1,276 @@
+package server.service;
+
+import common.protocol.Message;
+import common.protocol.MessageType;
+import common.protocol.ProtocolConstants;
+import common.protocol.RelayHandshake;
+import common.util.ChecksumUtil;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import server.config.ServerConfig;
+import server.core.ServerContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * FileRelayServiceTest - Relay port thật: splice sender → receiver, resume,
+ * tee vào BlobStore, ownership proof cho dedup và hết hạn token
+ */
+public class FileRelayServiceTest {
+
+    private static final int FILE_SIZE = 3 * ProtocolConstants.CHUNK_SIZE + 1234;
+    private static final int READ_TIMEOUT = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerContext context;
+    private FileRelayService relay;
+    private final byte[] data = new byte[FILE_SIZE];
+
+    private void start(boolean store, long offerTimeout, long transferTimeout) throws IOException {
+        new Random(7).nextBytes(data);
+        File config = folder.newFile("server.properties");
+        Files.write(config.toPath(), ("file.relay.port=0\n"
+                + "file.relay.offer.timeout=" + offerTimeout + "\n"
+                + "file.relay.transfer.timeout=" + transferTimeout + "\n"
+                + "file.store.enabled=" + store + "\n"
+                + "file.store.dir=" + folder.newFolder("blobs").getPath() + "\n"
+                + "history.enabled=false\n").getBytes());
+        context = new ServerContext(ServerConfig.loadFromFile(config.getPath()));
+        context.start();
+        relay = context.getFileRelayService();
+        assertTrue(relay.isRunning());
+    }
+
+    private void start() throws IOException {
+        start(false, ProtocolConstants.FILE_OFFER_TIMEOUT, ProtocolConstants.FILE_TRANSFER_TIMEOUT);
+    }
+
+    @After
+    public void tearDown() {
+        if (context != null) {
+            context.stop();
+        }
+    }
+
+    private String md5() {
+        return ChecksumUtil.calculateMD5(data);
+    }
+
+    private SocketChannel connect(byte role, String token, String proof) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", relay.getPort()));
+        channel.socket().setSoTimeout(READ_TIMEOUT);
+        ByteBuffer hello = RelayHandshake.encode(role, token, proof);
+        while (hello.hasRemaining()) {
+            channel.write(hello);
+        }
+        return channel;
+    }
+
+    private static void write(SocketChannel channel, byte[] bytes, int offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, bytes.length - offset);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Đọc tới EOF - socket adaptor stream tôn trọng SO_TIMEOUT
+     */
+    private static byte[] readAll(SocketChannel channel) throws IOException {
+        InputStream in = channel.socket().getInputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static void assertRejected(SocketChannel channel) throws IOException {
+        try {
+            RelayHandshake.readStatus(channel);
+            fail("Relay accepted the peer");
+        } catch (EOFException expected) {
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Một transfer đầy đủ qua relay
+     * @return status mà sender nhận
+     */
+    private byte transfer(String token, String proof) throws IOException {
+        try (SocketChannel receiver = connect(RelayHandshake.ROLE_RECEIVER, token, null);
+                SocketChannel sender = connect(RelayHandshake.ROLE_SENDER, token, proof)) {
+            byte status = RelayHandshake.readStatus(sender);
+            if (status == RelayHandshake.STATUS_UPLOAD) {
+                write(sender, data, 0);
+            }
+            assertArrayEquals(data, readAll(receiver));
+            return status;
+        }
+    }
+
+    private String proof(Message ack) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, data);
+        try (FileChannel channel = FileChannel.open(file)) {
+            return ChecksumUtil.ownershipProof(channel, ack.getProofNonce(), ack.getProofOffset(), ack.getProofLength());
+        }
+    }
+
+    private void awaitStored(int blobs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + READ_TIMEOUT;
+        while (context.getBlobStore().getBlobCount() < blobs && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(blobs, context.getBlobStore().getBlobCount());
+    }
+
+    @Test
+    public void splicesSenderBytesToReceiver() throws Exception {
+        start();
+        String token = relay.register("alice", "bob", "a.bin", FILE_SIZE, md5(), "MD5");
+        assertTrue(relay.accept(token, "bob", "alice", true, 0));
+
+        assertEquals(RelayHandshake.STATUS_UPLOAD, transfer(token, null));
+    }
+
+    @Test
+    public void resumeRelaysOnlyTheMissingTail() throws Exception {
+        start();
+        String token = relay.register("alice", "bob", "a.bin", FILE_SIZE, md5(), "MD5");
+        assertTrue(relay.accept(token, "bob", "alice", true, 2));
+        int offset = 2 * ProtocolConstants.CHUNK_SIZE;
+
+        try (SocketChannel receiver = connect(RelayHandshake.ROLE_RECEIVER, token, null);
+                SocketChannel sender = connect(RelayHandshake.ROLE_SENDER, token, null)) {
+            assertEquals(RelayHandshake.STATUS_UPLOAD, RelayHandshake.readStatus(sender));
+            write(sender, data, offset);
+            assertArrayEquals(Arrays.copyOfRange(data, offset, FILE_SIZE), readAll(receiver));
+        }
+    }
+
+    @Test
+    public void acceptChecksPeersAndToken() throws Exception {
+        start();
+        String token = relay.register("alice", "bob", "a.bin", FILE_SIZE, null, null);
+
+        assertFalse(relay.accept("nope", "bob", "alice", true, 0));
+        assertFalse(relay.accept(token, "mallory", "alice", true, 0));
+        assertFalse(relay.accept(token, "bob", "mallory", true, 0));
+        assertFalse(relay.accept(null, "bob", "alice", true, 0));
+
+        // Sender chỉ được vào sau khi receiver accept
+        assertRejected(connect(RelayHandshake.ROLE_SENDER, token, null));
+
+        assertTrue(relay.accept(token, "bob", "alice", false, 0));     // Decline
+        assertFalse(relay.accept(token, "bob", "alice", true, 0));
+        assertRejected(connect(RelayHandshake.ROLE_SENDER, token, null));
+    }
+
+    @Test
+    public void duplicatePeerIsRejected() throws Exception {
+        start();
+        String token = relay.register("alice", "bob", "a.bin", FILE_SIZE, null, null);
+        assertTrue(relay.accept(token, "bob", "alice", true, 0));
+
+        // Status byte cho thấy sender đầu tiên đã được ghép trước khi twin tới
+        try (SocketChannel sender = connect(RelayHandshake.ROLE_SENDER, token, null)) {
+            assertEquals(RelayHandshake.STATUS_UPLOAD, RelayHandshake.readStatus(sender));
+            assertRejected(connect(RelayHandshake.ROLE_SENDER, token, null));
+
+            try (SocketChannel receiver = connect(RelayHandshake.ROLE_RECEIVER, token, null)) {
+                write(sender, data, 0);
+                assertArrayEquals(data, readAll(receiver));
+            }
+        }
+    }
+
+    @Test
+    public void uploadIsStoredAndProofServesTheBlob() throws Exception {
+        start(true, ProtocolConstants.FILE_OFFER_TIMEOUT, ProtocolConstants.FILE_TRANSFER_TIMEOUT);
+
+        // Lần đầu: store chưa có file - challenge vẫn được gửi, sender upload
+        String first = relay.register("alice", "bob", "a.bin", FILE_SIZE, md5(), "MD5");
+        Message firstAck = new Message(MessageType.FILE_ACK, "bob", "alice", "");
+        relay.attachChallenge(first, firstAck);
+        assertNotNull(firstAck.getProofNonce());
+        assertTrue(relay.accept(first, "bob", "alice", true, 0));
+        assertEquals(RelayHandshake.STATUS_UPLOAD, transfer(first, proof(firstAck)));
+        awaitStored(1);
+
+        // Lần sau: proof đúng - server stream blob, không có upload
+        String second = relay.register("carol", "dave", "copy.bin", FILE_SIZE, md5(), "MD5");
+        Message ack = new Message(MessageType.FILE_ACK, "dave", "carol", "");
+        relay.attachChallenge(second, ack);
+        assertTrue(relay.accept(second, "dave", "carol", true, 0));
+        assertEquals(RelayHandshake.STATUS_STORED, transfer(second, proof(ack)));
+    }
+
+    @Test
+    public void wrongProofFallsBackToUpload() throws Exception {
+        start(true, ProtocolConstants.FILE_OFFER_TIMEOUT, ProtocolConstants.FILE_TRANSFER_TIMEOUT);
+        String first = relay.register("alice", "bob", "a.bin", FILE_SIZE, md5(), "MD5");
+        assertTrue(relay.accept(first, "bob", "alice", true, 0));
+        transfer(first, null);
+        awaitStored(1);
+
+        // Chỉ biết checksum - không chứng minh được có file
+        String second = relay.register("mallory", "bob", "a.bin", FILE_SIZE, md5(), "MD5");
+        Message ack = new Message(MessageType.FILE_ACK, "bob", "mallory", "");
+        relay.attachChallenge(second, ack);
+        assertTrue(relay.accept(second, "bob", "mallory", true, 0));
+        assertEquals(RelayHandshake.STATUS_UPLOAD, transfer(second, md5()));
+    }
+
+    @Test
+    public void unacceptedOfferExpires() throws Exception {
+        start(false, 200, ProtocolConstants.FILE_TRANSFER_TIMEOUT);
+        String token = relay.register("alice", "bob", "a.bin", FILE_SIZE, null, null);
+        Thread.sleep(400);
+
+        assertFalse(relay.accept(token, "bob", "alice", true, 0));
+        assertRejected(connect(RelayHandshake.ROLE_SENDER, token, null));
+    }
+
+    @Test
+    public void peerWaitingForMissingPartnerIsClosedOnTimeout() throws Exception {
+        start(false, ProtocolConstants.FILE_OFFER_TIMEOUT, 300);
+        String token = relay.register("alice", "bob", "a.bin", FILE_SIZE, null, null);
+        assertTrue(relay.accept(token, "bob", "alice", true, 0));
+
+        // Receiver kết nối, sender không bao giờ tới - sweeper đóng receiver
+        long begin = System.currentTimeMillis();
+        try (SocketChannel receiver = connect(RelayHandshake.ROLE_RECEIVER, token, null)) {
+            assertEquals(-1, receiver.socket().getInputStream().read());
+        }
+        assertTrue(System.currentTimeMillis() - begin < READ_TIMEOUT);
+        assertRejected(connect(RelayHandshake.ROLE_SENDER, token, null));
+    }
+}
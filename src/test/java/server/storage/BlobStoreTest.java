@@ -0,0 +1,219 @@
+package server.storage;
+
+import common.util.ChecksumUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * BlobStoreTest - Verified upload, LRU eviction theo quota và leases
+ */
+public class BlobStoreTest {
+
+    private static final int BLOB_SIZE = 1000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] content(int seed) {
+        byte[] data = new byte[BLOB_SIZE];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static String md5(byte[] data) {
+        return ChecksumUtil.calculateMD5(data);
+    }
+
+    private BlobStore open(long quota) throws IOException {
+        BlobStore store = new BlobStore(folder.getRoot().toPath().resolve("blobs").toString(), quota);
+        store.start();
+        return store;
+    }
+
+    /**
+     * Upload data (chia thành hai writes như relay splice) dưới checksum
+     */
+    private static boolean upload(BlobStore store, String checksum, byte[] data) throws IOException {
+        BlobStore.Upload upload = store.beginUpload(checksum, "MD5", data.length);
+        assertNotNull(upload);
+        int half = data.length / 2;
+        upload.write(ByteBuffer.wrap(data, 0, half));
+        upload.write(ByteBuffer.wrap(data, half, data.length - half));
+        return upload.commit();
+    }
+
+    private static byte[] read(BlobStore.Lease lease) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate((int) lease.size());
+        try (FileChannel channel = lease.open()) {
+            while (data.hasRemaining() && channel.read(data) >= 0) {
+                // read fully
+            }
+        }
+        return data.array();
+    }
+
+    private Path blobDir() {
+        return folder.getRoot().toPath().resolve("blobs");
+    }
+
+    @Test
+    public void verifiedUploadCanBeLeased() throws IOException {
+        BlobStore store = open(10 * BLOB_SIZE);
+        byte[] data = content(1);
+        assertTrue(upload(store, md5(data), data));
+
+        try (BlobStore.Lease lease = store.acquire(md5(data).toUpperCase(), "MD5", BLOB_SIZE)) {
+            assertNotNull(lease);
+            assertArrayEquals(data, read(lease));
+        }
+        assertNull(store.acquire(md5(data), "MD5", BLOB_SIZE + 1));     // Size phải khớp
+        assertNull(store.beginUpload(md5(data), "MD5", BLOB_SIZE));     // Đã có
+    }
+
+    @Test
+    public void uploadWithWrongHashIsRejected() throws IOException {
+        BlobStore store = open(10 * BLOB_SIZE);
+        byte[] data = content(1);
+        String claimed = md5(content(2));
+        assertFalse(upload(store, claimed, data));
+
+        assertNull(store.acquire(claimed, "MD5", BLOB_SIZE));
+        assertEquals(0, store.getBlobCount());
+        assertEquals(0, store.getUsedBytes());
+        try (var files = Files.list(blobDir())) {
+            assertEquals("Temp file của upload bị từ chối phải bị xóa", 0, files.count());
+        }
+    }
+
+    @Test
+    public void incompleteUploadIsRejected() throws IOException {
+        BlobStore store = open(10 * BLOB_SIZE);
+        byte[] data = content(1);
+        BlobStore.Upload upload = store.beginUpload(md5(data), "MD5", BLOB_SIZE);
+        upload.write(ByteBuffer.wrap(data, 0, BLOB_SIZE - 1));
+        assertFalse(upload.commit());
+        assertEquals(0, store.getBlobCount());
+    }
+
+    @Test
+    public void unusableChecksumsAreNotStored() throws IOException {
+        BlobStore store = open(10 * BLOB_SIZE);
+        assertNull(store.beginUpload("deadbeef", "CRC32C", BLOB_SIZE));     // Không cryptographic
+        assertNull(store.beginUpload("../../etc/passwd", "MD5", BLOB_SIZE));
+        assertNull(store.beginUpload(md5(content(1)), "SHA-256", BLOB_SIZE)); // Sai độ dài
+        assertNull(store.beginUpload(md5(content(1)), "MD5", 11 * BLOB_SIZE)); // Lớn hơn quota
+        assertFalse(BlobStore.isStorable(null, "MD5"));
+        assertTrue(BlobStore.isStorable(md5(content(1)), null));
+    }
+
+    @Test
+    public void leastRecentlyUsedBlobIsEvictedOverQuota() throws IOException {
+        BlobStore store = open(2 * BLOB_SIZE);
+        byte[] a = content(1);
+        byte[] b = content(2);
+        byte[] c = content(3);
+        upload(store, md5(a), a);
+        upload(store, md5(b), b);
+        store.acquire(md5(a), "MD5", BLOB_SIZE).close();    // a dùng gần đây hơn b
+
+        upload(store, md5(c), c);
+        assertEquals(2, store.getBlobCount());
+        assertEquals(2 * BLOB_SIZE, store.getUsedBytes());
+        assertNull(store.acquire(md5(b), "MD5", BLOB_SIZE));
+        assertFalse(Files.exists(blobDir().resolve(md5(b))));
+        store.acquire(md5(a), "MD5", BLOB_SIZE).close();
+        store.acquire(md5(c), "MD5", BLOB_SIZE).close();
+    }
+
+    @Test
+    public void leasedBlobIsNotEvicted() throws IOException {
+        BlobStore store = open(2 * BLOB_SIZE);
+        byte[] a = content(1);
+        byte[] b = content(2);
+        byte[] c = content(3);
+        upload(store, md5(a), a);
+        upload(store, md5(b), b);
+
+        BlobStore.Lease lease = store.acquire(md5(a), "MD5", BLOB_SIZE);
+        store.acquire(md5(b), "MD5", BLOB_SIZE).close();    // a là LRU nhưng đang được đọc
+        upload(store, md5(c), c);
+        assertNull(store.acquire(md5(b), "MD5", BLOB_SIZE));
+        assertArrayEquals(a, read(lease));
+        lease.close();
+        lease.close();      // Idempotent - không trả reference hai lần
+        assertNotNull(store.acquire(md5(a), "MD5", BLOB_SIZE));
+    }
+
+    @Test
+    public void pinnedBlobSurvivesWhenOnlyNewBlobCanBeEvicted() throws IOException {
+        BlobStore store = open(BLOB_SIZE);
+        byte[] a = content(1);
+        byte[] b = content(2);
+        upload(store, md5(a), a);
+        BlobStore.Lease lease = store.acquire(md5(a), "MD5", BLOB_SIZE);
+        // a bị lease nên blob duy nhất evict được là b vừa upload
+        assertTrue(upload(store, md5(b), b));
+        assertEquals(BLOB_SIZE, store.getUsedBytes());
+        assertNull(store.acquire(md5(b), "MD5", BLOB_SIZE));
+
+        lease.close();
+        assertNotNull(store.acquire(md5(a), "MD5", BLOB_SIZE));
+    }
+
+    @Test
+    public void restartReindexesBlobsAndDropsPartialUploads() throws IOException {
+        BlobStore store = open(10 * BLOB_SIZE);
+        byte[] a = content(1);
+        upload(store, md5(a), a);
+        // Upload dở dang lúc crash
+        store.beginUpload(md5(content(2)), "MD5", BLOB_SIZE).write(ByteBuffer.wrap(content(2)));
+
+        BlobStore reopened = open(10 * BLOB_SIZE);
+        assertEquals(1, reopened.getBlobCount());
+        assertEquals(BLOB_SIZE, reopened.getUsedBytes());
+        try (BlobStore.Lease lease = reopened.acquire(md5(a), "MD5", BLOB_SIZE)) {
+            assertArrayEquals(a, read(lease));
+        }
+        try (var files = Files.list(blobDir())) {
+            assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void ownershipProofMatchesOnlySameContent() throws IOException {
+        BlobStore store = open(10 * BLOB_SIZE);
+        byte[] a = content(1);
+        upload(store, md5(a), a);
+        byte[] nonce = { 1, 2, 3, 4 };
+
+        Path copy = folder.newFile("a.bin").toPath();
+        Files.write(copy, a);
+        Path other = folder.newFile("b.bin").toPath();
+        Files.write(other, content(2));
+
+        try (BlobStore.Lease lease = store.acquire(md5(a), "MD5", BLOB_SIZE);
+             FileChannel blob = lease.open();
+             FileChannel sender = FileChannel.open(copy);
+             FileChannel forger = FileChannel.open(other)) {
+            String expected = ChecksumUtil.ownershipProof(blob, nonce, 100, 500);
+            assertEquals(expected, ChecksumUtil.ownershipProof(sender, nonce, 100, 500));
+            assertFalse(expected.equals(ChecksumUtil.ownershipProof(forger, nonce, 100, 500)));
+            assertFalse(expected.equals(ChecksumUtil.ownershipProof(sender, new byte[] { 9 }, 100, 500)));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package server.storage;
+
+import common.protocol.Message;
+import common.protocol.MessageType;
+import common.protocol.ProtocolConstants;
+import server.config.ServerConfig.Durability;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+/**
+ * HistoryBenchmark - Throughput của MessageStore (msg/s) ở mỗi mức durability
+ *
+ * Closed loop như chat clients thật: mỗi sender append một message rồi chờ
+ * durable ACK trước khi gửi message tiếp theo, tất cả vào cùng một room
+ * stream. Với BATCHED, các senders đang chờ chia nhau một fsync; với
+ * PER_MESSAGE mỗi message tốn một fsync riêng.
+ *
+ * Không phải unit test (surefire chỉ chạy *Test) - chạy tay:
+ *
+ *   mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ *   java -cp target/classes:target/test-classes:$(cat target/cp.txt) \
+ *       server.storage.HistoryBenchmark [messages] [senders] [dir]
+ *
+ * dir mặc định là temp dir - kết quả phụ thuộc disk (tmpfs fsync gần như
+ * miễn phí), nên chạy với dir trên disk muốn đo.
+ */
+public class HistoryBenchmark {
+
+    private static final int WARMUP_MESSAGES = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int senders = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        Path root = args.length > 2 ? Files.createTempDirectory(Paths.get(args[2]), "history-bench")
+                : Files.createTempDirectory("history-bench");
+
+        System.out.println("[BENCH] " + messages + " messages, " + senders + " senders, dir " + root);
+        try {
+            for (Durability durability : Durability.values()) {
+                run(root.resolve(durability.name().toLowerCase() + "-warmup"), durability,
+                        WARMUP_MESSAGES, senders);
+                double rate = run(root.resolve(durability.name().toLowerCase()), durability, messages, senders);
+                System.out.printf("[BENCH] %-12s %,10.0f msg/s%n", durability, rate);
+            }
+        } finally {
+            delete(root);
+        }
+    }
+
+    /**
+     * @return messages/sec từ lúc senders bắt đầu đến ACK cuối cùng
+     */
+    private static double run(Path dir, Durability durability, int messages, int senders) throws Exception {
+        MessageStore store = new MessageStore(dir.toString(), ProtocolConstants.HISTORY_SEGMENT_BYTES, durability);
+        store.start();
+        String stream = MessageStore.roomStream("lobby");
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = new ArrayList<>();
+        int perSender = Math.max(1, messages / senders);
+
+        for (int s = 0; s < senders; s++) {
+            String sender = "user" + s;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perSender; i++) {
+                        Message msg = new Message(MessageType.CHAT, sender, "benchmark message " + i);
+                        CompletableFuture<Long> durable = store.append(stream, msg);
+                        durable.get();
+                    }
+                } catch (InterruptedException | ExecutionException e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }, "bench-sender-" + s);
+            thread.start();
+            threads.add(thread);
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+        store.stop();
+
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException("Append failed", errors.get(0));
+        }
+        if (store.getDropped() > 0) {
+            System.out.println("[BENCH] " + durability + ": " + store.getDropped() + " appends dropped");
+        }
+        return perSender * (double) senders / (elapsed / 1e9);
+    }
+
+    private static void delete(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
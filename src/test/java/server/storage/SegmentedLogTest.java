@@ -0,0 +1,161 @@
+package server.storage;
+
+import common.protocol.FrameCodec;
+import common.protocol.Message;
+import common.protocol.MessageType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SegmentedLogTest - Pagination, segment rolling và crash recovery của history log
+ */
+public class SegmentedLogTest {
+
+    // Nhỏ để mỗi segment chỉ giữ vài records
+    private static final long SEGMENT_BYTES = 512;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dir;
+    private SegmentedLog log;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = folder.newFolder("room-dev").toPath();
+        log = new SegmentedLog(dir, SEGMENT_BYTES);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        log.close();
+    }
+
+    private static ByteBuffer frame(String content) throws IOException {
+        return ByteBuffer.wrap(FrameCodec.BINARY.encode(new Message(MessageType.CHAT, "alice", content)));
+    }
+
+    /**
+     * Records m0..m(count-1) với timestamp 1000 + i
+     */
+    private void appendAll(int from, int count) throws IOException {
+        for (int i = from; i < from + count; i++) {
+            assertEquals(i, log.append(1000 + i, frame("m" + i)));
+        }
+        log.force();
+    }
+
+    private static List<Long> sequences(List<StoredMessage> page) {
+        List<Long> sequences = new ArrayList<>();
+        for (StoredMessage stored : page) {
+            assertEquals("m" + stored.getSequence(), stored.getMessage().getContent());
+            sequences.add(stored.getSequence());
+        }
+        return sequences;
+    }
+
+    private static List<Long> range(long from, long to) {
+        List<Long> range = new ArrayList<>();
+        for (long i = from; i < to; i++) {
+            range.add(i);
+        }
+        return range;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.log")) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    @Test
+    public void emptyLogHasNoPages() throws IOException {
+        assertEquals(0, log.size());
+        assertTrue(log.readBefore(Long.MAX_VALUE, Long.MAX_VALUE, 10).isEmpty());
+    }
+
+    @Test
+    public void pagesWalkBackwardsAcrossSegments() throws IOException {
+        appendAll(0, 100);
+        assertTrue(segmentFiles().size() > 1);
+
+        assertEquals(range(90, 100), sequences(log.readBefore(Long.MAX_VALUE, Long.MAX_VALUE, 10)));
+        assertEquals(range(80, 90), sequences(log.readBefore(Long.MAX_VALUE, 90, 10)));
+        assertEquals(range(0, 5), sequences(log.readBefore(Long.MAX_VALUE, 5, 10)));
+        assertTrue(log.readBefore(Long.MAX_VALUE, 0, 10).isEmpty());
+    }
+
+    @Test
+    public void pageBeforeTimestamp() throws IOException {
+        appendAll(0, 100);
+        // timestamp 1050 = m50; trang kết thúc ngay trước nó
+        assertEquals(range(45, 50), sequences(log.readBefore(1050, Long.MAX_VALUE, 5)));
+        assertEquals(range(0, 3), sequences(log.readBefore(1003, Long.MAX_VALUE, 10)));
+        assertTrue(log.readBefore(1000, Long.MAX_VALUE, 10).isEmpty());
+    }
+
+    @Test
+    public void timestampsNeverGoBackwards() throws IOException {
+        log.append(2000, frame("m0"));
+        log.append(1500, frame("m1"));
+        List<StoredMessage> page = log.readBefore(Long.MAX_VALUE, Long.MAX_VALUE, 10);
+        assertEquals(2000, page.get(1).getTimestamp());
+    }
+
+    @Test
+    public void reopenRecoversIndexAndContinuesSequences() throws IOException {
+        appendAll(0, 70);
+        log.close();
+
+        log = new SegmentedLog(dir, SEGMENT_BYTES);
+        assertEquals(70, log.size());
+        assertEquals(range(60, 70), sequences(log.readBefore(Long.MAX_VALUE, Long.MAX_VALUE, 10)));
+        assertEquals(range(30, 35), sequences(log.readBefore(1035, Long.MAX_VALUE, 5)));
+
+        appendAll(70, 5);
+        assertEquals(range(65, 75), sequences(log.readBefore(Long.MAX_VALUE, Long.MAX_VALUE, 10)));
+    }
+
+    @Test
+    public void partialRecordIsTruncatedOnRecovery() throws IOException {
+        appendAll(0, 10);
+        log.close();
+
+        // Crash giữa một append: header hứa 100 bytes nhưng chỉ có 3
+        List<Path> files = segmentFiles();
+        Path last = files.get(files.size() - 1);
+        long intact = Files.size(last);
+        try (FileChannel channel = FileChannel.open(last, StandardOpenOption.APPEND)) {
+            ByteBuffer torn = ByteBuffer.allocate(15);
+            torn.putInt(100).putLong(2000).put(new byte[] { 1, 2, 3 }).flip();
+            channel.write(torn);
+        }
+
+        log = new SegmentedLog(dir, SEGMENT_BYTES);
+        assertEquals(10, log.size());
+        assertEquals(intact, Files.size(last));
+
+        appendAll(10, 1);
+        assertEquals(range(5, 11), sequences(log.readBefore(Long.MAX_VALUE, Long.MAX_VALUE, 6)));
+    }
+}
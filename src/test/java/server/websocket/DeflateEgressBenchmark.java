@@ -0,0 +1,308 @@
+package server.websocket;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.drafts.Draft;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.extensions.IExtension;
+import org.java_websocket.extensions.permessage_deflate.PerMessageDeflateExtension;
+import org.java_websocket.handshake.ServerHandshake;
+import server.config.ServerConfig;
+import server.core.ServerContext;
+import server.websocket.dto.WebSocketMessage;
+
+import javax.net.SocketFactory;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DeflateEgressBenchmark - Egress bytes mỗi broadcast message, có và không
+ * có permessage-deflate
+ *
+ * Với mỗi cấu hình websocket.deflate.*, một ChatWebSocketServer in-process
+ * nhận N lobby chat messages từ một sender; P plain clients và D deflate
+ * clients (offer permessage-deflate như browser, không yêu cầu
+ * server_no_context_takeover) đếm wire bytes đọc được
+ * từ socket. Kết quả là bytes mỗi message mỗi client, gồm cả WebSocket
+ * framing.
+ *
+ * Server logs mỗi message ra stdout nên stdout bị tắt trong lúc đo.
+ *
+ *   mvn -q test-compile dependency:build-classpath -Dmdep.outputFile=target/cp.txt
+ *   java -cp target/classes:target/test-classes:$(cat target/cp.txt) \
+ *       server.websocket.DeflateEgressBenchmark [messages] [clientsPerKind]
+ */
+public class DeflateEgressBenchmark {
+
+    private static final long DELIVERY_TIMEOUT_MS = 60000;
+    private static final String MARKER = "bench-msg";
+
+    // Chat lines kiểu lobby - JSON lặp lại nhiều, nội dung thay đổi
+    private static final String[] WORDS = {
+            "hey", "anyone", "seen", "the", "build", "deploy", "broke", "again", "lunch", "today",
+            "meeting", "moved", "to", "3pm", "can", "you", "review", "my", "PR", "thanks", "lol",
+            "ok", "sure", "on", "it", "server", "is", "slow", "restart", "please", "done"
+    };
+
+    /**
+     * Một cấu hình server được đo
+     */
+    private static final class Profile {
+        final String name;
+        final int level;
+        final boolean takeover;
+        final int minSize;
+
+        Profile(String name, int level, boolean takeover, int minSize) {
+            this.name = name;
+            this.level = level;
+            this.takeover = takeover;
+            this.minSize = minSize;
+        }
+    }
+
+    /**
+     * Client đếm wire bytes (qua socket factory) và số chat frames nhận được
+     */
+    private static final class CountingClient extends WebSocketClient {
+
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicInteger received = new AtomicInteger();
+
+        CountingClient(URI uri, Draft draft) {
+            super(uri, draft);
+            setSocketFactory(new SocketFactory() {
+                @Override
+                public Socket createSocket() {
+                    return new Socket() {
+                        @Override
+                        public InputStream getInputStream() throws IOException {
+                            return new FilterInputStream(super.getInputStream()) {
+                                @Override
+                                public int read() throws IOException {
+                                    int b = super.read();
+                                    if (b >= 0) {
+                                        bytes.incrementAndGet();
+                                    }
+                                    return b;
+                                }
+
+                                @Override
+                                public int read(byte[] buf, int off, int len) throws IOException {
+                                    int n = super.read(buf, off, len);
+                                    if (n > 0) {
+                                        bytes.addAndGet(n);
+                                    }
+                                    return n;
+                                }
+                            };
+                        }
+                    };
+                }
+
+                @Override
+                public Socket createSocket(String host, int port) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Socket createSocket(String host, int port, InetAddress localHost, int localPort) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Socket createSocket(InetAddress host, int port) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+        }
+
+        @Override
+        public void onMessage(String message) {
+            if (message.contains(MARKER)) {
+                received.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onError(Exception e) {
+            System.err.println("[BENCH] Client error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Offer như browser - PerMessageDeflateExtension luôn offer
+     * server_no_context_takeover (bỏ qua setters), browsers thì không
+     */
+    private static final class BrowserDeflate extends PerMessageDeflateExtension {
+
+        BrowserDeflate() {
+            setServerNoContextTakeover(false);
+            setClientNoContextTakeover(false);
+        }
+
+        @Override
+        public String getProvidedExtensionAsClient() {
+            return "permessage-deflate; client_max_window_bits";
+        }
+
+        @Override
+        public IExtension copyInstance() {
+            return new BrowserDeflate();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int perKind = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        List<Profile> profiles = new ArrayList<>();
+        profiles.add(new Profile("level 6, context takeover", 6, true, 64));
+        profiles.add(new Profile("level 1, context takeover", 1, true, 64));
+        profiles.add(new Profile("level 9, context takeover", 9, true, 64));
+        profiles.add(new Profile("level 6, no context takeover", 6, false, 64));
+
+        List<String> lines = chatLines(messages);
+        PrintStream console = System.out;
+        for (Profile profile : profiles) {
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            double[] result;
+            try {
+                result = run(profile, lines, perKind);
+            } finally {
+                System.setOut(console);
+            }
+            console.printf("[BENCH] %-30s plain %7.1f B/msg   deflate %7.1f B/msg (%.0f%%)%n",
+                    profile.name, result[0], result[1], 100 * result[1] / result[0]);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @return {plain, deflate} wire bytes mỗi message mỗi client
+     */
+    private static double[] run(Profile profile, List<String> lines, int perKind) throws Exception {
+        Path config = Files.createTempFile("bench-server", ".properties");
+        Files.write(config, ("websocket.deflate.enabled=true\n"
+                + "websocket.deflate.level=" + profile.level + "\n"
+                + "websocket.deflate.context.takeover=" + profile.takeover + "\n"
+                + "websocket.deflate.min.size=" + profile.minSize + "\n"
+                + "history.enabled=false\n"
+                + "file.relay.enabled=false\n").getBytes());
+        ServerContext context = new ServerContext(ServerConfig.loadFromFile(config.toString()));
+        Files.delete(config);
+        context.start();
+        ChatWebSocketServer server = new ChatWebSocketServer(0, context);
+        server.start();
+        long deadline = System.currentTimeMillis() + DELIVERY_TIMEOUT_MS;
+        while (server.getPort() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        URI uri = URI.create("ws://127.0.0.1:" + server.getPort());
+
+        List<CountingClient> plain = new ArrayList<>();
+        List<CountingClient> deflate = new ArrayList<>();
+        CountingClient sender = new CountingClient(uri, new Draft_6455());
+        try {
+            for (int i = 0; i < perKind; i++) {
+                plain.add(join(new CountingClient(uri, new Draft_6455()), "plain" + i));
+                deflate.add(join(new CountingClient(uri, new Draft_6455(new BrowserDeflate())), "deflate" + i));
+            }
+            join(sender, "sender");
+            Thread.sleep(500);      // Presence deltas của các joins trên đã đến
+
+            long plainBefore = total(plain);
+            long deflateBefore = total(deflate);
+            for (String line : lines) {
+                WebSocketMessage chat = new WebSocketMessage("chat");
+                chat.put("content", line);
+                sender.send(chat.toJson());
+            }
+            List<CountingClient> all = new ArrayList<>(plain);
+            all.addAll(deflate);
+            for (CountingClient client : all) {
+                while (client.received.get() < lines.size() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(10);
+                }
+                if (client.received.get() < lines.size()) {
+                    throw new IllegalStateException("Client received " + client.received.get()
+                            + "/" + lines.size() + " messages");
+                }
+            }
+            double per = (double) lines.size() * perKind;
+            return new double[] {
+                    (total(plain) - plainBefore) / per,
+                    (total(deflate) - deflateBefore) / per
+            };
+        } finally {
+            sender.closeBlocking();
+            for (CountingClient client : plain) {
+                client.closeBlocking();
+            }
+            for (CountingClient client : deflate) {
+                client.closeBlocking();
+            }
+            server.stop(1000);
+            context.stop();
+        }
+    }
+
+    private static CountingClient join(CountingClient client, String username) throws InterruptedException {
+        if (!client.connectBlocking(10, TimeUnit.SECONDS)) {
+            throw new IllegalStateException("Cannot connect " + username);
+        }
+        client.send(WebSocketMessage.auth(username).toJson());
+        return client;
+    }
+
+    private static long total(List<CountingClient> clients) {
+        long sum = 0;
+        for (CountingClient client : clients) {
+            sum += client.bytes.get();
+        }
+        return sum;
+    }
+
+    /**
+     * Chat lines cố định (seeded) để các lần chạy so sánh được
+     */
+    private static List<String> chatLines(int count) {
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder(MARKER).append(' ').append(i);
+            int words = 3 + random.nextInt(10);
+            for (int w = 0; w < words; w++) {
+                sb.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            lines.add(sb.toString());
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,238 @@
+package server.websocket.dto;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * BinaryFramesTest - Server frames decode lại đúng fields (UTF-8, null,
+ * varints), Reader từ chối frames bị cắt và length prefixes quá lớn bằng
+ * IOException
+ */
+public class BinaryFramesTest {
+
+    private static final String NON_ASCII = "Xin chào 👋 – đã nhận ✓";
+
+    /**
+     * Client frame viết tay: opcode rồi strings
+     */
+    private static byte[] clientFrame(int opcode, String... strings) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(opcode);
+        for (String value : strings) {
+            if (value == null) {
+                out.write(0);
+                continue;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length + 1);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Đọc opcode và int64 timestamp của server frame
+     */
+    private static BinaryFrames.Reader open(byte[] frame, int opcode) throws IOException {
+        BinaryFrames.Reader in = new BinaryFrames.Reader(ByteBuffer.wrap(frame));
+        assertEquals(opcode, in.readByte());
+        long timestamp = 0;
+        for (int i = 0; i < 8; i++) {
+            timestamp = (timestamp << 8) | in.readByte();
+        }
+        assertTrue(Math.abs(System.currentTimeMillis() - timestamp) < 60000);
+        return in;
+    }
+
+    private static void assertConsumed(BinaryFrames.Reader in) {
+        try {
+            in.readByte();
+            fail("Trailing bytes in frame");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static List<String> readStrings(BinaryFrames.Reader in) throws IOException {
+        int count = in.readVarint();
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            values.add(in.readString());
+        }
+        return values;
+    }
+
+    @Test
+    public void serverFramesRoundTrip() throws IOException {
+        BinaryFrames.Reader in = open(BinaryFrames.privateMsg("bảo", "chloé", NON_ASCII), BinaryFrames.OP_PRIVATE_MSG);
+        assertEquals("bảo", in.readString());
+        assertEquals("chloé", in.readString());
+        assertEquals(NON_ASCII, in.readString());
+        assertConsumed(in);
+
+        in = open(BinaryFrames.authSuccess("alice", null), BinaryFrames.OP_AUTH_SUCCESS);
+        assertEquals("alice", in.readString());
+        assertNull(in.readString());
+        assertConsumed(in);
+
+        in = open(BinaryFrames.chat("alice", ""), BinaryFrames.OP_CHAT_MSG);
+        assertEquals("alice", in.readString());
+        assertEquals("", in.readString());
+        assertConsumed(in);
+    }
+
+    @Test
+    public void stringsAreEncodedLikeStringGetBytes() {
+        // 1-, 2-, 3- và 4-byte sequences, lone surrogate thành '?'
+        String value = "aé€👋\ud800z";
+        byte[] frame = BinaryFrames.error(value);
+        byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+        assertEquals(1 + 8 + 1 + expected.length, frame.length);
+        assertEquals(expected.length + 1, frame[9]);
+        assertTrue(Arrays.equals(expected, Arrays.copyOfRange(frame, 10, frame.length)));
+    }
+
+    @Test
+    public void listsAndVersions() throws IOException {
+        BinaryFrames.Reader in = open(BinaryFrames.userList(Arrays.asList("alice", "ñ", "👋"), 300),
+                BinaryFrames.OP_USER_LIST);
+        assertEquals(300, in.readVarint());
+        assertEquals(Arrays.asList("alice", "ñ", "👋"), readStrings(in));
+        assertConsumed(in);
+
+        in = open(BinaryFrames.typingUsers("lobby", Collections.emptyList()), BinaryFrames.OP_TYPING_USERS);
+        assertEquals("lobby", in.readString());
+        assertEquals(0, in.readVarint());
+        assertConsumed(in);
+
+        in = open(BinaryFrames.userJoined("bob", 7), BinaryFrames.OP_USER_JOINED);
+        assertEquals("bob", in.readString());
+        assertEquals(7, in.readVarint());
+        assertConsumed(in);
+    }
+
+    @Test
+    public void pongCarriesClientTimestamp() throws IOException {
+        BinaryFrames.Reader in = open(BinaryFrames.pong(0x0102030405060708L), BinaryFrames.OP_PONG);
+        for (int b = 1; b <= 8; b++) {
+            assertEquals(b, in.readByte());
+        }
+        assertConsumed(in);
+    }
+
+    @Test
+    public void longFrameDoesNotLeakIntoNextFrame() throws IOException {
+        char[] big = new char[64 * 1024];
+        Arrays.fill(big, 'é');
+        String content = new String(big);
+        BinaryFrames.Reader in = open(BinaryFrames.chat("alice", content), BinaryFrames.OP_CHAT_MSG);
+        assertEquals("alice", in.readString());
+        assertEquals(content, in.readString());
+
+        byte[] small = BinaryFrames.system("ok");
+        assertEquals(1 + 8 + 1 + 2, small.length);
+        in = open(small, BinaryFrames.OP_SYSTEM);
+        assertEquals("ok", in.readString());
+        assertConsumed(in);
+    }
+
+    @Test
+    public void readerHonoursBufferPositionAndDirectBuffers() throws IOException {
+        byte[] frame = clientFrame(BinaryFrames.OP_PRIVATE, "bob", NON_ASCII);
+        byte[] padded = new byte[frame.length + 10];
+        System.arraycopy(frame, 0, padded, 5, frame.length);
+
+        ByteBuffer slice = ByteBuffer.wrap(padded, 5, frame.length).slice();
+        ByteBuffer direct = ByteBuffer.allocateDirect(frame.length);
+        direct.put(frame).flip();
+        for (ByteBuffer buffer : Arrays.asList(slice, direct)) {
+            BinaryFrames.Reader in = new BinaryFrames.Reader(buffer);
+            assertEquals(BinaryFrames.OP_PRIVATE, in.readByte());
+            assertEquals("bob", in.readString());
+            assertEquals(NON_ASCII, in.readString());
+            assertConsumed(in);
+        }
+    }
+
+    @Test
+    public void readBoolean() throws IOException {
+        BinaryFrames.Reader in = new BinaryFrames.Reader(ByteBuffer.wrap(new byte[] {BinaryFrames.OP_TYPING, 1, 0}));
+        assertEquals(BinaryFrames.OP_TYPING, in.readByte());
+        assertTrue(in.readBoolean());
+        assertFalse(in.readBoolean());
+    }
+
+    @Test
+    public void everyTruncationOfAClientFrameIsRejected() {
+        byte[] frame = clientFrame(BinaryFrames.OP_PRIVATE, "bob", NON_ASCII);
+        for (int cut = 0; cut < frame.length; cut++) {
+            BinaryFrames.Reader in = new BinaryFrames.Reader(ByteBuffer.wrap(frame, 0, cut));
+            try {
+                in.readByte();
+                in.readString();
+                in.readString();
+                fail("Parsed frame truncated to " + cut + " bytes");
+            } catch (IOException e) {
+                assertEquals("Truncated binary frame", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void oversizeLengthPrefixesAreRejected() {
+        long[] lengths = {
+                1000,                           // Lớn hơn phần còn lại của frame
+                Integer.MAX_VALUE,              // pos + length overflow int
+                0x80000000L,                    // Âm sau khi decode
+                0xFFFFFFFFL                     // -1 sau khi decode
+        };
+        for (long length : lengths) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(BinaryFrames.OP_CHAT);
+            writeVarint(out, length);
+            out.write('x');
+            BinaryFrames.Reader in = new BinaryFrames.Reader(ByteBuffer.wrap(out.toByteArray()));
+            try {
+                in.readByte();
+                in.readString();
+                fail("Accepted length prefix " + length);
+            } catch (IOException e) {
+                assertEquals("Truncated binary frame", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void overlongVarintIsRejected() {
+        byte[] frame = {BinaryFrames.OP_CHAT, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 1};
+        BinaryFrames.Reader in = new BinaryFrames.Reader(ByteBuffer.wrap(frame));
+        try {
+            in.readByte();
+            in.readString();
+            fail("Accepted 6-byte varint");
+        } catch (IOException e) {
+            assertEquals("Malformed varint", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package server.websocket.dto;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * JsonFramesTest - Hand-written JSON frames parse lại (Gson) đúng như input:
+ * escapes, control characters, non-ASCII, arrays, null, và frames bị cắt
+ */
+public class JsonFramesTest {
+
+    private static final String TRICKY = "say \"hi\" \\ path C:\\tmp\nline2\r\ttab \u0001\u001f end";
+    private static final String NON_ASCII = "Xin chào 👋 – đã nhận \u2028 ✓";
+
+    private static JsonObject parse(String json) {
+        return JsonParser.parseString(json).getAsJsonObject();
+    }
+
+    private static JsonObject data(String json) {
+        return parse(json).getAsJsonObject("data");
+    }
+
+    private static List<String> strings(JsonArray array) {
+        List<String> values = new ArrayList<>();
+        array.forEach(element -> values.add(element.getAsString()));
+        return values;
+    }
+
+    @Test
+    public void chatRoundTripsEscapesAndControlCharacters() {
+        JsonObject frame = parse(JsonFrames.chat("alice", TRICKY));
+        assertEquals("chat", frame.get("type").getAsString());
+        assertEquals("alice", frame.getAsJsonObject("data").get("sender").getAsString());
+        assertEquals(TRICKY, frame.getAsJsonObject("data").get("content").getAsString());
+        assertEquals(JsonFrames.timestamp().length(), frame.get("timestamp").getAsString().length());
+    }
+
+    @Test
+    public void controlCharactersAreUnicodeEscaped() {
+        String json = JsonFrames.system("\u0000\u0007\u001f");
+        assertTrue(json, json.contains("\\u0000\\u0007\\u001f"));
+        assertEquals("\u0000\u0007\u001f", data(json).get("message").getAsString());
+    }
+
+    @Test
+    public void nonAsciiIsPassedThroughUnchanged() {
+        String json = JsonFrames.privateMsg("bảo", "chloé", NON_ASCII);
+        assertTrue(json.contains(NON_ASCII));
+        JsonObject data = data(json);
+        assertEquals("bảo", data.get("sender").getAsString());
+        assertEquals("chloé", data.get("receiver").getAsString());
+        assertEquals(NON_ASCII, data.get("content").getAsString());
+    }
+
+    @Test
+    public void matchesGsonSerializationOfTheSameShape() {
+        WebSocketMessage msg = new WebSocketMessage("private_sent");
+        msg.put("receiver", "bob");
+        msg.put("content", TRICKY + NON_ASCII);
+        JsonObject expected = parse(msg.toJson());
+        JsonObject actual = parse(JsonFrames.privateSent("bob", TRICKY + NON_ASCII));
+        expected.remove("timestamp");
+        actual.remove("timestamp");
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void nullValueIsJsonNull() {
+        JsonObject data = data(JsonFrames.authSuccess("alice", null));
+        assertTrue(data.get("message").isJsonNull());
+        assertEquals("alice", data.get("username").getAsString());
+    }
+
+    @Test
+    public void arraysAndVersions() {
+        JsonObject data = data(JsonFrames.userList(Arrays.asList("a\"b", "ñ", "c\\d"), 42L));
+        assertEquals(Arrays.asList("a\"b", "ñ", "c\\d"), strings(data.getAsJsonArray("users")));
+        assertEquals(42L, data.get("version").getAsLong());
+
+        data = data(JsonFrames.typingUsers("lobby", Collections.emptyList()));
+        assertEquals("lobby", data.get("room").getAsString());
+        assertEquals(0, data.getAsJsonArray("users").size());
+
+        assertEquals(Long.MAX_VALUE, data(JsonFrames.pong(Long.MAX_VALUE)).get("timestamp").getAsLong());
+        assertEquals(7L, data(JsonFrames.userLeft("bob", 7L)).get("version").getAsLong());
+    }
+
+    @Test
+    public void longFrameDoesNotLeakIntoNextFrame() {
+        char[] big = new char[64 * 1024];
+        Arrays.fill(big, 'é');
+        String content = new String(big);
+        assertEquals(content, data(JsonFrames.chat("alice", content)).get("content").getAsString());
+
+        // Buffer của thread được thay sau frame lớn - frame tiếp theo bắt đầu sạch
+        String small = JsonFrames.error("oops");
+        assertEquals("oops", data(small).get("message").getAsString());
+        assertTrue(small.length() < 128);
+    }
+
+    @Test
+    public void truncatedFramesAreRejectedByTheParser() {
+        String json = JsonFrames.chat("alice", TRICKY);
+        for (int cut : new int[] {1, 2, json.length() / 2, json.length() - 1}) {
+            try {
+                WebSocketMessage.fromJson(json.substring(0, cut));
+                fail("Parsed truncated frame of " + cut + " chars");
+            } catch (JsonParseException e) {
+                // Server trả lời "Invalid format"
+            }
+        }
+    }
+
+    @Test
+    public void inboundMessageParsesTrickyContent() {
+        WebSocketMessage outbound = new WebSocketMessage("chat");
+        outbound.put("content", TRICKY + NON_ASCII);
+        WebSocketMessage inbound = WebSocketMessage.fromJson(outbound.toJson());
+        assertEquals("chat", inbound.getType());
+        assertEquals(TRICKY + NON_ASCII, inbound.getString("content"));
+    }
+}